@@ -228,6 +228,9 @@ const Home: React.FC = () => {
                   <option value={3}>3x3 (9 pieces)</option>
                   <option value={5}>5x5 (25 pieces)</option>
                   <option value={8}>8x8 (64 pieces)</option>
+                  <option value={20}>20x20 (400 pieces)</option>
+                  <option value={35}>35x35 (1,225 pieces)</option>
+                  <option value={50}>50x50 (2,500 pieces)</option>
                 </select>
               </div>
               
@@ -6,11 +6,13 @@ import {
   setSession,
   updatePiece,
   placePiece,
+  syncPieces,
   lockPiece,
   unlockPiece,
   addUser,
   removeUser,
   updateUserCursor,
+  hideUserCursor,
   setPuzzleComplete,
   setLoading,
   setError,
@@ -24,6 +26,10 @@ import JoinSession from './JoinSession'
 import Scoreboard from './Scoreboard'
 import { throttle } from '../utils/throttle'
 
+// One in this many messages carries its send time, for the server's latency measurements;
+// stamping every message would make each broadcast longer for little extra accuracy
+const LATENCY_SAMPLE = 16
+
 const PuzzleGame: React.FC = () => {
   const { sessionId } = useParams<{ sessionId: string }>()
   const navigate = useNavigate()
@@ -33,7 +39,9 @@ const PuzzleGame: React.FC = () => {
   const { currentUser } = useSelector((state: RootState) => state.user)
   
   const wsRef = useRef<WebSocket | null>(null)
+  const sentCountRef = useRef(0)
   const containerRef = useRef<HTMLDivElement>(null)
+  const boardViewRef = useRef<HTMLDivElement>(null)
   const [containerOffset, setContainerOffset] = useState({ x: 0, y: 0 })
   const [needsToJoin, setNeedsToJoin] = useState(false)
   const [showScoreboard, setShowScoreboard] = useState(false)
@@ -55,7 +63,10 @@ const PuzzleGame: React.FC = () => {
 
     return () => {
       if (wsRef.current) {
-        wsRef.current.close()
+        const ws = wsRef.current
+        // Detached first so closing it doesn't schedule a reconnect
+        wsRef.current = null
+        ws.close()
       }
     }
   }, [sessionId])
@@ -76,12 +87,13 @@ const PuzzleGame: React.FC = () => {
 
     // Update on window resize or scroll
     window.addEventListener('resize', updateContainerOffset)
-    window.addEventListener('scroll', updateContainerOffset)
+    // Capture so scrolling the board container also updates the offset
+    window.addEventListener('scroll', updateContainerOffset, true)
 
     return () => {
       cancelAnimationFrame(rafId)
       window.removeEventListener('resize', updateContainerOffset)
-      window.removeEventListener('scroll', updateContainerOffset)
+      window.removeEventListener('scroll', updateContainerOffset, true)
     }
   }, [session]) // Re-run when session data loads
 
@@ -101,20 +113,42 @@ const PuzzleGame: React.FC = () => {
     }
   }
 
-  const connectWebSocket = (userId: string) => {
+  // baseUrl is the ws(s)://host:port of the node serving the session; defaults to this origin.
+  // attempt counts handshakes refused in a row, such as by a server over capacity.
+  const connectWebSocket = (userId: string, baseUrl?: string, attempt = 0) => {
     const protocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:'
-    const wsUrl = `${protocol}//${window.location.host}/ws/puzzle/${sessionId}?userId=${userId}`
+    const base = baseUrl ?? `${protocol}//${window.location.host}`
+    // Large messages such as the full session state arrive deflated if the browser can inflate them
+    const compress = 'DecompressionStream' in window ? '&compress=deflate' : ''
+    const wsUrl = `${base}/ws/puzzle/${sessionId}?userId=${userId}${compress}`
     
     const ws = new WebSocket(wsUrl)
+    ws.binaryType = 'arraybuffer'
     wsRef.current = ws
+    let redirectUrl: string | undefined
+    let opened = false
+    // Inflating is asynchronous, so messages are chained to be handled in arrival order
+    let received: Promise<void> = Promise.resolve()
 
     ws.onopen = () => {
+      opened = true
       console.log('WebSocket connected')
+      reportViewport()
     }
 
     ws.onmessage = (event) => {
-      const message: WebSocketMessage = JSON.parse(event.data)
-      handleWebSocketMessage(message)
+      received = received
+        .then(() => typeof event.data === 'string' ? event.data : inflate(event.data))
+        .then((text) => {
+          const message: WebSocketMessage = JSON.parse(text)
+          if (message.type === MessageType.SESSION_REDIRECT) {
+            // Another server owns the session now; reconnect there once this socket closes
+            redirectUrl = message.data.url
+            return
+          }
+          handleWebSocketMessage(message)
+        })
+        .catch((error) => console.error('Failed to handle message:', error))
     }
 
     ws.onerror = (error) => {
@@ -122,11 +156,38 @@ const PuzzleGame: React.FC = () => {
       dispatch(setError('Connection error'))
     }
 
-    ws.onclose = () => {
+    ws.onclose = (event) => {
       console.log('WebSocket disconnected')
+      // 1012: the server handed the session off or is restarting
+      if (wsRef.current === ws && (redirectUrl !== undefined || event.code === 1012)) {
+        setTimeout(() => connectWebSocket(userId, redirectUrl ?? baseUrl), 250)
+      } else if (wsRef.current === ws && event.code === 4001) {
+        // 4001: timed out and removed from the session; join it again as a new player
+        rejoin(baseUrl)
+      } else if (wsRef.current === ws && !opened) {
+        // Refused handshake; back off from 1s up to 30s
+        setTimeout(() => connectWebSocket(userId, baseUrl, attempt + 1), Math.min(30000, 1000 * 2 ** attempt))
+      }
+    }
+  }
+
+  const rejoin = async (baseUrl?: string) => {
+    try {
+      const response = await axios.post(`/api/sessions/${sessionId}/join`, {
+        name: localStorage.getItem('userName')
+      })
+      localStorage.setItem('userId', response.data.id)
+      connectWebSocket(response.data.id, baseUrl)
+    } catch (err) {
+      dispatch(setError('Connection lost'))
     }
   }
 
+  const inflate = (data: ArrayBuffer): Promise<string> => {
+    const stream = new Blob([data]).stream().pipeThrough(new DecompressionStream('deflate'))
+    return new Response(stream).text()
+  }
+
   const handleWebSocketMessage = (message: WebSocketMessage) => {
     switch (message.type) {
       case MessageType.SESSION_STATE:
@@ -158,6 +219,10 @@ const PuzzleGame: React.FC = () => {
         }))
         break
         
+      case MessageType.PIECES_SYNC:
+        dispatch(syncPieces(message.data.pieces))
+        break
+        
       case MessageType.PIECE_LOCK:
         dispatch(lockPiece({
           pieceId: message.data.pieceId,
@@ -177,6 +242,10 @@ const PuzzleGame: React.FC = () => {
         }))
         break
         
+      case MessageType.PRESENCE_EXPIRED:
+        dispatch(hideUserCursor(message.data.userId))
+        break
+        
       case MessageType.PUZZLE_COMPLETE:
         dispatch(setPuzzleComplete())
         setShowScoreboard(true)
@@ -186,11 +255,32 @@ const PuzzleGame: React.FC = () => {
 
   const sendMessage = (type: MessageType, data: Record<string, any>) => {
     if (wsRef.current && wsRef.current.readyState === WebSocket.OPEN) {
-      const message: WebSocketMessage = { type, data }
+      sentCountRef.current++
+      const stamped = sentCountRef.current % LATENCY_SAMPLE === 0 ? { ...data, sentAt: Date.now() } : data
+      const message: WebSocketMessage = { type, data: stamped }
       wsRef.current.send(JSON.stringify(message))
     }
   }
 
+  // Tell the server which part of the board is visible so it only routes nearby updates
+  const reportViewport = () => {
+    const view = boardViewRef.current
+    if (!view) return
+    sendMessage(MessageType.VIEWPORT_UPDATE, {
+      x: view.scrollLeft,
+      y: view.scrollTop,
+      width: view.clientWidth,
+      height: view.clientHeight,
+    })
+  }
+
+  const throttledReportViewport = useMemo(() => throttle(reportViewport, 200), [])
+
+  useEffect(() => {
+    window.addEventListener('resize', throttledReportViewport)
+    return () => window.removeEventListener('resize', throttledReportViewport)
+  }, [throttledReportViewport])
+
   const handleCursorMove = useCallback((x: number, y: number) => {
     sendMessage(MessageType.CURSOR_MOVE, { x, y })
   }, [])
@@ -263,6 +353,12 @@ const PuzzleGame: React.FC = () => {
     return null
   }
 
+  // Large puzzles use a board bigger than the viewport, older sessions don't report one
+  const boardSize = {
+    width: session.boardWidth || 1200,
+    height: session.boardHeight || 800,
+  }
+
   return (
     <div className="min-h-screen flex">
       {/* Left sidebar for players */}
@@ -332,48 +428,56 @@ const PuzzleGame: React.FC = () => {
         )}
 
         <div
-          ref={containerRef}
-          className="relative bg-gradient-to-br from-gray-100 to-gray-200 rounded-2xl shadow-inner mx-auto"
-          style={{
-            width: '1200px',
-            height: '800px',
-            overflow: 'hidden',
-            boxShadow: 'inset 0 2px 10px rgba(0,0,0,0.1)',
-          }}
-          onMouseMove={throttledHandleMouseMove}
+          ref={boardViewRef}
+          className="mx-auto"
+          style={{ maxWidth: '1200px', maxHeight: '800px', overflow: 'auto' }}
+          onScroll={throttledReportViewport}
         >
-          {/* Puzzle area outline */}
           <div
-            className="absolute border-2 border-gray-400 rounded-lg"
+            ref={containerRef}
+            className="relative bg-gradient-to-br from-gray-100 to-gray-200 rounded-2xl shadow-inner"
             style={{
-              width: `${session.imageWidth}px`,
-              height: `${session.imageHeight}px`,
-              left: '50px',
-              top: '50px',
-              borderStyle: 'dashed',
-              opacity: 0.5,
+              width: `${boardSize.width}px`,
+              height: `${boardSize.height}px`,
+              overflow: 'hidden',
+              boxShadow: 'inset 0 2px 10px rgba(0,0,0,0.1)',
             }}
-          />
-
-          {/* Puzzle pieces */}
-          {session.pieces.map((piece) => (
-            <PuzzlePiece
-              key={piece.id}
-              piece={piece}
-              containerOffset={containerOffset}
-              onMove={handlePieceMove}
-              onLock={handlePieceLock}
-              onUnlock={handlePieceUnlock}
-              onRelease={handlePieceRelease}
-              isLocked={(piece.lockedBy !== null && piece.lockedBy !== currentUser.id) || isCompleted}
+            onMouseMove={throttledHandleMouseMove}
+          >
+            {/* Puzzle area outline */}
+            <div
+              className="absolute border-2 border-gray-400 rounded-lg"
+              style={{
+                width: `${session.imageWidth}px`,
+                height: `${session.imageHeight}px`,
+                left: '50px',
+                top: '50px',
+                borderStyle: 'dashed',
+                opacity: 0.5,
+              }}
             />
-          ))}
 
-          {/* User cursors */}
-          {Object.values(session.users).map((user) => {
-            if (user.id === currentUser.id) return null
-            return <UserCursor key={user.id} user={user} />
-          })}
+            {/* Puzzle pieces */}
+            {session.pieces.map((piece) => (
+              <PuzzlePiece
+                key={piece.id}
+                piece={piece}
+                containerOffset={containerOffset}
+                boardSize={boardSize}
+                onMove={handlePieceMove}
+                onLock={handlePieceLock}
+                onUnlock={handlePieceUnlock}
+                onRelease={handlePieceRelease}
+                isLocked={(piece.lockedBy !== 0 && piece.lockedBy !== currentUser.handle) || isCompleted}
+              />
+            ))}
+
+            {/* User cursors */}
+            {Object.values(session.users).map((user) => {
+              if (user.id === currentUser.id || user.cursorX === null) return null
+              return <UserCursor key={user.id} user={user} />
+            })}
+          </div>
         </div>
 
         {/* Thumbnail of complete image */}
@@ -4,6 +4,7 @@ import { PuzzlePiece as PuzzlePieceType } from '../types/types'
 interface PuzzlePieceProps {
   piece: PuzzlePieceType
   containerOffset: { x: number; y: number }
+  boardSize: { width: number; height: number }
   onMove: (pieceId: number, x: number, y: number) => void
   onLock: (pieceId: number) => void
   onUnlock: (pieceId: number) => void
@@ -14,6 +15,7 @@ interface PuzzlePieceProps {
 const PuzzlePiece: React.FC<PuzzlePieceProps> = ({
   piece,
   containerOffset,
+  boardSize,
   onMove,
   onLock,
   onUnlock,
@@ -93,9 +95,10 @@ const PuzzlePiece: React.FC<PuzzlePieceProps> = ({
         let newX = e.clientX - containerOffset.x - dragOffset.x
         let newY = e.clientY - containerOffset.y - dragOffset.y
         
-        // Constrain piece within container bounds
-        newX = Math.max(0, Math.min(newX, 1200 - piece.width))
-        newY = Math.max(0, Math.min(newY, 800 - piece.height))
+        // Constrain piece, tabs included, within container bounds
+        const overhang = piece.overhang || 0
+        newX = Math.max(overhang, Math.min(newX, boardSize.width - piece.width - overhang))
+        newY = Math.max(overhang, Math.min(newY, boardSize.height - piece.height - overhang))
         
         setCurrentPosition({ x: newX, y: newY })
         throttledMove(piece.id, newX, newY)
@@ -128,7 +131,7 @@ const PuzzlePiece: React.FC<PuzzlePieceProps> = ({
         document.removeEventListener('mouseup', handleMouseUp)
       }
     }
-  }, [isDragging, dragOffset, piece.id, piece.width, piece.height, currentPosition, containerOffset, throttledMove, onUnlock, onRelease])
+  }, [isDragging, dragOffset, piece.id, piece.width, piece.height, piece.overhang, currentPosition, containerOffset, boardSize, throttledMove, onUnlock, onRelease])
 
   const handleMouseDown = (e: React.MouseEvent) => {
     if (isLocked) return
@@ -151,29 +154,48 @@ const PuzzlePiece: React.FC<PuzzlePieceProps> = ({
   const displayX = isDragging ? currentPosition.x : piece.currentX
   const displayY = isDragging ? currentPosition.y : piece.currentY
 
+  // The image is padded by the overhang on every side for tabs, and transparent outside
+  // the piece's shape. Only the body takes the mouse, so a neighbour's tab doesn't get in
+  // the way of grabbing a piece.
+  const overhang = piece.overhang || 0
+
   const pieceStyle: React.CSSProperties = {
     position: 'absolute',
-    left: `${displayX}px`,
-    top: `${displayY}px`,
-    width: `${piece.width}px`,
-    height: `${piece.height}px`,
+    left: `${displayX - overhang}px`,
+    top: `${displayY - overhang}px`,
+    width: `${piece.width + 2 * overhang}px`,
+    height: `${piece.height + 2 * overhang}px`,
     backgroundImage: `url(${piece.imageUrl})`,
     backgroundSize: 'cover',
     backgroundPosition: 'center',
-    cursor: isLocked ? 'not-allowed' : isDragging ? 'grabbing' : 'grab',
+    pointerEvents: 'none',
     zIndex: isDragging ? 1000 : 10,
     opacity: 1,
     transition: isSnapping ? 'left 0.3s ease, top 0.3s ease' : 'none',
   }
 
+  const bodyStyle: React.CSSProperties = {
+    position: 'absolute',
+    left: `${overhang}px`,
+    top: `${overhang}px`,
+    width: `${piece.width}px`,
+    height: `${piece.height}px`,
+    pointerEvents: 'auto',
+    cursor: isLocked ? 'not-allowed' : isDragging ? 'grabbing' : 'grab',
+  }
+
   return (
     <div
       ref={pieceRef}
       className={`puzzle-piece ${piece.isPlaced ? 'placed' : ''} ${isLocked ? 'locked' : ''}`}
       style={pieceStyle}
-      onMouseDown={handleMouseDown}
     >
-      <div className="absolute inset-0 border border-gray-300 rounded-md pointer-events-none" />
+      <div style={bodyStyle} onMouseDown={handleMouseDown}>
+        {/* Pieces of sessions cut before jigsaw shapes are plain rectangles */}
+        {overhang === 0 && (
+          <div className="absolute inset-0 border border-gray-300 rounded-md pointer-events-none" />
+        )}
+      </div>
     </div>
   )
 }
@@ -7,11 +7,11 @@ interface ScoreboardProps {
 
 const Scoreboard: React.FC<ScoreboardProps> = ({ session }) => {
   // Calculate scores - count how many pieces each user placed correctly
-  const scores: { [userId: string]: { name: string; score: number; color: string } } = {}
+  const scores: { [handle: number]: { name: string; score: number; color: string } } = {}
   
-  // Initialize scores for all users
+  // Initialize scores for all users; pieces refer to them by handle
   Object.values(session.users).forEach(user => {
-    scores[user.id] = { name: user.name, score: 0, color: user.color }
+    scores[user.handle] = { name: user.name, score: 0, color: user.color }
   })
   
   // Count pieces placed by each user
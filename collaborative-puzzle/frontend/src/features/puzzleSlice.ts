@@ -15,6 +15,10 @@ const initialState: PuzzleState = {
   isCompleted: false,
 }
 
+// Messages refer to users by their handle; users are keyed by id
+const byHandle = (users: Record<string, User>, handle: number): User | undefined =>
+  Object.values(users).find(user => user.handle === handle)
+
 const puzzleSlice = createSlice({
   name: 'puzzle',
   initialState,
@@ -39,11 +43,24 @@ const puzzleSlice = createSlice({
           piece.currentX = action.payload.x
           piece.currentY = action.payload.y
           piece.isPlaced = true
-          piece.lockedBy = null
+          piece.lockedBy = 0
         }
       }
     },
-    lockPiece: (state, action: PayloadAction<{ pieceId: number; userId: string }>) => {
+    syncPieces: (state, action: PayloadAction<{ pieceId: number; x: number; y: number; lockedBy: number; placed: boolean }[]>) => {
+      if (state.session) {
+        action.payload.forEach(update => {
+          const piece = state.session!.pieces.find(p => p.id === update.pieceId)
+          if (piece) {
+            piece.currentX = update.x
+            piece.currentY = update.y
+            piece.lockedBy = update.lockedBy
+            piece.isPlaced = update.placed
+          }
+        })
+      }
+    },
+    lockPiece: (state, action: PayloadAction<{ pieceId: number; userId: number }>) => {
       if (state.session) {
         const piece = state.session.pieces.find(p => p.id === action.payload.pieceId)
         if (piece) {
@@ -55,7 +72,7 @@ const puzzleSlice = createSlice({
       if (state.session) {
         const piece = state.session.pieces.find(p => p.id === action.payload.pieceId)
         if (piece) {
-          piece.lockedBy = null
+          piece.lockedBy = 0
         }
       }
     },
@@ -64,21 +81,32 @@ const puzzleSlice = createSlice({
         state.session.users[action.payload.id] = action.payload
       }
     },
-    removeUser: (state, action: PayloadAction<string>) => {
+    removeUser: (state, action: PayloadAction<number>) => {
       if (state.session) {
-        delete state.session.users[action.payload]
+        const user = byHandle(state.session.users, action.payload)
+        if (user) {
+          delete state.session.users[user.id]
+        }
         // Unlock pieces locked by this user
         state.session.pieces.forEach(piece => {
           if (piece.lockedBy === action.payload) {
-            piece.lockedBy = null
+            piece.lockedBy = 0
           }
         })
       }
     },
-    updateUserCursor: (state, action: PayloadAction<{ userId: string; x: number; y: number }>) => {
-      if (state.session && state.session.users[action.payload.userId]) {
-        state.session.users[action.payload.userId].cursorX = action.payload.x
-        state.session.users[action.payload.userId].cursorY = action.payload.y
+    updateUserCursor: (state, action: PayloadAction<{ userId: number; x: number; y: number }>) => {
+      const user = state.session && byHandle(state.session.users, action.payload.userId)
+      if (user) {
+        user.cursorX = action.payload.x
+        user.cursorY = action.payload.y
+      }
+    },
+    hideUserCursor: (state, action: PayloadAction<number>) => {
+      const user = state.session && byHandle(state.session.users, action.payload)
+      if (user) {
+        user.cursorX = null
+        user.cursorY = null
       }
     },
     setPuzzleComplete: (state) => {
@@ -100,11 +128,13 @@ export const {
   setSession,
   updatePiece,
   placePiece,
+  syncPieces,
   lockPiece,
   unlockPiece,
   addUser,
   removeUser,
   updateUserCursor,
+  hideUserCursor,
   setPuzzleComplete,
   setLoading,
   setError,
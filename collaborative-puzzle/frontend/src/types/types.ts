@@ -1,9 +1,10 @@
 export interface User {
   id: string
+  handle: number // Refers to the user in messages and pieces, within the session
   name: string
   color: string
-  cursorX: number
-  cursorY: number
+  cursorX: number | null
+  cursorY: number | null
 }
 
 export interface PuzzlePiece {
@@ -16,10 +17,12 @@ export interface PuzzlePiece {
   correctY: number
   width: number
   height: number
+  edges: number
+  overhang: number
   imageUrl: string
   isPlaced: boolean
-  lockedBy: string | null
-  placedBy: string | null
+  lockedBy: number // User handle, 0 when free
+  placedBy: number // User handle, 0 when not placed
 }
 
 export interface PuzzleSession {
@@ -33,6 +36,8 @@ export interface PuzzleSession {
   completed: boolean
   imageWidth: number
   imageHeight: number
+  boardWidth?: number
+  boardHeight?: number
 }
 
 export interface WebSocketMessage {
@@ -50,5 +55,9 @@ export enum MessageType {
   PIECE_PLACED = 'PIECE_PLACED',
   CURSOR_MOVE = 'CURSOR_MOVE',
   PUZZLE_COMPLETE = 'PUZZLE_COMPLETE',
-  SESSION_STATE = 'SESSION_STATE'
+  SESSION_STATE = 'SESSION_STATE',
+  VIEWPORT_UPDATE = 'VIEWPORT_UPDATE',
+  PIECES_SYNC = 'PIECES_SYNC',
+  PRESENCE_EXPIRED = 'PRESENCE_EXPIRED',
+  SESSION_REDIRECT = 'SESSION_REDIRECT'
 }
\ No newline at end of file
@@ -1,12 +1,45 @@
-import { defineConfig } from 'vite'
+import { defineConfig, Plugin } from 'vite'
 import react from '@vitejs/plugin-react'
+import { readdirSync, readFileSync, statSync, writeFileSync } from 'fs'
+import { join, resolve } from 'path'
+import { brotliCompressSync, constants, gzipSync } from 'zlib'
+
+// Writes .br and .gz variants next to the built text files, for the server to send as is
+// to clients that accept them instead of compressing on every request
+const precompress = (): Plugin => {
+  let outDir = ''
+  return {
+    name: 'precompress',
+    apply: 'build',
+    configResolved(config) {
+      outDir = resolve(config.root, config.build.outDir)
+    },
+    closeBundle() {
+      const files = (dir: string): string[] => readdirSync(dir).flatMap(name => {
+        const path = join(dir, name)
+        return statSync(path).isDirectory() ? files(path) : [path]
+      })
+      for (const file of files(outDir)) {
+        const content = readFileSync(file)
+        // Small files aren't worth a second request's worth of headers
+        if (!/\.(html|js|css|svg|json|txt)$/.test(file) || content.length < 1024) continue
+        writeFileSync(`${file}.br`, brotliCompressSync(content, {
+          params: { [constants.BROTLI_PARAM_QUALITY]: constants.BROTLI_MAX_QUALITY },
+        }))
+        writeFileSync(`${file}.gz`, gzipSync(content, { level: 9 }))
+      }
+    },
+  }
+}
 
 export default defineConfig({
-  plugins: [react()],
+  plugins: [react(), precompress()],
   base: '/',
   build: {
     outDir: 'build',
     emptyOutDir: true,
+    // Names in here are content-hashed, which lets the server mark them immutable
+    assetsDir: 'assets',
   },
   server: {
     port: 3000,
@@ -21,4 +54,4 @@ export default defineConfig({
       },
     },
   },
-})
\ No newline at end of file
+})
@@ -0,0 +1,156 @@
+package com.puzzle.admission;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-wide admission control for new work.
+ *
+ * New sessions and joins are shed while the node is overloaded, so the players already
+ * connected keep a responsive game instead of everyone getting a slow one. The node counts
+ * as overloaded while the smoothed CPU usage, the image processing backlog or the backlog
+ * of requests waiting for a thread is above its threshold, or while {@link NodeLoad} puts it
+ * over capacity. New WebSocket connections are
+ * only refused over capacity. Shed requests are counted in {@code puzzle.admission.shed}
+ * by reason.
+ */
+@Component
+public class AdmissionController {
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("imageExecutor")
+    private Executor imageExecutor;
+
+    // Only with puzzle.threads.virtual, when Tomcat runs requests on this executor
+    @Autowired(required = false)
+    @Qualifier("requestExecutor")
+    private Executor requestExecutor;
+
+    @Autowired
+    private NodeLoad load;
+
+    @Value("${puzzle.admission.enabled:true}")
+    private boolean enabled;
+
+    // Fraction of the CPUs available to the JVM's host or container, 0 to 1
+    @Value("${puzzle.admission.max-cpu:0.9}")
+    private double maxCpu = 0.9;
+
+    // Image tasks waiting for a thread
+    @Value("${puzzle.admission.max-queue-depth:32}")
+    private int maxQueueDepth = 32;
+
+    // Requests waiting for a thread
+    @Value("${puzzle.admission.max-request-queue-depth:100}")
+    private int maxRequestQueueDepth = 100;
+
+    @Value("${puzzle.admission.retry-after:5}")
+    private int retryAfterSeconds = 5;
+
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final LongAdder cpuShed = new LongAdder();
+    private final LongAdder queueShed = new LongAdder();
+    private final LongAdder capacityShed = new LongAdder();
+
+    // Smoothed over a few samples so a single busy second doesn't shed anyone
+    private volatile double cpu;
+
+    @PostConstruct
+    public void registerMetrics() {
+        if (meterRegistry == null) {
+            return;
+        }
+        FunctionCounter.builder("puzzle.admission.shed", cpuShed, LongAdder::sum)
+                .description("New sessions, joins and connections refused because the node was overloaded")
+                .tag("reason", "cpu")
+                .register(meterRegistry);
+        FunctionCounter.builder("puzzle.admission.shed", queueShed, LongAdder::sum)
+                .description("New sessions, joins and connections refused because the node was overloaded")
+                .tag("reason", "queue")
+                .register(meterRegistry);
+        FunctionCounter.builder("puzzle.admission.shed", capacityShed, LongAdder::sum)
+                .description("New sessions, joins and connections refused because the node was overloaded")
+                .tag("reason", "capacity")
+                .register(meterRegistry);
+        Gauge.builder("puzzle.admission.cpu", this, controller -> controller.cpu)
+                .description("Smoothed CPU usage that admission decisions are based on")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${puzzle.admission.sample-interval:1000}")
+    public void sample() {
+        double load = cpuLoad();
+        if (load >= 0) {
+            cpu = cpu * 0.7 + load * 0.3;
+        }
+    }
+
+    // getCpuLoad() replaced getSystemCpuLoad() in Java 14, but the app still runs on Java 11
+    @SuppressWarnings("deprecation")
+    private double cpuLoad() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getSystemCpuLoad();
+        }
+        return -1;
+    }
+
+    /**
+     * Whether to take on a new session or player. Counts the request as shed if not.
+     */
+    public boolean admit() {
+        if (!enabled) {
+            return true;
+        }
+        if (load.isOverCapacity()) {
+            capacityShed.increment();
+            return false;
+        }
+        if (cpu > maxCpu) {
+            cpuShed.increment();
+            return false;
+        }
+        if (queueDepth(imageExecutor) > maxQueueDepth || queueDepth(requestExecutor) > maxRequestQueueDepth) {
+            queueShed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether to accept a new WebSocket connection. Counts the connection as shed if not.
+     */
+    public boolean admitConnection() {
+        if (enabled && load.isOverCapacity()) {
+            capacityShed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    // Virtual-thread executors start every task right away and have no queue
+    private static int queueDepth(Executor executor) {
+        return executor instanceof ThreadPoolExecutor
+                ? ((ThreadPoolExecutor) executor).getQueue().size()
+                : 0;
+    }
+}
@@ -0,0 +1,24 @@
+package com.puzzle.admission;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports {@code OUT_OF_SERVICE}, answered with 503, while the node is over capacity, so a
+ * load balancer checking {@code /healthz} sends new players elsewhere.
+ * Players already connected are unaffected.
+ */
+@Component
+public class CapacityHealthIndicator implements HealthIndicator {
+
+    @Autowired
+    private NodeLoad load;
+
+    @Override
+    public Health health() {
+        Health.Builder builder = load.isOverCapacity() ? Health.outOfService() : Health.up();
+        return builder.withDetails(load.getDetails()).build();
+    }
+}
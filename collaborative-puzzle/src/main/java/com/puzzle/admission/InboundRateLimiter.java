@@ -0,0 +1,118 @@
+package com.puzzle.admission;
+
+import com.puzzle.model.WebSocketMessage.MessageType;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-connection limits on inbound WebSocket messages.
+ *
+ * Each connection gets a {@link Budget} with one token bucket each for piece moves, cursor
+ * moves and viewport updates, which only carry positions that the next one supersedes, so
+ * the caller can hold back all but the latest one over the limit; every such message is
+ * counted in {@code puzzle.websocket.inbound.shed}. Locks, unlocks and releases are never
+ * limited: dropping one would leave a piece held or unplaced until its lease lapsed.
+ */
+@Component
+public class InboundRateLimiter {
+
+    private static final List<MessageType> LIMITED = List.of(
+            MessageType.PIECE_MOVE, MessageType.CURSOR_MOVE, MessageType.VIEWPORT_UPDATE);
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${puzzle.websocket.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    // Messages per second, and how many may arrive at once after a quiet spell
+    @Value("${puzzle.websocket.rate-limit.piece-move.rate:30}")
+    private double pieceMoveRate = 30;
+
+    @Value("${puzzle.websocket.rate-limit.piece-move.burst:15}")
+    private double pieceMoveBurst = 15;
+
+    @Value("${puzzle.websocket.rate-limit.cursor-move.rate:30}")
+    private double cursorMoveRate = 30;
+
+    @Value("${puzzle.websocket.rate-limit.cursor-move.burst:15}")
+    private double cursorMoveBurst = 15;
+
+    @Value("${puzzle.websocket.rate-limit.viewport.rate:20}")
+    private double viewportRate = 20;
+
+    @Value("${puzzle.websocket.rate-limit.viewport.burst:40}")
+    private double viewportBurst = 40;
+
+    private final Map<MessageType, LongAdder> shed = new EnumMap<>(MessageType.class);
+
+    public InboundRateLimiter() {
+        for (MessageType type : LIMITED) {
+            shed.put(type, new LongAdder());
+        }
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        if (meterRegistry == null) {
+            return;
+        }
+        for (MessageType type : LIMITED) {
+            FunctionCounter.builder("puzzle.websocket.inbound.shed", shed.get(type), LongAdder::sum)
+                    .description("Inbound WebSocket messages over a connection's rate limit")
+                    .tag("type", type.name())
+                    .register(meterRegistry);
+        }
+    }
+
+    public Budget newBudget() {
+        return new Budget();
+    }
+
+    /**
+     * Counts a message that was over its connection's limit.
+     */
+    public void shed(MessageType type) {
+        LongAdder counter = shed.get(type);
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * The token buckets of one connection.
+     */
+    public final class Budget {
+        private final TokenBucket pieceMoves = new TokenBucket(pieceMoveRate, pieceMoveBurst);
+        private final TokenBucket cursorMoves = new TokenBucket(cursorMoveRate, cursorMoveBurst);
+        private final TokenBucket viewports = new TokenBucket(viewportRate, viewportBurst);
+
+        private Budget() {
+        }
+
+        public boolean tryAcquire(MessageType type) {
+            if (!enabled) {
+                return true;
+            }
+            switch (type) {
+                case PIECE_MOVE:
+                    return pieceMoves.tryAcquire();
+                case CURSOR_MOVE:
+                    return cursorMoves.tryAcquire();
+                case VIEWPORT_UPDATE:
+                    return viewports.tryAcquire();
+                default:
+                    return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.puzzle.admission;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.websocket.PuzzleWebSocketHandler;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This node's load relative to its capacity.
+ *
+ * The score is the highest of four ratios, each of a live measure to the most this node is
+ * configured to take: puzzle sessions with connected players, open connections, bytes
+ * queued behind slow clients, and scheduling lag. The lag is how late a timer tick runs on
+ * a thread that does nothing else, so it grows with CPU starvation and GC pauses but not
+ * with a slow flush or ping round on the shared scheduler. A score of 1 or more means over
+ * capacity.
+ *
+ * In a cluster the score is published to {@code puzzle:cluster:load}, node id to score, so
+ * other nodes and external balancers can see every node's load; entries of nodes that are
+ * no longer in {@code puzzle:cluster:nodes} are stale.
+ */
+@Component
+public class NodeLoad {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeLoad.class);
+
+    private static final String LOAD_KEY = "puzzle:cluster:load";
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PuzzleWebSocketHandler webSocketHandler;
+
+    @Autowired
+    private ClusterMembership cluster;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Value("${puzzle.capacity.max-rooms:1000}")
+    private int maxRooms = 1000;
+
+    @Value("${puzzle.capacity.max-connections:10000}")
+    private int maxConnections = 10000;
+
+    @Value("${puzzle.capacity.max-buffered-bytes:67108864}")
+    private long maxBufferedBytes = 64L * 1024 * 1024;
+
+    @Value("${puzzle.capacity.max-lag:250}")
+    private long maxLag = 250;
+
+    @Value("${puzzle.capacity.lag-probe-interval:100}")
+    private long probeInterval = 100;
+
+    private volatile int rooms;
+    private volatile int connections;
+    private volatile long bufferedBytes;
+    // Smoothed like the admission CPU figure, so one slow tick doesn't count as overload
+    private volatile double lag;
+    private volatile double score;
+
+    private ScheduledExecutorService lagProbe;
+    // Only accessed on the lag probe's thread
+    private long lastProbe;
+
+    @PostConstruct
+    public void start() {
+        lagProbe = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lag-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lagProbe.scheduleWithFixedDelay(this::probe, probeInterval, probeInterval, TimeUnit.MILLISECONDS);
+        registerMetrics();
+    }
+
+    private void registerMetrics() {
+        if (meterRegistry == null) {
+            return;
+        }
+        Gauge.builder("puzzle.node.load", this, NodeLoad::getScore)
+                .description("Load relative to capacity, over capacity at 1")
+                .register(meterRegistry);
+        Gauge.builder("puzzle.node.lag", this, load -> load.lag)
+                .description("Smoothed ms a timer thread runs behind")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    void probe() {
+        long now = System.nanoTime();
+        if (lastProbe != 0) {
+            double late = Math.max(0, now - lastProbe - TimeUnit.MILLISECONDS.toNanos(probeInterval)) / 1e6;
+            // Weighted to decay as fast per second as the CPU figure does at one sample a second
+            double weight = 1 - Math.pow(0.7, probeInterval / 1000.0);
+            lag = lag * (1 - weight) + late * weight;
+        }
+        lastProbe = now;
+    }
+
+    @Scheduled(fixedDelayString = "${puzzle.capacity.sample-interval:1000}")
+    public void sample() {
+        rooms = webSocketHandler.getActiveRoomCount();
+        connections = webSocketHandler.getConnectionCount();
+        bufferedBytes = webSocketHandler.getBufferedBytes();
+        score = score(rooms, connections, bufferedBytes, lag);
+        publish();
+    }
+
+    double score(int rooms, int connections, long bufferedBytes, double lag) {
+        double score = (double) rooms / maxRooms;
+        score = Math.max(score, (double) connections / maxConnections);
+        score = Math.max(score, (double) bufferedBytes / maxBufferedBytes);
+        return Math.max(score, lag / maxLag);
+    }
+
+    private void publish() {
+        if (!cluster.isEnabled()) {
+            return;
+        }
+        try {
+            redisTemplate.opsForHash().put(LOAD_KEY, cluster.getNodeId(), String.format(Locale.ROOT, "%.3f", score));
+        } catch (RuntimeException e) {
+            log.debug("Failed to publish node load", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (lagProbe != null) {
+            lagProbe.shutdownNow();
+        }
+        unpublish();
+    }
+
+    private void unpublish() {
+        if (!cluster.isEnabled()) {
+            return;
+        }
+        try {
+            redisTemplate.opsForHash().delete(LOAD_KEY, cluster.getNodeId());
+        } catch (RuntimeException e) {
+            log.debug("Failed to remove node load", e);
+        }
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public boolean isOverCapacity() {
+        return score >= 1;
+    }
+
+    /**
+     * The measures behind the score, for the capacity health check.
+     */
+    public Map<String, Object> getDetails() {
+        return Map.of(
+                "score", Math.round(score * 1000) / 1000.0,
+                "rooms", rooms,
+                "connections", connections,
+                "bufferedBytes", bufferedBytes,
+                "lagMs", Math.round(lag));
+    }
+}
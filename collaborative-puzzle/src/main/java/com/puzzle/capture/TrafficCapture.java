@@ -0,0 +1,208 @@
+package com.puzzle.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * File format of recorded WebSocket traffic, written by {@link TrafficRecorder}.
+ *
+ * A gzip stream of a magic and version followed by records, each a kind byte, the
+ * nanoseconds since the recording started, and the kind's fields. A session's snapshot is
+ * recorded the first time a connection to it is, so a replay starts from the state the
+ * recorded clients saw.
+ */
+public final class TrafficCapture {
+
+    static final int MAGIC = 0x505A4354; // "PZCT"
+    static final int VERSION = 1;
+
+    public enum Kind {
+        SESSION,    // sessionId, snapshot
+        CONNECT,    // connectionId, sessionId, userId, userName, userColor
+        MESSAGE,    // connectionId, payload
+        DISCONNECT  // connectionId
+    }
+
+    public static final class Record {
+        final Kind kind;
+        final long offsetNanos;
+        final String connectionId;
+        final String sessionId;
+        final String userId;
+        final String userName;
+        final String userColor;
+        final String payload;
+        final byte[] snapshot;
+
+        Record(Kind kind, long offsetNanos, String connectionId, String sessionId, String userId,
+               String userName, String userColor, String payload, byte[] snapshot) {
+            this.kind = kind;
+            this.offsetNanos = offsetNanos;
+            this.connectionId = connectionId;
+            this.sessionId = sessionId;
+            this.userId = userId;
+            this.userName = userName;
+            this.userColor = userColor;
+            this.payload = payload;
+            this.snapshot = snapshot;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public long getOffsetNanos() {
+            return offsetNanos;
+        }
+
+        public String getConnectionId() {
+            return connectionId;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getUserName() {
+            return userName;
+        }
+
+        public String getUserColor() {
+            return userColor;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        public byte[] getSnapshot() {
+            return snapshot;
+        }
+    }
+
+    /**
+     * Reads a capture file one record at a time.
+     */
+    public static final class Reader implements AutoCloseable {
+        private final DataInputStream in;
+
+        public Reader(Path file) throws IOException {
+            InputStream stream = Files.newInputStream(file);
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream, 64 * 1024)));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException(file + " is not a traffic capture");
+            }
+            int version = in.readUnsignedByte();
+            if (version > VERSION) {
+                in.close();
+                throw new IOException("Unsupported traffic capture version " + version);
+            }
+        }
+
+        /**
+         * Returns the next record, or null at the end of the capture. A capture cut short
+         * by a crash ends at its last complete record.
+         */
+        public Record next() throws IOException {
+            int kind;
+            try {
+                kind = in.read();
+                if (kind < 0) {
+                    return null;
+                }
+                long offset = in.readLong();
+                switch (Kind.values()[kind]) {
+                    case SESSION:
+                        return new Record(Kind.SESSION, offset, null, string(in), null, null, null, null, bytes(in));
+                    case CONNECT:
+                        return new Record(Kind.CONNECT, offset, string(in), string(in), string(in), string(in), string(in), null, null);
+                    case MESSAGE:
+                        return new Record(Kind.MESSAGE, offset, string(in), null, null, null, null, string(in), null);
+                    default:
+                        return new Record(Kind.DISCONNECT, offset, string(in), null, null, null, null, null, null);
+                }
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private TrafficCapture() {
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    static void write(DataOutputStream out, Record record) throws IOException {
+        out.writeByte(record.kind.ordinal());
+        out.writeLong(record.offsetNanos);
+        switch (record.kind) {
+            case SESSION:
+                string(out, record.sessionId);
+                bytes(out, record.snapshot);
+                break;
+            case CONNECT:
+                string(out, record.connectionId);
+                string(out, record.sessionId);
+                string(out, record.userId);
+                string(out, record.userName);
+                string(out, record.userColor);
+                break;
+            case MESSAGE:
+                string(out, record.connectionId);
+                string(out, record.payload);
+                break;
+            default:
+                string(out, record.connectionId);
+        }
+    }
+
+    // Strings are length-prefixed UTF-8, with -1 for null
+    private static void string(DataOutputStream out, String value) throws IOException {
+        bytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static void bytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static String string(DataInputStream in) throws IOException {
+        byte[] bytes = bytes(in);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[] bytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
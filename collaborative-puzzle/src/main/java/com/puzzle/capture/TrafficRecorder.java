@@ -0,0 +1,156 @@
+package com.puzzle.capture;
+
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.repository.PuzzleSessionCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records inbound WebSocket traffic with its timing, for replay against other builds.
+ *
+ * With {@code puzzle.capture.enabled=true}, every connect, client message and disconnect
+ * seen by {@code PuzzleWebSocketHandler} is queued and written to a new gzip file in
+ * {@code puzzle.capture.directory} by a background thread, so message handling never waits
+ * on the disk. When the queue is full records are dropped and counted rather than slowing
+ * the game down; a capture with drops is logged as incomplete.
+ */
+@Component
+public class TrafficRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(TrafficRecorder.class);
+
+    private static final TrafficCapture.Record END = new TrafficCapture.Record(
+            TrafficCapture.Kind.DISCONNECT, 0, null, null, null, null, null, null, null);
+
+    @Value("${puzzle.capture.enabled:false}")
+    private volatile boolean enabled;
+
+    @Value("${puzzle.capture.directory:capture}")
+    private String directory = "capture";
+
+    @Value("${puzzle.capture.queue-size:65536}")
+    private int queueSize = 65536;
+
+    private final Set<String> recordedSessions = ConcurrentHashMap.newKeySet();
+    private final LongAdder dropped = new LongAdder();
+
+    private BlockingQueue<TrafficCapture.Record> queue;
+    private Thread writer;
+    private Path file;
+    private long start;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        file = dir.resolve("traffic-" + System.currentTimeMillis() + ".cap.gz");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(file), 64 * 1024), 64 * 1024));
+        TrafficCapture.writeHeader(out);
+
+        start = System.nanoTime();
+        queue = new ArrayBlockingQueue<>(queueSize);
+        writer = new Thread(() -> drain(out), "traffic-recorder");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Recording WebSocket traffic to {}", file);
+    }
+
+    /**
+     * A client connected. The session is snapshotted the first time one of its
+     * connections is recorded; the caller must not hold the session's lock.
+     */
+    public void connected(String connectionId, String sessionId, String userId, PuzzleSession session) {
+        if (!enabled) {
+            return;
+        }
+        if (session != null && recordedSessions.add(sessionId)) {
+            byte[] snapshot;
+            synchronized (session) {
+                snapshot = PuzzleSessionCodec.encode(session);
+            }
+            offer(new TrafficCapture.Record(TrafficCapture.Kind.SESSION, offset(), null, sessionId,
+                    null, null, null, null, snapshot));
+        }
+        // Users join over REST before connecting, so the connect carries what a replay needs to re-add them
+        User user = session != null && userId != null ? session.getUsers().get(userId) : null;
+        offer(new TrafficCapture.Record(TrafficCapture.Kind.CONNECT, offset(), connectionId, sessionId, userId,
+                user != null ? user.getName() : null, user != null ? user.getColor() : null, null, null));
+    }
+
+    public void received(String connectionId, String payload) {
+        if (enabled) {
+            offer(new TrafficCapture.Record(TrafficCapture.Kind.MESSAGE, offset(), connectionId,
+                    null, null, null, null, payload, null));
+        }
+    }
+
+    public void disconnected(String connectionId) {
+        if (enabled) {
+            offer(new TrafficCapture.Record(TrafficCapture.Kind.DISCONNECT, offset(), connectionId,
+                    null, null, null, null, null, null));
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        // Waits for the queued records, so the file ends on a complete gzip trailer
+        queue.put(END);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        if (dropped.sum() > 0) {
+            log.warn("Traffic capture {} is incomplete, {} records were dropped", file, dropped.sum());
+        }
+    }
+
+    private long offset() {
+        return System.nanoTime() - start;
+    }
+
+    private void offer(TrafficCapture.Record record) {
+        if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain(DataOutputStream out) {
+        try (DataOutputStream closing = out) {
+            while (true) {
+                TrafficCapture.Record record = queue.take();
+                if (record == END) {
+                    return;
+                }
+                TrafficCapture.write(closing, record);
+            }
+        } catch (IOException e) {
+            enabled = false;
+            log.error("Traffic capture to {} failed, recording stopped", file, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
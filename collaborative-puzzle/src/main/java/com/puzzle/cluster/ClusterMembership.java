@@ -0,0 +1,290 @@
+package com.puzzle.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Cluster membership and session ownership.
+ *
+ * With {@code puzzle.cluster.enabled=true}, every puzzle session is owned by exactly one
+ * node, chosen by a {@link HashRing} over the live nodes, and only the owner keeps it in
+ * memory and applies changes to it. Nodes heartbeat into a Redis sorted set and are dropped
+ * from the ring when their heartbeat is older than {@code node-ttl}; joins and graceful
+ * leaves are also announced on a pub/sub channel so the other nodes update their ring right
+ * away. Listeners are told about every new ring so sessions can be handed off.
+ *
+ * The node joins once the web server is up and leaves before it stops, so its sessions
+ * are handed off while their clients are still connected and can be redirected.
+ *
+ * Requests one node forwards to another carry the sender's node id and the cluster's
+ * shared {@code secret}, so that only members of the cluster can have a node serve a session
+ * it does not own.
+ *
+ * When disabled, this node owns every session.
+ */
+@Component
+public class ClusterMembership implements MessageListener, SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterMembership.class);
+
+    // Node id to epoch millis of its last heartbeat
+    private static final String NODES_KEY = "puzzle:cluster:nodes";
+    // Node id to the URL clients and other nodes reach it at
+    private static final String URLS_KEY = "puzzle:cluster:urls";
+    private static final ChannelTopic TOPIC = new ChannelTopic("puzzle:cluster");
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    @Value("${puzzle.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${puzzle.cluster.node-id:}")
+    private String nodeId = "";
+
+    // Base HTTP URL of this node, e.g. http://10.0.0.5:8080
+    @Value("${puzzle.cluster.advertise-url:}")
+    private String advertiseUrl = "";
+
+    @Value("${server.port:8080}")
+    private int serverPort = 8080;
+
+    @Value("${puzzle.cluster.virtual-nodes:128}")
+    private int virtualNodes = 128;
+
+    // Shared by every node, proves a forwarded request comes from one of them
+    @Value("${puzzle.cluster.secret:}")
+    private String secret = "";
+
+    // Nodes without a heartbeat for this long are considered gone
+    @Value("${puzzle.cluster.node-ttl:6000}")
+    private long nodeTtl = 6000;
+
+    private final List<Consumer<HashRing>> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile HashRing ring;
+    private volatile Map<String, String> urls = Map.of();
+    private RedisMessageListenerContainer container;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        if (nodeId.isEmpty()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        if (advertiseUrl.isEmpty()) {
+            advertiseUrl = "http://" + hostName() + ":" + serverPort;
+        }
+        ring = new HashRing(List.of(nodeId), virtualNodes);
+        urls = Map.of(nodeId, advertiseUrl);
+        if (enabled && secret.isEmpty()) {
+            throw new IllegalStateException("puzzle.cluster.secret must be set when the cluster is enabled");
+        }
+        if (enabled) {
+            // Start out with the nodes already up, so that what this node recovers on startup,
+            // before it joins, is only taken up if this node is to own it
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                log.warn("Failed to read the cluster membership, alone until the first heartbeat", e);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(this, TOPIC);
+        container.afterPropertiesSet();
+        container.start();
+        try {
+            heartbeat();
+            redisTemplate.convertAndSend(TOPIC.getTopic(), nodeId);
+        } catch (RuntimeException e) {
+            log.warn("Failed to join the cluster, retrying on the next heartbeat", e);
+        }
+        log.info("Node {} joined the cluster at {}", nodeId, advertiseUrl);
+    }
+
+    /**
+     * Hands this node's sessions to the remaining nodes and leaves the ring.
+     */
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        Set<String> remaining = new TreeSet<>(ring.getNodes());
+        remaining.remove(nodeId);
+        if (!remaining.isEmpty()) {
+            update(remaining, urls);
+        }
+        try {
+            redisTemplate.opsForZSet().remove(NODES_KEY, nodeId);
+            redisTemplate.opsForHash().delete(URLS_KEY, nodeId);
+            redisTemplate.convertAndSend(TOPIC.getTopic(), nodeId);
+        } catch (RuntimeException e) {
+            log.warn("Failed to leave the cluster, other nodes drop this one after {} ms", nodeTtl, e);
+        }
+        try {
+            container.destroy();
+        } catch (Exception e) {
+            log.debug("Failed to stop the cluster listener", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Stops before the web server (Integer.MAX_VALUE - 1) closes the client connections
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    public void addListener(Consumer<HashRing> listener) {
+        listeners.add(listener);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Whether this node owns the session and may keep it in memory and change it.
+     */
+    public boolean isLocal(String sessionId) {
+        return !enabled || nodeId.equals(ring.ownerOf(sessionId));
+    }
+
+    /**
+     * Base HTTP URL of the node that owns the session.
+     */
+    public String ownerUrl(String sessionId) {
+        if (!enabled) {
+            return advertiseUrl;
+        }
+        String url = urls.get(ring.ownerOf(sessionId));
+        return url != null ? url : advertiseUrl;
+    }
+
+    /**
+     * Secret to send along with requests forwarded to another node.
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * Whether a request forwarded by {@code fromNode} with {@code secret} comes from a member
+     * of this cluster, which has found this node to be the session's owner.
+     */
+    public boolean isForwardedByMember(String fromNode, String secret) {
+        if (!enabled || fromNode == null || secret == null) {
+            return false;
+        }
+        boolean member = ring.getNodes().contains(fromNode) || urls.containsKey(fromNode);
+        return member && MessageDigest.isEqual(
+                this.secret.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String ownerId(String sessionId) {
+        return enabled ? ring.ownerOf(sessionId) : nodeId;
+    }
+
+    @Scheduled(fixedDelayString = "${puzzle.cluster.heartbeat-interval:2000}")
+    public void heartbeat() {
+        if (!running) {
+            return;
+        }
+        redisTemplate.opsForHash().put(URLS_KEY, nodeId, advertiseUrl);
+        redisTemplate.opsForZSet().add(NODES_KEY, nodeId, System.currentTimeMillis());
+        refresh();
+    }
+
+    /**
+     * Another node joined or left.
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!running) {
+            return;
+        }
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh cluster membership", e);
+        }
+    }
+
+    private synchronized void refresh() {
+        long now = System.currentTimeMillis();
+        redisTemplate.opsForZSet().removeRangeByScore(NODES_KEY, 0, now - nodeTtl);
+        Set<String> alive = new TreeSet<>(redisTemplate.opsForZSet().rangeByScore(NODES_KEY, now - nodeTtl, Double.MAX_VALUE));
+        alive.add(nodeId);
+        Map<String, String> latestUrls = new HashMap<>();
+        redisTemplate.opsForHash().entries(URLS_KEY).forEach((id, url) -> latestUrls.put((String) id, (String) url));
+        latestUrls.put(nodeId, advertiseUrl);
+        update(alive, latestUrls);
+    }
+
+    private synchronized void update(Set<String> alive, Map<String, String> latestUrls) {
+        urls = Map.copyOf(latestUrls);
+        if (alive.equals(ring.getNodes())) {
+            return;
+        }
+        log.info("Cluster membership changed from {} to {}", ring.getNodes(), alive);
+        ring = new HashRing(alive, virtualNodes);
+        for (Consumer<HashRing> listener : listeners) {
+            listener.accept(ring);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.puzzle.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable consistent-hash ring mapping session ids to node ids.
+ *
+ * Each node is placed on the ring at several points (virtual nodes), which evens out the
+ * share of sessions per node; when a node joins or leaves, only the sessions between its
+ * points and their predecessors change owner.
+ */
+public final class HashRing {
+
+    private final NavigableMap<Long, String> points;
+    private final Set<String> nodes;
+
+    public HashRing(Collection<String> nodeIds, int virtualNodes) {
+        NavigableMap<Long, String> ring = new TreeMap<>();
+        for (String nodeId : nodeIds) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // Ties are broken by node id, so every node builds the same ring
+                ring.merge(hash(nodeId + "#" + i), nodeId, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        this.points = Collections.unmodifiableNavigableMap(ring);
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodeIds));
+    }
+
+    /**
+     * Returns the id of the node that owns the key, or null if the ring is empty.
+     */
+    public String ownerOf(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    // 64-bit FNV-1a, finished with the MurmurHash3 mixer to spread similar keys apart
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
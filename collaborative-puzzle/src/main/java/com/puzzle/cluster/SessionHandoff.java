@@ -0,0 +1,71 @@
+package com.puzzle.cluster;
+
+import com.puzzle.service.LiveSessionCache;
+import com.puzzle.websocket.PuzzleWebSocketHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Moves resident sessions to their new owner whenever cluster membership changes.
+ *
+ * Each session this node no longer owns is written back to the store and dropped from
+ * memory, and its clients are redirected to the owner, which loads it on their first
+ * connection. The write-back is retried until it succeeds, as clients redirected before it
+ * would play on an older copy. Sessions owned by a node that has just joined may see a change applied by
+ * both nodes while the new ring propagates; the next heartbeat closes that window.
+ */
+@Component
+public class SessionHandoff {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionHandoff.class);
+
+    private static final long RETRY_INITIAL_BACKOFF = 100;
+    private static final long RETRY_MAX_BACKOFF = 5000;
+
+    @Autowired
+    private ClusterMembership cluster;
+
+    @Autowired
+    private LiveSessionCache liveSessions;
+
+    @Autowired
+    private PuzzleWebSocketHandler handler;
+
+    @PostConstruct
+    public void registerListener() {
+        cluster.addListener(this::rebalance);
+    }
+
+    void rebalance(HashRing ring) {
+        int moved = 0;
+        for (String sessionId : liveSessions.residentIds()) {
+            if (cluster.isLocal(sessionId)) {
+                continue;
+            }
+            handler.handOff(sessionId, cluster.ownerUrl(sessionId), () -> release(sessionId));
+            moved++;
+        }
+        if (moved > 0) {
+            log.info("Handed off {} sessions to nodes {}", moved, ring.getNodes());
+        }
+    }
+
+    private void release(String sessionId) {
+        long backoff = RETRY_INITIAL_BACKOFF;
+        while (!liveSessions.release(sessionId)) {
+            log.warn("Failed to write back session {} before handing it off, retrying in {} ms", sessionId, backoff);
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                // Still resident, and never written back by this node again
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, RETRY_MAX_BACKOFF);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.puzzle.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread model for request handling, image processing and WebSocket work.
+ *
+ * With {@code puzzle.threads.virtual=true}, Tomcat runs servlet requests and WebSocket
+ * messages on virtual threads, so handlers blocked on Redis don't hold a platform thread,
+ * and image processing runs one virtual thread per task. Virtual threads need a Java 21
+ * runtime; the build targets Java 11, so they are looked up reflectively and the mode falls
+ * back to platform threads with a warning on older runtimes. The fallback request pool has
+ * a bounded queue: past it Tomcat refuses connections, and {@code AdmissionController}
+ * sheds new sessions and joins well before that.
+ */
+@Configuration
+public class ExecutionConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ExecutionConfig.class);
+
+    @Value("${puzzle.threads.virtual:false}")
+    private boolean virtualThreads;
+
+    @Value("${puzzle.threads.request-queue-size:1000}")
+    private int requestQueueSize = 1000;
+
+    /**
+     * Executor for CPU-heavy image work such as cutting puzzle pieces.
+     */
+    @Bean
+    public ExecutorService imageExecutor() {
+        if (virtualThreads) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor("image-");
+            if (executor != null) {
+                return executor;
+            }
+        }
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), namedThreads("image-"));
+    }
+
+    /**
+     * Executor for WebSocket work not driven by a client's own message, such as applying the
+     * position updates rate limiting held back, so their sends don't block the scheduler.
+     */
+    @Bean
+    public ExecutorService websocketExecutor() {
+        if (virtualThreads) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor("websocket-");
+            if (executor != null) {
+                return executor;
+            }
+        }
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), namedThreads("websocket-"));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "puzzle.threads.virtual", havingValue = "true")
+    public ExecutorService requestExecutor() {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor("request-");
+        if (executor == null) {
+            // Same size as Tomcat's default worker pool; rejected work makes Tomcat close the connection
+            return new ThreadPoolExecutor(200, 200, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(requestQueueSize), namedThreads("request-"), new ThreadPoolExecutor.AbortPolicy());
+        }
+        return executor;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "puzzle.threads.virtual", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer(ExecutorService requestExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(requestExecutor);
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per task, or null when the runtime
+     * has no virtual threads.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory factory = (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Either a pre-21 runtime or virtual threads still behind --enable-preview
+            log.warn("Virtual threads are not available on Java {}, using platform threads",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    private static ThreadFactory namedThreads(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
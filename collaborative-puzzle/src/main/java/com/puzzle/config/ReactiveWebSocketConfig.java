@@ -0,0 +1,71 @@
+package com.puzzle.config;
+
+import com.puzzle.admission.AdmissionController;
+import com.puzzle.websocket.ReactivePuzzleWebSocketHandler;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ServletHttpHandlerAdapter;
+import org.springframework.web.reactive.socket.server.support.HandshakeWebSocketService;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+
+/**
+ * Serves {@code /ws/puzzle/{sessionId}} with the reactive WebSocket handler instead of the
+ * servlet one. The reactive handler runs on the same embedded Tomcat through a
+ * {@link ServletHttpHandlerAdapter}, so REST endpoints and static content are unaffected.
+ * Enabled with the {@code reactive-ws} profile.
+ */
+@Configuration
+@Profile("reactive-ws")
+public class ReactiveWebSocketConfig {
+    
+    @Bean
+    public ReactiveRedisTemplate<String, byte[]> reactiveSessionRedisTemplate(ReactiveRedisConnectionFactory connectionFactory) {
+        RedisSerializationContext<String, byte[]> context = RedisSerializationContext
+                .<String, byte[]>newSerializationContext(RedisSerializer.string())
+                .value(RedisSerializer.byteArray())
+                .hashValue(RedisSerializer.byteArray())
+                .build();
+        return new ReactiveRedisTemplate<>(connectionFactory, context);
+    }
+    
+    @Bean
+    public HandshakeWebSocketService reactiveWebSocketService() {
+        return new HandshakeWebSocketService();
+    }
+    
+    @Bean
+    public ServletRegistrationBean<ServletHttpHandlerAdapter> reactiveWebSocketServlet(
+            HandshakeWebSocketService webSocketService, ReactivePuzzleWebSocketHandler handler,
+            AdmissionController admission) {
+        // Paths are relative to the servlet mapping
+        HttpHandler httpHandler = WebHttpHandlerBuilder.webHandler(exchange -> {
+            if (!exchange.getRequest().getPath().pathWithinApplication().value().startsWith("/puzzle/")) {
+                exchange.getResponse().setStatusCode(HttpStatus.NOT_FOUND);
+                return exchange.getResponse().setComplete();
+            }
+            // Over capacity; clients reconnect with backoff
+            if (!admission.admitConnection()) {
+                exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER,
+                        String.valueOf(admission.getRetryAfterSeconds()));
+                return exchange.getResponse().setComplete();
+            }
+            return webSocketService.handleRequest(exchange, handler);
+        }).build();
+        
+        ServletRegistrationBean<ServletHttpHandlerAdapter> registration =
+                new ServletRegistrationBean<>(new ServletHttpHandlerAdapter(httpHandler), "/ws/*");
+        registration.setAsyncSupported(true);
+        registration.setLoadOnStartup(1);
+        return registration;
+    }
+}
@@ -1,39 +1,56 @@
 package com.puzzle.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.CollectionType;
-import com.fasterxml.jackson.databind.type.MapType;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.TimeoutOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.LettuceClientConfigurationBuilderCustomizer;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
-import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 @Configuration
 public class RedisConfig {
     
+    @Value("${puzzle.redis.request-queue-size:10000}")
+    private int requestQueueSize;
+    
+    /**
+     * Makes Redis calls fail fast: commands time out after {@code spring.redis.timeout}, and
+     * while disconnected or backed up they are rejected instead of buffered without bound.
+     */
+    @Bean
+    public LettuceClientConfigurationBuilderCustomizer lettuceClientCustomizer(RedisProperties properties) {
+        SocketOptions.Builder socketOptions = SocketOptions.builder();
+        if (properties.getConnectTimeout() != null) {
+            socketOptions.connectTimeout(properties.getConnectTimeout());
+        }
+        ClientOptions clientOptions = ClientOptions.builder()
+                .socketOptions(socketOptions.build())
+                .timeoutOptions(TimeoutOptions.enabled())
+                .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+                .requestQueueSize(requestQueueSize)
+                .build();
+        return builder -> builder.clientOptions(clientOptions);
+    }
+    
     @Bean
-    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
-        RedisTemplate<String, Object> template = new RedisTemplate<>();
+    public RedisTemplate<String, byte[]> sessionRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
         
         // Use String serializer for keys
         template.setKeySerializer(new StringRedisSerializer());
-        template.setHashKeySerializer(new StringRedisSerializer());
         
-        // Use Jackson JSON serializer for values with JSR310 module
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.registerModule(new JavaTimeModule());
-        mapper.findAndRegisterModules();
-        mapper.activateDefaultTyping(mapper.getPolymorphicTypeValidator(), 
-                ObjectMapper.DefaultTyping.NON_FINAL);
-        GenericJackson2JsonRedisSerializer jsonSerializer = new GenericJackson2JsonRedisSerializer(mapper);
-        template.setValueSerializer(jsonSerializer);
-        template.setHashValueSerializer(jsonSerializer);
+        // Values are already encoded by PuzzleSessionCodec, store them as is
+        template.setValueSerializer(RedisSerializer.byteArray());
         
         template.afterPropertiesSet();
         return template;
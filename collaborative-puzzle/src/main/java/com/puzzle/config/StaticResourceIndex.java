@@ -0,0 +1,202 @@
+package com.puzzle.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.resource.HttpResource;
+import org.springframework.web.servlet.resource.ResourceResolver;
+import org.springframework.web.servlet.resource.ResourceResolverChain;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the bundled frontend from an index of its files built once at startup, so an asset
+ * or the single-page app fallback costs a map lookup rather than classpath checks.
+ *
+ * The frontend build writes assets under {@code assets/} with content-hashed names, so they
+ * are cached as immutable; everything else, index.html included, is revalidated on each use.
+ * Where the build left a {@code .br} or {@code .gz} next to a file, clients that accept it
+ * get that instead. Paths outside {@code assets/} that match no file are client-side routes
+ * and get index.html. A missing asset is a 404, so a page from an older build never caches
+ * HTML under a script's name.
+ */
+class StaticResourceIndex implements ResourceResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticResourceIndex.class);
+
+    private static final String ASSETS = "assets/";
+    private static final String INDEX = "index.html";
+
+    // CacheControl only has the immutable directive from Spring 6
+    private static final String IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().getHeaderValue() + ", immutable";
+    private static final String REVALIDATE = CacheControl.noCache().getHeaderValue();
+
+    // Relative path to the file and its precompressed variants
+    private final Map<String, StaticFile> files = new HashMap<>();
+
+    StaticResourceIndex(String location) throws IOException {
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        Resource root = resolver.getResource(location);
+        if (!root.exists()) {
+            // Built without the frontend, e.g. in tests
+            log.info("No static resources at {}", location);
+            return;
+        }
+        String rootUrl = root.getURL().toExternalForm();
+        Map<String, Resource> found = new HashMap<>();
+        for (Resource resource : resolver.getResources(location + "**")) {
+            String path = resource.getURL().toExternalForm().substring(rootUrl.length());
+            if (!path.isEmpty() && !path.endsWith("/") && resource.isReadable()) {
+                found.put(path, resource);
+            }
+        }
+        for (Map.Entry<String, Resource> file : found.entrySet()) {
+            String path = file.getKey();
+            files.put(path, new StaticFile(file.getValue(), found.get(path + ".br"), found.get(path + ".gz"),
+                    path.startsWith(ASSETS) ? IMMUTABLE : REVALIDATE));
+        }
+        log.info("Indexed {} static resources at {}", files.size(), location);
+    }
+
+    @Override
+    public Resource resolveResource(HttpServletRequest request, String requestPath,
+                                    List<? extends Resource> locations, ResourceResolverChain chain) {
+        StaticFile file = files.get(requestPath);
+        if (file == null && !requestPath.startsWith(ASSETS)) {
+            file = files.get(INDEX);
+        }
+        return file != null ? file.select(request) : null;
+    }
+
+    @Override
+    public String resolveUrlPath(String resourcePath, List<? extends Resource> locations, ResourceResolverChain chain) {
+        return files.containsKey(resourcePath) ? resourcePath : null;
+    }
+
+    private static final class StaticFile {
+        final IndexedResource identity;
+        final IndexedResource brotli;
+        final IndexedResource gzip;
+
+        StaticFile(Resource resource, Resource brotli, Resource gzip, String cacheControl) throws IOException {
+            boolean varies = brotli != null || gzip != null;
+            this.identity = new IndexedResource(resource, resource, null, cacheControl, varies);
+            this.brotli = brotli != null ? new IndexedResource(brotli, resource, "br", cacheControl, true) : null;
+            this.gzip = gzip != null ? new IndexedResource(gzip, resource, "gzip", cacheControl, true) : null;
+        }
+
+        Resource select(HttpServletRequest request) {
+            if (brotli == null && gzip == null) {
+                return identity;
+            }
+            String accepted = request != null ? request.getHeader(HttpHeaders.ACCEPT_ENCODING) : null;
+            if (accepted == null) {
+                return identity;
+            }
+            accepted = accepted.toLowerCase(Locale.ROOT);
+            if (brotli != null && accepted.contains("br")) {
+                return brotli;
+            }
+            if (gzip != null && accepted.contains("gzip")) {
+                return gzip;
+            }
+            return identity;
+        }
+    }
+
+    /**
+     * One encoding of a static file, named after the original so its media type is the
+     * original's. Length and modification time are read once, when indexed.
+     */
+    private static final class IndexedResource extends AbstractResource implements HttpResource {
+        private final Resource content;
+        private final Resource original;
+        private final long contentLength;
+        private final long lastModified;
+        private final HttpHeaders headers = new HttpHeaders();
+
+        IndexedResource(Resource content, Resource original, String encoding, String cacheControl, boolean varies)
+                throws IOException {
+            this.content = content;
+            this.original = original;
+            this.contentLength = content.contentLength();
+            this.lastModified = original.lastModified();
+            headers.setCacheControl(cacheControl);
+            if (encoding != null) {
+                headers.set(HttpHeaders.CONTENT_ENCODING, encoding);
+            }
+            if (varies) {
+                headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return content.getInputStream();
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public URL getURL() throws IOException {
+            return content.getURL();
+        }
+
+        @Override
+        public URI getURI() throws IOException {
+            return content.getURI();
+        }
+
+        @Override
+        public File getFile() throws IOException {
+            return content.getFile();
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public Resource createRelative(String relativePath) throws IOException {
+            return original.createRelative(relativePath);
+        }
+
+        @Override
+        public String getFilename() {
+            return original.getFilename();
+        }
+
+        @Override
+        public String getDescription() {
+            return content.getDescription();
+        }
+
+        @Override
+        public HttpHeaders getResponseHeaders() {
+            return headers;
+        }
+    }
+}
@@ -1,33 +1,30 @@
 package com.puzzle.config;
 
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.Resource;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
-import org.springframework.web.servlet.resource.PathResourceResolver;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    private static final String STATIC_LOCATION = "classpath:/static/";
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        // Serve static resources and handle client-side routing
+        // Serve static resources and handle client-side routing from an index built once,
+        // which also sets their cache headers
+        StaticResourceIndex staticResources;
+        try {
+            staticResources = new StaticResourceIndex(STATIC_LOCATION);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to index static resources", e);
+        }
         registry.addResourceHandler("/**")
-                .addResourceLocations("classpath:/static/")
-                .resourceChain(true)
-                .addResolver(new PathResourceResolver() {
-                    @Override
-                    protected Resource getResource(String resourcePath, Resource location) throws IOException {
-                        Resource requestedResource = location.createRelative(resourcePath);
-                        // If the resource exists and is readable, return it
-                        // Otherwise, return index.html for client-side routing
-                        return requestedResource.exists() && requestedResource.isReadable() 
-                            ? requestedResource 
-                            : new ClassPathResource("/static/index.html");
-                    }
-                });
+                .addResourceLocations(STATIC_LOCATION)
+                .resourceChain(false)
+                .addResolver(staticResources);
     }
-}
\ No newline at end of file
+}
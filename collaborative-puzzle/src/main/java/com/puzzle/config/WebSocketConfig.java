@@ -1,22 +1,119 @@
 package com.puzzle.config;
 
+import com.puzzle.admission.AdmissionController;
 import com.puzzle.websocket.PuzzleWebSocketHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.HandshakeFailureException;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.socket.server.RequestUpgradeStrategy;
+import org.springframework.web.socket.server.standard.TomcatRequestUpgradeStrategy;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.websocket.Endpoint;
+import javax.websocket.Extension;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 
 @Configuration
 @EnableWebSocket
+@Profile("!reactive-ws")
 public class WebSocketConfig implements WebSocketConfigurer {
-    
+
+    private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
     @Autowired
     private PuzzleWebSocketHandler puzzleWebSocketHandler;
-    
+
+    @Autowired
+    private AdmissionController admission;
+
+    // Compresses every frame of a connection, at Tomcat's fixed level and window size, and
+    // keeps a deflater per connection. Off by default: most frames are small moves, and large
+    // messages are compressed once per broadcast by the handler instead.
+    @Value("${puzzle.websocket.compression.permessage-deflate:false}")
+    private boolean perMessageDeflate;
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(puzzleWebSocketHandler, "/ws/puzzle/{sessionId}")
+                .setHandshakeHandler(new DefaultHandshakeHandler(upgradeStrategy()))
+                .addInterceptors(new CapacityInterceptor())
                 .setAllowedOrigins("*");
     }
-}
\ No newline at end of file
+
+    /**
+     * Refuses the handshake with 503 and a Retry-After hint while the node is over capacity;
+     * clients reconnect with backoff.
+     */
+    private class CapacityInterceptor implements HandshakeInterceptor {
+
+        @Override
+        public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                WebSocketHandler wsHandler, Map<String, Object> attributes) {
+            if (admission.admitConnection()) {
+                return true;
+            }
+            response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(admission.getRetryAfterSeconds()));
+            return false;
+        }
+
+        @Override
+        public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                WebSocketHandler wsHandler, Exception exception) {
+        }
+    }
+
+    /**
+     * Tomcat negotiates permessage-deflate straight from the handshake request, whatever
+     * extensions Spring selected, so to turn it off the client's offer is hidden from it.
+     */
+    private RequestUpgradeStrategy upgradeStrategy() {
+        if (perMessageDeflate) {
+            return new TomcatRequestUpgradeStrategy();
+        }
+        return new TomcatRequestUpgradeStrategy() {
+            @Override
+            public void upgradeInternal(ServerHttpRequest request, ServerHttpResponse response,
+                    String selectedProtocol, List<Extension> selectedExtensions, Endpoint endpoint)
+                    throws HandshakeFailureException {
+                HttpServletRequest servletRequest = ((ServletServerHttpRequest) request).getServletRequest();
+                super.upgradeInternal(new ServletServerHttpRequest(new WithoutExtensions(servletRequest)),
+                        response, selectedProtocol, Collections.emptyList(), endpoint);
+            }
+        };
+    }
+
+    private static class WithoutExtensions extends HttpServletRequestWrapper {
+
+        WithoutExtensions(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+    }
+}
@@ -1,15 +1,30 @@
 package com.puzzle.controller;
 
+import com.puzzle.admission.AdmissionController;
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.lobby.SessionLobby;
 import com.puzzle.model.PuzzleSession;
 import com.puzzle.model.User;
 import com.puzzle.service.PuzzleService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
+
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Map;
 
 @RestController
@@ -17,9 +32,45 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class PuzzleController {
     
+    // Mark a request forwarded to the owner node, which serves it even if its ring differs.
+    // Ignored unless they name a cluster member and carry the cluster's secret.
+    private static final String FORWARDED_HEADER = "X-Puzzle-Forwarded";
+    private static final String SECRET_HEADER = "X-Puzzle-Cluster-Secret";
+    
+    private static final int MAX_PAGE_SIZE = 100;
+    
     @Autowired
     private PuzzleService puzzleService;
     
+    @Autowired
+    private ClusterMembership cluster;
+    
+    @Autowired
+    private AdmissionController admission;
+    
+    @Autowired
+    private SessionLobby lobby;
+    
+    @Autowired
+    private RestTemplateBuilder restTemplateBuilder;
+    
+    // A request thread waits at most this long on an owner node that is down or stalled
+    @Value("${puzzle.cluster.forward.connect-timeout:1000}")
+    private long forwardConnectTimeout = 1000;
+    
+    @Value("${puzzle.cluster.forward.read-timeout:5000}")
+    private long forwardReadTimeout = 5000;
+    
+    private RestTemplate ownerClient;
+    
+    @PostConstruct
+    public void init() {
+        ownerClient = restTemplateBuilder
+                .setConnectTimeout(Duration.ofMillis(forwardConnectTimeout))
+                .setReadTimeout(Duration.ofMillis(forwardReadTimeout))
+                .build();
+    }
+    
     @PostMapping("/sessions")
     public ResponseEntity<?> createSession(
             @RequestParam("image") MultipartFile image,
@@ -41,6 +92,10 @@ public class PuzzleController {
             return ResponseEntity.badRequest().body(Map.of("error", "File too large. Maximum size is 10MB"));
         }
         
+        if (!admission.admit()) {
+            return overloaded();
+        }
+        
         try {
             PuzzleSession session = puzzleService.createSession(image, gridSize);
             return ResponseEntity.ok(Map.of("sessionId", session.getId()));
@@ -52,25 +107,60 @@ public class PuzzleController {
         }
     }
     
+    /**
+     * A page of the lobby: puzzles open to join, most recently active first.
+     */
+    @GetMapping("/sessions")
+    public ResponseEntity<?> listSessions(
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "20") int size) {
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Page must be at least 0 and size between 1 and " + MAX_PAGE_SIZE));
+        }
+        return ResponseEntity.ok(Map.of(
+                "sessions", lobby.list((long) page * size, size),
+                "page", page,
+                "size", size,
+                "total", lobby.count()));
+    }
+    
     @GetMapping("/sessions/{sessionId}")
-    public ResponseEntity<?> getSession(@PathVariable String sessionId) {
+    public ResponseEntity<?> getSession(
+            @PathVariable String sessionId,
+            @RequestHeader(value = FORWARDED_HEADER, required = false) String forwardedBy,
+            @RequestHeader(value = SECRET_HEADER, required = false) String secret) {
+        if (!servesHere(sessionId, forwardedBy, secret)) {
+            return forward(HttpMethod.GET, sessionId, "", null);
+        }
         PuzzleSession session = puzzleService.getSession(sessionId);
         if (session == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(session);
+        // Serialized after the lock is let go, so from a copy
+        synchronized (session) {
+            return ResponseEntity.ok(session.copy());
+        }
     }
     
     @PostMapping("/sessions/{sessionId}/join")
     public ResponseEntity<?> joinSession(
             @PathVariable String sessionId,
-            @RequestBody Map<String, String> request) {
+            @RequestBody Map<String, String> request,
+            @RequestHeader(value = FORWARDED_HEADER, required = false) String forwardedBy,
+            @RequestHeader(value = SECRET_HEADER, required = false) String secret) {
+        if (!servesHere(sessionId, forwardedBy, secret)) {
+            return forward(HttpMethod.POST, sessionId, "/join", request);
+        }
         
         String name = request.get("name");
         if (name == null || name.trim().isEmpty()) {
             return ResponseEntity.badRequest().body(Map.of("error", "Name is required"));
         }
         
+        if (!admission.admit()) {
+            return overloaded();
+        }
+        
         try {
             User user = puzzleService.joinSession(sessionId, name.trim());
             return ResponseEntity.ok(user);
@@ -78,4 +168,47 @@ public class PuzzleController {
             return ResponseEntity.notFound().build();
         }
     }
+    
+    @GetMapping("/sessions/{sessionId}/owner")
+    public ResponseEntity<?> getOwner(@PathVariable String sessionId) {
+        return ResponseEntity.ok(Map.of(
+                "nodeId", cluster.ownerId(sessionId),
+                "url", cluster.ownerUrl(sessionId)));
+    }
+    
+    private boolean servesHere(String sessionId, String forwardedBy, String secret) {
+        return cluster.isLocal(sessionId) || cluster.isForwardedByMember(forwardedBy, secret);
+    }
+    
+    private ResponseEntity<?> overloaded() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.getRetryAfterSeconds()))
+                .body(Map.of("error", "Server is busy, please try again shortly"));
+    }
+    
+    // Only the owner may load a session into memory, so reads and joins are served by it
+    private ResponseEntity<?> forward(HttpMethod method, String sessionId, String path, Object body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(FORWARDED_HEADER, cluster.getNodeId());
+        headers.set(SECRET_HEADER, cluster.getSecret());
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String url = cluster.ownerUrl(sessionId) + "/api/sessions/" + sessionId + path;
+        try {
+            ResponseEntity<String> response = ownerClient.exchange(url, method, new HttpEntity<>(body, headers), String.class);
+            return ResponseEntity.status(response.getStatusCode())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(response.getBody());
+        } catch (HttpStatusCodeException e) {
+            return ResponseEntity.status(e.getStatusCode())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(e.getResponseBodyAsString());
+        } catch (RestClientException e) {
+            // Including timeouts; the client can retry here or go to the owner itself
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.getRetryAfterSeconds()))
+                    .body(Map.of(
+                            "error", "Session owner is unavailable",
+                            "url", cluster.ownerUrl(sessionId)));
+        }
+    }
 }
\ No newline at end of file
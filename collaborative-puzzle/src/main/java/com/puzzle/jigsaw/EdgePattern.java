@@ -0,0 +1,74 @@
+package com.puzzle.jigsaw;
+
+import java.util.Random;
+
+/**
+ * The tabs and blanks of a puzzle, and the edge signatures of its pieces.
+ *
+ * A signature packs one {@link #FLAT}, {@link #TAB} or {@link #BLANK} per side, two bits
+ * each, in the order top, right, bottom, left. Sides on the border of the puzzle are flat
+ * and every inner edge is a tab on one piece and a blank on its neighbour, so there are at
+ * most 81 signatures however many pieces a puzzle has.
+ */
+public final class EdgePattern {
+
+    public static final int FLAT = 0;
+    public static final int TAB = 1;
+    public static final int BLANK = 2;
+
+    public static final int TOP = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int LEFT = 3;
+
+    // How far a tab sticks out past the piece's body, relative to its shorter side
+    private static final double TAB_DEPTH = 0.25;
+
+    private EdgePattern() {
+    }
+
+    /**
+     * Picks a random orientation for every inner edge of the grid and returns the
+     * signatures of its pieces, row by row.
+     */
+    public static int[] generate(int gridSize, Random random) {
+        int[] signatures = new int[gridSize * gridSize];
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
+                int piece = row * gridSize + col;
+                int right = FLAT;
+                int bottom = FLAT;
+                if (col < gridSize - 1) {
+                    right = random.nextBoolean() ? TAB : BLANK;
+                }
+                if (row < gridSize - 1) {
+                    bottom = random.nextBoolean() ? TAB : BLANK;
+                }
+                // Left and top sides mirror what was picked for the neighbours' right and bottom
+                int left = col > 0 ? opposite(side(signatures[piece - 1], RIGHT)) : FLAT;
+                int top = row > 0 ? opposite(side(signatures[piece - gridSize], BOTTOM)) : FLAT;
+                signatures[piece] = signature(top, right, bottom, left);
+            }
+        }
+        return signatures;
+    }
+
+    public static int signature(int top, int right, int bottom, int left) {
+        return top << (2 * TOP) | right << (2 * RIGHT) | bottom << (2 * BOTTOM) | left << (2 * LEFT);
+    }
+
+    public static int side(int signature, int side) {
+        return (signature >> (2 * side)) & 3;
+    }
+
+    /**
+     * Pixels a piece's image extends past its body on every side to make room for tabs.
+     */
+    public static int overhang(int pieceWidth, int pieceHeight) {
+        return (int) Math.ceil(Math.min(pieceWidth, pieceHeight) * TAB_DEPTH);
+    }
+
+    private static int opposite(int edge) {
+        return edge == TAB ? BLANK : edge == BLANK ? TAB : FLAT;
+    }
+}
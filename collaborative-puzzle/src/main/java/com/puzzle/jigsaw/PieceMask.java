@@ -0,0 +1,155 @@
+package com.puzzle.jigsaw;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+/**
+ * The alpha mask of one piece shape: a body of the piece size with the tabs and blanks of
+ * an edge signature, in an image padded by the overhang on every side. Masks are immutable
+ * and shared by every piece with the same size and signature.
+ */
+public final class PieceMask {
+
+    // An edge with a tab, as points relative to the middle of the edge, along it and out of
+    // the body, in units of the overhang: straight to the neck, through a round head and
+    // back. Each row after the first is the two control points and end point of a cubic curve.
+    private static final double[][] TAB_OUTLINE = {
+        {-0.45, 0.00},
+        {-0.26, 0.00}, {-0.20, 0.20}, {-0.32, 0.40},
+        {-0.58, 0.70}, {-0.40, 1.00}, {0.00, 1.00},
+        {0.40, 1.00}, {0.58, 0.70}, {0.32, 0.40},
+        {0.20, 0.20}, {0.26, 0.00}, {0.45, 0.00},
+    };
+
+    private final int width;
+    private final int height;
+    private final int overhang;
+    private final byte[] alpha;
+
+    private PieceMask(int width, int height, int overhang, byte[] alpha) {
+        this.width = width;
+        this.height = height;
+        this.overhang = overhang;
+        this.alpha = alpha;
+    }
+
+    /**
+     * Draws the mask of a piece whose body is {@code pieceWidth} by {@code pieceHeight}.
+     */
+    public static PieceMask render(int pieceWidth, int pieceHeight, int signature) {
+        int overhang = EdgePattern.overhang(pieceWidth, pieceHeight);
+        int width = pieceWidth + 2 * overhang;
+        int height = pieceHeight + 2 * overhang;
+
+        // Clockwise around the body, each side bulging along its outward normal
+        Path2D.Double outline = new Path2D.Double();
+        double left = overhang;
+        double top = overhang;
+        double right = overhang + pieceWidth;
+        double bottom = overhang + pieceHeight;
+        outline.moveTo(left, top);
+        edge(outline, left, top, right, top, 0, -1, overhang, EdgePattern.side(signature, EdgePattern.TOP));
+        edge(outline, right, top, right, bottom, 1, 0, overhang, EdgePattern.side(signature, EdgePattern.RIGHT));
+        edge(outline, right, bottom, left, bottom, 0, 1, overhang, EdgePattern.side(signature, EdgePattern.BOTTOM));
+        edge(outline, left, bottom, left, top, -1, 0, overhang, EdgePattern.side(signature, EdgePattern.LEFT));
+        outline.closePath();
+
+        BufferedImage mask = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = mask.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            graphics.setColor(Color.WHITE);
+            graphics.fill(outline);
+        } finally {
+            graphics.dispose();
+        }
+        byte[] alpha = ((DataBufferByte) mask.getRaster().getDataBuffer()).getData();
+        return new PieceMask(width, height, overhang, alpha);
+    }
+
+    private static void edge(Path2D.Double outline, double x0, double y0, double x1, double y1,
+            double normalX, double normalY, int overhang, int kind) {
+        if (kind == EdgePattern.FLAT) {
+            outline.lineTo(x1, y1);
+            return;
+        }
+        // Blanks are the same curve, pushed into the body instead
+        double depth = kind == EdgePattern.TAB ? overhang : -overhang;
+        double length = Math.hypot(x1 - x0, y1 - y0);
+        double directionX = (x1 - x0) / length;
+        double directionY = (y1 - y0) / length;
+        double middleX = (x0 + x1) / 2;
+        double middleY = (y0 + y1) / 2;
+        outline.lineTo(middleX + directionX * TAB_OUTLINE[0][0] * overhang,
+                middleY + directionY * TAB_OUTLINE[0][0] * overhang);
+        double[] p = new double[6];
+        for (int i = 1; i < TAB_OUTLINE.length; i += 3) {
+            for (int j = 0; j < 3; j++) {
+                double along = TAB_OUTLINE[i + j][0] * overhang;
+                double out = TAB_OUTLINE[i + j][1] * depth;
+                p[2 * j] = middleX + directionX * along + normalX * out;
+                p[2 * j + 1] = middleY + directionY * along + normalY * out;
+            }
+            outline.curveTo(p[0], p[1], p[2], p[3], p[4], p[5]);
+        }
+        outline.lineTo(x1, y1);
+    }
+
+    /**
+     * Cuts a piece out of the source image: the body at ({@code x}, {@code y}) plus whatever
+     * its tabs cover, transparent outside the shape. Parts of the padded area outside the
+     * source, which only flat border sides face, are left transparent.
+     */
+    public BufferedImage cut(BufferedImage source, int x, int y) {
+        BufferedImage piece = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) piece.getRaster().getDataBuffer()).getData();
+
+        int fromX = Math.max(0, x - overhang);
+        int fromY = Math.max(0, y - overhang);
+        int toX = Math.min(source.getWidth(), x - overhang + width);
+        int toY = Math.min(source.getHeight(), y - overhang + height);
+        if (toX <= fromX || toY <= fromY) {
+            return piece;
+        }
+        int offsetX = fromX - (x - overhang);
+        int offsetY = fromY - (y - overhang);
+        int[] rgb = source.getRGB(fromX, fromY, toX - fromX, toY - fromY, null, 0, toX - fromX);
+        for (int row = 0; row < toY - fromY; row++) {
+            int target = (offsetY + row) * width + offsetX;
+            int from = row * (toX - fromX);
+            for (int col = 0; col < toX - fromX; col++) {
+                int a = alpha[target + col] & 0xFF;
+                // Fully transparent pixels stay zero, which compresses best
+                if (a != 0) {
+                    pixels[target + col] = a << 24 | (rgb[from + col] & 0xFFFFFF);
+                }
+            }
+        }
+        return piece;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getOverhang() {
+        return overhang;
+    }
+
+    /**
+     * Opacity of the mask at a pixel, 0 to 255.
+     */
+    public int alphaAt(int x, int y) {
+        return alpha[y * width + x] & 0xFF;
+    }
+}
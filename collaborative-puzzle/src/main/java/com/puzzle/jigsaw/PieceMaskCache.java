@@ -0,0 +1,80 @@
+package com.puzzle.jigsaw;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Piece masks by piece size and edge signature, least recently used first out.
+ *
+ * A puzzle uses at most 81 shapes of one size, and sessions created from images of the
+ * same size and grid share theirs, so cutting a puzzle renders a bounded number of masks
+ * however many pieces it has.
+ */
+@Component
+public class PieceMaskCache {
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${puzzle.piece.mask-cache-size:1024}")
+    private int maxMasks = 1024;
+
+    private final Map<Long, PieceMask> masks = new LinkedHashMap<Long, PieceMask>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PieceMask> eldest) {
+            return size() > maxMasks;
+        }
+    };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @PostConstruct
+    public void registerMetrics() {
+        if (meterRegistry == null) {
+            return;
+        }
+        Gauge.builder("puzzle.pieces.masks", this, PieceMaskCache::size)
+                .description("Piece masks held for reuse")
+                .register(meterRegistry);
+        FunctionCounter.builder("puzzle.pieces.mask.lookups", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("puzzle.pieces.mask.lookups", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    public PieceMask get(int pieceWidth, int pieceHeight, int signature) {
+        long key = (long) pieceWidth << 32 | (long) pieceHeight << 8 | signature;
+        synchronized (masks) {
+            PieceMask mask = masks.get(key);
+            if (mask != null) {
+                hits.increment();
+                return mask;
+            }
+        }
+        // Rendered outside the lock; a concurrent miss for the same shape just draws it twice
+        misses.increment();
+        PieceMask mask = PieceMask.render(pieceWidth, pieceHeight, signature);
+        synchronized (masks) {
+            masks.put(key, mask);
+        }
+        return mask;
+    }
+
+    public int size() {
+        synchronized (masks) {
+            return masks.size();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.puzzle.journal;
+
+import com.puzzle.model.PuzzlePiece;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.repository.PuzzleSessionCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoding of journal records and their replay onto session state.
+ *
+ * Events carry the resulting state of what changed (a piece's position after snapping,
+ * the user's assigned id, handle and color) rather than the request that caused it, so replay
+ * doesn't depend on configuration or randomness and applying an event twice is harmless.
+ */
+final class JournalEvents {
+
+    static final byte SNAPSHOT = 1;
+    static final byte FORGET = 2;
+    static final byte USER_JOINED = 3;
+    static final byte USER_LEFT = 4;
+    static final byte PIECE_LOCKED = 5;
+    static final byte PIECE_UNLOCKED = 6;
+    static final byte PIECE_MOVED = 7;
+    static final byte PIECE_RELEASED = 8;
+
+    private JournalEvents() {
+    }
+
+    static byte[] snapshot(PuzzleSession session) {
+        byte[] snapshot = PuzzleSessionCodec.encode(session);
+        Record out = new Record(SNAPSHOT, session.getId(), snapshot.length + 4);
+        out.bytes(snapshot);
+        return out.toByteArray();
+    }
+
+    /**
+     * The session left this node's memory and its journaled state must not be recovered.
+     */
+    static byte[] forget(String sessionId) {
+        return new Record(FORGET, sessionId, 0).toByteArray();
+    }
+
+    static byte[] userJoined(PuzzleSession session, User user) {
+        Record out = new Record(USER_JOINED, session.getId(), 68);
+        out.string(user.getId());
+        out.int32(user.getHandle());
+        out.string(user.getName());
+        out.string(user.getColor());
+        return out.toByteArray();
+    }
+
+    static byte[] userLeft(PuzzleSession session, String userId) {
+        Record out = new Record(USER_LEFT, session.getId(), 40);
+        out.string(userId);
+        return out.toByteArray();
+    }
+
+    static byte[] pieceLocked(PuzzleSession session, PuzzlePiece piece) {
+        Record out = new Record(PIECE_LOCKED, session.getId(), 16);
+        out.int32(piece.getId());
+        out.int32(piece.getLockedBy());
+        out.int64(piece.getLockExpiresAt());
+        return out.toByteArray();
+    }
+
+    static byte[] pieceUnlocked(PuzzleSession session, PuzzlePiece piece) {
+        Record out = new Record(PIECE_UNLOCKED, session.getId(), 4);
+        out.int32(piece.getId());
+        return out.toByteArray();
+    }
+
+    static byte[] pieceMoved(PuzzleSession session, PuzzlePiece piece) {
+        Record out = new Record(PIECE_MOVED, session.getId(), 28);
+        out.int32(piece.getId());
+        out.float64(piece.getCurrentX());
+        out.float64(piece.getCurrentY());
+        out.int64(piece.getLockExpiresAt());
+        return out.toByteArray();
+    }
+
+    static byte[] pieceReleased(PuzzleSession session, PuzzlePiece piece) {
+        Record out = new Record(PIECE_RELEASED, session.getId(), 26);
+        out.int32(piece.getId());
+        out.float64(piece.getCurrentX());
+        out.float64(piece.getCurrentY());
+        out.bool(piece.isPlaced());
+        out.int32(piece.getPlacedBy());
+        out.bool(session.isCompleted());
+        return out.toByteArray();
+    }
+
+    /**
+     * Applies one record to the sessions recovered so far. Events for a session without
+     * a snapshot are ignored; they predate its first snapshot in the retained segments.
+     */
+    static void apply(ByteBuffer in, Map<String, PuzzleSession> sessions) {
+        byte type = in.get();
+        String sessionId = string(in);
+        if (type == SNAPSHOT) {
+            byte[] snapshot = new byte[in.getInt()];
+            in.get(snapshot);
+            sessions.put(sessionId, PuzzleSessionCodec.decode(snapshot));
+            return;
+        }
+        if (type == FORGET) {
+            sessions.remove(sessionId);
+            return;
+        }
+        PuzzleSession session = sessions.get(sessionId);
+        if (session == null) {
+            return;
+        }
+        switch (type) {
+            case USER_JOINED: {
+                User user = new User();
+                user.setId(string(in));
+                user.setHandle(in.getInt());
+                session.setLastHandle(Math.max(session.getLastHandle(), user.getHandle()));
+                user.setName(string(in));
+                user.setColor(string(in));
+                session.getUsers().put(user.getId(), user);
+                break;
+            }
+            case USER_LEFT:
+                session.getUsers().remove(string(in));
+                break;
+            case PIECE_LOCKED: {
+                PuzzlePiece piece = findPiece(session, in.getInt());
+                int lockedBy = in.getInt();
+                long expiresAt = in.getLong();
+                if (piece != null) {
+                    piece.setLockedBy(lockedBy);
+                    piece.setLockExpiresAt(expiresAt);
+                }
+                break;
+            }
+            case PIECE_UNLOCKED: {
+                PuzzlePiece piece = findPiece(session, in.getInt());
+                if (piece != null) {
+                    piece.setLockedBy(0);
+                    piece.setLockExpiresAt(0);
+                }
+                break;
+            }
+            case PIECE_MOVED: {
+                PuzzlePiece piece = findPiece(session, in.getInt());
+                double x = in.getDouble();
+                double y = in.getDouble();
+                long lockExpiresAt = in.getLong();
+                if (piece != null) {
+                    piece.setCurrentX(x);
+                    piece.setCurrentY(y);
+                    piece.setLockExpiresAt(lockExpiresAt);
+                }
+                break;
+            }
+            case PIECE_RELEASED: {
+                PuzzlePiece piece = findPiece(session, in.getInt());
+                double x = in.getDouble();
+                double y = in.getDouble();
+                boolean placed = in.get() != 0;
+                int placedBy = in.getInt();
+                boolean completed = in.get() != 0;
+                if (piece != null) {
+                    piece.setCurrentX(x);
+                    piece.setCurrentY(y);
+                    piece.setPlaced(placed);
+                    piece.setPlacedBy(placedBy);
+                }
+                session.setCompleted(completed);
+                break;
+            }
+            default:
+                // Written by a newer version; the next snapshot supersedes it
+                break;
+        }
+    }
+
+    private static PuzzlePiece findPiece(PuzzleSession session, int pieceId) {
+        List<PuzzlePiece> pieces = session.getPieces();
+        if (pieceId >= 0 && pieceId < pieces.size() && pieces.get(pieceId).getId() == pieceId) {
+            return pieces.get(pieceId);
+        }
+        return pieces.stream()
+                .filter(p -> p.getId() == pieceId)
+                .findFirst()
+                .orElse(null);
+    }
+
+    // Strings are length-prefixed UTF-8, with -1 for null
+    private static String string(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Growable big-endian buffer, in the same layout the ByteBuffer reads in apply()
+    private static final class Record {
+        private ByteBuffer out;
+
+        Record(byte type, String sessionId, int sizeHint) {
+            out = ByteBuffer.allocate(48 + sizeHint);
+            out.put(type);
+            string(sessionId);
+        }
+
+        void string(String value) {
+            if (value == null) {
+                ensure(4).putInt(-1);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            ensure(4 + utf8.length).putInt(utf8.length).put(utf8);
+        }
+
+        void bytes(byte[] value) {
+            ensure(4 + value.length).putInt(value.length).put(value);
+        }
+
+        void int32(int value) {
+            ensure(4).putInt(value);
+        }
+
+        void int64(long value) {
+            ensure(8).putLong(value);
+        }
+
+        void float64(double value) {
+            ensure(8).putDouble(value);
+        }
+
+        void bool(boolean value) {
+            ensure(1).put(value ? (byte) 1 : 0);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(out.array(), out.position());
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if (out.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+                out.flip();
+                out = grown.put(out);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.puzzle.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * One memory-mapped, fixed-size file of the journal.
+ *
+ * Records are laid out back to back as {@code [length][crc32][body]}. The file is
+ * preallocated with zeros, so a zero length marks the end of the written data, and a
+ * record whose checksum doesn't match is a torn write from a crash and ends the segment.
+ * Not thread-safe; {@link SessionJournal} serializes appends.
+ */
+final class JournalSegment implements Closeable {
+
+    static final int HEADER_SIZE = 8;
+
+    private static final String SUFFIX = ".journal";
+
+    private final long sequence;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private JournalSegment(long sequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.sequence = sequence;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens the segment with the given sequence number, creating it with {@code size} bytes
+     * if it doesn't exist yet.
+     */
+    static JournalSegment open(Path directory, long sequence, int size) throws IOException {
+        Path path = directory.resolve(String.format("%016d%s", sequence, SUFFIX));
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = Math.max(channel.size(), size);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        return new JournalSegment(sequence, path, channel, buffer);
+    }
+
+    /**
+     * Returns the sequence numbers of the segments in a directory, oldest first.
+     */
+    static List<Long> list(Path directory) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> sequences.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Hands every intact record body to the reader, in order, and leaves the write position
+     * after the last one.
+     */
+    void recover(Consumer<ByteBuffer> reader) {
+        buffer.position(0);
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                return;
+            }
+            ByteBuffer body = buffer.slice();
+            body.limit(length);
+            if (checksum != checksum(body)) {
+                buffer.position(start);
+                return;
+            }
+            reader.accept(body);
+            buffer.position(start + HEADER_SIZE + length);
+        }
+    }
+
+    /**
+     * Appends a record, or returns false if the segment has no room left for it.
+     */
+    boolean append(byte[] body) {
+        if (buffer.remaining() < HEADER_SIZE + body.length) {
+            return false;
+        }
+        int start = buffer.position();
+        buffer.position(start + 4);
+        buffer.putInt(checksum(ByteBuffer.wrap(body)));
+        buffer.put(body);
+        // The length goes in last, so a half-written record reads as the end of the segment
+        buffer.putInt(start, body.length);
+        return true;
+    }
+
+    /**
+     * Writes appended records through to the disk. Without this they survive a process
+     * crash, since the page cache holds them, but not a machine crash.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    void delete() throws IOException {
+        close();
+        // The mapping itself is released when the buffer is collected
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static int checksum(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        return (int) crc.getValue();
+    }
+}
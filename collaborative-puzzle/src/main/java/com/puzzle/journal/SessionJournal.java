@@ -0,0 +1,301 @@
+package com.puzzle.journal;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.model.PuzzlePiece;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.service.LiveSessionCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only, node-local journal of the changes {@code PuzzleService} applies to resident
+ * sessions.
+ *
+ * Every lock, move, release, join and leave is appended to a memory-mapped segment file,
+ * so persisting a move costs a sequential memory write rather than a Redis round trip.
+ * Each session's events follow a snapshot of it in the journal; checkpoints write fresh
+ * snapshots and delete the segments no session needs any more. On startup the journal is
+ * replayed and the recovered sessions this node owns are made resident again and written
+ * back to Redis, which stays the store of record for hibernated sessions and other nodes.
+ * Sessions that now belong to another node are dropped: the owner has the later state.
+ *
+ * Appends are made while the caller holds the session's lock, which keeps each session's
+ * events in the order they were applied.
+ */
+@Component
+public class SessionJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionJournal.class);
+
+    private static final class Tracked {
+        final long snapshotSegment;
+        final AtomicInteger eventsSinceSnapshot = new AtomicInteger();
+
+        Tracked(long snapshotSegment) {
+            this.snapshotSegment = snapshotSegment;
+        }
+    }
+
+    @Autowired
+    private LiveSessionCache liveSessions;
+
+    @Autowired
+    private ClusterMembership cluster;
+
+    @Value("${puzzle.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${puzzle.journal.directory:data/journal}")
+    private String directory = "data/journal";
+
+    @Value("${puzzle.journal.segment-size:67108864}")
+    private int segmentSize = 64 * 1024 * 1024;
+
+    // Sessions with this many events since their last snapshot get a new one at the next checkpoint
+    @Value("${puzzle.journal.snapshot-threshold:10000}")
+    private int snapshotThreshold = 10000;
+
+    // Sessions with a snapshot in the journal, i.e. whose events are being recorded
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private final Deque<JournalSegment> segments = new ArrayDeque<>();
+    private JournalSegment active;
+    private Path segmentDirectory;
+
+    /**
+     * Replays the journal left by the previous run and starts a new segment.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        segmentDirectory = Paths.get(directory);
+        Files.createDirectories(segmentDirectory);
+
+        Map<String, PuzzleSession> recovered = new LinkedHashMap<>();
+        for (long sequence : JournalSegment.list(segmentDirectory)) {
+            JournalSegment segment = JournalSegment.open(segmentDirectory, sequence, segmentSize);
+            segment.recover(record -> JournalEvents.apply(record, recovered));
+            segments.add(segment);
+        }
+        long next = segments.isEmpty() ? 0 : segments.getLast().sequence() + 1;
+        active = JournalSegment.open(segmentDirectory, next, segmentSize);
+        segments.add(active);
+
+        liveSessions.addEvictionListener(this::forget);
+        int handedOff = 0;
+        for (PuzzleSession session : recovered.values()) {
+            if (!cluster.isLocal(session.getId())) {
+                // Left out of the new segment, so it's gone once the old ones are deleted
+                handedOff++;
+                continue;
+            }
+            // The journal is at least as recent as the last write-back before the crash
+            PuzzleSession live = liveSessions.admitLoaded(session);
+            synchronized (live) {
+                snapshot(live);
+            }
+            liveSessions.markDirty(live);
+        }
+        // Everything recovered is in the new segment now
+        deleteCoveredSegments();
+        if (!recovered.isEmpty()) {
+            log.info("Recovered {} sessions from the journal in {}, {} of them owned by other nodes now",
+                    recovered.size(), segmentDirectory, handedOff);
+        }
+    }
+
+    public void sessionCreated(PuzzleSession session) {
+        if (enabled) {
+            snapshot(session);
+        }
+    }
+
+    public void userJoined(PuzzleSession session, User user) {
+        if (enabled) {
+            append(session, JournalEvents.userJoined(session, user));
+        }
+    }
+
+    public void userLeft(PuzzleSession session, String userId) {
+        if (enabled) {
+            append(session, JournalEvents.userLeft(session, userId));
+        }
+    }
+
+    public void pieceLocked(PuzzleSession session, PuzzlePiece piece) {
+        if (enabled) {
+            append(session, JournalEvents.pieceLocked(session, piece));
+        }
+    }
+
+    public void pieceUnlocked(PuzzleSession session, PuzzlePiece piece) {
+        if (enabled) {
+            append(session, JournalEvents.pieceUnlocked(session, piece));
+        }
+    }
+
+    public void pieceMoved(PuzzleSession session, PuzzlePiece piece) {
+        if (enabled) {
+            append(session, JournalEvents.pieceMoved(session, piece));
+        }
+    }
+
+    public void pieceReleased(PuzzleSession session, PuzzlePiece piece) {
+        if (enabled) {
+            append(session, JournalEvents.pieceReleased(session, piece));
+        }
+    }
+
+    /**
+     * Snapshots sessions whose last snapshot is in an older segment or far behind, then
+     * deletes the segments that only hold superseded records.
+     */
+    @Scheduled(fixedDelayString = "${puzzle.journal.checkpoint-interval:60000}")
+    public void checkpoint() {
+        if (!enabled) {
+            return;
+        }
+        long activeSequence = activeSequence();
+        for (Map.Entry<String, Tracked> entry : tracked.entrySet()) {
+            Tracked state = entry.getValue();
+            if (state.snapshotSegment == activeSequence && state.eventsSinceSnapshot.get() < snapshotThreshold) {
+                continue;
+            }
+            PuzzleSession session = liveSessions.peek(entry.getKey());
+            if (session == null) {
+                forget(entry.getKey());
+                continue;
+            }
+            synchronized (session) {
+                snapshot(session);
+            }
+        }
+        deleteCoveredSegments();
+    }
+
+    /**
+     * Writes appended records through to the disk, so they also survive a machine crash.
+     * Appends carry on into the mapping while it is written out.
+     */
+    @Scheduled(fixedDelayString = "${puzzle.journal.sync-interval:1000}")
+    public void sync() {
+        JournalSegment segment;
+        synchronized (this) {
+            segment = active;
+        }
+        if (segment != null) {
+            // Stays mapped even if the segment is closed or deleted meanwhile
+            segment.force();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (!enabled) {
+            return;
+        }
+        sync();
+        for (JournalSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                log.warn("Failed to close journal segment {}", segment.sequence(), e);
+            }
+        }
+    }
+
+    private void append(PuzzleSession session, byte[] record) {
+        Tracked state = tracked.get(session.getId());
+        if (state == null) {
+            // First change since the session became resident; the snapshot already includes it
+            snapshot(session);
+            return;
+        }
+        if (write(record) >= 0) {
+            state.eventsSinceSnapshot.incrementAndGet();
+        } else {
+            // Its events have a gap now, so the next change starts over from a snapshot
+            tracked.remove(session.getId(), state);
+        }
+    }
+
+    private void snapshot(PuzzleSession session) {
+        long sequence = write(JournalEvents.snapshot(session));
+        if (sequence >= 0) {
+            tracked.put(session.getId(), new Tracked(sequence));
+        }
+    }
+
+    /**
+     * The session was hibernated to Redis; a recovery must not resurrect its journaled state.
+     */
+    private void forget(String sessionId) {
+        if (tracked.remove(sessionId) != null) {
+            write(JournalEvents.forget(sessionId));
+        }
+    }
+
+    /**
+     * Appends a record and returns the sequence of the segment it went into, or -1 if it
+     * could not be written. Journal failures never fail the change itself; Redis write-back
+     * still persists it.
+     */
+    private synchronized long write(byte[] record) {
+        if (active.append(record)) {
+            return active.sequence();
+        }
+        if (record.length + JournalSegment.HEADER_SIZE > segmentSize) {
+            log.warn("Journal record of {} bytes exceeds the segment size, skipping it", record.length);
+            return -1;
+        }
+        try {
+            active = JournalSegment.open(segmentDirectory, active.sequence() + 1, segmentSize);
+            segments.add(active);
+        } catch (IOException e) {
+            log.error("Failed to roll the journal to a new segment", e);
+            return -1;
+        }
+        active.append(record);
+        return active.sequence();
+    }
+
+    private synchronized long activeSequence() {
+        return active.sequence();
+    }
+
+    private synchronized void deleteCoveredSegments() {
+        long oldestNeeded = active.sequence();
+        for (Tracked state : tracked.values()) {
+            oldestNeeded = Math.min(oldestNeeded, state.snapshotSegment);
+        }
+        while (segments.getFirst().sequence() < oldestNeeded) {
+            JournalSegment segment = segments.removeFirst();
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                log.warn("Failed to delete journal segment {}", segment.sequence(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.puzzle.lobby;
+
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.SessionSummary;
+import com.puzzle.service.PuzzleEventListener;
+import com.puzzle.service.PuzzleService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the puzzles that are open to join, for the lobby.
+ *
+ * Sessions are kept in a sorted set by the epoch millis of their last activity, with a
+ * summary hash per session, so a page of the lobby is one range read plus one pipelined
+ * read of its summaries, however many sessions the store holds. The index is updated from
+ * {@link PuzzleService} events: sessions enter when created, their summary changes as
+ * players come and go and pieces are placed, and they leave when completed or deleted.
+ * Changes are coalesced in memory and written in pipelined batches, so a busy session costs
+ * one write per flush.
+ *
+ * Summaries expire with the session they describe. Index entries idle for longer than that
+ * are dropped when the lobby is next written to, or when a page read finds their summary
+ * gone.
+ */
+@Component
+public class SessionLobby implements PuzzleEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionLobby.class);
+
+    // Session id to epoch millis of its last activity
+    private static final String INDEX_KEY = "puzzle:lobby";
+    // Summary hash of one session
+    private static final String SUMMARY_PREFIX = "puzzle:lobby:";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private PuzzleService puzzleService;
+
+    @Value("${puzzle.lobby.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${puzzle.session.expiration:86400}")
+    private long sessionExpiration = 86400;
+
+    @Value("${puzzle.redis.batch-size:256}")
+    private int batchSize = 256;
+
+    // Latest summary of each changed session, written on the next flush. An empty summary
+    // takes the session out of the lobby.
+    private final Map<String, Map<String, String>> pending = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void registerListener() {
+        if (enabled) {
+            puzzleService.addListener(this);
+        }
+    }
+
+    @Override
+    public void onSessionCreated(PuzzleSession session) {
+        pending.put(session.getId(), summary(session));
+    }
+
+    @Override
+    public void onPlayersChanged(PuzzleSession session) {
+        pending.put(session.getId(), summary(session));
+    }
+
+    @Override
+    public void onProgress(PuzzleSession session) {
+        pending.put(session.getId(), session.isCompleted() ? Map.of() : summary(session));
+    }
+
+    @Override
+    public void onSessionDeleted(String sessionId) {
+        pending.put(sessionId, Map.of());
+    }
+
+    static Map<String, String> summary(PuzzleSession session) {
+        String imageUrl = session.getImageUrl();
+        Map<String, String> summary = new HashMap<>();
+        summary.put("gridSize", String.valueOf(session.getGridSize()));
+        summary.put("totalPieces", String.valueOf(session.getTotalPieces()));
+        summary.put("placedPieces", String.valueOf(session.placedPieceCount()));
+        summary.put("players", String.valueOf(session.getUsers().size()));
+        summary.put("thumbnail", imageUrl.substring(imageUrl.lastIndexOf('/') + 1));
+        summary.put("lastActivity", String.valueOf(System.currentTimeMillis()));
+        return summary;
+    }
+
+    @Scheduled(fixedDelayString = "${puzzle.lobby.flush-interval:2000}")
+    public void flush() {
+        if (!enabled || pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Map<String, String>>> updates = new ArrayList<>(pending.size());
+        for (String sessionId : pending.keySet()) {
+            Map<String, String> summary = pending.remove(sessionId);
+            if (summary != null) {
+                updates.add(Map.entry(sessionId, summary));
+            }
+        }
+        long idleSince = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(sessionExpiration);
+        try {
+            for (int from = 0; from < updates.size(); from += batchSize) {
+                write(updates.subList(from, Math.min(from + batchSize, updates.size())));
+            }
+            redisTemplate.opsForZSet().removeRangeByScore(INDEX_KEY, 0, idleSince);
+        } catch (RuntimeException e) {
+            // Retried on the next flush, unless a newer summary arrived in the meantime
+            for (Map.Entry<String, Map<String, String>> update : updates) {
+                pending.putIfAbsent(update.getKey(), update.getValue());
+            }
+            log.warn("Failed to update the lobby for {} sessions", updates.size(), e);
+        }
+    }
+
+    private void write(List<Map.Entry<String, Map<String, String>>> batch) {
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> redis = (RedisOperations<String, String>) operations;
+                for (Map.Entry<String, Map<String, String>> update : batch) {
+                    String sessionId = update.getKey();
+                    Map<String, String> summary = update.getValue();
+                    if (summary.isEmpty()) {
+                        redis.opsForZSet().remove(INDEX_KEY, sessionId);
+                        redis.delete(SUMMARY_PREFIX + sessionId);
+                        continue;
+                    }
+                    redis.opsForZSet().add(INDEX_KEY, sessionId, Long.parseLong(summary.get("lastActivity")));
+                    redis.opsForHash().putAll(SUMMARY_PREFIX + sessionId, summary);
+                    redis.expire(SUMMARY_PREFIX + sessionId, sessionExpiration, TimeUnit.SECONDS);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sessions in the lobby, most recently active first. May return fewer than {@code count}
+     * when summaries expired since the last flush.
+     */
+    public List<SessionSummary> list(long offset, int count) {
+        Set<String> range = redisTemplate.opsForZSet().reverseRange(INDEX_KEY, offset, offset + count - 1);
+        if (range == null || range.isEmpty()) {
+            return List.of();
+        }
+        List<String> sessionIds = new ArrayList<>(range);
+        List<Object> summaries = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> redis = (RedisOperations<String, String>) operations;
+                for (String sessionId : sessionIds) {
+                    redis.opsForHash().entries(SUMMARY_PREFIX + sessionId);
+                }
+                return null;
+            }
+        });
+
+        List<SessionSummary> page = new ArrayList<>(sessionIds.size());
+        List<Object> expired = new ArrayList<>();
+        for (int i = 0; i < sessionIds.size(); i++) {
+            @SuppressWarnings("unchecked")
+            Map<Object, Object> summary = (Map<Object, Object>) summaries.get(i);
+            if (summary == null || summary.isEmpty()) {
+                expired.add(sessionIds.get(i));
+                continue;
+            }
+            page.add(new SessionSummary(
+                    sessionIds.get(i),
+                    Integer.parseInt((String) summary.get("gridSize")),
+                    Integer.parseInt((String) summary.get("totalPieces")),
+                    Integer.parseInt((String) summary.get("placedPieces")),
+                    Integer.parseInt((String) summary.get("players")),
+                    "/api/images/" + summary.get("thumbnail"),
+                    Long.parseLong((String) summary.get("lastActivity"))));
+        }
+        if (!expired.isEmpty()) {
+            redisTemplate.opsForZSet().remove(INDEX_KEY, expired.toArray());
+        }
+        return page;
+    }
+
+    public long count() {
+        Long count = redisTemplate.opsForZSet().zCard(INDEX_KEY);
+        return count != null ? count : 0;
+    }
+}
@@ -19,8 +19,16 @@ public class PuzzlePiece implements Serializable {
     private double correctY;
     private int width;
     private int height;
+    private int edges; // Edge signature: a tab, blank or flat side per edge, see EdgePattern
+    private int overhang; // Pixels the image extends past the piece's body on each side, for tabs
     private String imageUrl; // URL to the piece image
     private boolean isPlaced;
-    private String lockedBy; // User ID who is currently dragging this piece
-    private String placedBy; // User ID who correctly placed this piece
+    private int lockedBy; // Handle of the user currently dragging this piece, 0 if none
+    private long lockExpiresAt; // Epoch millis when the lock lease lapses unless renewed
+    private int placedBy; // Handle of the user who correctly placed this piece, 0 if none
+
+    public PuzzlePiece copy() {
+        return new PuzzlePiece(id, row, col, currentX, currentY, correctX, correctY, width, height,
+                edges, overhang, imageUrl, isPlaced, lockedBy, lockExpiresAt, placedBy);
+    }
 }
\ No newline at end of file
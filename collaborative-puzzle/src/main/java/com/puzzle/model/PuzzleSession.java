@@ -1,8 +1,13 @@
 package com.puzzle.model;
 
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
@@ -20,9 +25,57 @@ public class PuzzleSession implements Serializable {
     private int gridSize;
     private int totalPieces;
     private List<PuzzlePiece> pieces = new ArrayList<>();
-    private Map<String, User> users = new HashMap<>();
+    private Map<String, User> users = new HashMap<>(); // By user id
+    private int lastHandle; // Handles are never reused, so pieces placed by users who left stay attributed
     private LocalDateTime createdAt;
     private boolean completed;
     private int imageWidth;
     private int imageHeight;
+    private int boardWidth; // Size of the play area, grows with the piece count
+    private int boardHeight;
+
+    // Pieces in their correct position, counted on first use and then kept up to date by
+    // placedChanged; -1 until counted. Not stored or sent, as it follows from the pieces.
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private int placedPieces = -1;
+
+    public int placedPieceCount() {
+        if (placedPieces < 0) {
+            int placed = 0;
+            for (PuzzlePiece piece : pieces) {
+                if (piece.isPlaced()) {
+                    placed++;
+                }
+            }
+            placedPieces = placed;
+        }
+        return placedPieces;
+    }
+
+    /**
+     * Records that a piece was put in its correct position, or taken out of it.
+     */
+    public void placedChanged(boolean placed) {
+        if (placedPieces >= 0) {
+            placedPieces += placed ? 1 : -1;
+        }
+    }
+
+    /**
+     * A copy to read outside the session's lock, e.g. while it is serialized for a client.
+     * Pieces and users are copied too, as they are changed in place.
+     */
+    public PuzzleSession copy() {
+        List<PuzzlePiece> piecesCopy = new ArrayList<>(pieces.size());
+        for (PuzzlePiece piece : pieces) {
+            piecesCopy.add(piece.copy());
+        }
+        Map<String, User> usersCopy = new HashMap<>();
+        users.forEach((userId, user) -> usersCopy.put(userId, user.copy()));
+        return new PuzzleSession(id, imageUrl, gridSize, totalPieces, piecesCopy, usersCopy, lastHandle,
+                createdAt, completed, imageWidth, imageHeight, boardWidth, boardHeight, placedPieces);
+    }
 }
\ No newline at end of file
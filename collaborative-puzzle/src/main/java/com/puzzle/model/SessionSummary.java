@@ -0,0 +1,21 @@
+package com.puzzle.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A lobby entry: what a player needs to pick a puzzle to join, without loading the session.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SessionSummary {
+    private String id;
+    private int gridSize;
+    private int totalPieces;
+    private int placedPieces;
+    private int players;
+    private String thumbnailUrl;
+    private long lastActivity; // Epoch millis
+}
@@ -11,8 +11,13 @@ import java.io.Serializable;
 @AllArgsConstructor
 public class User implements Serializable {
     private String id;
+    private int handle; // Small number standing for the user within its session, from 1
     private String name;
     private String color; // Cursor color
-    private Double cursorX;
-    private Double cursorY;
+    private double cursorX;
+    private double cursorY;
+
+    public User copy() {
+        return new User(id, handle, name, color, cursorX, cursorY);
+    }
 }
\ No newline at end of file
@@ -24,6 +24,10 @@ public class WebSocketMessage implements Serializable {
         PIECE_PLACED,
         CURSOR_MOVE,
         PUZZLE_COMPLETE,
-        SESSION_STATE
+        SESSION_STATE,
+        VIEWPORT_UPDATE, // Client reports the board area it can see
+        PIECES_SYNC,     // Server catches a client up on pieces that entered its viewport
+        PRESENCE_EXPIRED, // A user's cursor went idle and should be hidden
+        SESSION_REDIRECT  // Another node serves this session; reconnect to the given URL
     }
 }
\ No newline at end of file
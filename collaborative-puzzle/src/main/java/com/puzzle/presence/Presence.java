@@ -0,0 +1,37 @@
+package com.puzzle.presence;
+
+/**
+ * In-memory presence of one user in one puzzle session. Never persisted.
+ */
+public class Presence {
+
+    private volatile double cursorX;
+    private volatile double cursorY;
+    private volatile long lastSeen;
+
+    Presence(long now) {
+        this.lastSeen = now;
+    }
+
+    void moveCursor(double x, double y, long now) {
+        this.cursorX = x;
+        this.cursorY = y;
+        this.lastSeen = now;
+    }
+
+    void touch(long now) {
+        this.lastSeen = now;
+    }
+
+    public double getCursorX() {
+        return cursorX;
+    }
+
+    public double getCursorY() {
+        return cursorY;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+}
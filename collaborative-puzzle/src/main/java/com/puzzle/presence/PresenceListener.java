@@ -0,0 +1,12 @@
+package com.puzzle.presence;
+
+/**
+ * Receives presence changes that did not originate from a local client message:
+ * cursor moves relayed from other nodes and presence expired by inactivity.
+ */
+public interface PresenceListener {
+
+    void onRemoteCursorMove(String sessionId, int handle, double x, double y);
+
+    void onPresenceExpired(String sessionId, int handle);
+}
@@ -0,0 +1,101 @@
+package com.puzzle.presence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Relays cursor moves between nodes over a Redis pub/sub channel. Pub/sub is
+ * fire-and-forget, so nothing is stored in Redis. Enabled with
+ * {@code puzzle.presence.relay.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "puzzle.presence.relay.enabled", havingValue = "true")
+public class PresenceRelay implements MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceRelay.class);
+
+    private static final ChannelTopic TOPIC = new ChannelTopic("puzzle:presence");
+
+    // Lets a node ignore its own messages when they come back from the channel
+    private final String nodeId = UUID.randomUUID().toString();
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Lazy
+    private PresenceService presenceService;
+
+    private RedisMessageListenerContainer container;
+
+    @PostConstruct
+    public void start() {
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(this, TOPIC);
+        container.afterPropertiesSet();
+        container.start();
+    }
+
+    @PreDestroy
+    public void stop() throws Exception {
+        container.destroy();
+    }
+
+    public void publishCursor(String sessionId, int handle, double x, double y) {
+        try {
+            String payload = objectMapper.writeValueAsString(Map.of(
+                "node", nodeId,
+                "sessionId", sessionId,
+                "handle", handle,
+                "x", x,
+                "y", y
+            ));
+            redisTemplate.convertAndSend(TOPIC.getTopic(), payload);
+        } catch (Exception e) {
+            // Presence is best-effort; a lost cursor update is replaced by the next one
+            log.debug("Failed to relay cursor for session {}", sessionId, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            Map<?, ?> data = objectMapper.readValue(new String(message.getBody(), StandardCharsets.UTF_8), Map.class);
+            if (nodeId.equals(data.get("node"))) {
+                return;
+            }
+            presenceService.applyRemoteCursor(
+                (String) data.get("sessionId"),
+                ((Number) data.get("handle")).intValue(),
+                ((Number) data.get("x")).doubleValue(),
+                ((Number) data.get("y")).doubleValue()
+            );
+        } catch (Exception e) {
+            log.debug("Ignoring malformed presence message", e);
+        }
+    }
+}
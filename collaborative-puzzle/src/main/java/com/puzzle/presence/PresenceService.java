@@ -0,0 +1,162 @@
+package com.puzzle.presence;
+
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Ephemeral cursor and online state for puzzle sessions.
+ *
+ * Cursor positions are the highest-frequency updates in the game and are worthless a
+ * second later, so they live only in memory and never go through
+ * {@link com.puzzle.repository.PuzzleSessionRepository}. With multiple nodes, an optional
+ * {@link PresenceRelay} fans cursor moves out to the other nodes over Redis pub/sub.
+ */
+@Service
+public class PresenceService {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    // Maps sessionId to user handle to presence
+    private final Map<String, Map<Integer, Presence>> rooms = new ConcurrentHashMap<>();
+
+    private final List<PresenceListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Autowired(required = false)
+    private PresenceRelay relay;
+
+    // Presence with no activity for this long is dropped
+    @Value("${puzzle.presence.ttl:30000}")
+    private long ttlMillis;
+
+    public void addListener(PresenceListener listener) {
+        listeners.add(listener);
+    }
+
+    public void markOnline(String sessionId, int handle) {
+        if (handle == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        update(sessionId, handle, now, presence -> presence.touch(now));
+    }
+
+    public void updateCursor(String sessionId, int handle, double x, double y) {
+        // Connections that haven't joined have no user, so no cursor to show
+        if (handle == 0) {
+            return;
+        }
+        applyCursor(sessionId, handle, x, y);
+        if (relay != null) {
+            relay.publishCursor(sessionId, handle, x, y);
+        }
+    }
+
+    /**
+     * Applies a cursor move relayed from another node and notifies local listeners.
+     */
+    void applyRemoteCursor(String sessionId, int handle, double x, double y) {
+        applyCursor(sessionId, handle, x, y);
+        for (PresenceListener listener : listeners) {
+            listener.onRemoteCursorMove(sessionId, handle, x, y);
+        }
+    }
+
+    public void remove(String sessionId, int handle) {
+        rooms.computeIfPresent(sessionId, (id, room) -> {
+            room.remove(handle);
+            return room.isEmpty() ? null : room;
+        });
+    }
+
+    public boolean isOnline(String sessionId, int handle) {
+        Map<Integer, Presence> room = rooms.get(sessionId);
+        return room != null && room.containsKey(handle);
+    }
+
+    public Map<Integer, Presence> getPresence(String sessionId) {
+        Map<Integer, Presence> room = rooms.get(sessionId);
+        return room != null ? Collections.unmodifiableMap(room) : Collections.emptyMap();
+    }
+
+    /**
+     * Copies the live cursor positions onto the users of a session copy before it is sent
+     * to a client. Never given the live session: cursors are not part of its stored state.
+     */
+    public void applyTo(PuzzleSession session) {
+        Map<Integer, Presence> room = rooms.get(session.getId());
+        if (room == null) {
+            return;
+        }
+        for (User user : session.getUsers().values()) {
+            Presence presence = room.get(user.getHandle());
+            if (presence != null) {
+                user.setCursorX(presence.getCursorX());
+                user.setCursorY(presence.getCursorY());
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${puzzle.presence.sweep-interval:5000}")
+    public void expireInactive() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        for (String sessionId : rooms.keySet()) {
+            List<Integer> expired = new ArrayList<>();
+            rooms.computeIfPresent(sessionId, (id, room) -> {
+                Iterator<Map.Entry<Integer, Presence>> it = room.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Integer, Presence> entry = it.next();
+                    if (entry.getValue().getLastSeen() < cutoff) {
+                        it.remove();
+                        expired.add(entry.getKey());
+                    }
+                }
+                return room.isEmpty() ? null : room;
+            });
+            for (int handle : expired) {
+                notifyExpired(sessionId, handle);
+            }
+        }
+    }
+
+    private void applyCursor(String sessionId, int handle, double x, double y) {
+        long now = System.currentTimeMillis();
+        update(sessionId, handle, now, presence -> presence.moveCursor(x, y, now));
+    }
+
+    // Rooms are created, changed and dropped when empty atomically, so an update can't land
+    // in a room that remove() or the sweep has just dropped
+    private void update(String sessionId, int handle, long now, Consumer<Presence> change) {
+        rooms.compute(sessionId, (id, room) -> {
+            if (room == null) {
+                room = new ConcurrentHashMap<>();
+            }
+            change.accept(room.computeIfAbsent(handle, h -> new Presence(now)));
+            return room;
+        });
+    }
+
+    private void notifyExpired(String sessionId, int handle) {
+        for (PresenceListener listener : listeners) {
+            try {
+                listener.onPresenceExpired(sessionId, handle);
+            } catch (Exception e) {
+                log.warn("Presence listener failed for session {}", sessionId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.puzzle.profiling;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Emits the puzzle's Java Flight Recorder events, so a recording of a live node shows which
+ * sessions and operations were running around a GC pause or latency spike.
+ *
+ * Events are only created while emission is enabled, which the {@code flightrecorder}
+ * management endpoint switches at runtime, and a recording has them enabled. Otherwise each
+ * hook is a volatile read. The event being timed is kept per thread, so the layers below
+ * the handler and the service add their Redis, serialization and send time to it without
+ * it being passed down.
+ */
+@Component
+public class FlightEvents {
+
+    public static final String JOIN = "join";
+    public static final String LEAVE = "leave";
+    public static final String LOCK = "lock";
+    public static final String UNLOCK = "unlock";
+    public static final String MOVE = "move";
+    public static final String RELEASE = "release";
+
+    // Returned by start() when no event is being timed on the thread
+    private static final long UNTIMED = Long.MIN_VALUE;
+
+    @Value("${puzzle.profiling.enabled:false}")
+    private volatile boolean enabled;
+
+    private final ThreadLocal<MessageEvent> message = new ThreadLocal<>();
+    private final ThreadLocal<OperationEvent> operation = new ThreadLocal<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts timing a client message on this thread; null if it isn't being recorded.
+     */
+    public MessageEvent beginMessage(String messageType, String sessionId, int pieceId) {
+        if (!enabled) {
+            return null;
+        }
+        MessageEvent event = new MessageEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.messageType = messageType;
+        event.sessionId = sessionId;
+        event.pieceId = pieceId;
+        event.begin();
+        message.set(event);
+        return event;
+    }
+
+    public void end(MessageEvent event) {
+        if (event != null) {
+            message.remove();
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing a session operation on this thread; null if it isn't being recorded.
+     */
+    public OperationEvent beginOperation(String name, String sessionId, int pieceId) {
+        if (!enabled) {
+            return null;
+        }
+        OperationEvent event = new OperationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.operation = name;
+        event.sessionId = sessionId;
+        event.pieceId = pieceId;
+        event.begin();
+        operation.set(event);
+        return event;
+    }
+
+    /**
+     * Records whether the operation was applied, and returns that.
+     */
+    public boolean applied(OperationEvent event, boolean applied) {
+        if (event != null) {
+            event.applied = applied;
+        }
+        return applied;
+    }
+
+    public void end(OperationEvent event) {
+        if (event != null) {
+            operation.remove();
+            event.commit();
+        }
+    }
+
+    /**
+     * Start of a span to add to the events timed on this thread, if there are any.
+     */
+    public long start() {
+        if (!enabled || (message.get() == null && operation.get() == null)) {
+            return UNTIMED;
+        }
+        return System.nanoTime();
+    }
+
+    public void addRedisTime(long start) {
+        if (start == UNTIMED) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        MessageEvent messageEvent = message.get();
+        if (messageEvent != null) {
+            messageEvent.redisTime += elapsed;
+        }
+        OperationEvent operationEvent = operation.get();
+        if (operationEvent != null) {
+            operationEvent.redisTime += elapsed;
+        }
+    }
+
+    public void addSerializeTime(long start) {
+        MessageEvent event = start != UNTIMED ? message.get() : null;
+        if (event != null) {
+            event.serializeTime += System.nanoTime() - start;
+        }
+    }
+
+    public void addSendTime(long start, int fanOut) {
+        MessageEvent event = start != UNTIMED ? message.get() : null;
+        if (event != null) {
+            event.sendTime += System.nanoTime() - start;
+            event.fanOut += fanOut;
+        }
+    }
+}
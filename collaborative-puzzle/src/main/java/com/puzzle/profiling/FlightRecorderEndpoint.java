@@ -0,0 +1,119 @@
+package com.puzzle.profiling;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code /actuator/flightrecorder}: switches the puzzle's flight recorder events on and off
+ * at runtime. Disabled unless {@code management.endpoint.flightrecorder.enabled} is set, as it
+ * writes recordings to this node's disk; it is then only reachable on the management port.
+ *
+ * POST {@code {"enabled": true}} starts emitting them along with a recording, made with the
+ * {@code settings} configuration so it has the JVM's GC and latency events too, and
+ * {@code {"enabled": false}} stops both and writes the recording to {@code directory}.
+ * With {@code "record": false} only the emission is switched, for a recording started some
+ * other way, e.g. with {@code jcmd JFR.start}.
+ */
+@Component
+@Endpoint(id = "flightrecorder", enableByDefault = false)
+public class FlightRecorderEndpoint {
+
+    private static final Logger log = LoggerFactory.getLogger(FlightRecorderEndpoint.class);
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @Autowired
+    private FlightEvents events;
+
+    @Value("${puzzle.profiling.directory:data/recordings}")
+    private String directory = "data/recordings";
+
+    @Value("${puzzle.profiling.settings:profile}")
+    private String settings = "profile";
+
+    // Older events are dropped from a long recording
+    @Value("${puzzle.profiling.max-age:3600}")
+    private long maxAge = 3600;
+
+    // Guarded by this
+    private Recording recording;
+    private Path lastRecording;
+
+    @ReadOperation
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", events.isEnabled());
+        status.put("recording", recording != null ? recording.getDestination().toString() : null);
+        status.put("lastRecording", lastRecording != null ? lastRecording.toString() : null);
+        return status;
+    }
+
+    @WriteOperation
+    public synchronized Map<String, Object> update(boolean enabled, @Nullable Boolean record)
+            throws IOException, ParseException {
+        if (enabled) {
+            if (recording == null && !Boolean.FALSE.equals(record) && FlightRecorder.isAvailable()) {
+                recording = start();
+            }
+            events.setEnabled(true);
+        } else {
+            events.setEnabled(false);
+            stop();
+        }
+        return status();
+    }
+
+    private Recording start() throws IOException, ParseException {
+        Path file = Paths.get(directory).resolve("puzzle-" + LocalDateTime.now().format(FILE_TIME) + ".jfr");
+        Files.createDirectories(file.getParent());
+        Recording started = new Recording(Configuration.getConfiguration(settings));
+        started.setName("puzzle");
+        started.enable(MessageEvent.class);
+        started.enable(OperationEvent.class);
+        started.setMaxAge(Duration.ofSeconds(maxAge));
+        started.setDestination(file);
+        started.start();
+        log.info("Started flight recording to {}", file);
+        return started;
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (recording == null) {
+            return;
+        }
+        try {
+            // Writes the recording to its destination
+            recording.stop();
+            lastRecording = recording.getDestination();
+            log.info("Wrote flight recording to {}", lastRecording);
+        } catch (RuntimeException e) {
+            log.warn("Failed to write flight recording to {}", recording.getDestination(), e);
+        } finally {
+            recording.close();
+            recording = null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.puzzle.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A client message handled by {@code PuzzleWebSocketHandler}, from parsing to the last send
+ * of the broadcasts it caused.
+ */
+@Name("com.puzzle.Message")
+@Label("Puzzle Message")
+@Category("Puzzle")
+@Description("A WebSocket message from a player and the broadcasts it caused")
+@StackTrace(false)
+public final class MessageEvent extends jdk.jfr.Event {
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Session Id")
+    String sessionId;
+
+    @Label("Piece Id")
+    @Description("-1 for messages that aren't about a piece")
+    int pieceId;
+
+    @Label("Redis Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long redisTime;
+
+    @Label("Serialize Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long serializeTime;
+
+    @Label("Send Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long sendTime;
+
+    @Label("Fan-out")
+    @Description("Connections a broadcast was sent to")
+    int fanOut;
+}
@@ -0,0 +1,38 @@
+package com.puzzle.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A change {@code PuzzleService} applied, or refused, to a session, including the wait for
+ * the session's lock.
+ */
+@Name("com.puzzle.Operation")
+@Label("Puzzle Operation")
+@Category("Puzzle")
+@Description("A join, leave, lock, unlock, move or release applied to a session")
+@StackTrace(false)
+public final class OperationEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Session Id")
+    String sessionId;
+
+    @Label("Piece Id")
+    @Description("-1 for operations that aren't about a piece")
+    int pieceId;
+
+    @Label("Applied")
+    @Description("False if the operation was refused, e.g. a lock on a piece someone else holds")
+    boolean applied;
+
+    @Label("Redis Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long redisTime;
+}
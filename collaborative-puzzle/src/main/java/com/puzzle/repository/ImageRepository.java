@@ -2,9 +2,17 @@ package com.puzzle.repository;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Repository
@@ -16,9 +24,41 @@ public class ImageRepository {
     @Qualifier("binaryRedisTemplate")
     private RedisTemplate<String, byte[]> redisTemplate;
     
+    @Value("${puzzle.redis.batch-size:256}")
+    private int batchSize = 256;
+    
+    // Images outlive their session by one lifecycle refresh, as the session's own expiration
+    // is also restarted by every write-back in between refreshes
+    @Value("${puzzle.session.expiration:86400}")
+    private long sessionExpiration = 86400;
+    
+    @Value("${puzzle.lifecycle.refresh-interval:600000}")
+    private long refreshInterval = 600000;
+    
     public void saveImage(String imageId, byte[] imageData) {
         String key = KEY_PREFIX + imageId;
-        redisTemplate.opsForValue().set(key, imageData, 24, TimeUnit.HOURS);
+        redisTemplate.opsForValue().set(key, imageData, expirationSeconds(), TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Saves several images in pipelined batches rather than one round trip each.
+     */
+    public void saveImages(Map<String, byte[]> images) {
+        List<Map.Entry<String, byte[]>> entries = new ArrayList<>(images.entrySet());
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            List<Map.Entry<String, byte[]>> batch = entries.subList(from, Math.min(from + batchSize, entries.size()));
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    ValueOperations<String, byte[]> values = (ValueOperations<String, byte[]>) operations.opsForValue();
+                    for (Map.Entry<String, byte[]> image : batch) {
+                        values.set(KEY_PREFIX + image.getKey(), image.getValue(), expirationSeconds(), TimeUnit.SECONDS);
+                    }
+                    return null;
+                }
+            });
+        }
     }
     
     public byte[] getImage(String imageId) {
@@ -30,4 +70,50 @@ public class ImageRepository {
         String key = KEY_PREFIX + imageId;
         redisTemplate.delete(key);
     }
+    
+    /**
+     * Deletes several images in one pipeline, with one command per batch.
+     */
+    public void deleteImages(Collection<String> imageIds) {
+        List<String> keys = new ArrayList<>(imageIds.size());
+        for (String imageId : imageIds) {
+            keys.add(KEY_PREFIX + imageId);
+        }
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, byte[]> redis = (RedisOperations<String, byte[]>) operations;
+                for (int from = 0; from < keys.size(); from += batchSize) {
+                    redis.delete(keys.subList(from, Math.min(from + batchSize, keys.size())));
+                }
+                return null;
+            }
+        });
+    }
+    
+    /**
+     * Restarts the expiration of several images in pipelined batches.
+     */
+    public void updateExpiration(Collection<String> imageIds) {
+        List<String> ids = new ArrayList<>(imageIds);
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<String> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, byte[]> redis = (RedisOperations<String, byte[]>) operations;
+                    for (String imageId : batch) {
+                        redis.expire(KEY_PREFIX + imageId, expirationSeconds(), TimeUnit.SECONDS);
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+    
+    private long expirationSeconds() {
+        return sessionExpiration + TimeUnit.MILLISECONDS.toSeconds(refreshInterval);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,560 @@
+package com.puzzle.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.puzzle.model.PuzzlePiece;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binary snapshot format for {@link PuzzleSession}.
+ *
+ * A snapshot is a two byte magic, a format version byte and the session message. Messages
+ * are sequences of tagged fields ({@code fieldNumber << 3 | wireType}) holding varints,
+ * 64-bit doubles or length-delimited strings and nested messages, so readers skip fields
+ * they don't know and fields missing from older snapshots keep their defaults. Adding a
+ * field only needs a new field number; the version byte is bumped for incompatible changes,
+ * which older readers refuse.
+ *
+ * Pieces refer to users (lockedBy, placedBy) by their handle within the session, and piece
+ * image URLs are stored as the raw 16-byte image id. Snapshots written by the old JSON
+ * serializer are still readable: their users are given handles when read, and the user ids
+ * their pieces hold are turned into those handles.
+ */
+public final class PuzzleSessionCodec {
+
+    static final byte MAGIC_0 = (byte) 0xB5;
+    static final byte MAGIC_1 = 'P';
+    static final int VERSION = 1;
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+
+    // Session fields
+    private static final int SESSION_ID = 1;
+    private static final int SESSION_IMAGE_URL = 2;
+    private static final int SESSION_GRID_SIZE = 3;
+    private static final int SESSION_TOTAL_PIECES = 4;
+    private static final int SESSION_CREATED_SECONDS = 5;
+    private static final int SESSION_CREATED_NANOS = 6;
+    private static final int SESSION_COMPLETED = 7;
+    private static final int SESSION_IMAGE_WIDTH = 8;
+    private static final int SESSION_IMAGE_HEIGHT = 9;
+    private static final int SESSION_BOARD_WIDTH = 10;
+    private static final int SESSION_BOARD_HEIGHT = 11;
+    // 12 is unused
+    private static final int SESSION_USER = 13;
+    private static final int SESSION_PIECE = 14;
+    private static final int SESSION_LAST_HANDLE = 15;
+
+    // Piece fields
+    private static final int PIECE_ID = 1;
+    private static final int PIECE_ROW = 2;
+    private static final int PIECE_COL = 3;
+    private static final int PIECE_CURRENT_X = 4;
+    private static final int PIECE_CURRENT_Y = 5;
+    private static final int PIECE_CORRECT_X = 6;
+    private static final int PIECE_CORRECT_Y = 7;
+    private static final int PIECE_WIDTH = 8;
+    private static final int PIECE_HEIGHT = 9;
+    private static final int PIECE_IMAGE_URL = 10;
+    private static final int PIECE_PLACED = 11;
+    private static final int PIECE_LOCKED_BY = 12;
+    private static final int PIECE_LOCK_EXPIRES_AT = 13;
+    private static final int PIECE_PLACED_BY = 14;
+    private static final int PIECE_IMAGE_ID = 15;
+    private static final int PIECE_EDGES = 16;
+    private static final int PIECE_OVERHANG = 17;
+
+    // User fields
+    private static final int USER_ID = 1;
+    private static final int USER_NAME = 2;
+    private static final int USER_COLOR = 3;
+    // 4 and 5 held the cursor position, which is presence state and not persisted
+    private static final int USER_HANDLE = 6;
+
+    // Piece images are stored under random UUIDs, which pack into 16 bytes
+    private static final String IMAGE_URL_PREFIX = "/api/images/";
+
+    // Reads snapshots written by the GenericJackson2JsonRedisSerializer this codec replaced
+    private static final ObjectMapper LEGACY_MAPPER = legacyMapper();
+
+    private PuzzleSessionCodec() {
+    }
+
+    public static byte[] encode(PuzzleSession session) {
+        Writer out = new Writer(256 + session.getPieces().size() * 96);
+        out.raw(MAGIC_0);
+        out.raw(MAGIC_1);
+        out.raw((byte) VERSION);
+
+        out.string(SESSION_ID, session.getId());
+        out.string(SESSION_IMAGE_URL, session.getImageUrl());
+        out.int32(SESSION_GRID_SIZE, session.getGridSize());
+        out.int32(SESSION_TOTAL_PIECES, session.getTotalPieces());
+        if (session.getCreatedAt() != null) {
+            out.int64(SESSION_CREATED_SECONDS, session.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+            out.int32(SESSION_CREATED_NANOS, session.getCreatedAt().getNano());
+        }
+        out.bool(SESSION_COMPLETED, session.isCompleted());
+        out.int32(SESSION_IMAGE_WIDTH, session.getImageWidth());
+        out.int32(SESSION_IMAGE_HEIGHT, session.getImageHeight());
+        out.int32(SESSION_BOARD_WIDTH, session.getBoardWidth());
+        out.int32(SESSION_BOARD_HEIGHT, session.getBoardHeight());
+        out.int32(SESSION_LAST_HANDLE, session.getLastHandle());
+
+        for (User user : session.getUsers().values()) {
+            int start = out.beginMessage(SESSION_USER);
+            out.string(USER_ID, user.getId());
+            out.int32(USER_HANDLE, user.getHandle());
+            out.string(USER_NAME, user.getName());
+            out.string(USER_COLOR, user.getColor());
+            out.endMessage(start);
+        }
+        for (PuzzlePiece piece : session.getPieces()) {
+            int start = out.beginMessage(SESSION_PIECE);
+            out.int32(PIECE_ID, piece.getId());
+            out.int32(PIECE_ROW, piece.getRow());
+            out.int32(PIECE_COL, piece.getCol());
+            out.float64(PIECE_CURRENT_X, piece.getCurrentX());
+            out.float64(PIECE_CURRENT_Y, piece.getCurrentY());
+            out.float64(PIECE_CORRECT_X, piece.getCorrectX());
+            out.float64(PIECE_CORRECT_Y, piece.getCorrectY());
+            out.int32(PIECE_WIDTH, piece.getWidth());
+            out.int32(PIECE_HEIGHT, piece.getHeight());
+            out.int32(PIECE_EDGES, piece.getEdges());
+            out.int32(PIECE_OVERHANG, piece.getOverhang());
+            UUID imageId = imageId(piece.getImageUrl());
+            if (imageId != null) {
+                out.uuid(PIECE_IMAGE_ID, imageId);
+            } else {
+                out.string(PIECE_IMAGE_URL, piece.getImageUrl());
+            }
+            out.bool(PIECE_PLACED, piece.isPlaced());
+            out.int32(PIECE_LOCKED_BY, piece.getLockedBy());
+            out.int64(PIECE_LOCK_EXPIRES_AT, piece.getLockExpiresAt());
+            out.int32(PIECE_PLACED_BY, piece.getPlacedBy());
+            out.endMessage(start);
+        }
+        return out.toByteArray();
+    }
+
+    public static PuzzleSession decode(byte[] data) {
+        if (!isBinary(data)) {
+            return decodeLegacyJson(data);
+        }
+        int version = data[2] & 0xFF;
+        if (version > VERSION) {
+            throw new IllegalStateException("Unsupported session snapshot version " + version);
+        }
+
+        Reader in = new Reader(data, 3, data.length);
+        PuzzleSession session = new PuzzleSession();
+        long createdSeconds = 0;
+        int createdNanos = 0;
+        boolean hasCreatedAt = false;
+        while (in.hasMore()) {
+            int tag = in.varint32();
+            switch (tag >>> 3) {
+                case SESSION_ID: session.setId(in.string()); break;
+                case SESSION_IMAGE_URL: session.setImageUrl(in.string()); break;
+                case SESSION_GRID_SIZE: session.setGridSize(in.sint32()); break;
+                case SESSION_TOTAL_PIECES: session.setTotalPieces(in.sint32()); break;
+                case SESSION_CREATED_SECONDS: createdSeconds = in.sint64(); hasCreatedAt = true; break;
+                case SESSION_CREATED_NANOS: createdNanos = in.sint32(); break;
+                case SESSION_COMPLETED: session.setCompleted(in.varint64() != 0); break;
+                case SESSION_IMAGE_WIDTH: session.setImageWidth(in.sint32()); break;
+                case SESSION_IMAGE_HEIGHT: session.setImageHeight(in.sint32()); break;
+                case SESSION_BOARD_WIDTH: session.setBoardWidth(in.sint32()); break;
+                case SESSION_BOARD_HEIGHT: session.setBoardHeight(in.sint32()); break;
+                case SESSION_LAST_HANDLE: session.setLastHandle(in.sint32()); break;
+                case SESSION_USER: {
+                    User user = decodeUser(in.message());
+                    session.getUsers().put(user.getId(), user);
+                    break;
+                }
+                case SESSION_PIECE: session.getPieces().add(decodePiece(in.message())); break;
+                default: in.skip(tag & 7);
+            }
+        }
+        if (hasCreatedAt) {
+            session.setCreatedAt(LocalDateTime.ofEpochSecond(createdSeconds, createdNanos, ZoneOffset.UTC));
+        }
+        return session;
+    }
+
+    /**
+     * Returns whether the snapshot is in the binary format rather than legacy JSON.
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length >= 3 && data[0] == MAGIC_0 && data[1] == MAGIC_1;
+    }
+
+    private static PuzzlePiece decodePiece(Reader in) {
+        PuzzlePiece piece = new PuzzlePiece();
+        while (in.hasMore()) {
+            int tag = in.varint32();
+            switch (tag >>> 3) {
+                case PIECE_ID: piece.setId(in.sint32()); break;
+                case PIECE_ROW: piece.setRow(in.sint32()); break;
+                case PIECE_COL: piece.setCol(in.sint32()); break;
+                case PIECE_CURRENT_X: piece.setCurrentX(in.float64()); break;
+                case PIECE_CURRENT_Y: piece.setCurrentY(in.float64()); break;
+                case PIECE_CORRECT_X: piece.setCorrectX(in.float64()); break;
+                case PIECE_CORRECT_Y: piece.setCorrectY(in.float64()); break;
+                case PIECE_WIDTH: piece.setWidth(in.sint32()); break;
+                case PIECE_HEIGHT: piece.setHeight(in.sint32()); break;
+                case PIECE_EDGES: piece.setEdges(in.sint32()); break;
+                case PIECE_OVERHANG: piece.setOverhang(in.sint32()); break;
+                case PIECE_IMAGE_URL: piece.setImageUrl(in.string()); break;
+                case PIECE_IMAGE_ID: piece.setImageUrl(IMAGE_URL_PREFIX + in.uuid()); break;
+                case PIECE_PLACED: piece.setPlaced(in.varint64() != 0); break;
+                case PIECE_LOCKED_BY: piece.setLockedBy(in.sint32()); break;
+                case PIECE_LOCK_EXPIRES_AT: piece.setLockExpiresAt(in.sint64()); break;
+                case PIECE_PLACED_BY: piece.setPlacedBy(in.sint32()); break;
+                default: in.skip(tag & 7);
+            }
+        }
+        return piece;
+    }
+
+    private static User decodeUser(Reader in) {
+        User user = new User();
+        while (in.hasMore()) {
+            int tag = in.varint32();
+            switch (tag >>> 3) {
+                case USER_ID: user.setId(in.string()); break;
+                case USER_HANDLE: user.setHandle(in.sint32()); break;
+                case USER_NAME: user.setName(in.string()); break;
+                case USER_COLOR: user.setColor(in.string()); break;
+                default: in.skip(tag & 7);
+            }
+        }
+        return user;
+    }
+
+    // JSON snapshots mostly predate handles; users without one are numbered after the rest
+    private static void assignHandles(PuzzleSession session) {
+        for (User user : session.getUsers().values()) {
+            session.setLastHandle(Math.max(session.getLastHandle(), user.getHandle()));
+        }
+        for (User user : session.getUsers().values()) {
+            if (user.getHandle() == 0) {
+                session.setLastHandle(session.getLastHandle() + 1);
+                user.setHandle(session.getLastHandle());
+            }
+        }
+    }
+
+    private static PuzzleSession decodeLegacyJson(byte[] data) {
+        try {
+            JsonNode tree = LEGACY_MAPPER.readTree(data);
+            Map<Integer, String> lockedBy = new HashMap<>();
+            Map<Integer, String> placedBy = new HashMap<>();
+            takeLegacyUserIds(tree, lockedBy, placedBy);
+            PuzzleSession session = (PuzzleSession) LEGACY_MAPPER.treeToValue(tree, Object.class);
+            assignHandles(session);
+            for (PuzzlePiece piece : session.getPieces()) {
+                piece.setLockedBy(handleOf(session, lockedBy.get(piece.getId())));
+                piece.setPlacedBy(handleOf(session, placedBy.get(piece.getId())));
+            }
+            return session;
+        } catch (IOException | ClassCastException e) {
+            throw new IllegalStateException("Unreadable session snapshot", e);
+        }
+    }
+
+    private static ObjectMapper legacyMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        mapper.findAndRegisterModules();
+        mapper.activateDefaultTyping(mapper.getPolymorphicTypeValidator(),
+                ObjectMapper.DefaultTyping.NON_FINAL);
+        return mapper;
+    }
+
+    // JSON snapshots hold user ids where pieces now have handles; they are taken out of the
+    // pieces, by piece id, so the rest reads as the current model
+    private static void takeLegacyUserIds(JsonNode node, Map<Integer, String> lockedBy, Map<Integer, String> placedBy) {
+        if (node.isObject() && node.has("id") && (node.has("lockedBy") || node.has("placedBy"))) {
+            ObjectNode piece = (ObjectNode) node;
+            int pieceId = piece.get("id").asInt();
+            JsonNode locker = piece.remove("lockedBy");
+            JsonNode placer = piece.remove("placedBy");
+            if (locker != null && locker.isTextual()) {
+                lockedBy.put(pieceId, locker.asText());
+            }
+            if (placer != null && placer.isTextual()) {
+                placedBy.put(pieceId, placer.asText());
+            }
+            return;
+        }
+        for (JsonNode child : node) {
+            takeLegacyUserIds(child, lockedBy, placedBy);
+        }
+    }
+
+    // Users who have left the session have no handle, so their pieces go unattributed
+    private static int handleOf(PuzzleSession session, String userId) {
+        User user = userId != null ? session.getUsers().get(userId) : null;
+        return user != null ? user.getHandle() : 0;
+    }
+
+    // Parses only the canonical lowercase form, so the URL round-trips unchanged
+    private static UUID imageId(String imageUrl) {
+        int start = IMAGE_URL_PREFIX.length();
+        if (imageUrl == null || imageUrl.length() != start + 36 || !imageUrl.startsWith(IMAGE_URL_PREFIX)) {
+            return null;
+        }
+        long msb = 0;
+        long lsb = 0;
+        int digits = 0;
+        for (int i = start; i < imageUrl.length(); i++) {
+            char c = imageUrl.charAt(i);
+            int offset = i - start;
+            if (offset == 8 || offset == 13 || offset == 18 || offset == 23) {
+                if (c != '-') {
+                    return null;
+                }
+                continue;
+            }
+            int nibble = Character.digit(c, 16);
+            if (nibble < 0 || Character.isUpperCase(c)) {
+                return null;
+            }
+            if (digits++ < 16) {
+                msb = (msb << 4) | nibble;
+            } else {
+                lsb = (lsb << 4) | nibble;
+            }
+        }
+        return new UUID(msb, lsb);
+    }
+
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void raw(byte b) {
+            ensure(1);
+            buf[pos++] = b;
+        }
+
+        void int32(int field, int value) {
+            int64(field, value);
+        }
+
+        // Zigzag varint, omitted when zero like every other default value
+        void int64(int field, long value) {
+            if (value != 0) {
+                tag(field, VARINT);
+                varint((value << 1) ^ (value >> 63));
+            }
+        }
+
+        void bool(int field, boolean value) {
+            if (value) {
+                tag(field, VARINT);
+                varint(1);
+            }
+        }
+
+        void float64(int field, double value) {
+            if (value != 0) {
+                fixed64(field, value);
+            }
+        }
+
+        void string(int field, String value) {
+            if (value == null) {
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            tag(field, LENGTH_DELIMITED);
+            varint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void uuid(int field, UUID value) {
+            tag(field, LENGTH_DELIMITED);
+            varint(16);
+            fixed(value.getMostSignificantBits());
+            fixed(value.getLeastSignificantBits());
+        }
+
+        // Nested messages get a fixed-width length that is patched in once the body is written
+        int beginMessage(int field) {
+            tag(field, LENGTH_DELIMITED);
+            ensure(4);
+            pos += 4;
+            return pos;
+        }
+
+        void endMessage(int start) {
+            int length = pos - start;
+            int at = start - 4;
+            buf[at] = (byte) ((length & 0x7F) | 0x80);
+            buf[at + 1] = (byte) (((length >>> 7) & 0x7F) | 0x80);
+            buf[at + 2] = (byte) (((length >>> 14) & 0x7F) | 0x80);
+            buf[at + 3] = (byte) ((length >>> 21) & 0x7F);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void fixed64(int field, double value) {
+            tag(field, FIXED64);
+            fixed(Double.doubleToRawLongBits(value));
+        }
+
+        private void fixed(long bits) {
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                buf[pos++] = (byte) (bits >>> (8 * i));
+            }
+        }
+
+        private void tag(int field, int wireType) {
+            varint((field << 3) | wireType);
+        }
+
+        private void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+        private final int limit;
+
+        Reader(byte[] buf, int pos, int limit) {
+            this.buf = buf;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        boolean hasMore() {
+            return pos < limit;
+        }
+
+        int varint32() {
+            return (int) varint64();
+        }
+
+        long varint64() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = next();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalStateException("Malformed varint in session snapshot");
+        }
+
+        int sint32() {
+            return (int) sint64();
+        }
+
+        long sint64() {
+            long raw = varint64();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        double float64() {
+            return Double.longBitsToDouble(fixed());
+        }
+
+        UUID uuid() {
+            if (length() != 16) {
+                throw new IllegalStateException("Malformed id in session snapshot");
+            }
+            return new UUID(fixed(), fixed());
+        }
+
+        String string() {
+            int length = length();
+            String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        Reader message() {
+            int length = length();
+            Reader nested = new Reader(buf, pos, pos + length);
+            pos += length;
+            return nested;
+        }
+
+        void skip(int wireType) {
+            switch (wireType) {
+                case VARINT: varint64(); break;
+                case FIXED64: float64(); break;
+                case LENGTH_DELIMITED: {
+                    int length = length();
+                    pos += length;
+                    break;
+                }
+                default: throw new IllegalStateException("Unknown wire type " + wireType + " in session snapshot");
+            }
+        }
+
+        private int length() {
+            int length = varint32();
+            if (length < 0 || pos + length > limit) {
+                throw new IllegalStateException("Truncated session snapshot");
+            }
+            return length;
+        }
+
+        private long fixed() {
+            if (pos + 8 > limit) {
+                throw new IllegalStateException("Truncated session snapshot");
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits |= (long) (buf[pos++] & 0xFF) << (8 * i);
+            }
+            return bits;
+        }
+
+        private byte next() {
+            if (pos >= limit) {
+                throw new IllegalStateException("Truncated session snapshot");
+            }
+            return buf[pos++];
+        }
+    }
+}
@@ -2,31 +2,67 @@ package com.puzzle.repository;
 
 import com.puzzle.model.PuzzleSession;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Repository
 public class PuzzleSessionRepository {
     
-    private static final String KEY_PREFIX = "puzzle:session:";
+    static final String KEY_PREFIX = "puzzle:session:";
     
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    @Qualifier("sessionRedisTemplate")
+    private RedisTemplate<String, byte[]> redisTemplate;
     
     @Value("${puzzle.session.expiration}")
     private long sessionExpiration;
     
+    @Value("${puzzle.redis.batch-size:256}")
+    private int batchSize = 256;
+    
     public void save(PuzzleSession session) {
         String key = KEY_PREFIX + session.getId();
-        redisTemplate.opsForValue().set(key, session, sessionExpiration, TimeUnit.SECONDS);
+        redisTemplate.opsForValue().set(key, PuzzleSessionCodec.encode(session), sessionExpiration, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Writes already encoded snapshots, keyed by session id, in pipelined batches. Used by
+     * the write-behind flush, which encodes each session while holding its lock.
+     */
+    public void saveSnapshots(Map<String, byte[]> snapshots) {
+        List<Map.Entry<String, byte[]>> entries = new ArrayList<>(snapshots.entrySet());
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            List<Map.Entry<String, byte[]>> batch = entries.subList(from, Math.min(from + batchSize, entries.size()));
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    ValueOperations<String, byte[]> values = (ValueOperations<String, byte[]>) operations.opsForValue();
+                    for (Map.Entry<String, byte[]> snapshot : batch) {
+                        values.set(KEY_PREFIX + snapshot.getKey(), snapshot.getValue(), sessionExpiration, TimeUnit.SECONDS);
+                    }
+                    return null;
+                }
+            });
+        }
     }
     
     public PuzzleSession findById(String sessionId) {
         String key = KEY_PREFIX + sessionId;
-        return (PuzzleSession) redisTemplate.opsForValue().get(key);
+        byte[] data = redisTemplate.opsForValue().get(key);
+        // Snapshots still in the old JSON format are rewritten as binary on their next save
+        return data != null ? PuzzleSessionCodec.decode(data) : null;
     }
     
     public void delete(String sessionId) {
@@ -39,8 +75,24 @@ public class PuzzleSessionRepository {
         return Boolean.TRUE.equals(redisTemplate.hasKey(key));
     }
     
-    public void updateExpiration(String sessionId) {
-        String key = KEY_PREFIX + sessionId;
-        redisTemplate.expire(key, sessionExpiration, TimeUnit.SECONDS);
+    /**
+     * Restarts the expiration of several sessions in pipelined batches, without rewriting them.
+     */
+    public void updateExpiration(Collection<String> sessionIds) {
+        List<String> ids = new ArrayList<>(sessionIds);
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<String> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, byte[]> redis = (RedisOperations<String, byte[]>) operations;
+                    for (String sessionId : batch) {
+                        redis.expire(KEY_PREFIX + sessionId, sessionExpiration, TimeUnit.SECONDS);
+                    }
+                    return null;
+                }
+            });
+        }
     }
 }
\ No newline at end of file
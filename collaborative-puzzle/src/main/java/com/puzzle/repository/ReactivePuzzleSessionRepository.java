@@ -0,0 +1,28 @@
+package com.puzzle.repository;
+
+import com.puzzle.model.PuzzleSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking reads of session snapshots for the reactive WebSocket endpoint. Writes
+ * still go through {@link PuzzleSessionRepository} from the live-session write-behind.
+ */
+@Repository
+@Profile("reactive-ws")
+public class ReactivePuzzleSessionRepository {
+    
+    @Autowired
+    @Qualifier("reactiveSessionRedisTemplate")
+    private ReactiveRedisTemplate<String, byte[]> redisTemplate;
+    
+    public Mono<PuzzleSession> findById(String sessionId) {
+        return redisTemplate.opsForValue()
+                .get(PuzzleSessionRepository.KEY_PREFIX + sessionId)
+                .map(PuzzleSessionCodec::decode);
+    }
+}
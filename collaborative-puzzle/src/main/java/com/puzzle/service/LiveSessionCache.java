@@ -0,0 +1,571 @@
+package com.puzzle.service;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.profiling.FlightEvents;
+import com.puzzle.repository.PuzzleSessionCodec;
+import com.puzzle.repository.PuzzleSessionRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bounded in-memory cache of live puzzle sessions in front of {@link PuzzleSessionRepository}.
+ *
+ * Resident sessions are the working copy: hot-path changes (moves, locks) only mark the
+ * session dirty and are written back by a periodic flush, while structural changes are
+ * written through. Sessions with no connected sockets for {@code idle-timeout} are
+ * hibernated, i.e. flushed to the store and dropped from memory, and are rehydrated on the
+ * next {@link #get}. When the resident set exceeds its size or piece budget, the least
+ * recently used idle sessions are hibernated early.
+ *
+ * Sessions another node owns are never written back by the flush or idle hibernation, so a
+ * stale copy left here can't overwrite the owner's; only {@link #release} writes them, when
+ * they are handed off.
+ *
+ * Hibernation writes back and drops a session under the session's lock. Callers that change
+ * a session they got lock it and check it {@link #isCurrent} first, and otherwise get it
+ * again, so no change is made to a copy that is no longer resident.
+ */
+@Component
+public class LiveSessionCache {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveSessionCache.class);
+
+    private static final class Entry {
+        final PuzzleSession session;
+        final AtomicInteger connections = new AtomicInteger();
+        volatile long lastActivity = System.currentTimeMillis();
+        // Bumped under the session's lock by every change, and set to the version written
+        // once a write is confirmed; changes are pending while the two differ
+        volatile long version;
+        volatile long savedVersion;
+        // Set under the session's lock while a flush is writing an encoded copy
+        volatile boolean flushing;
+        // Set under the session's lock once it is hibernated or deleted
+        volatile boolean evicted;
+
+        Entry(PuzzleSession session) {
+            this.session = session;
+        }
+
+        boolean dirty() {
+            return version != savedVersion;
+        }
+    }
+
+    @Autowired
+    private PuzzleSessionRepository sessionRepository;
+
+    // Not a MeterBinder bean: the registry would then depend on this cache, and through the
+    // repository on the Redis client, whose own metrics depend on the registry
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private FlightEvents events;
+
+    @Autowired
+    private ClusterMembership cluster;
+
+    // Sessions without connected sockets for this long are hibernated
+    @Value("${puzzle.live-sessions.idle-timeout:300000}")
+    private long idleTimeout = 300000;
+
+    @Value("${puzzle.live-sessions.max-resident:5000}")
+    private int maxResident = 5000;
+
+    // Piece count is what dominates the memory of a session, so it's the memory budget
+    @Value("${puzzle.live-sessions.max-resident-pieces:1000000}")
+    private long maxResidentPieces = 1000000;
+
+    private final Map<String, Entry> resident = new ConcurrentHashMap<>();
+    private final AtomicLong residentPieces = new AtomicLong();
+
+    // Sessions deleted within the idle timeout, by deletion time, so a change still being made
+    // to one when it was deleted doesn't write it back to the store
+    private final Map<String, Long> deleted = new ConcurrentHashMap<>();
+
+    private final List<Consumer<PuzzleSession>> admissionListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<String>> evictionListeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder idleEvictions = new LongAdder();
+    private final LongAdder capacityEvictions = new LongAdder();
+    private final LongAdder handoffEvictions = new LongAdder();
+    private final LongAdder rehydrations = new LongAdder();
+    private final LongAdder rehydrationNanos = new LongAdder();
+
+    /**
+     * Listens for sessions becoming resident, whether new, rehydrated or admitted.
+     */
+    public void addAdmissionListener(Consumer<PuzzleSession> listener) {
+        admissionListeners.add(listener);
+    }
+
+    public void addEvictionListener(Consumer<String> listener) {
+        evictionListeners.add(listener);
+    }
+
+    /**
+     * Returns the resident session, rehydrating it from the store if it was hibernated.
+     */
+    public PuzzleSession get(String sessionId) {
+        Entry entry = resolve(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastActivity = System.currentTimeMillis();
+        return entry.session;
+    }
+
+    /**
+     * Whether the session is still the resident copy, rather than one hibernated since it
+     * was got. Only meaningful under the session's lock.
+     */
+    public boolean isCurrent(PuzzleSession session) {
+        Entry entry = resident.get(session.getId());
+        return entry != null && entry.session == session && !entry.evicted;
+    }
+
+    /**
+     * Returns the session if it is resident, without rehydrating it or counting as activity.
+     */
+    public PuzzleSession peek(String sessionId) {
+        Entry entry = resident.get(sessionId);
+        return entry != null ? entry.session : null;
+    }
+
+    /**
+     * Makes a new session resident and writes it through to the store.
+     */
+    public void put(PuzzleSession session) {
+        long start = events.start();
+        sessionRepository.save(session);
+        events.addRedisTime(start);
+        admit(new Entry(session), true);
+    }
+
+    /**
+     * Makes a session loaded from the store by another path (e.g. a reactive read) resident,
+     * and returns the resident copy, which wins if the session was loaded concurrently.
+     */
+    public PuzzleSession admitLoaded(PuzzleSession session) {
+        Entry entry = admit(new Entry(session), true);
+        entry.lastActivity = System.currentTimeMillis();
+        return entry.session;
+    }
+
+    /**
+     * Writes a structural change (join, leave, completion) through to the store.
+     */
+    public void save(PuzzleSession session) {
+        long start = events.start();
+        synchronized (session) {
+            Entry entry = resident.get(session.getId());
+            if (entry == null && deleted.containsKey(session.getId())) {
+                return;
+            }
+            if (entry != null && entry.session != session) {
+                // Hibernated and loaded again since the caller got it
+                log.warn("Dropped a change to session {} made to a copy no longer resident", session.getId());
+                return;
+            }
+            if (entry != null) {
+                // Left pending if the write fails, so the next flush retries it
+                entry.version++;
+            }
+            sessionRepository.save(session);
+            if (entry != null) {
+                entry.savedVersion = entry.version;
+            }
+        }
+        events.addRedisTime(start);
+    }
+
+    /**
+     * Records a hot-path change to be written back by the next flush.
+     */
+    public void markDirty(PuzzleSession session) {
+        synchronized (session) {
+            Entry entry = resident.get(session.getId());
+            if (entry == null) {
+                if (deleted.containsKey(session.getId())) {
+                    return;
+                }
+                // Hibernated since the caller got it and not loaded again: it was written back
+                // under this lock before the change, so this copy is still the latest
+                entry = admit(new Entry(session), false);
+            }
+            if (entry.session != session) {
+                log.warn("Dropped a change to session {} made to a copy no longer resident", session.getId());
+                return;
+            }
+            entry.version++;
+        }
+    }
+
+    /**
+     * Counts a connection to the session, which keeps it resident until the connection is
+     * closed, rehydrating it if it was hibernated in the meantime.
+     */
+    public void connectionOpened(String sessionId) {
+        while (true) {
+            Entry entry = resolve(sessionId);
+            if (entry == null) {
+                return;
+            }
+            // Hibernation checks for connections under the same lock
+            synchronized (entry.session) {
+                if (!entry.evicted) {
+                    entry.connections.incrementAndGet();
+                    entry.lastActivity = System.currentTimeMillis();
+                    return;
+                }
+            }
+        }
+    }
+
+    public void connectionClosed(String sessionId) {
+        Entry entry = resident.get(sessionId);
+        if (entry != null) {
+            entry.connections.updateAndGet(count -> Math.max(0, count - 1));
+            entry.lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    public boolean isResident(String sessionId) {
+        return resident.containsKey(sessionId);
+    }
+
+    public int residentCount() {
+        return resident.size();
+    }
+
+    public List<String> residentIds() {
+        return new ArrayList<>(resident.keySet());
+    }
+
+    /**
+     * Resident sessions with connected clients, or used since {@code since} epoch millis.
+     */
+    public List<String> activeSince(long since) {
+        List<String> active = new ArrayList<>();
+        for (Entry entry : resident.values()) {
+            if (entry.connections.get() > 0 || entry.lastActivity >= since) {
+                active.add(entry.session.getId());
+            }
+        }
+        return active;
+    }
+
+    public boolean isConnected(String sessionId) {
+        Entry entry = resident.get(sessionId);
+        return entry != null && entry.connections.get() > 0;
+    }
+
+    /**
+     * Writes a session back and drops it from memory even if clients are connected, e.g.
+     * when another node takes it over, after any flush of it in progress. Returns false if
+     * the write-back failed, in which case the session stays resident.
+     */
+    public boolean release(String sessionId) {
+        Entry entry = resident.get(sessionId);
+        if (entry == null) {
+            return true;
+        }
+        if (!hibernate(entry, false)) {
+            return false;
+        }
+        handoffEvictions.increment();
+        return true;
+    }
+
+    /**
+     * Hibernates the session now rather than after the idle timeout if nobody is connected
+     * to it, e.g. once its last connections turned out to be dead.
+     */
+    public boolean hibernateIfIdle(String sessionId) {
+        Entry entry = resident.get(sessionId);
+        if (entry == null || !hibernate(entry, true)) {
+            return false;
+        }
+        idleEvictions.increment();
+        return true;
+    }
+
+    /**
+     * Drops a session from memory and deletes it from the store, discarding unsaved changes
+     * and any still being made to it.
+     */
+    public void delete(String sessionId) {
+        deleted.put(sessionId, System.currentTimeMillis());
+        Entry entry;
+        while ((entry = resident.get(sessionId)) != null) {
+            boolean removed;
+            // Changes being made to it finish first, and a flush of it lands before the delete
+            synchronized (entry.session) {
+                awaitFlush(entry);
+                removed = resident.remove(sessionId, entry);
+                if (removed) {
+                    entry.evicted = true;
+                }
+            }
+            if (removed) {
+                residentPieces.addAndGet(-entry.session.getPieces().size());
+                for (Consumer<String> listener : evictionListeners) {
+                    listener.accept(sessionId);
+                }
+            }
+        }
+        sessionRepository.delete(sessionId);
+    }
+
+    /**
+     * Writes back every dirty session in pipelined batches.
+     *
+     * Sessions stay resident until their write is confirmed: hibernation skips or waits for
+     * a session being flushed, so a failed write is retried and an older copy still on its
+     * way to the store never lands after a newer one written back on hibernation.
+     */
+    @Scheduled(fixedDelayString = "${puzzle.live-sessions.flush-interval:1000}")
+    public void flush() {
+        Map<Entry, Long> batch = new HashMap<>();
+        Map<String, byte[]> snapshots = new HashMap<>();
+        for (Entry entry : resident.values()) {
+            if (!entry.dirty() || entry.flushing || !cluster.isLocal(entry.session.getId())) {
+                continue;
+            }
+            synchronized (entry.session) {
+                if (entry.evicted || entry.flushing) {
+                    continue;
+                }
+                entry.flushing = true;
+                batch.put(entry, entry.version);
+                snapshots.put(entry.session.getId(), PuzzleSessionCodec.encode(entry.session));
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        boolean written = false;
+        try {
+            sessionRepository.saveSnapshots(snapshots);
+            written = true;
+        } catch (RuntimeException e) {
+            // Still pending, so retried on the next flush
+            log.warn("Failed to write back {} sessions", batch.size(), e);
+        } finally {
+            for (Map.Entry<Entry, Long> flushed : batch.entrySet()) {
+                Entry entry = flushed.getKey();
+                synchronized (entry.session) {
+                    if (written) {
+                        // Behind a write-through made meanwhile, which this write may have
+                        // overtaken in the store, so that version is written again
+                        entry.savedVersion = flushed.getValue();
+                    }
+                    entry.flushing = false;
+                    entry.session.notifyAll();
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${puzzle.live-sessions.sweep-interval:30000}")
+    public void hibernateIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeout;
+        deleted.values().removeIf(deletedAt -> deletedAt < cutoff);
+        for (Entry entry : resident.values()) {
+            if (entry.connections.get() == 0 && entry.lastActivity < cutoff) {
+                if (hibernate(entry, true)) {
+                    idleEvictions.increment();
+                }
+            }
+        }
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        if (meterRegistry != null) {
+            bindTo(meterRegistry);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void bindTo(MeterRegistry registry) {
+        Gauge.builder("puzzle.sessions.resident", resident, Map::size)
+                .description("Puzzle sessions held in memory")
+                .register(registry);
+        Gauge.builder("puzzle.sessions.resident.pieces", residentPieces, AtomicLong::get)
+                .description("Pieces across all resident puzzle sessions")
+                .register(registry);
+        FunctionCounter.builder("puzzle.sessions.evictions", idleEvictions, LongAdder::sum)
+                .tag("reason", "idle")
+                .register(registry);
+        FunctionCounter.builder("puzzle.sessions.evictions", capacityEvictions, LongAdder::sum)
+                .tag("reason", "capacity")
+                .register(registry);
+        FunctionCounter.builder("puzzle.sessions.evictions", handoffEvictions, LongAdder::sum)
+                .tag("reason", "handoff")
+                .register(registry);
+        FunctionTimer.builder("puzzle.sessions.rehydration", this,
+                        cache -> cache.rehydrations.sum(),
+                        cache -> cache.rehydrationNanos.sum(),
+                        TimeUnit.NANOSECONDS)
+                .description("Time to load a hibernated session back into memory")
+                .register(registry);
+    }
+
+    private Entry rehydrate(String sessionId) {
+        long start = System.nanoTime();
+        long timed = events.start();
+        PuzzleSession session = sessionRepository.findById(sessionId);
+        events.addRedisTime(timed);
+        if (session == null || deleted.containsKey(sessionId)) {
+            return null;
+        }
+        rehydrations.increment();
+        rehydrationNanos.add(System.nanoTime() - start);
+        return admit(new Entry(session), true);
+    }
+
+    // The resident entry, rehydrated if need be, or got again if it was hibernated meanwhile
+    private Entry resolve(String sessionId) {
+        while (true) {
+            Entry entry = resident.get(sessionId);
+            if (entry == null) {
+                entry = rehydrate(sessionId);
+                if (entry == null) {
+                    return null;
+                }
+            }
+            if (!entry.evicted) {
+                return entry;
+            }
+        }
+    }
+
+    private Entry admit(Entry entry, boolean enforceBounds) {
+        Entry existing = resident.putIfAbsent(entry.session.getId(), entry);
+        if (existing != null) {
+            // Another thread rehydrated the same session first
+            return existing;
+        }
+        residentPieces.addAndGet(entry.session.getPieces().size());
+        for (Consumer<PuzzleSession> listener : admissionListeners) {
+            listener.accept(entry.session);
+        }
+        // Not when admitted under a session's lock, as hibernating others takes their locks
+        if (enforceBounds) {
+            enforceBounds(entry);
+        }
+        return entry;
+    }
+
+    private void enforceBounds(Entry admitted) {
+        if (resident.size() <= maxResident && residentPieces.get() <= maxResidentPieces) {
+            return;
+        }
+        // Only sessions nobody is connected to can be hibernated, least recently used first
+        List<Entry> candidates = new ArrayList<>();
+        for (Entry entry : resident.values()) {
+            // Not the session being admitted, which is about to be used
+            if (entry != admitted && entry.connections.get() == 0) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(entry -> entry.lastActivity));
+        for (Entry entry : candidates) {
+            if (resident.size() <= maxResident && residentPieces.get() <= maxResidentPieces) {
+                break;
+            }
+            if (hibernate(entry, true)) {
+                capacityEvictions.increment();
+            }
+        }
+    }
+
+    private boolean hibernate(Entry entry, boolean onlyIfIdle) {
+        String sessionId = entry.session.getId();
+        // No change or connection can come in between the write-back and the removal
+        synchronized (entry.session) {
+            // The flush's copy could otherwise land after the write-back, or fail and be lost;
+            // idle sessions are hibernated on a later sweep instead
+            if (entry.flushing && (onlyIfIdle || !awaitFlush(entry))) {
+                return false;
+            }
+            if (entry.evicted || (onlyIfIdle && entry.connections.get() > 0)) {
+                return false;
+            }
+            if (entry.dirty()) {
+                // Left to the handoff, which releases it before redirecting its clients
+                if (onlyIfIdle && !cluster.isLocal(sessionId)) {
+                    return false;
+                }
+                if (!writeBack(entry)) {
+                    // Keep it resident rather than lose changes
+                    return false;
+                }
+            }
+            if (!resident.remove(sessionId, entry)) {
+                return false;
+            }
+            entry.evicted = true;
+        }
+        residentPieces.addAndGet(-entry.session.getPieces().size());
+        for (Consumer<String> listener : evictionListeners) {
+            listener.accept(sessionId);
+        }
+        return true;
+    }
+
+    // Under the session's lock, which is let go while waiting. False if interrupted.
+    private boolean awaitFlush(Entry entry) {
+        while (entry.flushing) {
+            try {
+                entry.session.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Under the session's lock
+    private boolean writeBack(Entry entry) {
+        try {
+            sessionRepository.save(entry.session);
+            entry.savedVersion = entry.version;
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Failed to write back session {}", entry.session.getId(), e);
+            return false;
+        }
+    }
+}
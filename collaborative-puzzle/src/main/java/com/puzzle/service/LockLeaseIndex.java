@@ -0,0 +1,155 @@
+package com.puzzle.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node-local index of the piece lock leases of resident sessions: those granted on this
+ * node, and those a session was loaded with.
+ *
+ * Leases are indexed both by piece and by holder, so releasing everything a user holds
+ * costs O(k) in the number of locks they hold rather than a scan over every piece.
+ * The authoritative lock state (holder and expiry) is persisted on {@link com.puzzle.model.PuzzlePiece},
+ * so locks from a crashed node still expire for everybody else.
+ */
+public class LockLeaseIndex {
+
+    public static final class Lease {
+        final String sessionId;
+        final int pieceId;
+        final int handle;
+        volatile long expiresAt;
+
+        Lease(String sessionId, int pieceId, int handle, long expiresAt) {
+            this.sessionId = sessionId;
+            this.pieceId = pieceId;
+            this.handle = handle;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public int getPieceId() {
+            return pieceId;
+        }
+
+        public int getHandle() {
+            return handle;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    // Maps sessionId to pieceId to lease
+    private final Map<String, Map<Integer, Lease>> byPiece = new ConcurrentHashMap<>();
+
+    // Maps sessionId to user handle to held piece ids
+    private final Map<String, Map<Integer, Set<Integer>>> byUser = new ConcurrentHashMap<>();
+
+    public synchronized void grant(String sessionId, int pieceId, int handle, long expiresAt) {
+        revoke(sessionId, pieceId);
+        byPiece.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(pieceId, new Lease(sessionId, pieceId, handle, expiresAt));
+        byUser.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(handle, id -> new HashSet<>())
+                .add(pieceId);
+    }
+
+    public synchronized void renew(String sessionId, int pieceId, int handle, long expiresAt) {
+        Map<Integer, Lease> leases = byPiece.get(sessionId);
+        Lease lease = leases != null ? leases.get(pieceId) : null;
+        if (lease != null && lease.handle == handle) {
+            lease.expiresAt = expiresAt;
+        } else {
+            // Lease was granted by another node or already swept; take it over here
+            grant(sessionId, pieceId, handle, expiresAt);
+        }
+    }
+
+    public synchronized void revoke(String sessionId, int pieceId) {
+        Map<Integer, Lease> leases = byPiece.get(sessionId);
+        Lease lease = leases != null ? leases.remove(pieceId) : null;
+        if (lease == null) {
+            return;
+        }
+        Map<Integer, Set<Integer>> users = byUser.get(sessionId);
+        Set<Integer> held = users != null ? users.get(lease.handle) : null;
+        if (held != null) {
+            held.remove(pieceId);
+            if (held.isEmpty()) {
+                users.remove(lease.handle);
+            }
+        }
+        cleanup(sessionId);
+    }
+
+    /**
+     * Revokes every lease the user holds in the session and returns the affected piece ids.
+     */
+    public synchronized Set<Integer> revokeAll(String sessionId, int handle) {
+        Map<Integer, Set<Integer>> users = byUser.get(sessionId);
+        Set<Integer> held = users != null ? users.remove(handle) : null;
+        if (held == null) {
+            return Collections.emptySet();
+        }
+        Map<Integer, Lease> leases = byPiece.get(sessionId);
+        if (leases != null) {
+            for (int pieceId : held) {
+                leases.remove(pieceId);
+            }
+        }
+        cleanup(sessionId);
+        return held;
+    }
+
+    /**
+     * Forgets every lease in the session, e.g. once it is no longer resident on this node.
+     */
+    public synchronized void revokeSession(String sessionId) {
+        byPiece.remove(sessionId);
+        byUser.remove(sessionId);
+    }
+
+    /**
+     * Revokes the lease if it is still the piece's lease and has not been renewed past
+     * {@code now} since {@link #expired} returned it.
+     */
+    public synchronized boolean revokeIfExpired(Lease lease, long now) {
+        Map<Integer, Lease> leases = byPiece.get(lease.sessionId);
+        if (leases == null || leases.get(lease.pieceId) != lease || lease.expiresAt > now) {
+            return false;
+        }
+        revoke(lease.sessionId, lease.pieceId);
+        return true;
+    }
+
+    public synchronized List<Lease> expired(long now) {
+        List<Lease> result = new ArrayList<>();
+        for (Map<Integer, Lease> leases : byPiece.values()) {
+            for (Lease lease : leases.values()) {
+                if (lease.expiresAt <= now) {
+                    result.add(lease);
+                }
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return byPiece.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private void cleanup(String sessionId) {
+        byPiece.computeIfPresent(sessionId, (id, leases) -> leases.isEmpty() ? null : leases);
+        byUser.computeIfPresent(sessionId, (id, users) -> users.isEmpty() ? null : users);
+    }
+}
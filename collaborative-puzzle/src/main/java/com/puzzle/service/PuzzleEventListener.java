@@ -0,0 +1,37 @@
+package com.puzzle.service;
+
+import com.puzzle.model.PuzzleSession;
+
+/**
+ * Callbacks for state changes in {@link PuzzleService}. Lock expiry happens on the service's
+ * own, outside of a client request, and connected clients need to hear about it; the
+ * session lifecycle callbacks feed indexes kept outside the session, such as the lobby.
+ *
+ * Callbacks that get the session are called while holding its lock and must not block.
+ */
+public interface PuzzleEventListener {
+
+    /**
+     * A piece lock lease ran out without being renewed and the piece was unlocked.
+     */
+    default void onLockExpired(String sessionId, int pieceId, int handle) {
+    }
+
+    default void onSessionCreated(PuzzleSession session) {
+    }
+
+    /**
+     * A player joined or left.
+     */
+    default void onPlayersChanged(PuzzleSession session) {
+    }
+
+    /**
+     * A piece was placed or taken out of its place, possibly completing the puzzle.
+     */
+    default void onProgress(PuzzleSession session) {
+    }
+
+    default void onSessionDeleted(String sessionId) {
+    }
+}
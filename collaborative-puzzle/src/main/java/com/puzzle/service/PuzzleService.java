@@ -1,56 +1,166 @@
 package com.puzzle.service;
 
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.jigsaw.EdgePattern;
+import com.puzzle.jigsaw.PieceMask;
+import com.puzzle.jigsaw.PieceMaskCache;
+import com.puzzle.journal.SessionJournal;
 import com.puzzle.model.PuzzlePiece;
 import com.puzzle.model.PuzzleSession;
 import com.puzzle.model.User;
+import com.puzzle.profiling.FlightEvents;
+import com.puzzle.profiling.OperationEvent;
 import com.puzzle.repository.ImageRepository;
-import com.puzzle.repository.PuzzleSessionRepository;
 import net.coobird.thumbnailator.Thumbnails;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Service
 public class PuzzleService {
     
     @Autowired
-    private PuzzleSessionRepository sessionRepository;
+    private LiveSessionCache liveSessions;
     
     @Autowired
     private ImageRepository imageRepository;
     
+    @Autowired
+    private SessionJournal journal;
+    
+    @Autowired
+    private ClusterMembership cluster;
+    
+    @Autowired
+    private PieceMaskCache pieceMasks;
+    
+    @Autowired
+    private FlightEvents events;
+    
+    @Autowired
+    @Qualifier("imageExecutor")
+    private Executor imageExecutor;
+    
     @Value("${puzzle.piece.snap-threshold}")
     private int snapThreshold;
     
+    @Value("${puzzle.grid.sizes:3,5,8,20,35,50}")
+    private int[] gridSizes = {3, 5, 8, 20, 35, 50};
+    
+    // Grids at or above this size use the high-resolution source and large board layout
+    @Value("${puzzle.grid.large-threshold:20}")
+    private int largeGridThreshold = 20;
+    
+    @Value("${puzzle.image.max-width:500}")
+    private int imageMaxWidth = 500;
+    
+    @Value("${puzzle.image.max-height:400}")
+    private int imageMaxHeight = 400;
+    
+    @Value("${puzzle.image.large-max-width:2000}")
+    private int largeImageMaxWidth = 2000;
+    
+    @Value("${puzzle.image.large-max-height:1600}")
+    private int largeImageMaxHeight = 1600;
+    
+    private static final int TARGET_AREA_OFFSET = 50; // matches the frontend positioning
+    private static final int MIN_BOARD_WIDTH = 1200;
+    private static final int MIN_BOARD_HEIGHT = 800;
+    private static final int PIECE_SPACING = 15;
+    
+    // Node-local spatial indexes, keyed by session id
+    private final Map<String, SpatialIndex> spatialIndexes = new ConcurrentHashMap<>();
+    
+    // How long a piece lock lasts without drag activity before it lapses
+    @Value("${puzzle.lock.lease-ttl:15000}")
+    private long lockLeaseTtl = 15000;
+    
+    private final LockLeaseIndex leases = new LockLeaseIndex();
+    
+    private final List<PuzzleEventListener> listeners = new CopyOnWriteArrayList<>();
+    
     private final String[] CURSOR_COLORS = {
         "#FF6B6B", "#4ECDC4", "#45B7D1", "#96CEB4", "#FECA57",
         "#FF9FF3", "#54A0FF", "#48DBFB", "#1DD1A1", "#F368E0"
     };
     
-    public PuzzleSession createSession(MultipartFile imageFile, int gridSize) throws IOException {
-        // Validate grid size
-        if (gridSize != 3 && gridSize != 5 && gridSize != 8) {
-            throw new IllegalArgumentException("Invalid grid size. Must be 3, 5, or 8.");
+    public void addListener(PuzzleEventListener listener) {
+        listeners.add(listener);
+    }
+    
+    @PostConstruct
+    public void registerCacheListeners() {
+        liveSessions.addAdmissionListener(this::admitted);
+        liveSessions.addEvictionListener(this::evicted);
+        // Recovered from the journal before this service was created
+        for (String sessionId : liveSessions.residentIds()) {
+            PuzzleSession session = liveSessions.peek(sessionId);
+            if (session != null) {
+                admitted(session);
+            }
         }
+    }
+    
+    private void admitted(PuzzleSession session) {
+        // Locks the session was stored with, e.g. by a node that crashed, are swept like
+        // this node's own once their lease lapses
+        synchronized (session) {
+            for (PuzzlePiece piece : session.getPieces()) {
+                if (piece.getLockedBy() != 0) {
+                    leases.grant(session.getId(), piece.getId(), piece.getLockedBy(), piece.getLockExpiresAt());
+                }
+            }
+        }
+    }
+    
+    private void evicted(String sessionId) {
+        // Hibernated sessions get their index rebuilt on the next lookup. Their leases are
+        // dropped: a session handed off is the new owner's to sweep, and one that is merely
+        // hibernated has nobody connected to hold locks.
+        spatialIndexes.remove(sessionId);
+        leases.revokeSession(sessionId);
+    }
+    
+    public PuzzleSession createSession(MultipartFile imageFile, int gridSize) throws IOException {
+        validateGridSize(gridSize);
         
         // Process and store image
         BufferedImage originalImage = ImageIO.read(imageFile.getInputStream());
         if (originalImage == null) {
             throw new IOException("Failed to read image. The file may be corrupted or in an unsupported format.");
         }
+        return createSession(originalImage, gridSize);
+    }
+    
+    public PuzzleSession createSession(BufferedImage originalImage, int gridSize) throws IOException {
+        validateGridSize(gridSize);
         
-        // Frontend already compressed the image, so we just need to resize for puzzle
+        // Frontend already compressed the image, so we just need to resize for puzzle.
+        // Large grids need a higher-resolution source to keep pieces a usable size.
+        boolean large = gridSize >= largeGridThreshold;
         BufferedImage resizedImage = Thumbnails.of(originalImage)
-                .size(500, 400)
+                .size(large ? largeImageMaxWidth : imageMaxWidth, large ? largeImageMaxHeight : imageMaxHeight)
                 .keepAspectRatio(true)
                 .asBufferedImage();
         
@@ -74,22 +184,82 @@ public class PuzzleService {
         session.setImageHeight(resizedImage.getHeight());
         
         // Create puzzle pieces and cut the image
-        List<PuzzlePiece> pieces = createPuzzlePieces(gridSize, resizedImage.getWidth(), resizedImage.getHeight());
+        List<PuzzlePiece> pieces = createPuzzlePieces(session, gridSize, resizedImage.getWidth(), resizedImage.getHeight());
         cutImageIntoPieces(resizedImage, pieces, gridSize);
         session.setPieces(pieces);
         
-        sessionRepository.save(session);
+        liveSessions.put(session);
+        journal.sessionCreated(session);
+        fire(listener -> listener.onSessionCreated(session));
+        if (!cluster.isLocal(session.getId())) {
+            // Created on whichever node took the upload; the owner loads it from the store
+            liveSessions.release(session.getId());
+            return session;
+        }
+        spatialIndexes.put(session.getId(), SpatialIndex.build(session.getBoardWidth(), session.getBoardHeight(), pieces));
         return session;
     }
     
-    private List<PuzzlePiece> createPuzzlePieces(int gridSize, int imageWidth, int imageHeight) {
-        List<PuzzlePiece> pieces = new ArrayList<>();
+    private void validateGridSize(int gridSize) {
+        if (Arrays.stream(gridSizes).noneMatch(size -> size == gridSize)) {
+            throw new IllegalArgumentException("Invalid grid size. Must be one of " + Arrays.toString(gridSizes) + ".");
+        }
+    }
+    
+    /**
+     * Removes a session and its images from memory and the store. Clients still connected
+     * to it are not told.
+     */
+    public void deleteSession(String sessionId) {
+        PuzzleSession session = liveSessions.get(sessionId);
+        if (session == null) {
+            return;
+        }
+        liveSessions.delete(sessionId);
+        fire(listener -> listener.onSessionDeleted(sessionId));
+        imageRepository.deleteImages(imageIds(session));
+    }
+    
+    /**
+     * Ids of the session's picture and of every piece image cut from it.
+     */
+    static List<String> imageIds(PuzzleSession session) {
+        List<String> imageIds = new ArrayList<>(session.getPieces().size() + 1);
+        imageIds.add(imageId(session.getImageUrl()));
+        for (PuzzlePiece piece : session.getPieces()) {
+            imageIds.add(imageId(piece.getImageUrl()));
+        }
+        return imageIds;
+    }
+    
+    private static String imageId(String imageUrl) {
+        return imageUrl.substring(imageUrl.lastIndexOf('/') + 1);
+    }
+    
+    private List<PuzzlePiece> createPuzzlePieces(PuzzleSession session, int gridSize, int imageWidth, int imageHeight) {
+        int totalPieces = gridSize * gridSize;
+        List<PuzzlePiece> pieces = new ArrayList<>(totalPieces);
         int pieceWidth = imageWidth / gridSize;
         int pieceHeight = imageHeight / gridSize;
+        int overhang = EdgePattern.overhang(pieceWidth, pieceHeight);
+        int[] edges = EdgePattern.generate(gridSize, ThreadLocalRandom.current());
+        
+        // Scatter pieces in a grid to the right of the target area. The board is at least
+        // 1200x800; when the pieces don't fit in that height the scatter area grows to the
+        // right instead of stacking pieces on top of each other, so the layout scales to
+        // thousands of pieces.
+        int boardHeight = Math.max(MIN_BOARD_HEIGHT, imageHeight + 2 * TARGET_AREA_OFFSET);
+        int scatterStartX = imageWidth + 100; // Start scatter area 100px right of image
+        int cellSize = Math.max(pieceWidth, pieceHeight) + 2 * overhang + PIECE_SPACING;
+        int scatterRows = Math.max(1, (boardHeight - 2 * TARGET_AREA_OFFSET) / cellSize);
+        int scatterCols = (totalPieces + scatterRows - 1) / scatterRows;
+        int boardWidth = Math.max(MIN_BOARD_WIDTH, scatterStartX + scatterCols * cellSize + TARGET_AREA_OFFSET);
+        session.setBoardWidth(boardWidth);
+        session.setBoardHeight(boardHeight);
         
         // Create pieces in random positions
-        List<Integer> positions = new ArrayList<>();
-        for (int i = 0; i < gridSize * gridSize; i++) {
+        List<Integer> positions = new ArrayList<>(totalPieces);
+        for (int i = 0; i < totalPieces; i++) {
             positions.add(i);
         }
         Collections.shuffle(positions);
@@ -103,40 +273,23 @@ public class PuzzleService {
                 piece.setCol(col);
                 piece.setWidth(pieceWidth);
                 piece.setHeight(pieceHeight);
+                piece.setEdges(edges[pieceId]);
+                piece.setOverhang(overhang);
                 
                 // Correct position (includes the target area offset)
-                piece.setCorrectX(50 + col * pieceWidth);
-                piece.setCorrectY(50 + row * pieceHeight);
+                piece.setCorrectX(TARGET_AREA_OFFSET + col * pieceWidth);
+                piece.setCorrectY(TARGET_AREA_OFFSET + row * pieceHeight);
                 
-                // Arrange pieces in a grid to the right of the target area
-                // Container is 1200x800, image area is on the left, so scatter pieces in remaining space
+                // Fill the scatter area column by column so it only grows to the right. Positions
+                // are of the piece's body, inset by the overhang so tabs stay within the cell.
                 int randomPos = positions.get(pieceId);
+                int randomCol = randomPos / scatterRows;
+                int randomRow = randomPos % scatterRows;
                 
-                // Calculate grid arrangement based on available space
-                // With smaller image (500x400), we have more room for pieces
-                int scatterStartX = imageWidth + 100; // Start scatter area 100px right of image
-                int maxX = 1150; // Leave 50px margin on the right
-                int availableWidth = maxX - scatterStartX;
-                
-                // Calculate columns and rows for scatter area with proper spacing
-                int pieceSpacing = 15; // Space between pieces
-                int maxPieceSize = Math.max(pieceWidth, pieceHeight);
-                int scatterCols = Math.max(1, availableWidth / (maxPieceSize + pieceSpacing));
-                scatterCols = Math.min(scatterCols, gridSize); // Don't use more columns than grid size
-                
-                int randomRow = randomPos / scatterCols;
-                int randomCol = randomPos % scatterCols;
-                
-                // Position pieces with proper spacing to avoid overlap
-                int xPos = scatterStartX + (randomCol * (maxPieceSize + pieceSpacing));
-                int yPos = 50 + (randomRow * (maxPieceSize + pieceSpacing));
-                
-                // Ensure pieces don't go off screen
-                piece.setCurrentX(Math.min(xPos, maxX - pieceWidth));
-                piece.setCurrentY(Math.min(yPos, 750 - pieceHeight)); // Container height is 800
+                piece.setCurrentX(scatterStartX + randomCol * cellSize + overhang);
+                piece.setCurrentY(TARGET_AREA_OFFSET + randomRow * cellSize + overhang);
                 
                 piece.setPlaced(false);
-                piece.setPlacedBy(null); // Initialize as null
                 pieces.add(piece);
                 pieceId++;
             }
@@ -145,138 +298,189 @@ public class PuzzleService {
         return pieces;
     }
     
+    /**
+     * Cuts every piece out of the image in its jigsaw shape. Masks come from the shared cache,
+     * so the shapes are drawn at most once per edge signature and only the cutting and
+     * encoding grow with the number of pieces.
+     */
     private void cutImageIntoPieces(BufferedImage originalImage, List<PuzzlePiece> pieces, int gridSize) {
         int pieceWidth = originalImage.getWidth() / gridSize;
         int pieceHeight = originalImage.getHeight() / gridSize;
         
+        // Pieces are encoded in parallel, then written in pipelined batches
+        List<CompletableFuture<byte[]>> encoded = new ArrayList<>(pieces.size());
         for (PuzzlePiece piece : pieces) {
+            PieceMask mask = pieceMasks.get(pieceWidth, pieceHeight, piece.getEdges());
+            int x = piece.getCol() * pieceWidth;
+            int y = piece.getRow() * pieceHeight;
+            // PNG, as the shape needs transparency
+            encoded.add(CompletableFuture.supplyAsync(() -> encodePng(mask.cut(originalImage, x, y)), imageExecutor));
+        }
+        
+        Map<String, byte[]> pieceImages = new LinkedHashMap<>();
+        for (int i = 0; i < pieces.size(); i++) {
+            String pieceImageId = UUID.randomUUID().toString();
             try {
-                // Extract the piece from the original image
-                int x = piece.getCol() * pieceWidth;
-                int y = piece.getRow() * pieceHeight;
-                
-                // Handle edge pieces that might be slightly larger due to rounding
-                int actualWidth = Math.min(pieceWidth, originalImage.getWidth() - x);
-                int actualHeight = Math.min(pieceHeight, originalImage.getHeight() - y);
-                
-                BufferedImage pieceImage = originalImage.getSubimage(x, y, actualWidth, actualHeight);
-                
-                // Save the piece image with compression
-                String pieceImageId = UUID.randomUUID().toString();
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                
-                // Save piece as JPEG
-                ImageIO.write(pieceImage, "JPEG", baos);
-                
-                imageRepository.saveImage(pieceImageId, baos.toByteArray());
-                
-                // Set the image URL for the piece
-                piece.setImageUrl("/api/images/" + pieceImageId);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to create piece image", e);
+                pieceImages.put(pieceImageId, encoded.get(i).join());
+            } catch (CompletionException e) {
+                throw new RuntimeException("Failed to create piece image", e.getCause());
             }
+            
+            // Set the image URL for the piece
+            pieces.get(i).setImageUrl("/api/images/" + pieceImageId);
+        }
+        imageRepository.saveImages(pieceImages);
+    }
+    
+    private static byte[] encodePng(BufferedImage image) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ImageIO.write(image, "PNG", baos);
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
     
     public PuzzleSession getSession(String sessionId) {
-        return sessionRepository.findById(sessionId);
+        return liveSessions.get(sessionId);
     }
     
     public User joinSession(String sessionId, String userName) {
-        PuzzleSession session = sessionRepository.findById(sessionId);
-        if (session == null) {
-            throw new IllegalArgumentException("Session not found");
+        OperationEvent event = events.beginOperation(FlightEvents.JOIN, sessionId, -1);
+        try {
+            User user = change(sessionId, null, session -> joinSession(session, userName));
+            if (user == null) {
+                throw new IllegalArgumentException("Session not found");
+            }
+            events.applied(event, true);
+            return user;
+        } finally {
+            events.end(event);
         }
-        
+    }
+    
+    private User joinSession(PuzzleSession session, String userName) {
         User user = new User();
         user.setId(UUID.randomUUID().toString());
+        // The id stays the user's key at the API; within the session they go by the handle
+        session.setLastHandle(session.getLastHandle() + 1);
+        user.setHandle(session.getLastHandle());
         user.setName(userName);
         user.setColor(CURSOR_COLORS[session.getUsers().size() % CURSOR_COLORS.length]);
-        user.setCursorX(0.0);
-        user.setCursorY(0.0);
         
         session.getUsers().put(user.getId(), user);
-        sessionRepository.save(session);
+        journal.userJoined(session, user);
+        liveSessions.save(session);
+        fire(listener -> listener.onPlayersChanged(session));
         
         return user;
     }
     
     public void leaveSession(String sessionId, String userId) {
-        PuzzleSession session = sessionRepository.findById(sessionId);
-        if (session != null) {
-            session.getUsers().remove(userId);
-            
-            // Unlock any pieces locked by this user
-            for (PuzzlePiece piece : session.getPieces()) {
-                if (userId.equals(piece.getLockedBy())) {
-                    piece.setLockedBy(null);
-                }
-            }
-            
-            sessionRepository.save(session);
+        OperationEvent event = events.beginOperation(FlightEvents.LEAVE, sessionId, -1);
+        try {
+            events.applied(event, change(sessionId, false, session -> leaveSession(session, userId)));
+        } finally {
+            events.end(event);
         }
     }
     
-    public boolean movePiece(String sessionId, int pieceId, double x, double y, String userId) {
-        PuzzleSession session = sessionRepository.findById(sessionId);
-        if (session == null) {
+    private boolean leaveSession(PuzzleSession session, String userId) {
+        User user = session.getUsers().remove(userId);
+        if (user == null) {
             return false;
         }
         
-        // Don't allow any piece movement if puzzle is completed
-        if (session.isCompleted()) {
+        // Unlock the pieces this user holds leases on
+        for (int pieceId : leases.revokeAll(session.getId(), user.getHandle())) {
+            PuzzlePiece piece = findPiece(session, pieceId);
+            if (piece != null && piece.getLockedBy() == user.getHandle()) {
+                clearLock(piece);
+                journal.pieceUnlocked(session, piece);
+            }
+        }
+        journal.userLeft(session, userId);
+        
+        liveSessions.save(session);
+        fire(listener -> listener.onPlayersChanged(session));
+        return true;
+    }
+    
+    public boolean movePiece(String sessionId, int pieceId, double x, double y, int handle) {
+        OperationEvent event = events.beginOperation(FlightEvents.MOVE, sessionId, pieceId);
+        try {
+            return events.applied(event, change(sessionId, false, session -> movePiece(session, pieceId, x, y, handle)));
+        } finally {
+            events.end(event);
+        }
+    }
+    
+    private boolean movePiece(PuzzleSession session, int pieceId, double x, double y, int handle) {
+        // Don't allow any piece movement if puzzle is completed, or by connections without a user
+        if (session.isCompleted() || handle == 0) {
             return false;
         }
         
-        PuzzlePiece piece = session.getPieces().stream()
-                .filter(p -> p.getId() == pieceId)
-                .findFirst()
-                .orElse(null);
+        PuzzlePiece piece = findPiece(session, pieceId);
         
         if (piece == null) {
             return false;
         }
         
         // Check if piece is locked by another user
-        if (piece.getLockedBy() != null && !piece.getLockedBy().equals(userId)) {
+        long now = System.currentTimeMillis();
+        if (isLockedByOther(piece, handle, now)) {
             return false;
         }
         
+        // Drag activity keeps the lock lease alive
+        if (piece.getLockedBy() == handle) {
+            piece.setLockExpiresAt(now + lockLeaseTtl);
+            leases.renew(session.getId(), pieceId, handle, piece.getLockExpiresAt());
+        }
+        
         // Just update position without snapping during drag
         piece.setCurrentX(x);
         piece.setCurrentY(y);
         
-        sessionRepository.save(session);
+        journal.pieceMoved(session, piece);
+        liveSessions.markDirty(session);
+        indexFor(session).update(pieceId, x, y);
         return true;
     }
     
-    public boolean releasePiece(String sessionId, int pieceId, double x, double y, String userId) {
-        PuzzleSession session = sessionRepository.findById(sessionId);
-        if (session == null) {
-            return false;
+    public boolean releasePiece(String sessionId, int pieceId, double x, double y, int handle) {
+        OperationEvent event = events.beginOperation(FlightEvents.RELEASE, sessionId, pieceId);
+        try {
+            return events.applied(event, change(sessionId, false, session -> releasePiece(session, pieceId, x, y, handle)));
+        } finally {
+            events.end(event);
         }
-        
-        // Don't allow any piece movement if puzzle is completed
-        if (session.isCompleted()) {
+    }
+    
+    private boolean releasePiece(PuzzleSession session, int pieceId, double x, double y, int handle) {
+        // Don't allow any piece movement if puzzle is completed, or by connections without a user
+        if (session.isCompleted() || handle == 0) {
             return false;
         }
         
-        PuzzlePiece piece = session.getPieces().stream()
-                .filter(p -> p.getId() == pieceId)
-                .findFirst()
-                .orElse(null);
+        PuzzlePiece piece = findPiece(session, pieceId);
         
         if (piece == null) {
             return false;
         }
         
-        // Calculate piece dimensions
+        boolean wasPlaced = piece.isPlaced();
+        
+        // Calculate piece dimensions. Positions are of the piece's rectangular body, whose
+        // center is also the center of its padded image, so tabs don't shift the snap target.
         int pieceWidth = session.getImageWidth() / session.getGridSize();
         int pieceHeight = session.getImageHeight() / session.getGridSize();
         
         // Calculate the target area offset (where puzzle should be assembled)
-        int targetAreaX = 50; // matches the frontend positioning
-        int targetAreaY = 50;
+        int targetAreaX = TARGET_AREA_OFFSET;
+        int targetAreaY = TARGET_AREA_OFFSET;
         
         // Calculate center of the piece for snapping
         double pieceCenterX = x + (pieceWidth / 2.0);
@@ -332,16 +536,10 @@ public class PuzzleService {
             // Check if it's the correct position and mark as placed
             if (nearestCol == piece.getCol() && nearestRow == piece.getRow()) {
                 // Only set placedBy if it wasn't already placed
-                if (!piece.isPlaced()) {
-                    piece.setPlacedBy(userId);
+                if (!wasPlaced) {
+                    piece.setPlacedBy(handle);
                 }
                 piece.setPlaced(true);
-                
-                // Check if puzzle is complete
-                boolean allPlaced = session.getPieces().stream().allMatch(PuzzlePiece::isPlaced);
-                if (allPlaced) {
-                    session.setCompleted(true);
-                }
             } else {
                 // Piece is snapped but not in correct position
                 piece.setPlaced(false);
@@ -353,63 +551,204 @@ public class PuzzleService {
             piece.setPlaced(false);
         }
         
-        sessionRepository.save(session);
+        if (piece.isPlaced() != wasPlaced) {
+            session.placedChanged(piece.isPlaced());
+            // Only a new placement can complete the puzzle
+            if (piece.isPlaced() && session.placedPieceCount() == session.getPieces().size()) {
+                session.setCompleted(true);
+            }
+        }
+        
+        journal.pieceReleased(session, piece);
+        // Completion is rare and final, so it's written through
+        if (session.isCompleted()) {
+            liveSessions.save(session);
+        } else {
+            liveSessions.markDirty(session);
+        }
+        indexFor(session).update(pieceId, piece.getCurrentX(), piece.getCurrentY());
+        if (piece.isPlaced() != wasPlaced) {
+            fire(listener -> listener.onProgress(session));
+        }
         return true;
     }
     
-    public boolean lockPiece(String sessionId, int pieceId, String userId) {
-        PuzzleSession session = sessionRepository.findById(sessionId);
-        if (session == null) {
-            return false;
+    public boolean lockPiece(String sessionId, int pieceId, int handle) {
+        OperationEvent event = events.beginOperation(FlightEvents.LOCK, sessionId, pieceId);
+        try {
+            return events.applied(event, change(sessionId, false, session -> lockPiece(session, pieceId, handle)));
+        } finally {
+            events.end(event);
         }
-        
-        // Don't allow locking pieces if puzzle is completed
-        if (session.isCompleted()) {
+    }
+    
+    private boolean lockPiece(PuzzleSession session, int pieceId, int handle) {
+        // Don't allow locking pieces if puzzle is completed, or by connections without a user
+        if (session.isCompleted() || handle == 0) {
             return false;
         }
         
-        PuzzlePiece piece = session.getPieces().stream()
-                .filter(p -> p.getId() == pieceId)
-                .findFirst()
-                .orElse(null);
+        PuzzlePiece piece = findPiece(session, pieceId);
         
-        if (piece == null || 
-            (piece.getLockedBy() != null && !piece.getLockedBy().equals(userId))) {
+        long now = System.currentTimeMillis();
+        if (piece == null || isLockedByOther(piece, handle, now)) {
             return false;
         }
         
-        piece.setLockedBy(userId);
-        sessionRepository.save(session);
+        // A lapsed lease from another user (e.g. on a crashed node) can be taken over
+        piece.setLockedBy(handle);
+        piece.setLockExpiresAt(now + lockLeaseTtl);
+        journal.pieceLocked(session, piece);
+        liveSessions.markDirty(session);
+        leases.grant(session.getId(), pieceId, handle, piece.getLockExpiresAt());
         return true;
     }
     
-    public boolean unlockPiece(String sessionId, int pieceId, String userId) {
-        PuzzleSession session = sessionRepository.findById(sessionId);
-        if (session == null) {
-            return false;
+    public boolean unlockPiece(String sessionId, int pieceId, int handle) {
+        OperationEvent event = events.beginOperation(FlightEvents.UNLOCK, sessionId, pieceId);
+        try {
+            return events.applied(event, change(sessionId, false, session -> unlockPiece(session, pieceId, handle)));
+        } finally {
+            events.end(event);
         }
+    }
+    
+    private boolean unlockPiece(PuzzleSession session, int pieceId, int handle) {
+        PuzzlePiece piece = findPiece(session, pieceId);
         
-        PuzzlePiece piece = session.getPieces().stream()
-                .filter(p -> p.getId() == pieceId)
-                .findFirst()
-                .orElse(null);
-        
-        if (piece == null || !userId.equals(piece.getLockedBy())) {
+        if (piece == null || handle == 0 || piece.getLockedBy() != handle) {
             return false;
         }
         
-        piece.setLockedBy(null);
-        sessionRepository.save(session);
+        clearLock(piece);
+        journal.pieceUnlocked(session, piece);
+        liveSessions.markDirty(session);
+        leases.revoke(session.getId(), pieceId);
         return true;
     }
     
-    public void updateCursor(String sessionId, String userId, double x, double y) {
-        PuzzleSession session = sessionRepository.findById(sessionId);
-        if (session != null && session.getUsers().containsKey(userId)) {
-            User user = session.getUsers().get(userId);
-            user.setCursorX(x);
-            user.setCursorY(y);
-            sessionRepository.save(session);
+    /**
+     * Unlocks pieces whose lease was granted on this node and has not been renewed by
+     * drag activity, and tells listeners so clients see the piece as free again.
+     *
+     * Only resident sessions this node owns are touched: reloading one that was handed
+     * off would write this node's stale copy over the owner's.
+     */
+    @Scheduled(fixedDelayString = "${puzzle.lock.sweep-interval:1000}")
+    public void expireStaleLocks() {
+        long now = System.currentTimeMillis();
+        for (LockLeaseIndex.Lease lease : leases.expired(now)) {
+            // Renewed or regranted since it was collected
+            if (!leases.revokeIfExpired(lease, now)) {
+                continue;
+            }
+            
+            PuzzleSession session = liveSessions.peek(lease.getSessionId());
+            if (session == null || !cluster.isLocal(lease.getSessionId())) {
+                continue;
+            }
+            synchronized (session) {
+                // Hibernated since it was peeked at, and not to be reloaded for an unlock
+                if (!liveSessions.isCurrent(session)) {
+                    continue;
+                }
+                PuzzlePiece piece = findPiece(session, lease.getPieceId());
+                // The persisted lease may have been renewed or taken over since
+                if (piece == null || piece.getLockedBy() != lease.getHandle() || piece.getLockExpiresAt() > now) {
+                    continue;
+                }
+                clearLock(piece);
+                journal.pieceUnlocked(session, piece);
+                liveSessions.markDirty(session);
+            }
+            
+            fire(listener -> listener.onLockExpired(lease.getSessionId(), lease.getPieceId(), lease.getHandle()));
+        }
+    }
+    
+    /**
+     * Applies a change to the session under its lock, or returns {@code absent} if there is no
+     * such session. The session is got again if it was hibernated before it could be locked,
+     * so the change is never made to a copy that is no longer resident.
+     */
+    private <T> T change(String sessionId, T absent, Function<PuzzleSession, T> change) {
+        while (true) {
+            PuzzleSession session = liveSessions.get(sessionId);
+            if (session == null) {
+                return absent;
+            }
+            synchronized (session) {
+                if (liveSessions.isCurrent(session)) {
+                    return change.apply(session);
+                }
+            }
+        }
+    }
+    
+    private void fire(Consumer<PuzzleEventListener> event) {
+        for (PuzzleEventListener listener : listeners) {
+            event.accept(listener);
+        }
+    }
+    
+    private static boolean isLockedByOther(PuzzlePiece piece, int handle, long now) {
+        return piece.getLockedBy() != 0
+                && piece.getLockedBy() != handle
+                && piece.getLockExpiresAt() > now;
+    }
+    
+    private static void clearLock(PuzzlePiece piece) {
+        piece.setLockedBy(0);
+        piece.setLockExpiresAt(0);
+    }
+    
+    /**
+     * Returns the ids of the pieces intersecting the given board area.
+     */
+    public List<Integer> findPiecesInArea(String sessionId, double x, double y, double width, double height) {
+        SpatialIndex index = spatialIndexes.get(sessionId);
+        if (index == null) {
+            PuzzleSession session = liveSessions.get(sessionId);
+            if (session == null) {
+                return Collections.emptyList();
+            }
+            index = indexFor(session);
         }
+        return index.query(x, y, width, height);
+    }
+    
+    /**
+     * Returns the last known bounds of a piece as {x, y, width, height} from the node-local
+     * spatial index, or null if the session is not indexed on this node.
+     */
+    public double[] getPieceBounds(String sessionId, int pieceId) {
+        SpatialIndex index = spatialIndexes.get(sessionId);
+        return index != null ? index.bounds(pieceId) : null;
+    }
+    
+    private SpatialIndex indexFor(PuzzleSession session) {
+        return spatialIndexes.computeIfAbsent(session.getId(), id -> SpatialIndex.build(
+                boardWidth(session), boardHeight(session), session.getPieces()));
+    }
+    
+    // Sessions created before large-puzzle mode have no stored board size
+    private static int boardWidth(PuzzleSession session) {
+        return session.getBoardWidth() > 0 ? session.getBoardWidth() : MIN_BOARD_WIDTH;
+    }
+    
+    private static int boardHeight(PuzzleSession session) {
+        return session.getBoardHeight() > 0 ? session.getBoardHeight() : MIN_BOARD_HEIGHT;
+    }
+    
+    private static PuzzlePiece findPiece(PuzzleSession session, int pieceId) {
+        // Pieces are created in id order, so the id doubles as the list index
+        List<PuzzlePiece> pieces = session.getPieces();
+        if (pieceId >= 0 && pieceId < pieces.size() && pieces.get(pieceId).getId() == pieceId) {
+            return pieces.get(pieceId);
+        }
+        return pieces.stream()
+                .filter(p -> p.getId() == pieceId)
+                .findFirst()
+                .orElse(null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,215 @@
+package com.puzzle.service;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.repository.ImageRepository;
+import com.puzzle.repository.PuzzleSessionRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a session and its images alive together, and deletes both once the session is done.
+ *
+ * Every {@code refresh-interval}, the sessions used since the last refresh have the
+ * expiration of their snapshot and of all their images restarted in pipelined batches, so
+ * a session that is being played never loses its images. Each refresh also moves the
+ * session's cleanup time in {@code puzzle:lifecycle:due} forward: by {@code abandon-after}
+ * for puzzles in progress, by {@code completed-grace} for completed ones, which stay up for
+ * a while after their last player leaves. Sessions past their cleanup time with nobody
+ * connected are deleted by their owner node, images in one pipeline, rather than left in
+ * Redis until they expire.
+ */
+@Component
+public class SessionLifecycle implements PuzzleEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionLifecycle.class);
+
+    // Session id to the epoch millis after which it may be cleaned up
+    private static final String DUE_KEY = "puzzle:lifecycle:due";
+
+    @Autowired
+    private LiveSessionCache liveSessions;
+
+    @Autowired
+    private PuzzleService puzzleService;
+
+    @Autowired
+    private PuzzleSessionRepository sessionRepository;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ClusterMembership cluster;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${puzzle.lifecycle.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${puzzle.lifecycle.abandon-after:86400}")
+    private long abandonAfter = 86400;
+
+    @Value("${puzzle.lifecycle.completed-grace:300}")
+    private long completedGrace = 300;
+
+    @Value("${puzzle.lifecycle.sweep-batch:100}")
+    private int sweepBatch = 100;
+
+    // Created since the last refresh; sessions created for another node aren't resident here
+    private final Set<String> created = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder completedCleanups = new LongAdder();
+    private final LongAdder abandonedCleanups = new LongAdder();
+
+    private long lastRefresh = System.currentTimeMillis();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        puzzleService.addListener(this);
+        if (meterRegistry == null) {
+            return;
+        }
+        FunctionCounter.builder("puzzle.sessions.cleanups", completedCleanups, LongAdder::sum)
+                .description("Sessions deleted with their images before they expired")
+                .tag("reason", "completed")
+                .register(meterRegistry);
+        FunctionCounter.builder("puzzle.sessions.cleanups", abandonedCleanups, LongAdder::sum)
+                .description("Sessions deleted with their images before they expired")
+                .tag("reason", "abandoned")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void onSessionCreated(PuzzleSession session) {
+        if (enabled) {
+            created.add(session.getId());
+        }
+    }
+
+    @Override
+    public void onSessionDeleted(String sessionId) {
+        created.remove(sessionId);
+    }
+
+    /**
+     * Restarts the expiration of the sessions used since the last refresh and of their
+     * images, and moves their cleanup time forward.
+     */
+    @Scheduled(fixedDelayString = "${puzzle.lifecycle.refresh-interval:600000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<String> sessionIds = liveSessions.activeSince(lastRefresh);
+        List<String> imageIds = new ArrayList<>();
+        Map<String, Long> due = new LinkedHashMap<>();
+        for (String sessionId : sessionIds) {
+            PuzzleSession session = liveSessions.peek(sessionId);
+            if (session == null) {
+                continue;
+            }
+            imageIds.addAll(PuzzleService.imageIds(session));
+            long after = session.isCompleted() ? completedGrace : abandonAfter;
+            due.put(sessionId, now + TimeUnit.SECONDS.toMillis(after));
+        }
+        for (String sessionId : created) {
+            created.remove(sessionId);
+            due.putIfAbsent(sessionId, now + TimeUnit.SECONDS.toMillis(abandonAfter));
+        }
+        if (due.isEmpty()) {
+            lastRefresh = now;
+            return;
+        }
+        try {
+            sessionRepository.updateExpiration(due.keySet());
+            imageRepository.updateExpiration(imageIds);
+            schedule(due);
+            lastRefresh = now;
+            log.debug("Refreshed {} sessions and {} images", due.size(), imageIds.size());
+        } catch (RuntimeException e) {
+            // lastRefresh stays put, so the same sessions are refreshed on the next try
+            log.warn("Failed to refresh the expiration of {} sessions", due.size(), e);
+        }
+    }
+
+    private void schedule(Map<String, Long> due) {
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> redis = (RedisOperations<String, String>) operations;
+                for (Map.Entry<String, Long> session : due.entrySet()) {
+                    redis.opsForZSet().add(DUE_KEY, session.getKey(), session.getValue());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Deletes the sessions this node owns that are past their cleanup time, with their
+     * images. Sessions with players connected are left for the next refresh to reschedule.
+     */
+    @Scheduled(fixedDelayString = "${puzzle.lifecycle.sweep-interval:60000}")
+    public void sweep() {
+        if (!enabled) {
+            return;
+        }
+        Set<String> sessionIds;
+        try {
+            sessionIds = redisTemplate.opsForZSet().rangeByScore(DUE_KEY, 0, System.currentTimeMillis(), 0, sweepBatch);
+        } catch (RuntimeException e) {
+            log.warn("Failed to read sessions due for cleanup", e);
+            return;
+        }
+        if (sessionIds == null) {
+            return;
+        }
+        for (String sessionId : sessionIds) {
+            if (!cluster.isLocal(sessionId) || liveSessions.isConnected(sessionId)) {
+                continue;
+            }
+            try {
+                PuzzleSession session = liveSessions.get(sessionId);
+                if (session != null) {
+                    boolean completed = session.isCompleted();
+                    puzzleService.deleteSession(sessionId);
+                    (completed ? completedCleanups : abandonedCleanups).increment();
+                    log.debug("Deleted {} session {}", completed ? "completed" : "abandoned", sessionId);
+                }
+                // Already expired from the store; its images expire one refresh later
+                redisTemplate.opsForZSet().remove(DUE_KEY, sessionId);
+            } catch (RuntimeException e) {
+                log.warn("Failed to clean up session {}", sessionId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.puzzle.service;
+
+import com.puzzle.model.PuzzlePiece;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform-grid spatial index over the pieces of a single puzzle board.
+ *
+ * Every piece is bucketed by the cell containing its top-left corner. Because the
+ * cell size is at least as large as the biggest piece, an area query only has to
+ * look at the cells covering the area plus one cell up and to the left, so both
+ * updates and queries cost O(1) in the number of pieces on the board.
+ *
+ * Positions are those of a piece's rectangular body; its tabs stick out past the body
+ * by up to the overhang on each side, so area queries and bounds cover that too.
+ */
+public class SpatialIndex {
+
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    private final int pieceWidth;
+    private final int pieceHeight;
+    private final int overhang;
+
+    // Intrusive doubly-linked lists per cell: head[cell] -> next[piece] -> ..., with
+    // prev[piece] so a piece leaves its cell without a scan
+    private final int[] head;
+    private final int[] next;
+    private final int[] prev;
+    private final int[] cellOf;
+    private final double[] xs;
+    private final double[] ys;
+
+    public SpatialIndex(int boardWidth, int boardHeight, int pieceWidth, int pieceHeight, int pieceCount) {
+        this(boardWidth, boardHeight, pieceWidth, pieceHeight, 0, pieceCount);
+    }
+
+    public SpatialIndex(int boardWidth, int boardHeight, int pieceWidth, int pieceHeight, int overhang, int pieceCount) {
+        this.pieceWidth = pieceWidth;
+        this.pieceHeight = pieceHeight;
+        this.overhang = overhang;
+        this.cellSize = Math.max(1, Math.max(pieceWidth, pieceHeight) + 2 * overhang);
+        this.columns = Math.max(1, (boardWidth + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (boardHeight + cellSize - 1) / cellSize);
+        this.head = new int[columns * rows];
+        this.next = new int[pieceCount];
+        this.prev = new int[pieceCount];
+        this.cellOf = new int[pieceCount];
+        this.xs = new double[pieceCount];
+        this.ys = new double[pieceCount];
+        Arrays.fill(head, -1);
+        Arrays.fill(cellOf, -1);
+    }
+
+    public static SpatialIndex build(int boardWidth, int boardHeight, List<PuzzlePiece> pieces) {
+        int pieceWidth = pieces.isEmpty() ? 1 : pieces.get(0).getWidth();
+        int pieceHeight = pieces.isEmpty() ? 1 : pieces.get(0).getHeight();
+        int overhang = pieces.isEmpty() ? 0 : pieces.get(0).getOverhang();
+        SpatialIndex index = new SpatialIndex(boardWidth, boardHeight, pieceWidth, pieceHeight, overhang, pieces.size());
+        for (PuzzlePiece piece : pieces) {
+            index.update(piece.getId(), piece.getCurrentX(), piece.getCurrentY());
+        }
+        return index;
+    }
+
+    public synchronized void update(int pieceId, double x, double y) {
+        if (pieceId < 0 || pieceId >= next.length) {
+            return;
+        }
+        // Stored as the top-left corner of the area the piece covers
+        xs[pieceId] = x - overhang;
+        ys[pieceId] = y - overhang;
+
+        int cell = cellFor(xs[pieceId], ys[pieceId]);
+        if (cell == cellOf[pieceId]) {
+            return;
+        }
+        unlink(pieceId);
+        next[pieceId] = head[cell];
+        prev[pieceId] = -1;
+        if (head[cell] != -1) {
+            prev[head[cell]] = pieceId;
+        }
+        head[cell] = pieceId;
+        cellOf[pieceId] = cell;
+    }
+
+    /**
+     * Returns the ids of all pieces whose bounds intersect the given area.
+     */
+    public synchronized List<Integer> query(double x, double y, double width, double height) {
+        List<Integer> result = new ArrayList<>();
+        int minCol = clamp((int) Math.floor(x / cellSize) - 1, columns);
+        int minRow = clamp((int) Math.floor(y / cellSize) - 1, rows);
+        int maxCol = clamp((int) Math.floor((x + width) / cellSize), columns);
+        int maxRow = clamp((int) Math.floor((y + height) / cellSize), rows);
+        int extentWidth = pieceWidth + 2 * overhang;
+        int extentHeight = pieceHeight + 2 * overhang;
+
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                for (int id = head[row * columns + col]; id != -1; id = next[id]) {
+                    if (xs[id] < x + width && xs[id] + extentWidth > x
+                            && ys[id] < y + height && ys[id] + extentHeight > y) {
+                        result.add(id);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the area a piece currently covers, tabs included, as {x, y, width, height},
+     * or null for an unknown id.
+     */
+    public synchronized double[] bounds(int pieceId) {
+        if (pieceId < 0 || pieceId >= next.length || cellOf[pieceId] < 0) {
+            return null;
+        }
+        return new double[] {xs[pieceId], ys[pieceId], pieceWidth + 2 * overhang, pieceHeight + 2 * overhang};
+    }
+
+    private void unlink(int pieceId) {
+        int cell = cellOf[pieceId];
+        if (cell < 0) {
+            return;
+        }
+        if (prev[pieceId] != -1) {
+            next[prev[pieceId]] = next[pieceId];
+        } else {
+            head[cell] = next[pieceId];
+        }
+        if (next[pieceId] != -1) {
+            prev[next[pieceId]] = prev[pieceId];
+        }
+    }
+
+    private int cellFor(double x, double y) {
+        int col = clamp((int) Math.floor(x / cellSize), columns);
+        int row = clamp((int) Math.floor(y / cellSize), rows);
+        return row * columns + col;
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(value, size - 1));
+    }
+}
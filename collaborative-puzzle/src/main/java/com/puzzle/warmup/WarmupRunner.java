@@ -0,0 +1,279 @@
+package com.puzzle.warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.model.PuzzlePiece;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.model.WebSocketMessage;
+import com.puzzle.repository.PuzzleSessionCodec;
+import com.puzzle.service.PuzzleService;
+import com.puzzle.websocket.InboundMessage;
+import com.puzzle.websocket.InboundMessageParser;
+import com.puzzle.websocket.OutboundMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a synthetic session through the real code paths before the node takes traffic:
+ * it creates a puzzle, joins it over HTTP, plays a few moves over a WebSocket, then drives
+ * many parse, move, release and encode rounds in process so the JIT compiles the hot
+ * paths, and finally deletes the session. Only a session this node owns is played, so
+ * puzzles are created until one is.
+ *
+ * Spring Boot only reports the application ready, which is what the readiness probe
+ * reflects, once every runner has finished, so the first players on a new node don't pay
+ * for class loading and interpreted code. Failures are logged and don't stop startup.
+ */
+@Component
+public class WarmupRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(WarmupRunner.class);
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    // Session ids are random, so in a cluster a new session is often owned by another node
+    private static final int CREATE_ATTEMPTS = 5;
+
+    @Autowired
+    private PuzzleService puzzleService;
+
+    @Autowired
+    private ClusterMembership cluster;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Value("${puzzle.warmup.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${puzzle.warmup.grid-size:8}")
+    private int gridSize = 8;
+
+    // In-process rounds; enough for the hot paths to reach the optimizing compiler
+    @Value("${puzzle.warmup.iterations:20000}")
+    private int iterations = 20000;
+
+    // Exits once warmed up, for the training run that records the class-data sharing list
+    @Value("${puzzle.warmup.exit:false}")
+    private boolean exit;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            long start = System.currentTimeMillis();
+            try {
+                warmUp();
+                log.info("Warm-up finished in {} ms", System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                log.warn("Warm-up failed after {} ms; starting cold", System.currentTimeMillis() - start, e);
+            }
+        }
+        if (exit) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private void warmUp() throws Exception {
+        for (int attempt = 0; attempt < CREATE_ATTEMPTS; attempt++) {
+            PuzzleSession session = puzzleService.createSession(syntheticImage(), gridSize);
+            String sessionId = session.getId();
+            try {
+                // One owned elsewhere was handed to its owner on creation; playing it here would
+                // write it back from this node, and requests for it are forwarded or redirected
+                if (cluster.isLocal(sessionId)) {
+                    play(session);
+                    return;
+                }
+            } finally {
+                puzzleService.deleteSession(sessionId);
+            }
+        }
+        log.info("Warm-up sessions were all owned by other nodes; only creation was warmed up");
+    }
+
+    private void play(PuzzleSession session) throws Exception {
+        String sessionId = session.getId();
+        String userId = joinOverHttp(sessionId);
+        if (userId != null) {
+            playOverWebSocket(sessionId, userId, session.getPieces().get(0));
+        }
+        User user = puzzleService.joinSession(sessionId, "warm-up");
+        playInProcess(puzzleService.getSession(sessionId), user);
+    }
+
+    private static BufferedImage syntheticImage() {
+        BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, 800, 600, Color.BLUE));
+            graphics.fillRect(0, 0, 800, 600);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    private int port() {
+        return context instanceof WebServerApplicationContext
+                ? ((WebServerApplicationContext) context).getWebServer().getPort()
+                : -1;
+    }
+
+    // Controller, request binding and session serialization; returns the new user's id
+    private String joinOverHttp(String sessionId) throws Exception {
+        int port = port();
+        if (port <= 0) {
+            return null;
+        }
+        HttpClient client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+        String base = "http://localhost:" + port + "/api/sessions/" + sessionId;
+        HttpResponse<String> joined = client.send(HttpRequest.newBuilder(URI.create(base + "/join"))
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"name\":\"warm-up\"}"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        client.send(HttpRequest.newBuilder(URI.create(base)).timeout(TIMEOUT).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (joined.statusCode() != 200) {
+            log.debug("Warm-up join returned {}", joined.statusCode());
+            return null;
+        }
+        return objectMapper.readValue(joined.body(), User.class).getId();
+    }
+
+    // Handshake, session state, and a few moves within the inbound rate limit
+    private void playOverWebSocket(String sessionId, String userId, PuzzlePiece piece) throws Exception {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        WebSocket socket = HttpClient.newHttpClient().newWebSocketBuilder()
+                .connectTimeout(TIMEOUT)
+                .buildAsync(URI.create("ws://localhost:" + port() + "/ws/puzzle/" + sessionId + "?userId=" + userId),
+                        new WebSocket.Listener() {
+                            @Override
+                            public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                                received.add(data.toString());
+                                webSocket.request(1);
+                                return null;
+                            }
+                        })
+                .get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            received.poll(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            int id = piece.getId();
+            send(socket, "{\"type\":\"PIECE_LOCK\",\"data\":{\"pieceId\":" + id + "}}");
+            for (int i = 1; i <= 5; i++) {
+                send(socket, String.format(Locale.ROOT, "{\"type\":\"PIECE_MOVE\",\"data\":{\"pieceId\":%d,\"x\":%.1f,\"y\":%.1f}}",
+                        id, piece.getCurrentX() + i, piece.getCurrentY() + i));
+                send(socket, String.format(Locale.ROOT, "{\"type\":\"CURSOR_MOVE\",\"data\":{\"x\":%d,\"y\":%d}}", 10 * i, 10 * i));
+            }
+            send(socket, String.format(Locale.ROOT, "{\"type\":\"PIECE_RELEASE\",\"data\":{\"pieceId\":%d,\"x\":%.1f,\"y\":%.1f}}",
+                    id, piece.getCurrentX(), piece.getCurrentY()));
+            send(socket, "{\"type\":\"PIECE_UNLOCK\",\"data\":{\"pieceId\":" + id + "}}");
+            // Moves are echoed back to their sender
+            boolean echoed = false;
+            long deadline = System.currentTimeMillis() + TIMEOUT.toMillis();
+            while (!echoed && System.currentTimeMillis() < deadline) {
+                String message = received.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    break;
+                }
+                echoed = message.contains("\"PIECE_MOVE\"");
+            }
+            log.debug("Warm-up WebSocket round trip {}", echoed ? "completed" : "got no reply");
+        } finally {
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void send(WebSocket socket, String frame) throws Exception {
+        socket.sendText(frame, true).get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The per-message work of the WebSocket handler, without the socket: parse a frame,
+     * apply it, and encode what would be broadcast. Pieces are moved around the scatter area
+     * and every few rounds one is dropped on its correct spot and picked up again, so the
+     * puzzle is never completed.
+     */
+    private void playInProcess(PuzzleSession session, User user) throws Exception {
+        String sessionId = session.getId();
+        int handle = user.getHandle();
+        List<PuzzlePiece> pieces = session.getPieces();
+        int scatterX = session.getImageWidth() + 100;
+        int scatterWidth = Math.max(1, session.getBoardWidth() - scatterX - pieces.get(0).getWidth());
+        int scatterHeight = Math.max(1, session.getBoardHeight() - pieces.get(0).getHeight());
+        Random random = new Random(42);
+        int encoded = 0;
+        for (int i = 0; i < iterations; i++) {
+            PuzzlePiece piece = pieces.get(i % pieces.size());
+            int id = piece.getId();
+            double x = scatterX + random.nextInt(scatterWidth) + random.nextInt(100) / 4.0;
+            double y = random.nextInt(scatterHeight) + random.nextInt(100) / 4.0;
+
+            InboundMessage lock = InboundMessageParser.parse("{\"type\":\"PIECE_LOCK\",\"data\":{\"pieceId\":" + id + "}}");
+            if (puzzleService.lockPiece(sessionId, ((InboundMessage.PieceLock) lock).getPieceId(), handle)) {
+                encoded += OutboundMessages.pieceLock(WebSocketMessage.MessageType.PIECE_LOCK, id, handle).length();
+            }
+            InboundMessage.PieceMove move = (InboundMessage.PieceMove) InboundMessageParser.parse(
+                    "{\"type\":\"PIECE_MOVE\",\"data\":{\"pieceId\":" + id + ",\"x\":" + x + ",\"y\":" + y + "}}");
+            puzzleService.getPieceBounds(sessionId, id);
+            if (puzzleService.movePiece(sessionId, move.getPieceId(), move.getX(), move.getY(), handle)) {
+                puzzleService.findPiecesInArea(sessionId, move.getX() - 200, move.getY() - 200, 400, 400);
+                encoded += OutboundMessages.pieceMove(id, move.getX(), move.getY(), handle).length();
+            }
+            InboundMessage.CursorMove cursor = (InboundMessage.CursorMove) InboundMessageParser.parse(
+                    "{\"type\":\"CURSOR_MOVE\",\"data\":{\"x\":" + x + ",\"y\":" + y + "}}");
+            encoded += OutboundMessages.cursorMove(handle, cursor.getX(), cursor.getY()).length();
+
+            boolean onTarget = i % 10 == 0;
+            double releaseX = onTarget ? piece.getCorrectX() + 3 : x;
+            double releaseY = onTarget ? piece.getCorrectY() + 3 : y;
+            if (puzzleService.releasePiece(sessionId, id, releaseX, releaseY, handle)) {
+                encoded += OutboundMessages.pieceMove(id, piece.getCurrentX(), piece.getCurrentY(), handle).length();
+            }
+            if (puzzleService.unlockPiece(sessionId, id, handle)) {
+                encoded += OutboundMessages.pieceLock(WebSocketMessage.MessageType.PIECE_UNLOCK, id, handle).length();
+            }
+
+            // Full states for joins and the snapshot codec for write-backs, at their own pace
+            if (i % 200 == 0) {
+                synchronized (session) {
+                    encoded += objectMapper.writeValueAsString(new WebSocketMessage(
+                            WebSocketMessage.MessageType.SESSION_STATE, Map.of("session", session, "userId", user.getId()))).length();
+                    encoded += PuzzleSessionCodec.decode(PuzzleSessionCodec.encode(session)).getPieces().size();
+                }
+            }
+        }
+        log.debug("Warm-up ran {} rounds, {} characters encoded", iterations, encoded);
+    }
+}
@@ -0,0 +1,17 @@
+package com.puzzle.websocket;
+
+import java.io.IOException;
+
+/**
+ * A connection that can also send large messages as zlib-compressed binary frames, to
+ * clients that ask for them. Connections that can't are sent text.
+ */
+interface CompressedConnection extends PuzzleConnection {
+
+    /**
+     * Whether the client asked for large messages as zlib-compressed binary frames.
+     */
+    boolean acceptsCompressed();
+
+    void sendCompressed(byte[] payload) throws IOException;
+}
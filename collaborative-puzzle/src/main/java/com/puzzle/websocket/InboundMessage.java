@@ -0,0 +1,174 @@
+package com.puzzle.websocket;
+
+import com.puzzle.model.WebSocketMessage.MessageType;
+
+/**
+ * Messages clients send over the puzzle WebSocket, one class per message type, as read by
+ * {@link InboundMessageParser}.
+ */
+public abstract class InboundMessage {
+
+    // The client's clock, epoch millis, for messages the client stamped; 0 otherwise
+    long sentAt;
+
+    // Set by the handler on arrival, for measuring the latency of the broadcasts it causes:
+    // epoch millis, System.nanoTime(), the sender's link and the estimated delay over it,
+    // -1 if unknown
+    long receivedAt;
+    long receivedNanos;
+    LatencyMonitor.Link sender;
+    long uplinkNanos = -1;
+
+    private InboundMessage() {
+    }
+
+    public abstract MessageType getType();
+
+    public long getSentAt() {
+        return sentAt;
+    }
+
+    public static final class PieceMove extends InboundMessage {
+        final int pieceId;
+        final double x;
+        final double y;
+
+        public PieceMove(int pieceId, double x, double y) {
+            this.pieceId = pieceId;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public MessageType getType() {
+            return MessageType.PIECE_MOVE;
+        }
+
+        public int getPieceId() {
+            return pieceId;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+
+    /**
+     * Dropping a held piece, with its final position.
+     */
+    public static final class PieceRelease extends InboundMessage {
+        final int pieceId;
+        final double x;
+        final double y;
+
+        public PieceRelease(int pieceId, double x, double y) {
+            this.pieceId = pieceId;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public MessageType getType() {
+            return MessageType.PIECE_RELEASE;
+        }
+
+        public int getPieceId() {
+            return pieceId;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+
+    /**
+     * Picking a piece up (PIECE_LOCK) or letting go of it without moving it (PIECE_UNLOCK).
+     */
+    public static final class PieceLock extends InboundMessage {
+        final MessageType type;
+        final int pieceId;
+
+        public PieceLock(MessageType type, int pieceId) {
+            this.type = type;
+            this.pieceId = pieceId;
+        }
+
+        @Override
+        public MessageType getType() {
+            return type;
+        }
+
+        public int getPieceId() {
+            return pieceId;
+        }
+    }
+
+    public static final class CursorMove extends InboundMessage {
+        final double x;
+        final double y;
+
+        public CursorMove(double x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public MessageType getType() {
+            return MessageType.CURSOR_MOVE;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+
+    /**
+     * The board area the client can see.
+     */
+    public static final class ViewportUpdate extends InboundMessage {
+        final double x;
+        final double y;
+        final double width;
+        final double height;
+
+        public ViewportUpdate(double x, double y, double width, double height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public MessageType getType() {
+            return MessageType.VIEWPORT_UPDATE;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getWidth() {
+            return width;
+        }
+
+        public double getHeight() {
+            return height;
+        }
+    }
+}
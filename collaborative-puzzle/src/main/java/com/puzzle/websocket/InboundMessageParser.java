@@ -0,0 +1,222 @@
+package com.puzzle.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.puzzle.model.WebSocketMessage.MessageType;
+
+import java.io.IOException;
+
+/**
+ * Reads inbound frames of the form {@code {"type": ..., "data": {...}}} straight into an
+ * {@link InboundMessage} with a streaming parser.
+ *
+ * Moves and cursor updates make up almost all inbound traffic, so this avoids the map,
+ * boxed numbers and strings a data-binding read would allocate per frame: the type and
+ * numbers are decoded from the parser's character buffer. The fields of {@code data} may
+ * come before or after {@code type}; unknown fields are skipped. Any message may carry the
+ * client's send time, in epoch millis, as {@code data.sentAt}.
+ */
+public final class InboundMessageParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final int PIECE_ID = 1;
+    private static final int X = 1 << 1;
+    private static final int Y = 1 << 2;
+    private static final int WIDTH = 1 << 3;
+    private static final int HEIGHT = 1 << 4;
+
+    private static final MessageType[] INBOUND_TYPES = {
+        MessageType.PIECE_MOVE, MessageType.CURSOR_MOVE, MessageType.PIECE_LOCK,
+        MessageType.PIECE_UNLOCK, MessageType.PIECE_RELEASE, MessageType.VIEWPORT_UPDATE
+    };
+
+    // Powers of ten that are exact doubles
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private InboundMessageParser() {
+    }
+
+    /**
+     * Returns the message, or null if its type is not one clients send.
+     *
+     * @throws IOException if the frame is not valid JSON or lacks a field its type needs
+     */
+    public static InboundMessage parse(String payload) throws IOException {
+        MessageType type = null;
+        boolean typed = false;
+        int seen = 0;
+        int pieceId = 0;
+        double x = 0;
+        double y = 0;
+        double width = 0;
+        double height = 0;
+        long sentAt = 0;
+
+        try (JsonParser parser = FACTORY.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field)) {
+                    typed = true;
+                    type = value == JsonToken.VALUE_STRING ? inboundType(parser) : null;
+                } else if ("data".equals(field) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        JsonToken token = parser.nextToken();
+                        if (!token.isNumeric()) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        // Field names are interned by the parser, so these compare by identity first
+                        switch (name) {
+                            case "pieceId":
+                                pieceId = parser.getIntValue();
+                                seen |= PIECE_ID;
+                                break;
+                            case "x":
+                                x = doubleValue(parser, token);
+                                seen |= X;
+                                break;
+                            case "y":
+                                y = doubleValue(parser, token);
+                                seen |= Y;
+                                break;
+                            case "width":
+                                width = doubleValue(parser, token);
+                                seen |= WIDTH;
+                                break;
+                            case "height":
+                                height = doubleValue(parser, token);
+                                seen |= HEIGHT;
+                                break;
+                            case "sentAt":
+                                sentAt = parser.getLongValue();
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        if (!typed) {
+            throw new IOException("Message without a type");
+        }
+        if (type == null) {
+            return null;
+        }
+        InboundMessage message;
+        switch (type) {
+            case PIECE_MOVE:
+                require(type, seen, PIECE_ID | X | Y);
+                message = new InboundMessage.PieceMove(pieceId, x, y);
+                break;
+            case PIECE_RELEASE:
+                require(type, seen, PIECE_ID | X | Y);
+                message = new InboundMessage.PieceRelease(pieceId, x, y);
+                break;
+            case PIECE_LOCK:
+            case PIECE_UNLOCK:
+                require(type, seen, PIECE_ID);
+                message = new InboundMessage.PieceLock(type, pieceId);
+                break;
+            case CURSOR_MOVE:
+                require(type, seen, X | Y);
+                message = new InboundMessage.CursorMove(x, y);
+                break;
+            default:
+                require(type, seen, X | Y | WIDTH | HEIGHT);
+                message = new InboundMessage.ViewportUpdate(x, y, width, height);
+                break;
+        }
+        message.sentAt = sentAt;
+        return message;
+    }
+
+    // Matches the current string against the types clients send, without creating a String
+    private static MessageType inboundType(JsonParser parser) throws IOException {
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        for (MessageType candidate : INBOUND_TYPES) {
+            String name = candidate.name();
+            if (name.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && chars[offset + i] == name.charAt(i)) {
+                i++;
+            }
+            if (i == length) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the current number. Jackson creates a String to parse each floating-point
+     * value, so plain decimals of up to 15 significant digits, which covers board
+     * coordinates, are decoded here instead: the digits as a long divided by a power of
+     * ten, both exact doubles, is the correctly rounded result. Anything else goes to Jackson.
+     */
+    static double doubleValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getDoubleValue();
+        }
+        char[] chars = parser.getTextCharacters();
+        int i = parser.getTextOffset();
+        int end = i + parser.getTextLength();
+        boolean negative = chars[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long digits = 0;
+        int significant = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c >= '0' && c <= '9' && significant < 15) {
+                digits = digits * 10 + (c - '0');
+                if (digits > 0) {
+                    significant++;
+                }
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                // An exponent or too many digits
+                return parser.getDoubleValue();
+            }
+        }
+        if (scale >= POWERS_OF_TEN.length) {
+            return parser.getDoubleValue();
+        }
+        double value = scale > 0 ? digits / POWERS_OF_TEN[scale] : digits;
+        return negative ? -value : value;
+    }
+
+    private static void require(MessageType type, int seen, int fields) throws IOException {
+        if ((seen & fields) != fields) {
+            throw new IOException(type + " message is missing a field");
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.puzzle.websocket;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long broadcasts take to reach players: per room, the server residence time
+ * of each broadcast and an estimate of its end-to-end latency, and node-wide, the ping
+ * round-trip time of connections.
+ *
+ * Residence runs from a client message arriving to each broadcast it caused being handed to
+ * a receiving connection. End-to-end latency, from one player's action to another seeing
+ * it, can't be measured here without the clients' clocks agreeing with ours, so it is
+ * estimated as uplink + residence + downlink, each link being half its connection's smoothed
+ * RTT. Messages the client stamped with its send time also add the uplink's queueing delay:
+ * arrival minus send time is the clock offset plus the uplink delay, so its excess over the
+ * lowest value seen on the connection lately is delay over the fastest uplink, whatever the
+ * offset.
+ *
+ * Room meters are removed when the room's last connection closes, so their number stays
+ * bounded by the rooms this node is serving.
+ */
+@Component
+public class LatencyMonitor {
+
+    // Buckets of the per-room histograms; a percentile histogram per room would be too many series
+    private static final Duration[] SLOS = {
+        Duration.ofMillis(5), Duration.ofMillis(10), Duration.ofMillis(25), Duration.ofMillis(50),
+        Duration.ofMillis(100), Duration.ofMillis(250), Duration.ofMillis(500), Duration.ofSeconds(1)
+    };
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${puzzle.websocket.latency.enabled:true}")
+    private boolean enabled = true;
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+    private Timer rtt;
+
+    @PostConstruct
+    public void registerMetrics() {
+        if (!enabled || meterRegistry == null) {
+            return;
+        }
+        rtt = Timer.builder("puzzle.websocket.rtt")
+                .description("WebSocket ping round-trip time of connections")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * The room's meters, or null if nothing is measured.
+     */
+    Room room(String sessionId) {
+        if (rtt == null) {
+            return null;
+        }
+        return rooms.computeIfAbsent(sessionId, this::register);
+    }
+
+    void roomClosed(String sessionId) {
+        Room room = rooms.remove(sessionId);
+        if (room != null) {
+            meterRegistry.remove(room.residence);
+            meterRegistry.remove(room.latency);
+        }
+    }
+
+    void pong(Link link, long rttNanos) {
+        link.update(rttNanos);
+        if (rtt != null) {
+            rtt.record(rttNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Room register(String sessionId) {
+        Timer residence = Timer.builder("puzzle.websocket.residence")
+                .description("Time from a client message arriving to a broadcast it caused being sent")
+                .tag("room", sessionId)
+                .serviceLevelObjectives(SLOS)
+                .register(meterRegistry);
+        Timer latency = Timer.builder("puzzle.websocket.latency")
+                .description("Estimated time from a player's action to another player receiving it")
+                .tag("room", sessionId)
+                .serviceLevelObjectives(SLOS)
+                .register(meterRegistry);
+        return new Room(residence, latency);
+    }
+
+    static final class Room {
+        final Timer residence;
+        final Timer latency;
+
+        Room(Timer residence, Timer latency) {
+            this.residence = residence;
+            this.latency = latency;
+        }
+
+        /**
+         * Records a broadcast caused by the message being handed to a connection now. Echoes
+         * to the sender count towards residence but not end-to-end latency.
+         */
+        void delivered(InboundMessage cause, Link receiver) {
+            long residenceNanos = System.nanoTime() - cause.receivedNanos;
+            residence.record(residenceNanos, TimeUnit.NANOSECONDS);
+            long downlink = receiver.oneWay();
+            if (receiver != cause.sender && cause.uplinkNanos >= 0 && downlink >= 0) {
+                latency.record(cause.uplinkNanos + residenceNanos + downlink, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Delay estimates for one connection, from its pings and the client's timestamps.
+     */
+    static final class Link {
+        // Smoothed like TCP's, with a gain of 1/8; -1 until the first pong
+        private volatile long smoothedRtt = -1;
+
+        // Lowest arrival minus client send time, in ms, over this and the previous ping
+        // interval, so a client clock that is set back only skews the estimate briefly
+        private long skewFloor = Long.MAX_VALUE;
+        private long previousSkewFloor = Long.MAX_VALUE;
+
+        synchronized void update(long rttNanos) {
+            long smoothed = smoothedRtt;
+            smoothedRtt = smoothed < 0 ? rttNanos : smoothed + (rttNanos - smoothed) / 8;
+            previousSkewFloor = skewFloor;
+            skewFloor = Long.MAX_VALUE;
+        }
+
+        /**
+         * Estimated one-way delay, or -1 before the first pong.
+         */
+        long oneWay() {
+            long smoothed = smoothedRtt;
+            return smoothed < 0 ? -1 : smoothed / 2;
+        }
+
+        /**
+         * Estimated delay of a message from the client, in nanoseconds, or -1 before the
+         * first pong.
+         */
+        synchronized long uplink(long sentAt, long receivedAt) {
+            long oneWay = oneWay();
+            if (oneWay < 0 || sentAt == 0) {
+                return oneWay;
+            }
+            long skew = receivedAt - sentAt;
+            skewFloor = Math.min(skewFloor, skew);
+            long floor = Math.min(skewFloor, previousSkewFloor);
+            return oneWay + TimeUnit.MILLISECONDS.toNanos(skew - floor);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.puzzle.websocket;
+
+import com.puzzle.model.WebSocketMessage.MessageType;
+
+/**
+ * Writes the high-volume outbound messages straight into a string, in the same
+ * {@code {"type": ..., "data": {...}}} shape as a serialized
+ * {@link com.puzzle.model.WebSocketMessage}.
+ *
+ * A generator costs more in setup than these few fields take to write, so they are
+ * appended directly. Users are referred to by their handle in the session, in the
+ * {@code userId} field.
+ *
+ * Broadcasts caused by a message the client stamped with its send time carry that as
+ * {@code clientSentAt}, with the server's {@code receivedAt} and {@code sentAt}, all in
+ * epoch millis, so clients can break down the latency of what they see.
+ */
+public final class OutboundMessages {
+
+    private OutboundMessages() {
+    }
+
+    public static String pieceMove(int pieceId, double x, double y, int handle) {
+        return pieceMove(pieceId, x, y, handle, null);
+    }
+
+    public static String pieceMove(int pieceId, double x, double y, int handle, InboundMessage cause) {
+        StringBuilder json = start(MessageType.PIECE_MOVE, 96);
+        json.append("\"pieceId\":").append(pieceId);
+        number(json.append(",\"x\":"), x);
+        number(json.append(",\"y\":"), y);
+        json.append(",\"userId\":").append(handle);
+        stamp(json, cause);
+        return json.append("}}").toString();
+    }
+
+    /**
+     * A PIECE_LOCK or PIECE_UNLOCK.
+     */
+    public static String pieceLock(MessageType type, int pieceId, int handle) {
+        return pieceLock(type, pieceId, handle, null);
+    }
+
+    public static String pieceLock(MessageType type, int pieceId, int handle, InboundMessage cause) {
+        StringBuilder json = start(type, 64);
+        json.append("\"pieceId\":").append(pieceId);
+        json.append(",\"userId\":").append(handle);
+        stamp(json, cause);
+        return json.append("}}").toString();
+    }
+
+    public static String cursorMove(int handle, double x, double y) {
+        return cursorMove(handle, x, y, null);
+    }
+
+    public static String cursorMove(int handle, double x, double y, InboundMessage cause) {
+        StringBuilder json = start(MessageType.CURSOR_MOVE, 80);
+        number(json.append("\"x\":"), x);
+        number(json.append(",\"y\":"), y);
+        json.append(",\"userId\":").append(handle);
+        stamp(json, cause);
+        return json.append("}}").toString();
+    }
+
+    private static StringBuilder start(MessageType type, int capacity) {
+        return new StringBuilder(capacity).append("{\"type\":\"").append(type.name()).append("\",\"data\":{");
+    }
+
+    // Unstamped messages, most of them, don't pay for the timestamps
+    private static void stamp(StringBuilder json, InboundMessage cause) {
+        if (cause != null && cause.sentAt != 0) {
+            json.append(",\"clientSentAt\":").append(cause.sentAt);
+            json.append(",\"receivedAt\":").append(cause.receivedAt);
+            json.append(",\"sentAt\":").append(System.currentTimeMillis());
+        }
+    }
+
+    // Like Jackson, non-finite values are written as strings
+    private static void number(StringBuilder json, double value) {
+        if (Double.isFinite(value)) {
+            json.append(value);
+        } else {
+            json.append('"').append(value).append('"');
+        }
+    }
+}
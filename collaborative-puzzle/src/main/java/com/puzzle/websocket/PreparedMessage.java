@@ -0,0 +1,57 @@
+package com.puzzle.websocket;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * An outbound message serialized once for all its recipients. Messages at or above the
+ * compression threshold are also deflated once, on first use, for connections that take
+ * compressed frames, so a large snapshot isn't compressed again for every client.
+ */
+final class PreparedMessage {
+
+    private final String text;
+    // Deflater level, or -1 to always send text
+    private final int level;
+    private byte[] compressed;
+
+    PreparedMessage(String text, int level) {
+        this.text = text;
+        this.level = level;
+    }
+
+    void sendTo(PuzzleConnection connection) throws IOException {
+        if (level >= 0 && connection instanceof CompressedConnection
+                && ((CompressedConnection) connection).acceptsCompressed()) {
+            ((CompressedConnection) connection).sendCompressed(compressed());
+        } else {
+            connection.send(text);
+        }
+    }
+
+    // zlib format, which browsers inflate with DecompressionStream("deflate")
+    private synchronized byte[] compressed() {
+        if (compressed == null) {
+            byte[] input = text.getBytes(StandardCharsets.UTF_8);
+            Deflater deflater = new Deflater(level);
+            try {
+                deflater.setInput(input);
+                deflater.finish();
+                byte[] output = new byte[input.length / 4 + 64];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    length += deflater.deflate(output, length, output.length - length);
+                }
+                compressed = Arrays.copyOf(output, length);
+            } finally {
+                deflater.end();
+            }
+        }
+        return compressed;
+    }
+}
@@ -0,0 +1,42 @@
+package com.puzzle.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Outbound side of a client connection, independent of the WebSocket stack that serves it.
+ * Implementations must allow {@link #send} from several threads at once.
+ */
+interface PuzzleConnection {
+
+    // Close code telling the client to join the session again over REST before reconnecting
+    int REJOIN = 4001;
+
+    String getId();
+
+    boolean isOpen();
+
+    void send(String payload) throws IOException;
+
+    /**
+     * Sends a WebSocket ping, which the client answers with a pong carrying the same payload.
+     */
+    void ping(ByteBuffer payload) throws IOException;
+
+    /**
+     * Bytes accepted by {@link #send} that haven't been written to the socket yet.
+     */
+    default long getBufferedBytes() {
+        return 0;
+    }
+
+    /**
+     * Ends the connection from the server side after the messages already sent.
+     */
+    void close();
+
+    /**
+     * Ends the connection with {@link #REJOIN}, as its user has been removed from the session.
+     */
+    void closeForRejoin();
+}
@@ -1,66 +1,221 @@
 package com.puzzle.websocket;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.puzzle.admission.InboundRateLimiter;
+import com.puzzle.capture.TrafficRecorder;
+import com.puzzle.cluster.ClusterMembership;
 import com.puzzle.model.PuzzlePiece;
 import com.puzzle.model.PuzzleSession;
 import com.puzzle.model.User;
 import com.puzzle.model.WebSocketMessage;
+import com.puzzle.presence.PresenceListener;
+import com.puzzle.presence.PresenceService;
+import com.puzzle.profiling.FlightEvents;
+import com.puzzle.profiling.MessageEvent;
+import com.puzzle.service.LiveSessionCache;
+import com.puzzle.service.PuzzleEventListener;
 import com.puzzle.service.PuzzleService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 @Component
-public class PuzzleWebSocketHandler extends TextWebSocketHandler {
+public class PuzzleWebSocketHandler extends TextWebSocketHandler implements PresenceListener, PuzzleEventListener {
+    
+    private static final Logger log = LoggerFactory.getLogger(PuzzleWebSocketHandler.class);
     
     @Autowired
     private PuzzleService puzzleService;
     
+    @Autowired
+    private PresenceService presenceService;
+    
+    @Autowired
+    private LiveSessionCache liveSessions;
+    
     @Autowired
     private ObjectMapper objectMapper;
     
-    // Maps sessionId to WebSocket sessions
-    private final Map<String, CopyOnWriteArraySet<WebSocketSession>> puzzleSessions = new ConcurrentHashMap<>();
+    @Autowired
+    @Qualifier("websocketExecutor")
+    private Executor websocketExecutor;
+    
+    @Autowired
+    private TrafficRecorder recorder;
+    
+    @Autowired
+    private ClusterMembership cluster;
+    
+    @Autowired
+    private InboundRateLimiter rateLimiter;
+    
+    @Autowired
+    private FlightEvents events;
+    
+    @Autowired
+    private LatencyMonitor latency;
+    
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+    
+    // Extra board pixels around a reported viewport that still receive updates,
+    // so pieces scrolling into view are already up to date
+    @Value("${puzzle.websocket.viewport-margin:200}")
+    private int viewportMargin;
+    
+    // Outbound buffering per connection. Broadcasts come from many threads (other players'
+    // messages, lease and presence sweepers), so sends are serialized through a decorator.
+    @Value("${puzzle.websocket.send-time-limit:5000}")
+    private int sendTimeLimit = 5000;
+    
+    @Value("${puzzle.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit = 512 * 1024;
+    
+    // Messages at least this many characters long are compressed for clients that ask for it,
+    // such as full session states; small frames on the hot path are never compressed
+    @Value("${puzzle.websocket.compression.threshold:4096}")
+    private int compressionThreshold = 4096;
     
-    // Maps WebSocket session to user info
+    @Value("${puzzle.websocket.compression.level:6}")
+    private int compressionLevel = 6;
+    
+    // Connections that send nothing, not even a pong, for this long after a heartbeat ping
+    // are taken to be dead, e.g. half-open after the client vanished, and are reclaimed
+    @Value("${puzzle.websocket.heartbeat-timeout:30000}")
+    private long heartbeatTimeout = 30000;
+    
+    // Cursor updates are routed by a small box around the pointer
+    private static final double CURSOR_SIZE = 24;
+    
+    // Maps sessionId to its connections
+    private final Map<String, CopyOnWriteArraySet<UserConnection>> puzzleSessions = new ConcurrentHashMap<>();
+    
+    // Maps connection id to user info
     private final Map<String, UserConnection> userConnections = new ConcurrentHashMap<>();
     
+    private final LongAdder timedOutConnections = new LongAdder();
+    private final LongAdder closedConnections = new LongAdder();
+    
+    @PostConstruct
+    public void registerListeners() {
+        presenceService.addListener(this);
+        puzzleService.addListener(this);
+    }
+    
+    @PostConstruct
+    public void registerMetrics() {
+        if (meterRegistry == null) {
+            return;
+        }
+        FunctionCounter.builder("puzzle.websocket.reclaimed", timedOutConnections, LongAdder::sum)
+            .description("Connections cleaned up by the heartbeat rather than by their close")
+            .tag("reason", "timeout")
+            .register(meterRegistry);
+        FunctionCounter.builder("puzzle.websocket.reclaimed", closedConnections, LongAdder::sum)
+            .description("Connections cleaned up by the heartbeat rather than by their close")
+            .tag("reason", "closed")
+            .register(meterRegistry);
+    }
+    
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        String sessionId = extractSessionId(session);
-        
-        // Extract userId from query params if available
-        String userId = null;
-        String query = session.getUri().getQuery();
-        if (query != null && query.contains("userId=")) {
-            userId = query.split("userId=")[1].split("&")[0];
+        ConcurrentWebSocketSessionDecorator outbound = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimit, sendBufferSizeLimit);
+        // A connection with permessage-deflate already compresses every frame
+        boolean compressed = requestsCompression(session.getUri()) && session.getExtensions().stream()
+            .noneMatch(extension -> "permessage-deflate".equals(extension.getName()));
+        connect(new ServletConnection(outbound, compressed), extractSessionId(session.getUri()), extractUserId(session.getUri()));
+    }
+    
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        receive(session.getId(), message.getPayload());
+    }
+    
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        pong(session.getId(), message.getPayload());
+    }
+    
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        disconnect(session.getId());
+    }
+    
+    /**
+     * Registers a client connection with its puzzle session and sends it the current state.
+     * Shared by the servlet and reactive WebSocket endpoints.
+     */
+    void connect(PuzzleConnection connection, String sessionId, String userId) throws Exception {
+        // Only the owner node serves a session; browsers can't follow an HTTP redirect
+        // on the WebSocket handshake, so the client is told where to reconnect instead
+        if (!cluster.isLocal(sessionId)) {
+            redirect(connection, cluster.ownerUrl(sessionId));
+            return;
         }
         
-        // Add to puzzle session
-        puzzleSessions.computeIfAbsent(sessionId, k -> new CopyOnWriteArraySet<>()).add(session);
-        
-        // Store user connection (userId may be null initially)
-        userConnections.put(session.getId(), new UserConnection(sessionId, userId));
+        // Add to puzzle session; userId may be null initially
+        UserConnection userConn = new UserConnection(connection, sessionId, userId, rateLimiter.newBudget());
+        puzzleSessions.computeIfAbsent(sessionId, k -> new CopyOnWriteArraySet<>()).add(userConn);
+        userConnections.put(connection.getId(), userConn);
         
         // Send current session state to new user
         PuzzleSession puzzleSession = puzzleService.getSession(sessionId);
+        recorder.connected(connection.getId(), sessionId, userId, puzzleSession);
+        if (puzzleSession != null) {
+            // Keeps the session resident while anyone is connected
+            liveSessions.connectionOpened(sessionId);
+            // Past the handshake the user goes by their handle
+            User user = userId != null ? puzzleSession.getUsers().get(userId) : null;
+            userConn.handle = user != null ? user.getHandle() : 0;
+        }
         if (puzzleSession != null && userId != null) {
+            presenceService.markOnline(sessionId, userConn.handle);
+            // The live session is shared, so copy it while no one is mutating it
+            PuzzleSession view;
+            synchronized (puzzleSession) {
+                view = puzzleSession.copy();
+            }
+            presenceService.applyTo(view);
             Map<String, Object> stateData = Map.of(
-                "session", puzzleSession,
+                "session", view,
                 "userId", userId
             );
             WebSocketMessage stateMessage = new WebSocketMessage(
                 WebSocketMessage.MessageType.SESSION_STATE, 
                 stateData
             );
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(stateMessage)));
+            prepare(objectMapper.writeValueAsString(stateMessage)).sendTo(connection);
             
             // Notify other users about new user
             User user = puzzleSession.getUsers().get(userId);
@@ -70,123 +225,393 @@ public class PuzzleWebSocketHandler extends TextWebSocketHandler {
                     WebSocketMessage.MessageType.USER_JOIN, 
                     joinData
                 );
-                broadcastToOthers(sessionId, session.getId(), joinMessage);
+                broadcastToOthers(sessionId, connection.getId(), joinMessage);
             }
         }
     }
     
-    @Override
-    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        UserConnection userConn = userConnections.get(session.getId());
+    void receive(String connectionId, String payload) throws Exception {
+        UserConnection userConn = userConnections.get(connectionId);
         if (userConn == null) return;
+        userConn.unansweredPing = 0;
+        recorder.received(connectionId, payload);
         
-        WebSocketMessage wsMessage = objectMapper.readValue(message.getPayload(), WebSocketMessage.class);
-        Map<String, Object> data = wsMessage.getData();
+        InboundMessage message = InboundMessageParser.parse(payload);
+        if (message == null) {
+            return;
+        }
+        // What the latency of the broadcasts it causes is measured from
+        message.receivedNanos = System.nanoTime();
+        if (message.getSentAt() != 0) {
+            message.receivedAt = System.currentTimeMillis();
+        }
+        message.sender = userConn.link;
+        message.uplinkNanos = userConn.link.uplink(message.getSentAt(), message.receivedAt);
         
-        switch (wsMessage.getType()) {
+        if (!userConn.budget.tryAcquire(message.getType())) {
+            shed(userConn, message);
+            return;
+        }
+        
+        MessageEvent event = events.beginMessage(message.getType().name(), userConn.sessionId, pieceIdOf(message));
+        try {
+            apply(userConn, message);
+        } finally {
+            events.end(event);
+        }
+    }
+    
+    private void apply(UserConnection userConn, InboundMessage message) throws Exception {
+        switch (message.getType()) {
             case PIECE_MOVE:
-                handlePieceMove(userConn, data);
+                synchronized (userConn) {
+                    // Supersedes any move still waiting for budget
+                    userConn.pendingMove = null;
+                    handlePieceMove(userConn, (InboundMessage.PieceMove) message);
+                }
                 break;
                 
             case PIECE_LOCK:
-                handlePieceLock(userConn, data);
+                handlePieceLock(userConn, (InboundMessage.PieceLock) message);
                 break;
                 
             case PIECE_UNLOCK:
-                handlePieceUnlock(userConn, data);
+                synchronized (userConn) {
+                    userConn.pendingMove = null;
+                    handlePieceUnlock(userConn, (InboundMessage.PieceLock) message);
+                }
                 break;
                 
             case PIECE_RELEASE:
-                handlePieceRelease(userConn, data);
+                synchronized (userConn) {
+                    // The release carries the final position
+                    userConn.pendingMove = null;
+                    handlePieceRelease(userConn, (InboundMessage.PieceRelease) message);
+                }
                 break;
                 
             case CURSOR_MOVE:
-                handleCursorMove(userConn, data);
+                synchronized (userConn) {
+                    userConn.pendingCursor = null;
+                    handleCursorMove(userConn, (InboundMessage.CursorMove) message);
+                }
+                break;
+                
+            case VIEWPORT_UPDATE:
+                synchronized (userConn) {
+                    userConn.pendingViewport = null;
+                    handleViewportUpdate(userConn, (InboundMessage.ViewportUpdate) message);
+                }
+                break;
+                
+            default:
                 break;
         }
     }
     
-    @Override
-    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        UserConnection userConn = userConnections.remove(session.getId());
+    private static int pieceIdOf(InboundMessage message) {
+        if (message instanceof InboundMessage.PieceMove) {
+            return ((InboundMessage.PieceMove) message).getPieceId();
+        }
+        if (message instanceof InboundMessage.PieceLock) {
+            return ((InboundMessage.PieceLock) message).getPieceId();
+        }
+        if (message instanceof InboundMessage.PieceRelease) {
+            return ((InboundMessage.PieceRelease) message).getPieceId();
+        }
+        return -1;
+    }
+    
+    /**
+     * Handles a message over the connection's rate limit. Only position updates are limited,
+     * and piece, cursor and viewport positions are absolute, so only the latest one matters:
+     * it's kept, replacing any older one, and applied once the connection has budget again.
+     */
+    private void shed(UserConnection userConn, InboundMessage message) {
+        rateLimiter.shed(message.getType());
+        if (message instanceof InboundMessage.PieceMove) {
+            synchronized (userConn) {
+                userConn.pendingMove = (InboundMessage.PieceMove) message;
+            }
+        } else if (message instanceof InboundMessage.CursorMove) {
+            synchronized (userConn) {
+                userConn.pendingCursor = (InboundMessage.CursorMove) message;
+            }
+        } else if (message instanceof InboundMessage.ViewportUpdate) {
+            synchronized (userConn) {
+                userConn.pendingViewport = (InboundMessage.ViewportUpdate) message;
+            }
+        }
+    }
+    
+    /**
+     * Applies the latest position updates held back by rate limiting, for connections that
+     * have budget again. Each connection's are applied on the WebSocket executor, one apply
+     * at a time, so a slow receiver of the broadcasts they cause holds up neither the
+     * scheduler nor other connections.
+     */
+    @Scheduled(fixedDelayString = "${puzzle.websocket.rate-limit.coalesce-interval:50}")
+    public void applyCoalesced() {
+        for (UserConnection userConn : userConnections.values()) {
+            if (userConn.pendingMove == null && userConn.pendingCursor == null && userConn.pendingViewport == null) {
+                continue;
+            }
+            if (!userConn.coalescing.compareAndSet(false, true)) {
+                continue;
+            }
+            try {
+                websocketExecutor.execute(() -> {
+                    try {
+                        applyPending(userConn);
+                    } finally {
+                        userConn.coalescing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Tried again on the next run
+                userConn.coalescing.set(false);
+            }
+        }
+    }
+    
+    private void applyPending(UserConnection userConn) {
+        try {
+            synchronized (userConn) {
+                if (userConn.pendingMove != null && userConn.budget.tryAcquire(WebSocketMessage.MessageType.PIECE_MOVE)) {
+                    InboundMessage.PieceMove move = userConn.pendingMove;
+                    userConn.pendingMove = null;
+                    handlePieceMove(userConn, move);
+                }
+                if (userConn.pendingCursor != null && userConn.budget.tryAcquire(WebSocketMessage.MessageType.CURSOR_MOVE)) {
+                    InboundMessage.CursorMove cursor = userConn.pendingCursor;
+                    userConn.pendingCursor = null;
+                    handleCursorMove(userConn, cursor);
+                }
+                if (userConn.pendingViewport != null && userConn.budget.tryAcquire(WebSocketMessage.MessageType.VIEWPORT_UPDATE)) {
+                    InboundMessage.ViewportUpdate update = userConn.pendingViewport;
+                    userConn.pendingViewport = null;
+                    handleViewportUpdate(userConn, update);
+                }
+            }
+        } catch (Exception e) {
+            // Best-effort, like the client's own throttled updates, but not silently
+            log.warn("Failed to apply held-back updates from connection {}", userConn.connectionId, e);
+        }
+    }
+    
+    /**
+     * Pings connections, with the time sent as the payload the client echoes back, which
+     * keeps them alive and tracks their round-trip time.
+     *
+     * Connections with messages still queued are skipped: a send to them is already under
+     * way, possibly stuck on a peer that stopped reading, and the send time limit closes
+     * those. Pinging only idle ones keeps this loop from blocking on any of them.
+     */
+    @Scheduled(fixedDelayString = "${puzzle.websocket.ping-interval:10000}")
+    public void ping() {
+        for (UserConnection userConn : userConnections.values()) {
+            if (!userConn.outbound.isOpen() || userConn.outbound.getBufferedBytes() > 0) {
+                continue;
+            }
+            long sentAt = System.nanoTime();
+            ByteBuffer payload = ByteBuffer.allocate(Long.BYTES).putLong(0, sentAt);
+            try {
+                userConn.outbound.ping(payload);
+                if (userConn.unansweredPing == 0) {
+                    userConn.unansweredPing = sentAt;
+                }
+            } catch (IOException e) {
+                // A connection that can't be written to is closed by its own send failures
+            }
+        }
+    }
+    
+    /**
+     * Reclaims dead connections: those closed without the close reaching this handler, and
+     * those nothing, pongs included, has come from for {@code heartbeat-timeout} after they
+     * were pinged. Connections skipped by {@link #ping} for their queued messages are left to
+     * the send time limit, as a live client can't answer a ping it was never sent. Each is
+     * cleaned up as if it had closed, which unlocks its pieces and stops broadcasts to it,
+     * and closed. A room left with no connections is released from memory right away.
+     */
+    @Scheduled(fixedDelayString = "${puzzle.websocket.reclaim-interval:5000}")
+    public void reclaimDead() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(heartbeatTimeout);
+        for (UserConnection userConn : userConnections.values()) {
+            if (!userConn.outbound.isOpen()) {
+                reclaim(userConn, closedConnections);
+            } else if (userConn.unansweredPing != 0 && userConn.unansweredPing - deadline < 0) {
+                reclaim(userConn, timedOutConnections);
+            }
+        }
+    }
+    
+    private void reclaim(UserConnection userConn, LongAdder reason) {
+        try {
+            disconnect(userConn.connectionId);
+        } catch (Exception e) {
+            log.warn("Failed to clean up connection {}", userConn.connectionId, e);
+        }
+        // Its close, if it ever comes, finds nothing left to clean up. Its user has left the
+        // session, so a client that was only slow to answer joins again rather than reconnecting
+        userConn.outbound.closeForRejoin();
+        reason.increment();
+        if (!puzzleSessions.containsKey(userConn.sessionId)) {
+            liveSessions.hibernateIfIdle(userConn.sessionId);
+        }
+        log.debug("Reclaimed connection {} to session {}", userConn.connectionId, userConn.sessionId);
+    }
+    
+    void pong(String connectionId, ByteBuffer payload) {
+        UserConnection userConn = userConnections.get(connectionId);
+        if (userConn == null) {
+            return;
+        }
+        userConn.unansweredPing = 0;
+        // Unsolicited pongs, allowed as a heartbeat, carry no time
+        if (payload.remaining() != Long.BYTES) {
+            return;
+        }
+        long rtt = System.nanoTime() - payload.getLong(payload.position());
+        if (rtt >= 0) {
+            latency.pong(userConn.link, rtt);
+        }
+    }
+    
+    void disconnect(String connectionId) throws Exception {
+        UserConnection userConn = userConnections.remove(connectionId);
         if (userConn != null) {
+            recorder.disconnected(connectionId);
+            
             // Remove from puzzle session
-            CopyOnWriteArraySet<WebSocketSession> sessions = puzzleSessions.get(userConn.sessionId);
+            CopyOnWriteArraySet<UserConnection> sessions = puzzleSessions.get(userConn.sessionId);
             if (sessions != null) {
-                sessions.remove(session);
+                sessions.remove(userConn);
                 if (sessions.isEmpty()) {
                     puzzleSessions.remove(userConn.sessionId);
+                    latency.roomClosed(userConn.sessionId);
                 }
             }
             
             // Leave puzzle session
+            presenceService.remove(userConn.sessionId, userConn.handle);
             puzzleService.leaveSession(userConn.sessionId, userConn.userId);
+            liveSessions.connectionClosed(userConn.sessionId);
             
             // Notify other users
-            Map<String, Object> leaveData = Map.of("userId", userConn.userId);
+            Map<String, Object> leaveData = Map.of("userId", userConn.handle);
             WebSocketMessage leaveMessage = new WebSocketMessage(
                 WebSocketMessage.MessageType.USER_LEAVE, 
                 leaveData
             );
-            broadcastToOthers(userConn.sessionId, session.getId(), leaveMessage);
+            broadcastToOthers(userConn.sessionId, connectionId, leaveMessage);
+        }
+    }
+    
+    /**
+     * Moves a session's clients to the node that now owns it. Their connections are
+     * detached first so nothing more is applied here, then the session is released to the
+     * store, and only then are the clients redirected, so they find the latest state there.
+     */
+    public void handOff(String sessionId, String ownerUrl, Runnable release) {
+        CopyOnWriteArraySet<UserConnection> connections = puzzleSessions.remove(sessionId);
+        latency.roomClosed(sessionId);
+        if (connections != null) {
+            for (UserConnection conn : connections) {
+                userConnections.remove(conn.connectionId);
+                presenceService.remove(sessionId, conn.handle);
+            }
+        }
+        release.run();
+        if (connections != null) {
+            for (UserConnection conn : connections) {
+                redirect(conn.outbound, ownerUrl);
+            }
+        }
+    }
+
+    /**
+     * Puzzle sessions with at least one connected client on this node.
+     */
+    public int getActiveRoomCount() {
+        return puzzleSessions.size();
+    }
+
+    public int getConnectionCount() {
+        return userConnections.size();
+    }
+
+    /**
+     * Bytes waiting in the outbound buffers of all connections, behind slow clients.
+     */
+    public long getBufferedBytes() {
+        long total = 0;
+        for (UserConnection conn : userConnections.values()) {
+            total += conn.outbound.getBufferedBytes();
         }
+        return total;
+    }
+
+    private void redirect(PuzzleConnection connection, String ownerUrl) {
+        // Clients connect over ws(s) to the same host and port as the HTTP base URL
+        String url = ownerUrl.replaceFirst("^http", "ws");
+        WebSocketMessage redirectMessage = new WebSocketMessage(
+            WebSocketMessage.MessageType.SESSION_REDIRECT,
+            Map.of("url", url)
+        );
+        try {
+            if (connection.isOpen()) {
+                connection.send(objectMapper.writeValueAsString(redirectMessage));
+            }
+        } catch (IOException e) {
+            // Clients also reconnect when the socket closes without a redirect
+        }
+        connection.close();
     }
     
-    private void handlePieceMove(UserConnection userConn, Map<String, Object> data) throws Exception {
-        int pieceId = ((Number) data.get("pieceId")).intValue();
-        double x = ((Number) data.get("x")).doubleValue();
-        double y = ((Number) data.get("y")).doubleValue();
+    private void handlePieceMove(UserConnection userConn, InboundMessage.PieceMove move) throws Exception {
+        int pieceId = move.getPieceId();
+        double x = move.getX();
+        double y = move.getY();
         
-        boolean moved = puzzleService.movePiece(userConn.sessionId, pieceId, x, y, userConn.userId);
+        double[] before = puzzleService.getPieceBounds(userConn.sessionId, pieceId);
+        boolean moved = puzzleService.movePiece(userConn.sessionId, pieceId, x, y, userConn.handle);
         
         if (moved) {
-            data.put("userId", userConn.userId);
-            
             // Send PIECE_MOVE with the original coordinates (no snapping during drag)
-            WebSocketMessage moveMessage = new WebSocketMessage(
-                WebSocketMessage.MessageType.PIECE_MOVE, 
-                data
-            );
-            broadcastToAll(userConn.sessionId, moveMessage);
+            double[] after = puzzleService.getPieceBounds(userConn.sessionId, pieceId);
+            broadcastToInterested(userConn.sessionId, null, affectedArea(before, after), move,
+                () -> OutboundMessages.pieceMove(pieceId, x, y, userConn.handle, move));
         }
     }
     
-    private void handlePieceLock(UserConnection userConn, Map<String, Object> data) throws Exception {
-        int pieceId = ((Number) data.get("pieceId")).intValue();
-        
-        boolean locked = puzzleService.lockPiece(userConn.sessionId, pieceId, userConn.userId);
+    private void handlePieceLock(UserConnection userConn, InboundMessage.PieceLock lock) throws Exception {
+        boolean locked = puzzleService.lockPiece(userConn.sessionId, lock.getPieceId(), userConn.handle);
         
         if (locked) {
-            data.put("userId", userConn.userId);
-            WebSocketMessage lockMessage = new WebSocketMessage(
-                WebSocketMessage.MessageType.PIECE_LOCK, 
-                data
-            );
-            broadcastToOthers(userConn.sessionId, userConn.userId, lockMessage);
+            String lockMessage = OutboundMessages.pieceLock(
+                WebSocketMessage.MessageType.PIECE_LOCK, lock.getPieceId(), userConn.handle, lock);
+            broadcastToOthers(userConn.sessionId, userConn.connectionId, lockMessage, lock);
         }
     }
     
-    private void handlePieceUnlock(UserConnection userConn, Map<String, Object> data) throws Exception {
-        int pieceId = ((Number) data.get("pieceId")).intValue();
-        
-        boolean unlocked = puzzleService.unlockPiece(userConn.sessionId, pieceId, userConn.userId);
+    private void handlePieceUnlock(UserConnection userConn, InboundMessage.PieceLock unlock) throws Exception {
+        boolean unlocked = puzzleService.unlockPiece(userConn.sessionId, unlock.getPieceId(), userConn.handle);
         
         if (unlocked) {
-            data.put("userId", userConn.userId);
-            WebSocketMessage unlockMessage = new WebSocketMessage(
-                WebSocketMessage.MessageType.PIECE_UNLOCK, 
-                data
-            );
-            broadcastToOthers(userConn.sessionId, userConn.userId, unlockMessage);
+            String unlockMessage = OutboundMessages.pieceLock(
+                WebSocketMessage.MessageType.PIECE_UNLOCK, unlock.getPieceId(), userConn.handle, unlock);
+            broadcastToOthers(userConn.sessionId, userConn.connectionId, unlockMessage, unlock);
         }
     }
     
-    private void handlePieceRelease(UserConnection userConn, Map<String, Object> data) throws Exception {
-        int pieceId = ((Number) data.get("pieceId")).intValue();
-        double x = ((Number) data.get("x")).doubleValue();
-        double y = ((Number) data.get("y")).doubleValue();
+    private void handlePieceRelease(UserConnection userConn, InboundMessage.PieceRelease release) throws Exception {
+        int pieceId = release.getPieceId();
+        double x = release.getX();
+        double y = release.getY();
         
-        boolean released = puzzleService.releasePiece(userConn.sessionId, pieceId, x, y, userConn.userId);
+        double[] before = puzzleService.getPieceBounds(userConn.sessionId, pieceId);
+        boolean released = puzzleService.releasePiece(userConn.sessionId, pieceId, x, y, userConn.handle);
         
         if (released) {
             PuzzleSession session = puzzleService.getSession(userConn.sessionId);
@@ -198,25 +623,25 @@ public class PuzzleWebSocketHandler extends TextWebSocketHandler {
                 .orElse(null);
             
             if (piece != null) {
-                // Update data with the actual position (which may be snapped)
-                data.put("x", piece.getCurrentX());
-                data.put("y", piece.getCurrentY());
-                data.put("userId", userConn.userId);
-                
-                // Send PIECE_MOVE with snapped position
-                WebSocketMessage moveMessage = new WebSocketMessage(
-                    WebSocketMessage.MessageType.PIECE_MOVE, 
-                    data
-                );
-                broadcastToAll(userConn.sessionId, moveMessage);
+                // Send PIECE_MOVE with the actual position (which may be snapped)
+                double snappedX = piece.getCurrentX();
+                double snappedY = piece.getCurrentY();
+                Viewport area = affectedArea(before, puzzleService.getPieceBounds(userConn.sessionId, pieceId));
+                broadcastToInterested(userConn.sessionId, null, area, release,
+                    () -> OutboundMessages.pieceMove(pieceId, snappedX, snappedY, userConn.handle, release));
             }
             
             // Check if puzzle is complete
             if (session.isCompleted()) {
-                // First send the updated session state with all placedBy information
+                // First send the updated session state with all placedBy information, from a
+                // copy so that no move waits on the sends to every connection
+                PuzzleSession view;
+                synchronized (session) {
+                    view = session.copy();
+                }
                 WebSocketMessage sessionMessage = new WebSocketMessage(
                     WebSocketMessage.MessageType.SESSION_STATE,
-                    Map.of("session", session, "userId", userConn.userId)
+                    Map.of("session", view, "userId", userConn.userId)
                 );
                 broadcastToAll(userConn.sessionId, sessionMessage);
                 
@@ -230,56 +655,331 @@ public class PuzzleWebSocketHandler extends TextWebSocketHandler {
         }
     }
     
-    private void handleCursorMove(UserConnection userConn, Map<String, Object> data) throws Exception {
-        double x = ((Number) data.get("x")).doubleValue();
-        double y = ((Number) data.get("y")).doubleValue();
+    private void handleCursorMove(UserConnection userConn, InboundMessage.CursorMove cursor) throws Exception {
+        // Connections without a user have no cursor to show
+        if (userConn.handle == 0) {
+            return;
+        }
+        double x = cursor.getX();
+        double y = cursor.getY();
         
-        puzzleService.updateCursor(userConn.sessionId, userConn.userId, x, y);
+        // Cursors are ephemeral and never written to the session store
+        presenceService.updateCursor(userConn.sessionId, userConn.handle, x, y);
         
-        data.put("userId", userConn.userId);
-        WebSocketMessage cursorMessage = new WebSocketMessage(
-            WebSocketMessage.MessageType.CURSOR_MOVE, 
-            data
+        broadcastCursor(userConn.sessionId, userConn.connectionId, userConn.handle, x, y, cursor);
+    }
+    
+    private void broadcastCursor(String sessionId, String excludeConnectionId, int handle, double x, double y,
+                                 InboundMessage cause) throws Exception {
+        Viewport area = new Viewport(x - CURSOR_SIZE / 2, y - CURSOR_SIZE / 2, CURSOR_SIZE, CURSOR_SIZE);
+        broadcastToInterested(sessionId, excludeConnectionId, area, cause,
+            () -> OutboundMessages.cursorMove(handle, x, y, cause));
+    }
+    
+    @Override
+    public void onRemoteCursorMove(String sessionId, int handle, double x, double y) {
+        if (!puzzleSessions.containsKey(sessionId)) {
+            return;
+        }
+        try {
+            broadcastCursor(sessionId, null, handle, x, y, null);
+        } catch (Exception e) {
+            // Best-effort, the next cursor move replaces this one
+        }
+    }
+    
+    @Override
+    public void onLockExpired(String sessionId, int pieceId, int handle) {
+        if (!puzzleSessions.containsKey(sessionId)) {
+            return;
+        }
+        try {
+            broadcastToAll(sessionId, OutboundMessages.pieceLock(WebSocketMessage.MessageType.PIECE_UNLOCK, pieceId, handle));
+        } catch (Exception e) {
+            // Best-effort, clients also see the piece as free on the next SESSION_STATE
+        }
+    }
+    
+    @Override
+    public void onPresenceExpired(String sessionId, int handle) {
+        if (!puzzleSessions.containsKey(sessionId)) {
+            return;
+        }
+        WebSocketMessage expiredMessage = new WebSocketMessage(
+            WebSocketMessage.MessageType.PRESENCE_EXPIRED,
+            Map.of("userId", handle)
         );
-        broadcastToOthers(userConn.sessionId, userConn.userId, cursorMessage);
+        try {
+            broadcastToAll(sessionId, expiredMessage);
+        } catch (Exception e) {
+            // Best-effort, clients also drop the cursor when the user leaves
+        }
+    }
+    
+    private void handleViewportUpdate(UserConnection userConn, InboundMessage.ViewportUpdate update) throws Exception {
+        Viewport viewport = new Viewport(update.getX(), update.getY(), update.getWidth(), update.getHeight())
+            .expand(viewportMargin);
+        
+        Viewport previous = userConn.viewport;
+        userConn.viewport = viewport;
+        
+        // Updates outside the old viewport were not delivered, so reconcile the pieces
+        // that just came into view. Pieces that were already visible are up to date.
+        PuzzleSession puzzleSession = puzzleService.getSession(userConn.sessionId);
+        if (puzzleSession == null) {
+            return;
+        }
+        List<Integer> visible = puzzleService.findPiecesInArea(
+            userConn.sessionId, viewport.x, viewport.y, viewport.width, viewport.height);
+        
+        // The live session is shared, so read it under its lock and send once that is let go
+        List<Map<String, Object>> pieces = new ArrayList<>();
+        synchronized (puzzleSession) {
+            for (int pieceId : visible) {
+                PuzzlePiece piece = puzzleSession.getPieces().get(pieceId);
+                Viewport bounds = new Viewport(piece.getCurrentX(), piece.getCurrentY(), piece.getWidth(), piece.getHeight());
+                if (previous != null && previous.intersects(bounds)) {
+                    continue;
+                }
+                Map<String, Object> pieceData = new HashMap<>();
+                pieceData.put("pieceId", piece.getId());
+                pieceData.put("x", piece.getCurrentX());
+                pieceData.put("y", piece.getCurrentY());
+                pieceData.put("lockedBy", piece.getLockedBy());
+                pieceData.put("placed", piece.isPlaced());
+                pieces.add(pieceData);
+            }
+        }
+        
+        if (!pieces.isEmpty() && userConn.outbound.isOpen()) {
+            WebSocketMessage syncMessage = new WebSocketMessage(
+                WebSocketMessage.MessageType.PIECES_SYNC,
+                Map.of("pieces", pieces)
+            );
+            String messageJson = serialize(syncMessage);
+            long start = events.start();
+            prepare(messageJson).sendTo(userConn.outbound);
+            events.addSendTime(start, 1);
+        }
+    }
+    
+    /**
+     * Area touched by moving a piece: its old and new bounds. Without known old bounds
+     * the update can't be routed, so it goes to everyone.
+     */
+    private Viewport affectedArea(double[] before, double[] after) {
+        if (before == null || after == null) {
+            return null;
+        }
+        return Viewport.ofBounds(before).union(Viewport.ofBounds(after));
+    }
+    
+    /**
+     * Sends the message to connections whose viewport intersects the area. Connections that
+     * haven't reported a viewport, and messages without an area, are treated as visible.
+     * Deliveries of a message caused by a client message are measured from its arrival.
+     */
+    private void broadcastToInterested(String sessionId, String excludeConnectionId, Viewport area,
+                                       InboundMessage cause, Payload message) throws Exception {
+        CopyOnWriteArraySet<UserConnection> sessions = puzzleSessions.get(sessionId);
+        if (sessions != null) {
+            LatencyMonitor.Room room = cause != null ? latency.room(sessionId) : null;
+            String messageJson = null;
+            long start = events.start();
+            int fanOut = 0;
+            for (UserConnection conn : sessions) {
+                if (!conn.outbound.isOpen() || conn.connectionId.equals(excludeConnectionId)) {
+                    continue;
+                }
+                Viewport viewport = conn.viewport;
+                if (area != null && viewport != null && !viewport.intersects(area)) {
+                    continue;
+                }
+                if (messageJson == null) {
+                    messageJson = message.render();
+                    events.addSerializeTime(start);
+                    start = events.start();
+                }
+                conn.outbound.send(messageJson);
+                fanOut++;
+                if (room != null) {
+                    room.delivered(cause, conn.link);
+                }
+            }
+            events.addSendTime(start, fanOut);
+        }
     }
     
     private void broadcastToAll(String sessionId, WebSocketMessage message) throws Exception {
-        CopyOnWriteArraySet<WebSocketSession> sessions = puzzleSessions.get(sessionId);
+        broadcastToAll(sessionId, serialize(message));
+    }
+    
+    private void broadcastToAll(String sessionId, String messageJson) throws Exception {
+        CopyOnWriteArraySet<UserConnection> sessions = puzzleSessions.get(sessionId);
         if (sessions != null) {
-            String messageJson = objectMapper.writeValueAsString(message);
-            for (WebSocketSession session : sessions) {
-                if (session.isOpen()) {
-                    session.sendMessage(new TextMessage(messageJson));
+            // Compressing a large message is part of serializing it
+            long start = events.start();
+            PreparedMessage message = prepare(messageJson);
+            events.addSerializeTime(start);
+            start = events.start();
+            int fanOut = 0;
+            for (UserConnection conn : sessions) {
+                if (conn.outbound.isOpen()) {
+                    message.sendTo(conn.outbound);
+                    fanOut++;
                 }
             }
+            events.addSendTime(start, fanOut);
         }
     }
     
     private void broadcastToOthers(String sessionId, String excludeSessionId, WebSocketMessage message) throws Exception {
-        CopyOnWriteArraySet<WebSocketSession> sessions = puzzleSessions.get(sessionId);
+        broadcastToOthers(sessionId, excludeSessionId, serialize(message), null);
+    }
+    
+    private void broadcastToOthers(String sessionId, String excludeSessionId, String messageJson,
+                                   InboundMessage cause) throws Exception {
+        CopyOnWriteArraySet<UserConnection> sessions = puzzleSessions.get(sessionId);
         if (sessions != null) {
-            String messageJson = objectMapper.writeValueAsString(message);
-            for (WebSocketSession session : sessions) {
-                if (session.isOpen() && !session.getId().equals(excludeSessionId)) {
-                    session.sendMessage(new TextMessage(messageJson));
+            LatencyMonitor.Room room = cause != null ? latency.room(sessionId) : null;
+            long start = events.start();
+            int fanOut = 0;
+            for (UserConnection conn : sessions) {
+                if (conn.outbound.isOpen() && !conn.connectionId.equals(excludeSessionId)) {
+                    conn.outbound.send(messageJson);
+                    fanOut++;
+                    if (room != null) {
+                        room.delivered(cause, conn.link);
+                    }
                 }
             }
+            events.addSendTime(start, fanOut);
         }
     }
     
-    private String extractSessionId(WebSocketSession session) {
-        String path = session.getUri().getPath();
+    private String serialize(WebSocketMessage message) throws IOException {
+        long start = events.start();
+        String messageJson = objectMapper.writeValueAsString(message);
+        events.addSerializeTime(start);
+        return messageJson;
+    }
+    
+    private PreparedMessage prepare(String messageJson) {
+        return new PreparedMessage(messageJson, messageJson.length() >= compressionThreshold ? compressionLevel : -1);
+    }
+    
+    static String extractSessionId(URI uri) {
+        String path = uri.getPath();
         return path.substring(path.lastIndexOf('/') + 1);
     }
     
+    // userId comes from the query params if available
+    static String extractUserId(URI uri) {
+        String query = uri.getQuery();
+        if (query != null && query.contains("userId=")) {
+            return query.split("userId=")[1].split("&")[0];
+        }
+        return null;
+    }
+    
+    // A message serialized only if some connection is going to receive it
+    @FunctionalInterface
+    private interface Payload {
+        String render() throws IOException;
+    }
+    
     private static class UserConnection {
+        final String connectionId;
+        final PuzzleConnection outbound;
         final String sessionId;
-        String userId;
+        String userId; // At the API and in SESSION_STATE, which tells the client who they are
+        volatile int handle; // Everywhere else; 0 for connections without a user in the session
+        volatile Viewport viewport; // null until the client reports one
+        final InboundRateLimiter.Budget budget;
+        final LatencyMonitor.Link link = new LatencyMonitor.Link();
+        volatile long unansweredPing; // When first pinged since the last message or pong, 0 if not
+        // Latest positions over the rate limit, guarded by this connection
+        volatile InboundMessage.PieceMove pendingMove;
+        volatile InboundMessage.CursorMove pendingCursor;
+        volatile InboundMessage.ViewportUpdate pendingViewport;
+        // Whether they are being applied on the WebSocket executor
+        final AtomicBoolean coalescing = new AtomicBoolean();
         
-        UserConnection(String sessionId, String userId) {
+        UserConnection(PuzzleConnection outbound, String sessionId, String userId, InboundRateLimiter.Budget budget) {
+            this.connectionId = outbound.getId();
+            this.outbound = outbound;
             this.sessionId = sessionId;
             this.userId = userId;
+            this.budget = budget;
+        }
+    }
+    
+    // Clients that can inflate messages ask for them with compress=deflate
+    static boolean requestsCompression(URI uri) {
+        String query = uri.getQuery();
+        return query != null && Arrays.asList(query.split("&")).contains("compress=deflate");
+    }
+    
+    private static class ServletConnection implements CompressedConnection {
+        private final ConcurrentWebSocketSessionDecorator session;
+        private final boolean compressed;
+        
+        ServletConnection(ConcurrentWebSocketSessionDecorator session, boolean compressed) {
+            this.session = session;
+            this.compressed = compressed;
+        }
+        
+        @Override
+        public boolean acceptsCompressed() {
+            return compressed;
+        }
+        
+        @Override
+        public void sendCompressed(byte[] payload) throws IOException {
+            session.sendMessage(new BinaryMessage(payload));
+        }
+        
+        @Override
+        public String getId() {
+            return session.getId();
+        }
+        
+        @Override
+        public boolean isOpen() {
+            return session.isOpen();
+        }
+        
+        @Override
+        public long getBufferedBytes() {
+            return session.getBufferSize();
+        }
+        
+        @Override
+        public void send(String payload) throws IOException {
+            session.sendMessage(new TextMessage(payload));
+        }
+        
+        @Override
+        public void ping(ByteBuffer payload) throws IOException {
+            session.sendMessage(new PingMessage(payload));
+        }
+        
+        @Override
+        public void close() {
+            try {
+                session.close(CloseStatus.SERVICE_RESTARTED);
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        
+        @Override
+        public void closeForRejoin() {
+            try {
+                session.close(new CloseStatus(REJOIN, "Timed out"));
+            } catch (IOException e) {
+                // Already closed
+            }
         }
     }
 }
\ No newline at end of file
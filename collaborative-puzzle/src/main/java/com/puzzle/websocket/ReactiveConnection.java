@@ -0,0 +1,98 @@
+package com.puzzle.websocket;
+
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection served by the reactive endpoint. Messages go into a bounded per-connection
+ * buffer that the socket drains as fast as the client reads; a client that falls behind by
+ * more than the buffer is disconnected, like the servlet endpoint's send buffer limit.
+ * The stream carries text only, so clients that ask for compressed messages get them
+ * uncompressed.
+ */
+final class ReactiveConnection implements PuzzleConnection {
+
+    private final WebSocketSession session;
+    private final Sinks.Many<String> outbound;
+    // Sent alongside the messages rather than queued behind them
+    private final Sinks.Many<WebSocketMessage> pings = Sinks.many().unicast().onBackpressureBuffer();
+    // Characters in the buffer, close enough to bytes for JSON messages
+    private final AtomicLong buffered = new AtomicLong();
+    private volatile boolean open = true;
+
+    ReactiveConnection(WebSocketSession session, int bufferSize) {
+        this.session = session;
+        this.outbound = Sinks.many().unicast().onBackpressureBuffer(Queues.<String>get(bufferSize).get());
+    }
+
+    @Override
+    public String getId() {
+        return session.getId();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && session.isOpen();
+    }
+
+    // Sinks reject concurrent emits, and broadcasts come from many threads
+    @Override
+    public synchronized void send(String payload) {
+        if (!open) {
+            return;
+        }
+        // Overflow, or the socket already cancelled the stream; either way the client is gone
+        // Counted first, the socket may take the message before tryEmitNext returns
+        buffered.addAndGet(payload.length());
+        if (outbound.tryEmitNext(payload).isFailure()) {
+            buffered.addAndGet(-payload.length());
+            complete();
+            session.close(CloseStatus.POLICY_VIOLATION).subscribe();
+        }
+    }
+
+    @Override
+    public synchronized void ping(ByteBuffer payload) {
+        if (open) {
+            pings.tryEmitNext(session.pingMessage(factory -> factory.wrap(payload)));
+        }
+    }
+
+    // Completing the stream lets the queued messages drain; the client closes the socket
+    @Override
+    public void close() {
+        complete();
+    }
+
+    @Override
+    public void closeForRejoin() {
+        complete();
+        session.close(new CloseStatus(REJOIN, "Timed out")).subscribe();
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return buffered.get();
+    }
+
+    Flux<String> outbound() {
+        return outbound.asFlux().doOnNext(payload -> buffered.addAndGet(-payload.length()));
+    }
+
+    Flux<WebSocketMessage> pings() {
+        return pings.asFlux();
+    }
+
+    synchronized void complete() {
+        open = false;
+        outbound.tryEmitComplete();
+        pings.tryEmitComplete();
+    }
+}
@@ -0,0 +1,106 @@
+package com.puzzle.websocket;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.repository.ReactivePuzzleSessionRepository;
+import com.puzzle.service.LiveSessionCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+
+/**
+ * Reactive transport for the puzzle protocol, enabled with the {@code reactive-ws} profile.
+ *
+ * The protocol itself is implemented once in {@link PuzzleWebSocketHandler}; this endpoint
+ * only adapts the reactive socket to it. Hibernated sessions are loaded with the reactive
+ * Redis client before the connection is registered, so no protocol call blocks on Redis,
+ * and each connection's outbound messages are a {@code Flux} drained with the socket's
+ * backpressure instead of blocking sends.
+ */
+@Component
+@Profile("reactive-ws")
+public class ReactivePuzzleWebSocketHandler implements WebSocketHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactivePuzzleWebSocketHandler.class);
+
+    @Autowired
+    private PuzzleWebSocketHandler protocol;
+
+    @Autowired
+    private LiveSessionCache liveSessions;
+
+    @Autowired
+    private ReactivePuzzleSessionRepository sessionRepository;
+    
+    @Autowired
+    private ClusterMembership cluster;
+
+    // Messages queued per connection before a slow client is dropped
+    @Value("${puzzle.websocket.reactive.outbound-buffer:1024}")
+    private int outboundBuffer;
+
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+        URI uri = session.getHandshakeInfo().getUri();
+        String sessionId = PuzzleWebSocketHandler.extractSessionId(uri);
+        String userId = PuzzleWebSocketHandler.extractUserId(uri);
+        ReactiveConnection connection = new ReactiveConnection(session, outboundBuffer);
+
+        // Errors end the inbound stream, which closes the socket like the servlet endpoint does
+        Mono<Void> inbound = session.receive()
+                .doOnNext(message -> {
+                    if (message.getType() == WebSocketMessage.Type.PONG) {
+                        protocol.pong(connection.getId(), message.getPayload().asByteBuffer());
+                    } else {
+                        invoke(() -> protocol.receive(connection.getId(), message.getPayloadAsText()));
+                    }
+                })
+                .then()
+                .doFinally(signal -> connection.complete());
+        Mono<Void> outbound = session.send(Flux.merge(connection.outbound().map(session::textMessage), connection.pings()));
+
+        return load(sessionId)
+                .then(Mono.fromRunnable(() -> invoke(() -> protocol.connect(connection, sessionId, userId))))
+                .then(Mono.when(inbound, outbound))
+                .doFinally(signal -> {
+                    try {
+                        protocol.disconnect(connection.getId());
+                    } catch (Exception e) {
+                        log.warn("Failed to clean up connection {}", connection.getId(), e);
+                    }
+                });
+    }
+
+    private Mono<Void> load(String sessionId) {
+        // Sessions owned by another node are never loaded here; the client is redirected
+        if (liveSessions.isResident(sessionId) || !cluster.isLocal(sessionId)) {
+            return Mono.empty();
+        }
+        return sessionRepository.findById(sessionId)
+                .doOnNext(liveSessions::admitLoaded)
+                .then();
+    }
+
+    private interface ProtocolCall {
+        void run() throws Exception;
+    }
+
+    private static void invoke(ProtocolCall call) {
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
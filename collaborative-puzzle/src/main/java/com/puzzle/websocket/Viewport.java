@@ -0,0 +1,41 @@
+package com.puzzle.websocket;
+
+/**
+ * Axis-aligned rectangle in board coordinates, used both for the area a client
+ * can currently see and for the area affected by an update.
+ */
+final class Viewport {
+
+    final double x;
+    final double y;
+    final double width;
+    final double height;
+
+    Viewport(double x, double y, double width, double height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    static Viewport ofBounds(double[] bounds) {
+        return new Viewport(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    boolean intersects(Viewport other) {
+        return x < other.x + other.width && other.x < x + width
+                && y < other.y + other.height && other.y < y + height;
+    }
+
+    Viewport expand(double margin) {
+        return new Viewport(x - margin, y - margin, width + 2 * margin, height + 2 * margin);
+    }
+
+    Viewport union(Viewport other) {
+        double minX = Math.min(x, other.x);
+        double minY = Math.min(y, other.y);
+        double maxX = Math.max(x + width, other.x + other.width);
+        double maxY = Math.max(y + height, other.y + other.height);
+        return new Viewport(minX, minY, maxX - minX, maxY - minY);
+    }
+}
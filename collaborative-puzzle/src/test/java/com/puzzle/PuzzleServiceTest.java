@@ -1,21 +1,31 @@
 package com.puzzle;
 
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.jigsaw.PieceMaskCache;
+import com.puzzle.journal.SessionJournal;
+import com.puzzle.model.PuzzlePiece;
 import com.puzzle.model.PuzzleSession;
 import com.puzzle.model.User;
+import com.puzzle.profiling.FlightEvents;
 import com.puzzle.repository.ImageRepository;
 import com.puzzle.repository.PuzzleSessionRepository;
+import com.puzzle.service.LiveSessionCache;
+import com.puzzle.service.PuzzleEventListener;
 import com.puzzle.service.PuzzleService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.concurrent.Executor;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -31,6 +41,19 @@ public class PuzzleServiceTest {
     @Mock
     private ImageRepository imageRepository;
     
+    @Mock
+    private SessionJournal journal;
+    
+    // Real, disabled ones: this node owns every session and operations report what they applied
+    @Spy
+    private ClusterMembership cluster = new ClusterMembership();
+    
+    @Spy
+    private FlightEvents events = new FlightEvents();
+    
+    @Spy
+    private PieceMaskCache pieceMasks = new PieceMaskCache();
+    
     @InjectMocks
     private PuzzleService puzzleService;
     
@@ -38,6 +61,11 @@ public class PuzzleServiceTest {
     
     @BeforeEach
     void setUp() {
+        // A real cache in front of the mocked repository, so the tests see store reads and writes
+        ReflectionTestUtils.setField(puzzleService, "liveSessions", TestSessions.liveSessions(sessionRepository));
+        // Pieces are cut on the test thread
+        ReflectionTestUtils.setField(puzzleService, "imageExecutor", (Executor) Runnable::run);
+        
         testSession = new PuzzleSession();
         testSession.setId("test-session-id");
         testSession.setGridSize(3);
@@ -148,4 +176,136 @@ public class PuzzleServiceTest {
         PuzzleSession result = puzzleService.getSession("invalid-id");
         assertNull(result);
     }
-}
\ No newline at end of file
+    
+    @Test
+    void testJoinAssignsHandlesThatAreNeverReused() {
+        when(sessionRepository.findById("test-session-id")).thenReturn(testSession);
+        
+        User ada = puzzleService.joinSession("test-session-id", "Ada");
+        puzzleService.leaveSession("test-session-id", ada.getId());
+        User bob = puzzleService.joinSession("test-session-id", "Bob");
+        
+        assertEquals(1, ada.getHandle());
+        assertEquals(2, bob.getHandle());
+        assertSame(bob, testSession.getUsers().get(bob.getId()));
+    }
+    
+    @Test
+    void testLapsedLockCanBeTakenOver() {
+        addPieces(testSession, 9);
+        when(sessionRepository.findById("test-session-id")).thenReturn(testSession);
+        
+        assertTrue(puzzleService.lockPiece("test-session-id", 0, 1));
+        assertFalse(puzzleService.lockPiece("test-session-id", 0, 2));
+        
+        // Simulate the holder's node going away without renewing the lease
+        testSession.getPieces().get(0).setLockExpiresAt(System.currentTimeMillis() - 1);
+        
+        assertTrue(puzzleService.lockPiece("test-session-id", 0, 2));
+        assertEquals(2, testSession.getPieces().get(0).getLockedBy());
+    }
+    
+    @Test
+    void testExpireStaleLocksNotifiesListeners() {
+        addPieces(testSession, 9);
+        when(sessionRepository.findById("test-session-id")).thenReturn(testSession);
+        PuzzleEventListener listener = mock(PuzzleEventListener.class);
+        puzzleService.addListener(listener);
+        
+        ReflectionTestUtils.setField(puzzleService, "lockLeaseTtl", 0L);
+        assertTrue(puzzleService.lockPiece("test-session-id", 4, 1));
+        
+        puzzleService.expireStaleLocks();
+        
+        assertEquals(0, testSession.getPieces().get(4).getLockedBy());
+        verify(listener).onLockExpired("test-session-id", 4, 1);
+    }
+    
+    @Test
+    void testLapsedLocksALoadedSessionHadAreLeftToTheSweep() {
+        addPieces(testSession, 9);
+        PuzzlePiece piece = testSession.getPieces().get(2);
+        // Held on a node that crashed
+        piece.setLockedBy(7);
+        piece.setLockExpiresAt(System.currentTimeMillis() - 1000);
+        when(sessionRepository.findById("test-session-id")).thenReturn(testSession);
+        PuzzleEventListener listener = mock(PuzzleEventListener.class);
+        puzzleService.addListener(listener);
+        puzzleService.registerCacheListeners();
+        
+        assertEquals(7, puzzleService.getSession("test-session-id").getPieces().get(2).getLockedBy());
+        
+        puzzleService.expireStaleLocks();
+        
+        assertEquals(0, piece.getLockedBy());
+        verify(listener).onLockExpired("test-session-id", 2, 7);
+    }
+    
+    @Test
+    void testLeasesOfReleasedSessionsAreNotSwept() {
+        addPieces(testSession, 9);
+        when(sessionRepository.findById("test-session-id")).thenReturn(testSession);
+        PuzzleEventListener listener = mock(PuzzleEventListener.class);
+        puzzleService.addListener(listener);
+        puzzleService.registerCacheListeners();
+        
+        ReflectionTestUtils.setField(puzzleService, "lockLeaseTtl", 0L);
+        assertTrue(puzzleService.lockPiece("test-session-id", 4, 1));
+        // Handed off to another node, which now owns the lock state
+        LiveSessionCache liveSessions = (LiveSessionCache) ReflectionTestUtils.getField(puzzleService, "liveSessions");
+        assertTrue(liveSessions.release("test-session-id"));
+        
+        puzzleService.expireStaleLocks();
+        
+        assertFalse(liveSessions.isResident("test-session-id"));
+        assertEquals(1, testSession.getPieces().get(4).getLockedBy());
+        verify(sessionRepository, times(1)).findById("test-session-id");
+        verify(listener, never()).onLockExpired(anyString(), anyInt(), anyInt());
+    }
+    
+    @Test
+    void testPlacingTheLastPieceCompletesThePuzzle() {
+        addPieces(testSession, 9);
+        testSession.setImageWidth(300);
+        testSession.setImageHeight(300);
+        for (int i = 0; i < 7; i++) {
+            testSession.getPieces().get(i).setPlaced(true);
+        }
+        when(sessionRepository.findById("test-session-id")).thenReturn(testSession);
+        
+        assertTrue(puzzleService.releasePiece("test-session-id", 7, 150, 250, 1));
+        assertTrue(testSession.getPieces().get(7).isPlaced());
+        // Taken out of place again, off the board
+        assertTrue(puzzleService.releasePiece("test-session-id", 7, 900, 900, 1));
+        assertTrue(puzzleService.releasePiece("test-session-id", 8, 250, 250, 1));
+        assertFalse(testSession.isCompleted());
+        
+        assertTrue(puzzleService.releasePiece("test-session-id", 7, 150, 250, 1));
+        assertTrue(testSession.isCompleted());
+    }
+    
+    @Test
+    void testLeaveSessionReleasesHeldLocks() {
+        addPieces(testSession, 9);
+        when(sessionRepository.findById("test-session-id")).thenReturn(testSession);
+        
+        testSession.getUsers().put("user-a", new User("user-a", 1, "Ada", "#FF6B6B", 0, 0));
+        
+        puzzleService.lockPiece("test-session-id", 1, 1);
+        puzzleService.lockPiece("test-session-id", 2, 2);
+        puzzleService.leaveSession("test-session-id", "user-a");
+        
+        assertEquals(0, testSession.getPieces().get(1).getLockedBy());
+        assertEquals(2, testSession.getPieces().get(2).getLockedBy());
+    }
+    
+    private static void addPieces(PuzzleSession session, int count) {
+        for (int i = 0; i < count; i++) {
+            PuzzlePiece piece = new PuzzlePiece();
+            piece.setId(i);
+            piece.setRow(i / 3);
+            piece.setCol(i % 3);
+            session.getPieces().add(piece);
+        }
+    }
+}
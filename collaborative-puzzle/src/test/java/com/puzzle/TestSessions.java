@@ -0,0 +1,66 @@
+package com.puzzle;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.model.PuzzlePiece;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.profiling.FlightEvents;
+import com.puzzle.repository.PuzzleSessionRepository;
+import com.puzzle.service.LiveSessionCache;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Sessions and live-session caches shared by the tests.
+ */
+public final class TestSessions {
+
+    private TestSessions() {
+    }
+
+    /**
+     * A session cut from {@code /api/images/picture-<id>} into pieces whose images are
+     * {@code /api/images/<id>-<n>}, with the given users joined under handles 1, 2, ...
+     */
+    public static PuzzleSession session(String id, int pieces, String... userIds) {
+        PuzzleSession session = new PuzzleSession();
+        session.setId(id);
+        session.setImageUrl("/api/images/picture-" + id);
+        session.setTotalPieces(pieces);
+        for (int i = 0; i < pieces; i++) {
+            PuzzlePiece piece = new PuzzlePiece();
+            piece.setId(i);
+            piece.setImageUrl("/api/images/" + id + "-" + i);
+            session.getPieces().add(piece);
+        }
+        for (String userId : userIds) {
+            User user = new User();
+            user.setId(userId);
+            user.setHandle(session.getUsers().size() + 1);
+            user.setName(userId);
+            session.getUsers().put(userId, user);
+            session.setLastHandle(user.getHandle());
+        }
+        return session;
+    }
+
+    /**
+     * A live-session cache in front of a mocked repository, with the default bounds.
+     */
+    public static LiveSessionCache liveSessions() {
+        return liveSessions(mock(PuzzleSessionRepository.class));
+    }
+
+    /**
+     * A live-session cache in front of the given repository, with the default bounds, on a
+     * node that owns every session.
+     */
+    public static LiveSessionCache liveSessions(PuzzleSessionRepository sessionRepository) {
+        LiveSessionCache liveSessions = new LiveSessionCache();
+        ReflectionTestUtils.setField(liveSessions, "sessionRepository", sessionRepository);
+        ReflectionTestUtils.setField(liveSessions, "events", mock(FlightEvents.class));
+        ReflectionTestUtils.setField(liveSessions, "cluster", new ClusterMembership());
+        return liveSessions;
+    }
+}
@@ -0,0 +1,47 @@
+package com.puzzle.admission;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControllerTest {
+
+    @Test
+    void testRequestBacklogIsShed() throws InterruptedException {
+        ThreadPoolExecutor requests = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(10));
+        CountDownLatch release = new CountDownLatch(1);
+        AdmissionController admission = new AdmissionController();
+        ReflectionTestUtils.setField(admission, "enabled", true);
+        ReflectionTestUtils.setField(admission, "load", new NodeLoad());
+        ReflectionTestUtils.setField(admission, "imageExecutor", (Executor) Runnable::run);
+        ReflectionTestUtils.setField(admission, "requestExecutor", requests);
+        ReflectionTestUtils.setField(admission, "maxRequestQueueDepth", 2);
+        try {
+            // The only thread is busy, so the rest wait in the queue
+            for (int i = 0; i < 3; i++) {
+                requests.execute(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            assertTrue(admission.admit());
+
+            requests.execute(() -> { });
+            assertFalse(admission.admit());
+        } finally {
+            release.countDown();
+            requests.shutdown();
+            requests.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+}
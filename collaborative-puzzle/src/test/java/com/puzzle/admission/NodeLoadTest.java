@@ -0,0 +1,69 @@
+package com.puzzle.admission;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.websocket.PuzzleWebSocketHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class NodeLoadTest {
+
+    private PuzzleWebSocketHandler handler;
+    private NodeLoad load;
+
+    @BeforeEach
+    void setUp() {
+        handler = mock(PuzzleWebSocketHandler.class);
+        load = new NodeLoad();
+        ReflectionTestUtils.setField(load, "webSocketHandler", handler);
+        ReflectionTestUtils.setField(load, "cluster", new ClusterMembership());
+        ReflectionTestUtils.setField(load, "maxRooms", 10);
+        ReflectionTestUtils.setField(load, "maxConnections", 100);
+        ReflectionTestUtils.setField(load, "maxBufferedBytes", 1000L);
+    }
+
+    @Test
+    void testScoreIsTheMostLoadedMeasure() {
+        when(handler.getActiveRoomCount()).thenReturn(5);
+        when(handler.getConnectionCount()).thenReturn(20);
+        when(handler.getBufferedBytes()).thenReturn(100L);
+        load.sample();
+
+        assertEquals(0.5, load.getScore(), 1e-9);
+        assertFalse(load.isOverCapacity());
+        assertEquals(5, load.getDetails().get("rooms"));
+
+        when(handler.getBufferedBytes()).thenReturn(1500L);
+        load.sample();
+        assertEquals(1.5, load.getScore(), 1e-9);
+        assertTrue(load.isOverCapacity());
+    }
+
+    @Test
+    void testSlowScheduledTaskIsNotOverload() throws InterruptedException {
+        ReflectionTestUtils.setField(load, "maxLag", 100L);
+        ReflectionTestUtils.setField(load, "probeInterval", 10L);
+        load.start();
+        try {
+            load.sample();
+            // A flush holding the scheduler thread well past the sample interval and maxLag
+            Thread.sleep(1500);
+            load.sample();
+
+            assertTrue(load.getScore() < 1, "score " + load.getScore());
+            assertFalse(load.isOverCapacity());
+        } finally {
+            load.stop();
+        }
+    }
+
+    @Test
+    void testSchedulingLagCountsTowardsTheScore() {
+        assertEquals(0.0, load.score(0, 0, 0, 0), 1e-9);
+        assertEquals(0.4, load.score(0, 0, 0, 100), 1e-9);
+        assertEquals(1.2, load.score(0, 0, 0, 300), 1e-9);
+    }
+}
@@ -0,0 +1,38 @@
+package com.puzzle.admission;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void testBurstThenSteadyRate() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(now));
+        }
+        assertFalse(bucket.tryAcquire(now));
+
+        // One token every 100 ms
+        assertFalse(bucket.tryAcquire(now + SECOND / 20));
+        assertTrue(bucket.tryAcquire(now + SECOND / 10));
+        assertFalse(bucket.tryAcquire(now + SECOND / 10));
+    }
+
+    @Test
+    void testRefillIsCappedAtBurst() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long later = System.nanoTime() + 60 * SECOND;
+
+        int acquired = 0;
+        while (bucket.tryAcquire(later)) {
+            acquired++;
+        }
+        assertEquals(3, acquired);
+    }
+}
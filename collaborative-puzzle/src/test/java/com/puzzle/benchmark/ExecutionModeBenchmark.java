@@ -0,0 +1,116 @@
+package com.puzzle.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the thread-pool and virtual-thread execution modes on a simulated handler that,
+ * like {@code PuzzleService}, spends most of its time blocked on Redis round trips. Each
+ * request makes three 2 ms round trips around a little CPU work. The platform pool has
+ * Tomcat's default 200 workers. Not a unit test; run it from the IDE or with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=com.puzzle.benchmark.ExecutionModeBenchmark -Dexec.classpathScope=test}.
+ * The virtual-thread rows need a Java 21 runtime.
+ */
+public class ExecutionModeBenchmark {
+
+    private static final int ROUND_TRIPS = 3;
+    private static final long ROUND_TRIP_MILLIS = 2;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-9s %8s %12s %10s %14s%n", "mode", "clients", "req/s", "p-threads", "max in flight");
+        for (int clients : new int[] {100, 1_000, 10_000}) {
+            ExecutorService pool = Executors.newFixedThreadPool(200);
+            run("pool", pool, clients);
+
+            ExecutorService virtual = virtualExecutor();
+            if (virtual != null) {
+                run("virtual", virtual, clients);
+            } else {
+                System.out.printf("%-9s %8d   unavailable on Java %s%n", "virtual", clients, System.getProperty("java.version"));
+            }
+        }
+    }
+
+    private static void run(String mode, ExecutorService executor, int clients) throws InterruptedException {
+        // Every client sends its next request as soon as the previous one completes
+        int rounds = Math.max(5, 20_000 / clients);
+        CountDownLatch done = new CountDownLatch(clients * rounds);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        int threadsBefore = Thread.activeCount();
+
+        long start = System.nanoTime();
+        for (int client = 0; client < clients; client++) {
+            executor.execute(new Client(executor, rounds, done, inFlight, maxInFlight));
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        int platformThreads = Thread.activeCount() - threadsBefore;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        double perSecond = clients * (double) rounds / (elapsed / 1e9);
+        System.out.printf("%-9s %8d %12.0f %10d %14d%n", mode, clients, perSecond, platformThreads, maxInFlight.get());
+    }
+
+    private static final class Client implements Runnable {
+        private final ExecutorService executor;
+        private final CountDownLatch done;
+        private final AtomicInteger inFlight;
+        private final AtomicInteger maxInFlight;
+        private int remaining;
+
+        Client(ExecutorService executor, int rounds, CountDownLatch done, AtomicInteger inFlight, AtomicInteger maxInFlight) {
+            this.executor = executor;
+            this.remaining = rounds;
+            this.done = done;
+            this.inFlight = inFlight;
+            this.maxInFlight = maxInFlight;
+        }
+
+        @Override
+        public void run() {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                handleRequest();
+            } finally {
+                inFlight.decrementAndGet();
+                done.countDown();
+            }
+            if (--remaining > 0) {
+                executor.execute(this);
+            }
+        }
+    }
+
+    private static void handleRequest() {
+        long checksum = 0;
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+            for (int j = 0; j < 2_000; j++) {
+                checksum += j * 31L ^ checksum;
+            }
+            try {
+                Thread.sleep(ROUND_TRIP_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (checksum == 42) {
+            System.out.print("");
+        }
+    }
+
+    private static ExecutorService virtualExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
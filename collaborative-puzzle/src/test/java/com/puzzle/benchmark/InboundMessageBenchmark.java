@@ -0,0 +1,77 @@
+package com.puzzle.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.puzzle.model.WebSocketMessage;
+import com.puzzle.websocket.InboundMessage;
+import com.puzzle.websocket.InboundMessageParser;
+import com.puzzle.websocket.OutboundMessages;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Compares the bytes allocated and time taken per PIECE_MOVE frame, parsed and re-broadcast,
+ * between the data-binding path (frame to map, map to JSON) and the streaming parser with
+ * typed messages. Not a unit test; run it from the IDE or with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=com.puzzle.benchmark.InboundMessageBenchmark -Dexec.classpathScope=test}.
+ */
+public class InboundMessageBenchmark {
+
+    private static final int WARMUP_ROUNDS = 200_000;
+    private static final int MEASURED_ROUNDS = 1_000_000;
+
+    private static final String FRAME = "{\"type\":\"PIECE_MOVE\",\"data\":{\"pieceId\":1234,\"x\":512.25,\"y\":384.5}}";
+    private static final String USER_ID = "3f2c9a4e-8b1d-4c7e-9a2f-5d6e7f8a9b0c";
+    private static final int HANDLE = 3; // The same user, by their handle in the session
+
+    private interface Frame {
+        String handle() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+
+        // What the handler did before: bind to a map, cast the numbers out, add the user, write it back
+        Frame dataBinding = () -> {
+            WebSocketMessage message = mapper.readValue(FRAME, WebSocketMessage.class);
+            Map<String, Object> data = message.getData();
+            int pieceId = ((Number) data.get("pieceId")).intValue();
+            double x = ((Number) data.get("x")).doubleValue();
+            double y = ((Number) data.get("y")).doubleValue();
+            if (pieceId < 0 || x + y < 0) {
+                return null;
+            }
+            data.put("userId", USER_ID);
+            return mapper.writeValueAsString(message);
+        };
+
+        Frame streaming = () -> {
+            InboundMessage.PieceMove move = (InboundMessage.PieceMove) InboundMessageParser.parse(FRAME);
+            return OutboundMessages.pieceMove(move.getPieceId(), move.getX(), move.getY(), HANDLE);
+        };
+
+        System.out.printf("%-14s %14s %12s%n", "path", "bytes/frame", "ns/frame");
+        report("data-binding", dataBinding);
+        report("streaming", streaming);
+    }
+
+    private static void report(String name, Frame frame) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += frame.handle().length();
+        }
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            sink += frame.handle().length();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        if (sink == 0) {
+            throw new IllegalStateException();
+        }
+        System.out.printf("%-14s %14d %12.0f%n", name, allocated / MEASURED_ROUNDS, (double) elapsed / MEASURED_ROUNDS);
+    }
+}
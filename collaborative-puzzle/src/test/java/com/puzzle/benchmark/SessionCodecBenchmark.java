@@ -0,0 +1,118 @@
+package com.puzzle.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.puzzle.model.PuzzlePiece;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.repository.PuzzleSessionCodec;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Compares snapshot size and encode/decode time of the binary session codec against the
+ * JSON serializer it replaced. Not a unit test; run it from the IDE or with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=com.puzzle.benchmark.SessionCodecBenchmark -Dexec.classpathScope=test}.
+ */
+public class SessionCodecBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20_000;
+    private static final int MEASURED_ROUNDS = 20_000;
+
+    public static void main(String[] args) {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        mapper.activateDefaultTyping(mapper.getPolymorphicTypeValidator(),
+                ObjectMapper.DefaultTyping.NON_FINAL);
+        GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer(mapper);
+
+        System.out.printf("%-6s %-6s %10s %12s %12s%n", "grid", "codec", "bytes", "encode us", "decode us");
+        for (int gridSize : new int[] {3, 8, 20, 50}) {
+            PuzzleSession session = session(gridSize);
+            int rounds = Math.max(50, MEASURED_ROUNDS / (gridSize * gridSize / 9));
+
+            byte[] jsonBytes = json.serialize(session);
+            report(gridSize, "json", jsonBytes.length,
+                    time(() -> json.serialize(session), rounds),
+                    time(() -> json.deserialize(jsonBytes), rounds));
+
+            byte[] binaryBytes = PuzzleSessionCodec.encode(session);
+            report(gridSize, "binary", binaryBytes.length,
+                    time(() -> PuzzleSessionCodec.encode(session), rounds),
+                    time(() -> PuzzleSessionCodec.decode(binaryBytes), rounds));
+        }
+    }
+
+    private static double time(Supplier<Object> task, int rounds) {
+        Object sink = null;
+        for (int i = 0; i < Math.min(WARMUP_ROUNDS, rounds * 4); i++) {
+            sink = task.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sink = task.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == null) {
+            throw new IllegalStateException();
+        }
+        return elapsed / 1000.0 / rounds;
+    }
+
+    private static void report(int gridSize, String codec, int bytes, double encodeMicros, double decodeMicros) {
+        System.out.printf("%-6s %-6s %10d %12.1f %12.1f%n", gridSize + "x" + gridSize, codec, bytes, encodeMicros, decodeMicros);
+    }
+
+    // A session partway through a game: a few players, some pieces placed, one held
+    private static PuzzleSession session(int gridSize) {
+        PuzzleSession session = new PuzzleSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setImageUrl("/api/images/" + UUID.randomUUID());
+        session.setGridSize(gridSize);
+        session.setTotalPieces(gridSize * gridSize);
+        session.setCreatedAt(LocalDateTime.now());
+        session.setImageWidth(500);
+        session.setImageHeight(400);
+        session.setBoardWidth(1200);
+        session.setBoardHeight(800);
+
+        int players = 4;
+        for (int i = 1; i <= players; i++) {
+            User user = new User(UUID.randomUUID().toString(), i, "Player " + i, "#FF6B6B", 100.0 * i, 50.0 * i);
+            session.getUsers().put(user.getId(), user);
+        }
+        session.setLastHandle(players);
+
+        int pieceWidth = 500 / gridSize;
+        int pieceHeight = 400 / gridSize;
+        for (int i = 0; i < gridSize * gridSize; i++) {
+            PuzzlePiece piece = new PuzzlePiece();
+            piece.setId(i);
+            piece.setRow(i / gridSize);
+            piece.setCol(i % gridSize);
+            piece.setCorrectX(50 + piece.getCol() * pieceWidth);
+            piece.setCorrectY(50 + piece.getRow() * pieceHeight);
+            piece.setWidth(pieceWidth);
+            piece.setHeight(pieceHeight);
+            piece.setImageUrl("/api/images/" + UUID.randomUUID());
+            if (i % 2 == 0) {
+                piece.setCurrentX(piece.getCorrectX());
+                piece.setCurrentY(piece.getCorrectY());
+                piece.setPlaced(true);
+                piece.setPlacedBy(1 + i % players);
+            } else {
+                piece.setCurrentX(600 + (i * 37) % 580 + 0.5);
+                piece.setCurrentY(20 + (i * 53) % 760 + 0.25);
+            }
+            if (i == 1) {
+                piece.setLockedBy(2);
+                piece.setLockExpiresAt(System.currentTimeMillis() + 15000);
+            }
+            session.getPieces().add(piece);
+        }
+        return session;
+    }
+}
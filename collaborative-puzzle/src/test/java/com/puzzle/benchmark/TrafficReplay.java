@@ -0,0 +1,371 @@
+package com.puzzle.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.puzzle.admission.InboundRateLimiter;
+import com.puzzle.capture.TrafficCapture;
+import com.puzzle.capture.TrafficRecorder;
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.journal.SessionJournal;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.presence.PresenceService;
+import com.puzzle.profiling.FlightEvents;
+import com.puzzle.repository.PuzzleSessionCodec;
+import com.puzzle.repository.PuzzleSessionRepository;
+import com.puzzle.service.LiveSessionCache;
+import com.puzzle.service.PuzzleService;
+import com.puzzle.websocket.LatencyMonitor;
+import com.puzzle.websocket.PuzzleWebSocketHandler;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays a capture written by {@code TrafficRecorder} through {@link PuzzleWebSocketHandler}
+ * and reports per-message handling latency, so builds can be compared on real game traffic.
+ *
+ * Records are dispatched in order on one thread, which makes runs repeatable. Sessions start
+ * from the snapshots in the capture and are kept in an in-memory stand-in for the Redis
+ * repository, so results measure the server's own work. Lock leases expire on the wall
+ * clock, so at speeds other than 1x drags can outlast or undercut leases differently than
+ * in the recording.
+ * Not a unit test; run it from the IDE or with
+ * {@code mvn test-compile exec:java -Dexec.mainClass=com.puzzle.benchmark.TrafficReplay -Dexec.classpathScope=test -Dexec.args="capture/traffic-....cap.gz 1"}.
+ * A speed of 0 replays as fast as possible.
+ */
+public class TrafficReplay {
+
+    private static final Pattern MESSAGE_TYPE = Pattern.compile("\"type\"\\s*:\\s*\"(\\w+)\"");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: TrafficReplay <capture file> [speed, default 1, 0 = unthrottled]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+
+        TrafficReplay replay = new TrafficReplay();
+        replay.run(file, speed);
+        replay.report();
+    }
+
+    private final LiveSessionCache liveSessions = new LiveSessionCache();
+    private final PuzzleWebSocketHandler handler = new PuzzleWebSocketHandler();
+    private final Map<String, ReplaySession> connections = new HashMap<>();
+    private final Map<String, Latencies> latencies = new TreeMap<>();
+    private final Latencies lag = new Latencies();
+    private long sentMessages;
+    private long sentBytes;
+    private long elapsedNanos;
+
+    TrafficReplay() {
+        // Journal, cluster, recorder, rate limiter and flight events as configured by default: disabled
+        ClusterMembership cluster = new ClusterMembership();
+        FlightEvents events = new FlightEvents();
+        ReflectionTestUtils.setField(liveSessions, "sessionRepository", new InMemorySessionRepository());
+        ReflectionTestUtils.setField(liveSessions, "events", events);
+        ReflectionTestUtils.setField(liveSessions, "cluster", cluster);
+
+        PuzzleService puzzleService = new PuzzleService();
+        ReflectionTestUtils.setField(puzzleService, "liveSessions", liveSessions);
+        ReflectionTestUtils.setField(puzzleService, "journal", new SessionJournal());
+        ReflectionTestUtils.setField(puzzleService, "cluster", cluster);
+        ReflectionTestUtils.setField(puzzleService, "events", events);
+        ReflectionTestUtils.setField(puzzleService, "snapThreshold", 80);
+        puzzleService.registerCacheListeners();
+
+        PresenceService presenceService = new PresenceService();
+        ReflectionTestUtils.setField(presenceService, "ttlMillis", 30000L);
+
+        // Configured like Spring Boot's ObjectMapper, which the handler gets in the application
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        ReflectionTestUtils.setField(handler, "puzzleService", puzzleService);
+        ReflectionTestUtils.setField(handler, "presenceService", presenceService);
+        ReflectionTestUtils.setField(handler, "liveSessions", liveSessions);
+        ReflectionTestUtils.setField(handler, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(handler, "recorder", new TrafficRecorder());
+        ReflectionTestUtils.setField(handler, "cluster", cluster);
+        ReflectionTestUtils.setField(handler, "rateLimiter", new InboundRateLimiter());
+        ReflectionTestUtils.setField(handler, "events", events);
+        ReflectionTestUtils.setField(handler, "latency", new LatencyMonitor());
+        ReflectionTestUtils.setField(handler, "viewportMargin", 200);
+        handler.registerListeners();
+    }
+
+    void run(Path file, double speed) throws Exception {
+        try (TrafficCapture.Reader reader = new TrafficCapture.Reader(file)) {
+            long start = System.nanoTime();
+            TrafficCapture.Record record;
+            while ((record = reader.next()) != null) {
+                if (speed > 0) {
+                    long due = start + (long) (record.getOffsetNanos() / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else {
+                        lag.add(-wait);
+                    }
+                }
+                dispatch(record);
+            }
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    private void dispatch(TrafficCapture.Record record) throws Exception {
+        switch (record.getKind()) {
+            case SESSION:
+                liveSessions.admitLoaded(PuzzleSessionCodec.decode(record.getSnapshot()));
+                break;
+            case CONNECT: {
+                addUser(record);
+                ReplaySession session = new ReplaySession(record.getConnectionId(), URI.create(
+                        "/ws/puzzle/" + record.getSessionId()
+                                + (record.getUserId() != null ? "?userId=" + record.getUserId() : "")));
+                connections.put(record.getConnectionId(), session);
+                long start = System.nanoTime();
+                handler.afterConnectionEstablished(session);
+                latency("CONNECT").add(System.nanoTime() - start);
+                break;
+            }
+            case MESSAGE: {
+                ReplaySession session = connections.get(record.getConnectionId());
+                if (session == null) {
+                    return;
+                }
+                Matcher type = MESSAGE_TYPE.matcher(record.getPayload());
+                long start = System.nanoTime();
+                handler.handleMessage(session, new TextMessage(record.getPayload()));
+                latency(type.find() ? type.group(1) : "UNKNOWN").add(System.nanoTime() - start);
+                break;
+            }
+            case DISCONNECT: {
+                ReplaySession session = connections.remove(record.getConnectionId());
+                if (session == null) {
+                    return;
+                }
+                session.open = false;
+                long start = System.nanoTime();
+                handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+                latency("DISCONNECT").add(System.nanoTime() - start);
+                break;
+            }
+        }
+    }
+
+    // Users joined over REST during the recording; the connect record carries them
+    private void addUser(TrafficCapture.Record record) {
+        PuzzleSession session = liveSessions.get(record.getSessionId());
+        if (session == null || record.getUserId() == null || record.getUserName() == null) {
+            return;
+        }
+        synchronized (session) {
+            if (!session.getUsers().containsKey(record.getUserId())) {
+                // Handles are local to the session, so any unused one will do
+                session.setLastHandle(session.getLastHandle() + 1);
+                session.getUsers().put(record.getUserId(), new User(record.getUserId(), session.getLastHandle(),
+                        record.getUserName(), record.getUserColor(), 0, 0));
+            }
+        }
+    }
+
+    private Latencies latency(String type) {
+        return latencies.computeIfAbsent(type, key -> new Latencies());
+    }
+
+    synchronized void report() {
+        long handled = 0;
+        for (Latencies values : latencies.values()) {
+            handled += values.size;
+        }
+        System.out.printf("replayed %d events in %.1f s (%.0f/s), sent %d messages, %.1f MB%n",
+                handled, elapsedNanos / 1e9, handled / (elapsedNanos / 1e9), sentMessages, sentBytes / 1e6);
+        System.out.printf("%-16s %9s %10s %10s %10s%n", "event", "count", "p50 us", "p99 us", "max us");
+        for (Map.Entry<String, Latencies> entry : latencies.entrySet()) {
+            entry.getValue().print(entry.getKey());
+        }
+        if (lag.size > 0) {
+            lag.print("behind schedule");
+        }
+    }
+
+    private final class ReplaySession implements WebSocketSession {
+        private final String id;
+        private final URI uri;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        volatile boolean open = true;
+
+        ReplaySession(String id, URI uri) {
+            this.id = id;
+            this.uri = uri;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return uri;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            synchronized (TrafficReplay.this) {
+                sentMessages++;
+                sentBytes += message.getPayloadLength();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            close(CloseStatus.NORMAL);
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            open = false;
+        }
+    }
+
+    private static final class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        void print(String label) {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            System.out.printf("%-16s %9d %10.1f %10.1f %10.1f%n", label, size,
+                    sorted[(int) (size * 0.50)] / 1e3,
+                    sorted[Math.min(size - 1, (int) (size * 0.99))] / 1e3,
+                    sorted[size - 1] / 1e3);
+        }
+    }
+
+    // Stands in for Redis; the cache only writes back on flushes and hibernation
+    private static final class InMemorySessionRepository extends PuzzleSessionRepository {
+        private final Map<String, byte[]> snapshots = new ConcurrentHashMap<>();
+
+        @Override
+        public void save(PuzzleSession session) {
+            snapshots.put(session.getId(), PuzzleSessionCodec.encode(session));
+        }
+
+        @Override
+        public void saveSnapshots(Map<String, byte[]> batch) {
+            snapshots.putAll(batch);
+        }
+
+        @Override
+        public PuzzleSession findById(String sessionId) {
+            byte[] data = snapshots.get(sessionId);
+            return data != null ? PuzzleSessionCodec.decode(data) : null;
+        }
+
+        @Override
+        public void delete(String sessionId) {
+            snapshots.remove(sessionId);
+        }
+
+        @Override
+        public boolean exists(String sessionId) {
+            return snapshots.containsKey(sessionId);
+        }
+
+        @Override
+        public void updateExpiration(Collection<String> sessionIds) {
+        }
+    }
+}
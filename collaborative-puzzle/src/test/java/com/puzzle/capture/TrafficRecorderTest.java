@@ -0,0 +1,69 @@
+package com.puzzle.capture;
+
+import com.puzzle.model.PuzzlePiece;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.repository.PuzzleSessionCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrafficRecorderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRecordedTrafficReadsBackInOrder() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder();
+        ReflectionTestUtils.setField(recorder, "enabled", true);
+        ReflectionTestUtils.setField(recorder, "directory", directory.toString());
+        recorder.start();
+
+        PuzzleSession session = new PuzzleSession();
+        session.setId("s1");
+        session.getPieces().add(new PuzzlePiece());
+        session.getUsers().put("u1", new User("u1", 1, "Ada", "#FF6B6B", 0, 0));
+        session.setLastHandle(1);
+
+        recorder.connected("c1", "s1", "u1", session);
+        recorder.received("c1", "{\"type\":\"PIECE_LOCK\",\"data\":{\"pieceId\":0}}");
+        // A second connection to the same session doesn't snapshot it again
+        recorder.connected("c2", "s1", null, session);
+        recorder.disconnected("c1");
+        recorder.stop();
+
+        List<Path> files = Files.list(directory).collect(Collectors.toList());
+        assertEquals(1, files.size());
+        try (TrafficCapture.Reader reader = new TrafficCapture.Reader(files.get(0))) {
+            TrafficCapture.Record snapshot = reader.next();
+            assertEquals(TrafficCapture.Kind.SESSION, snapshot.getKind());
+            assertEquals(session, PuzzleSessionCodec.decode(snapshot.getSnapshot()));
+
+            TrafficCapture.Record connect = reader.next();
+            assertEquals(TrafficCapture.Kind.CONNECT, connect.getKind());
+            assertEquals("c1", connect.getConnectionId());
+            assertEquals("u1", connect.getUserId());
+            assertEquals("Ada", connect.getUserName());
+
+            TrafficCapture.Record message = reader.next();
+            assertEquals(TrafficCapture.Kind.MESSAGE, message.getKind());
+            assertEquals("{\"type\":\"PIECE_LOCK\",\"data\":{\"pieceId\":0}}", message.getPayload());
+            assertTrue(message.getOffsetNanos() >= connect.getOffsetNanos());
+
+            TrafficCapture.Record anonymous = reader.next();
+            assertEquals(TrafficCapture.Kind.CONNECT, anonymous.getKind());
+            assertNull(anonymous.getUserId());
+
+            assertEquals(TrafficCapture.Kind.DISCONNECT, reader.next().getKind());
+            assertNull(reader.next());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.puzzle.cluster;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterMembershipTest {
+
+    @Test
+    void testForwardedRequestsNeedAMemberAndTheSecret() {
+        ClusterMembership cluster = cluster("s3cret");
+
+        assertTrue(cluster.isForwardedByMember("node-a", "s3cret"));
+        assertFalse(cluster.isForwardedByMember("node-a", "guess"));
+        assertFalse(cluster.isForwardedByMember("node-a", null));
+        assertFalse(cluster.isForwardedByMember("stranger", "s3cret"));
+        assertFalse(cluster.isForwardedByMember(null, "s3cret"));
+    }
+
+    @Test
+    void testEnablingTheClusterRequiresASecret() {
+        assertThrows(IllegalStateException.class, () -> cluster(""));
+    }
+
+    private ClusterMembership cluster(String secret) {
+        ClusterMembership cluster = new ClusterMembership();
+        ReflectionTestUtils.setField(cluster, "enabled", true);
+        ReflectionTestUtils.setField(cluster, "nodeId", "node-a");
+        ReflectionTestUtils.setField(cluster, "secret", secret);
+        // Without Redis the node starts out alone, as it does until its first heartbeat
+        cluster.init();
+        return cluster;
+    }
+}
@@ -0,0 +1,56 @@
+package com.puzzle.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashRingTest {
+
+    @Test
+    void testSessionsAreSpreadEvenlyAcrossNodes() {
+        HashRing ring = new HashRing(List.of("a", "b", "c", "d"), 128);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < 40000; i++) {
+            owned.merge(ring.ownerOf(UUID.randomUUID().toString()), 1, Integer::sum);
+        }
+
+        assertEquals(4, owned.size());
+        for (int count : owned.values()) {
+            assertTrue(count > 7000 && count < 13000, "Unbalanced share: " + owned);
+        }
+    }
+
+    @Test
+    void testJoiningNodeOnlyTakesSessionsFromOthers() {
+        HashRing before = new HashRing(List.of("a", "b", "c"), 128);
+        HashRing after = new HashRing(List.of("a", "b", "c", "d"), 128);
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String sessionId = UUID.randomUUID().toString();
+            String owner = after.ownerOf(sessionId);
+            if (!owner.equals(before.ownerOf(sessionId))) {
+                assertEquals("d", owner);
+                moved++;
+            }
+        }
+
+        // Roughly a quarter of the sessions move to the new node
+        assertTrue(moved > 1500 && moved < 3500, "Moved " + moved);
+    }
+
+    @Test
+    void testNodeOrderDoesNotChangeOwnership() {
+        HashRing ring = new HashRing(List.of("a", "b", "c"), 16);
+        HashRing reordered = new HashRing(List.of("c", "a", "b"), 16);
+        for (int i = 0; i < 1000; i++) {
+            String sessionId = "session-" + i;
+            assertEquals(ring.ownerOf(sessionId), reordered.ownerOf(sessionId));
+        }
+        assertNull(new HashRing(List.of(), 16).ownerOf("session-0"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.puzzle.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.resource.HttpResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StaticResourceIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private StaticResourceIndex index;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.createDirectories(directory.resolve("assets"));
+        Files.writeString(directory.resolve("index.html"), "<html></html>");
+        Files.writeString(directory.resolve("assets/index-4f2a9c.js"), "console.log('puzzle')");
+        Files.writeString(directory.resolve("assets/index-4f2a9c.js.br"), "br");
+        Files.writeString(directory.resolve("assets/index-4f2a9c.js.gz"), "gz");
+        index = new StaticResourceIndex(directory.toUri().toString());
+    }
+
+    @Test
+    void testAssetsArePrecompressedAndImmutable() throws IOException {
+        HttpResource plain = resolve("assets/index-4f2a9c.js", null);
+        HttpResource gzip = resolve("assets/index-4f2a9c.js", "gzip, deflate");
+        HttpResource brotli = resolve("assets/index-4f2a9c.js", "gzip, deflate, br");
+
+        assertEquals("index-4f2a9c.js", brotli.getFilename());
+        assertEquals(2, brotli.contentLength());
+        assertEquals("br", brotli.getResponseHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("gzip", gzip.getResponseHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertNull(plain.getResponseHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(List.of(HttpHeaders.ACCEPT_ENCODING), plain.getResponseHeaders().getVary());
+        assertTrue(plain.getResponseHeaders().getCacheControl().endsWith("immutable"));
+    }
+
+    @Test
+    void testUnknownPathsFallBackToIndexExceptAssets() {
+        HttpResource route = resolve("puzzle/0b9c6f3e", null);
+        assertEquals("index.html", route.getFilename());
+        assertEquals("no-cache", route.getResponseHeaders().getCacheControl());
+
+        assertNull(index.resolveResource(new MockHttpServletRequest(), "assets/index-00000.js", List.of(), null));
+    }
+
+    private HttpResource resolve(String path, String acceptEncoding) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (acceptEncoding != null) {
+            request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        return (HttpResource) index.resolveResource(request, path, List.of(), null);
+    }
+}
@@ -0,0 +1,89 @@
+package com.puzzle.jigsaw;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PieceMaskTest {
+
+    @Test
+    void testNeighboursHaveMatchingEdgesAndBordersAreFlat() {
+        int gridSize = 8;
+        int[] signatures = EdgePattern.generate(gridSize, new Random(7));
+        Set<Integer> distinct = new HashSet<>();
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
+                int signature = signatures[row * gridSize + col];
+                distinct.add(signature);
+                if (row == 0) {
+                    assertEquals(EdgePattern.FLAT, EdgePattern.side(signature, EdgePattern.TOP));
+                }
+                if (col == gridSize - 1) {
+                    assertEquals(EdgePattern.FLAT, EdgePattern.side(signature, EdgePattern.RIGHT));
+                } else {
+                    int right = EdgePattern.side(signature, EdgePattern.RIGHT);
+                    int neighbourLeft = EdgePattern.side(signatures[row * gridSize + col + 1], EdgePattern.LEFT);
+                    assertNotEquals(EdgePattern.FLAT, right);
+                    assertEquals(EdgePattern.TAB + EdgePattern.BLANK, right + neighbourLeft);
+                }
+            }
+        }
+        assertTrue(distinct.size() <= 81);
+    }
+
+    @Test
+    void testTabFillsTheBlankOfItsNeighbour() {
+        int size = 60;
+        int tab = EdgePattern.signature(EdgePattern.FLAT, EdgePattern.TAB, EdgePattern.FLAT, EdgePattern.FLAT);
+        int blank = EdgePattern.signature(EdgePattern.FLAT, EdgePattern.FLAT, EdgePattern.FLAT, EdgePattern.BLANK);
+        PieceMask left = PieceMask.render(size, size, tab);
+        PieceMask right = PieceMask.render(size, size, blank);
+        int overhang = left.getOverhang();
+        assertEquals(size + 2 * overhang, left.getWidth());
+
+        // Placed side by side, the two masks cover every pixel of the shared edge region once
+        int center = overhang + size / 2;
+        assertEquals(255, left.alphaAt(overhang + size + overhang / 2, center));
+        assertEquals(0, right.alphaAt(overhang + overhang / 2, center));
+        for (int y = overhang; y < overhang + size; y++) {
+            for (int x = size - overhang; x < size + overhang; x++) {
+                int total = left.alphaAt(overhang + x, y) + right.alphaAt(overhang + x - size, y);
+                assertTrue(Math.abs(total - 255) <= 2, "coverage " + total + " at " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void testCutIsTransparentOutsideTheShape() {
+        BufferedImage source = new BufferedImage(120, 120, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 120; y++) {
+            for (int x = 0; x < 120; x++) {
+                source.setRGB(x, y, 0x336699);
+            }
+        }
+        int signature = EdgePattern.signature(EdgePattern.FLAT, EdgePattern.TAB, EdgePattern.BLANK, EdgePattern.FLAT);
+        PieceMask mask = PieceMask.render(60, 60, signature);
+        BufferedImage piece = mask.cut(source, 0, 0);
+        int overhang = mask.getOverhang();
+
+        assertEquals(0, piece.getRGB(0, 0));
+        assertEquals(0xFF336699, piece.getRGB(overhang + 5, overhang + 5));
+        // The tab on the right reaches into the neighbouring piece's pixels
+        assertEquals(0xFF336699, piece.getRGB(overhang + 60 + overhang / 2, overhang + 30));
+    }
+
+    @Test
+    void testCacheReusesMasksBySizeAndSignature() {
+        PieceMaskCache cache = new PieceMaskCache();
+        PieceMask first = cache.get(40, 30, 5);
+        assertSame(first, cache.get(40, 30, 5));
+        assertNotSame(first, cache.get(40, 30, 6));
+        assertNotSame(first, cache.get(30, 40, 5));
+        assertEquals(3, cache.size());
+    }
+}
@@ -0,0 +1,142 @@
+package com.puzzle.journal;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.model.PuzzlePiece;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.service.LiveSessionCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static com.puzzle.TestSessions.liveSessions;
+import static com.puzzle.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SessionJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testEventsAreReplayedOntoSnapshotAfterRestart() throws IOException {
+        LiveSessionCache cache = liveSessions();
+        SessionJournal journal = journal(cache, 1 << 20);
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+        journal.sessionCreated(session);
+
+        User user = new User("u1", 1, "Ada", "#FF6B6B", 0, 0);
+        session.setLastHandle(1);
+        session.getUsers().put(user.getId(), user);
+        journal.userJoined(session, user);
+        PuzzlePiece piece = session.getPieces().get(2);
+        piece.setLockedBy(1);
+        piece.setLockExpiresAt(1234);
+        journal.pieceLocked(session, piece);
+        piece.setCurrentX(42.5);
+        piece.setCurrentY(17);
+        journal.pieceMoved(session, piece);
+        piece.setPlaced(true);
+        piece.setPlacedBy(1);
+        journal.pieceReleased(session, piece);
+        piece.setLockedBy(0);
+        piece.setLockExpiresAt(0);
+        journal.pieceUnlocked(session, piece);
+        journal.close();
+
+        // A new process with an empty cache recovers the session from the journal alone
+        LiveSessionCache restarted = liveSessions();
+        journal(restarted, 1 << 20);
+        assertEquals(session, restarted.peek("s1"));
+    }
+
+    @Test
+    void testCheckpointDeletesSegmentsCoveredBySnapshots() throws IOException {
+        LiveSessionCache cache = liveSessions();
+        SessionJournal journal = journal(cache, 4096);
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+        journal.sessionCreated(session);
+        PuzzlePiece piece = session.getPieces().get(0);
+        for (int i = 0; i < 500; i++) {
+            piece.setCurrentX(i);
+            journal.pieceMoved(session, piece);
+        }
+        assertTrue(JournalSegment.list(directory).size() > 2);
+
+        journal.checkpoint();
+        assertEquals(1, JournalSegment.list(directory).size());
+        journal.close();
+
+        LiveSessionCache restarted = liveSessions();
+        journal(restarted, 4096);
+        assertEquals(499, restarted.peek("s1").getPieces().get(0).getCurrentX());
+    }
+
+    @Test
+    void testHibernatedSessionsAreNotRecovered() throws IOException {
+        LiveSessionCache cache = liveSessions();
+        SessionJournal journal = journal(cache, 1 << 20);
+        cache.put(session("idle", 4));
+        journal.sessionCreated(cache.peek("idle"));
+        cache.put(session("busy", 4));
+        journal.sessionCreated(cache.peek("busy"));
+        cache.connectionOpened("busy");
+
+        ReflectionTestUtils.setField(cache, "idleTimeout", -1L);
+        cache.hibernateIdle();
+        journal.close();
+
+        LiveSessionCache restarted = liveSessions();
+        journal(restarted, 1 << 20);
+        assertNull(restarted.peek("idle"));
+        assertNotNull(restarted.peek("busy"));
+    }
+
+    @Test
+    void testSessionsOwnedByOtherNodesAreNotRecovered() throws IOException {
+        LiveSessionCache cache = liveSessions();
+        SessionJournal journal = journal(cache, 1 << 20);
+        cache.put(session("mine", 4));
+        journal.sessionCreated(cache.peek("mine"));
+        cache.put(session("theirs", 4));
+        journal.sessionCreated(cache.peek("theirs"));
+        journal.close();
+
+        // Another node joined while this one was down and took over a session
+        ClusterMembership cluster = mock(ClusterMembership.class);
+        when(cluster.isLocal("mine")).thenReturn(true);
+        LiveSessionCache restarted = liveSessions();
+        journal(restarted, 1 << 20, cluster).close();
+        assertNotNull(restarted.peek("mine"));
+        assertNull(restarted.peek("theirs"));
+
+        // Nor on a later restart
+        LiveSessionCache again = liveSessions();
+        journal(again, 1 << 20);
+        assertNull(again.peek("theirs"));
+    }
+
+    private SessionJournal journal(LiveSessionCache cache, int segmentSize) throws IOException {
+        return journal(cache, segmentSize, new ClusterMembership());
+    }
+
+    private SessionJournal journal(LiveSessionCache cache, int segmentSize, ClusterMembership cluster) throws IOException {
+        SessionJournal journal = new SessionJournal();
+        ReflectionTestUtils.setField(journal, "liveSessions", cache);
+        ReflectionTestUtils.setField(journal, "cluster", cluster);
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "directory", directory.toString());
+        ReflectionTestUtils.setField(journal, "segmentSize", segmentSize);
+        journal.open();
+        return journal;
+    }
+
+
+}
@@ -0,0 +1,88 @@
+package com.puzzle.lobby;
+
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.SessionSummary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import static com.puzzle.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class SessionLobbyTest {
+
+    private StringRedisTemplate redisTemplate;
+    private ZSetOperations<String, String> index;
+    private SessionLobby lobby;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        index = mock(ZSetOperations.class);
+        when(redisTemplate.opsForZSet()).thenReturn(index);
+        lobby = new SessionLobby();
+        ReflectionTestUtils.setField(lobby, "redisTemplate", redisTemplate);
+    }
+
+    @Test
+    void testSummaryCountsPlayersAndPlacedPieces() {
+        PuzzleSession session = session("s1", 4, "u1", "u2");
+        session.getPieces().get(1).setPlaced(true);
+
+        Map<String, String> summary = SessionLobby.summary(session);
+        assertEquals("2", summary.get("players"));
+        assertEquals("1", summary.get("placedPieces"));
+        assertEquals("4", summary.get("totalPieces"));
+        assertEquals("picture-s1", summary.get("thumbnail"));
+    }
+
+    @Test
+    void testChangesAreCoalescedUntilTheNextFlush() {
+        PuzzleSession session = session("s1", 4, "u1", "u2");
+        lobby.onSessionCreated(session);
+        lobby.onPlayersChanged(session);
+        session.setCompleted(true);
+        lobby.onProgress(session);
+        lobby.onPlayersChanged(session("s2", 4, "u1", "u2"));
+
+        Map<String, Map<String, String>> pending = pending();
+        assertEquals(2, pending.size());
+        // Completed puzzles leave the lobby
+        assertTrue(pending.get("s1").isEmpty());
+
+        lobby.flush();
+        verify(redisTemplate, times(1)).executePipelined(any(SessionCallback.class));
+        assertTrue(pending().isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testListSkipsAndDropsExpiredSummaries() {
+        when(index.reverseRange("puzzle:lobby", 0, 1)).thenReturn(new LinkedHashSet<>(List.of("s1", "gone")));
+        Map<String, String> summary = SessionLobby.summary(session("s1", 4, "u1", "u2"));
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenReturn(List.of(summary, Map.of()));
+
+        List<SessionSummary> page = lobby.list(0, 2);
+        assertEquals(1, page.size());
+        assertEquals("s1", page.get(0).getId());
+        assertEquals(2, page.get(0).getPlayers());
+        assertEquals("/api/images/picture-s1", page.get(0).getThumbnailUrl());
+        verify(index).remove("puzzle:lobby", "gone");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<String, String>> pending() {
+        return (Map<String, Map<String, String>>) ReflectionTestUtils.getField(lobby, "pending");
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.puzzle.presence;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PresenceServiceTest {
+
+    @Test
+    void testCursorsOfConnectionsWithoutAUserAreIgnored() {
+        PresenceService presence = new PresenceService();
+        PresenceRelay relay = mock(PresenceRelay.class);
+        ReflectionTestUtils.setField(presence, "relay", relay);
+
+        presence.updateCursor("s1", 0, 10, 20);
+
+        assertFalse(presence.isOnline("s1", 0));
+        assertTrue(presence.getPresence("s1").isEmpty());
+        verify(relay, never()).publishCursor(anyString(), anyInt(), anyDouble(), anyDouble());
+    }
+
+    @Test
+    void testExpiredPresenceIsDroppedAndReported() {
+        PresenceService presence = new PresenceService();
+        List<Integer> expired = new ArrayList<>();
+        presence.addListener(new PresenceListener() {
+            @Override
+            public void onRemoteCursorMove(String sessionId, int handle, double x, double y) {
+            }
+
+            @Override
+            public void onPresenceExpired(String sessionId, int handle) {
+                expired.add(handle);
+            }
+        });
+        presence.updateCursor("s1", 1, 10, 20);
+
+        ReflectionTestUtils.setField(presence, "ttlMillis", -1L);
+        presence.expireInactive();
+
+        assertEquals(List.of(1), expired);
+        assertFalse(presence.isOnline("s1", 1));
+    }
+
+    @Test
+    void testCursorMovesAreNotLostToARoomBeingDropped() throws InterruptedException {
+        PresenceService presence = new PresenceService();
+        AtomicBoolean done = new AtomicBoolean();
+        // Keeps emptying the room, so it is dropped again and again
+        Thread leaver = new Thread(() -> {
+            while (!done.get()) {
+                presence.markOnline("s1", 2);
+                presence.remove("s1", 2);
+            }
+        });
+        leaver.start();
+        try {
+            for (int i = 0; i < 100000; i++) {
+                presence.updateCursor("s1", 1, i, i);
+                assertTrue(presence.isOnline("s1", 1));
+                presence.remove("s1", 1);
+            }
+        } finally {
+            done.set(true);
+            leaver.join();
+        }
+    }
+}
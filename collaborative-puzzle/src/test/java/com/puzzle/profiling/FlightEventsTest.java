@@ -0,0 +1,75 @@
+package com.puzzle.profiling;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlightEventsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testNothingIsTimedWhileDisabled() {
+        FlightEvents events = new FlightEvents();
+        try (Recording recording = new Recording()) {
+            recording.enable(MessageEvent.class);
+            recording.start();
+
+            assertNull(events.beginMessage("PIECE_MOVE", "session", 3));
+            assertNull(events.beginOperation(FlightEvents.MOVE, "session", 3));
+            assertEquals(Long.MIN_VALUE, events.start());
+        }
+    }
+
+    @Test
+    void testMessageCarriesTheTimeOfNestedOperations() throws IOException {
+        FlightEvents events = new FlightEvents();
+        events.setEnabled(true);
+        Path file = directory.resolve("puzzle.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(MessageEvent.class);
+            recording.enable(OperationEvent.class);
+            recording.start();
+
+            MessageEvent message = events.beginMessage("PIECE_RELEASE", "session", 3);
+            OperationEvent operation = events.beginOperation(FlightEvents.RELEASE, "session", 3);
+            events.addRedisTime(events.start());
+            events.applied(operation, true);
+            events.end(operation);
+            // Outside the operation, only the message is timed
+            events.addSerializeTime(events.start());
+            events.addSendTime(events.start(), 4);
+            events.end(message);
+
+            recording.stop();
+            recording.dump(file);
+        }
+        assertEquals(Long.MIN_VALUE, events.start());
+
+        List<RecordedEvent> recorded = RecordingFile.readAllEvents(file);
+        RecordedEvent message = find(recorded, "com.puzzle.Message");
+        RecordedEvent operation = find(recorded, "com.puzzle.Operation");
+        assertEquals("PIECE_RELEASE", message.getString("messageType"));
+        assertEquals(3, message.getInt("pieceId"));
+        assertEquals(4, message.getInt("fanOut"));
+        assertEquals("release", operation.getString("operation"));
+        assertTrue(operation.getBoolean("applied"));
+        assertTrue(message.getDuration("redisTime").toNanos() >= operation.getDuration("redisTime").toNanos());
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No " + name + " event"));
+    }
+}
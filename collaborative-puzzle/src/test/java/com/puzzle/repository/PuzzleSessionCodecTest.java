@@ -0,0 +1,172 @@
+package com.puzzle.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.puzzle.model.PuzzlePiece;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PuzzleSessionCodecTest {
+
+    @Test
+    void testRoundTrip() {
+        PuzzleSession session = sampleSession(8);
+
+        byte[] data = PuzzleSessionCodec.encode(session);
+        PuzzleSession decoded = PuzzleSessionCodec.decode(data);
+
+        assertTrue(PuzzleSessionCodec.isBinary(data));
+        assertEquals(session, decoded);
+    }
+
+    @Test
+    void testReadsLegacyJsonSnapshots() throws Exception {
+        PuzzleSession session = sampleSession(3);
+        // The serializer sessions were stored with before the binary format
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        mapper.activateDefaultTyping(mapper.getPolymorphicTypeValidator(),
+                ObjectMapper.DefaultTyping.NON_FINAL);
+        byte[] legacy = legacyJson(mapper, new GenericJackson2JsonRedisSerializer(mapper).serialize(session));
+
+        assertFalse(PuzzleSessionCodec.isBinary(legacy));
+        assertTrue(PuzzleSessionCodec.encode(session).length < legacy.length / 3);
+        PuzzleSession decoded = PuzzleSessionCodec.decode(legacy);
+
+        // Users get handles again, and pieces name them by those, except users who left
+        int alice = decoded.getUsers().get("a1f0c3d2-0000-4000-8000-000000000001").getHandle();
+        int bob = decoded.getUsers().get("b2e1d4c3-0000-4000-8000-000000000002").getHandle();
+        assertNotEquals(0, alice);
+        assertNotEquals(0, bob);
+        assertNotEquals(alice, bob);
+        for (PuzzlePiece piece : session.getPieces()) {
+            if (piece.getPlacedBy() == 3) {
+                piece.setPlacedBy(0);
+            } else if (piece.getPlacedBy() != 0) {
+                piece.setPlacedBy(alice);
+            }
+            if (piece.getLockedBy() != 0) {
+                piece.setLockedBy(bob);
+            }
+        }
+        session.getUsers().get("a1f0c3d2-0000-4000-8000-000000000001").setHandle(alice);
+        session.getUsers().get("b2e1d4c3-0000-4000-8000-000000000002").setHandle(bob);
+        session.setLastHandle(decoded.getLastHandle());
+        assertEquals(session, decoded);
+    }
+
+    @Test
+    void testSkipsUnknownFields() {
+        PuzzleSession session = sampleSession(3);
+        byte[] data = PuzzleSessionCodec.encode(session);
+
+        // A newer writer appended field 99 as a string and field 100 as a double
+        byte[] extended = Arrays.copyOf(data, data.length + 5 + 11);
+        int pos = data.length;
+        extended[pos++] = (byte) 0x9A; // tag (99 << 3 | 2) as a varint
+        extended[pos++] = 0x06;
+        extended[pos++] = 2;
+        extended[pos++] = 'h';
+        extended[pos++] = 'i';
+        extended[pos++] = (byte) 0xA1; // tag (100 << 3 | 1) as a varint
+        extended[pos++] = 0x06;
+
+        assertEquals(session, PuzzleSessionCodec.decode(Arrays.copyOf(extended, pos + 8)));
+    }
+
+    @Test
+    void testCursorsAreNotPersisted() {
+        PuzzleSession session = sampleSession(3);
+        User alice = session.getUsers().get("a1f0c3d2-0000-4000-8000-000000000001");
+        alice.setCursorX(120.5);
+        alice.setCursorY(80.0);
+
+        User decoded = PuzzleSessionCodec.decode(PuzzleSessionCodec.encode(session)).getUsers().get(alice.getId());
+        assertEquals(0.0, decoded.getCursorX());
+        assertEquals(0.0, decoded.getCursorY());
+        assertEquals(alice.getName(), decoded.getName());
+    }
+
+    @Test
+    void testRejectsNewerVersion() {
+        byte[] data = PuzzleSessionCodec.encode(sampleSession(3));
+        data[2] = (byte) (PuzzleSessionCodec.VERSION + 1);
+
+        assertThrows(IllegalStateException.class, () -> PuzzleSessionCodec.decode(data));
+    }
+
+    // Rewrites a snapshot into what was stored before handles: no handles, and pieces
+    // naming users by id
+    private static byte[] legacyJson(ObjectMapper mapper, byte[] snapshot) throws Exception {
+        // ["com.puzzle.model.PuzzleSession", {...}], with collections and users typed alike
+        JsonNode root = mapper.readTree(snapshot);
+        ObjectNode fields = (ObjectNode) root.get(1);
+        fields.remove("lastHandle");
+        Map<Integer, String> ids = new HashMap<>();
+        ids.put(3, "c3d2e5f4-0000-4000-8000-000000000003");
+        for (JsonNode user : fields.get("users").get(1)) {
+            ObjectNode userFields = (ObjectNode) user.get(1);
+            ids.put(userFields.remove("handle").asInt(), userFields.get("id").asText());
+        }
+        for (JsonNode piece : fields.get("pieces").get(1)) {
+            ObjectNode pieceFields = (ObjectNode) piece.get(1);
+            pieceFields.put("lockedBy", ids.get(pieceFields.get("lockedBy").asInt()));
+            pieceFields.put("placedBy", ids.get(pieceFields.get("placedBy").asInt()));
+        }
+        return mapper.writeValueAsBytes(root);
+    }
+
+    static PuzzleSession sampleSession(int gridSize) {
+        PuzzleSession session = new PuzzleSession();
+        session.setId("0b9c6f3e-3d1a-4a57-9f6e-1c2d3e4f5a6b");
+        session.setImageUrl("/api/images/7d2f1a44-1b5c-4e8e-9a0b-2c3d4e5f6a7b");
+        session.setGridSize(gridSize);
+        session.setTotalPieces(gridSize * gridSize);
+        session.setCreatedAt(LocalDateTime.of(2024, 5, 17, 14, 3, 21, 123456789));
+        session.setImageWidth(500);
+        session.setImageHeight(400);
+        session.setBoardWidth(1200);
+        session.setBoardHeight(800);
+
+        User alice = new User("a1f0c3d2-0000-4000-8000-000000000001", 1, "Alice", "#FF6B6B", 0, 0);
+        User bob = new User("b2e1d4c3-0000-4000-8000-000000000002", 2, "Bob", "#4ECDC4", 0, 0);
+        session.setLastHandle(3); // A third user left
+        session.getUsers().put(alice.getId(), alice);
+        session.getUsers().put(bob.getId(), bob);
+
+        for (int i = 0; i < gridSize * gridSize; i++) {
+            PuzzlePiece piece = new PuzzlePiece();
+            piece.setId(i);
+            piece.setRow(i / gridSize);
+            piece.setCol(i % gridSize);
+            piece.setCurrentX(600 + (i % 7) * 77.25);
+            piece.setCurrentY(50 + (i / 7) * 64.5);
+            piece.setCorrectX(50 + (i % gridSize) * 62);
+            piece.setCorrectY(50 + (i / gridSize) * 50);
+            piece.setWidth(62);
+            piece.setHeight(50);
+            piece.setImageUrl("/api/images/" + String.format("%08d-1b5c-4e8e-9a0b-2c3d4e5f6a7b", i));
+            if (i % 3 == 0) {
+                piece.setPlaced(true);
+                piece.setPlacedBy(i % 2 == 0 ? alice.getHandle() : 3);
+            }
+            if (i == 1) {
+                piece.setLockedBy(bob.getHandle());
+                piece.setLockExpiresAt(1715954601123L);
+            }
+            session.getPieces().add(piece);
+        }
+        return session;
+    }
+}
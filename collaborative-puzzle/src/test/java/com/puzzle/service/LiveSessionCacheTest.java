@@ -0,0 +1,218 @@
+package com.puzzle.service;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.repository.PuzzleSessionCodec;
+import com.puzzle.repository.PuzzleSessionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.puzzle.TestSessions.liveSessions;
+import static com.puzzle.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class LiveSessionCacheTest {
+
+    @Mock
+    private PuzzleSessionRepository sessionRepository;
+
+    @Captor
+    private ArgumentCaptor<Map<String, byte[]>> snapshots;
+
+    private LiveSessionCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = liveSessions(sessionRepository);
+    }
+
+    @Test
+    void testDirtySessionsAreWrittenBackOnFlush() {
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+        verify(sessionRepository, times(1)).save(session);
+
+        PuzzleSession clean = session("s2", 4);
+        cache.put(clean);
+
+        cache.markDirty(session);
+        cache.markDirty(session);
+        cache.flush();
+        cache.flush();
+
+        // Two hot-path changes coalesce into one write, and clean sessions are left alone
+        verify(sessionRepository, times(1)).saveSnapshots(snapshots.capture());
+        assertEquals(Set.of("s1"), snapshots.getValue().keySet());
+        assertEquals(session, PuzzleSessionCodec.decode(snapshots.getValue().get("s1")));
+    }
+
+    @Test
+    void testSessionBeingFlushedStaysResidentUntilItsWriteIsConfirmed() {
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+        cache.markDirty(session);
+        doAnswer(invocation -> {
+            // Hibernating now would drop the session before its changes are in the store
+            assertFalse(cache.hibernateIfIdle("s1"));
+            throw new IllegalStateException("Redis is down");
+        }).when(sessionRepository).saveSnapshots(any());
+
+        cache.flush();
+
+        assertTrue(cache.isResident("s1"));
+        // The failed flush left the change pending, so hibernation writes it back
+        assertTrue(cache.hibernateIfIdle("s1"));
+        verify(sessionRepository, times(2)).save(session);
+    }
+
+    @Test
+    void testSessionOwnedElsewhereIsOnlyWrittenBackByItsRelease() {
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+        cache.markDirty(session);
+        // Another node owns it now
+        ReflectionTestUtils.setField(cache, "cluster", mock(ClusterMembership.class));
+        ReflectionTestUtils.setField(cache, "idleTimeout", -1L);
+
+        cache.flush();
+        cache.hibernateIdle();
+
+        assertTrue(cache.isResident("s1"));
+        verify(sessionRepository, never()).saveSnapshots(any());
+        assertTrue(cache.release("s1"));
+        verify(sessionRepository, times(2)).save(session);
+    }
+
+    @Test
+    void testIdleSessionIsHibernatedAndRehydrated() {
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+        List<String> evicted = new ArrayList<>();
+        cache.addEvictionListener(evicted::add);
+
+        cache.connectionOpened("s1");
+        ReflectionTestUtils.setField(cache, "idleTimeout", -1L);
+        cache.hibernateIdle();
+        assertTrue(cache.isResident("s1"));
+
+        cache.markDirty(session);
+        cache.connectionClosed("s1");
+        cache.hibernateIdle();
+        assertFalse(cache.isResident("s1"));
+        assertEquals(List.of("s1"), evicted);
+        // Pending changes are flushed before the session leaves memory
+        verify(sessionRepository, times(2)).save(session);
+
+        when(sessionRepository.findById("s1")).thenReturn(session);
+        assertSame(session, cache.get("s1"));
+        assertTrue(cache.isResident("s1"));
+    }
+
+    @Test
+    void testPieceBudgetHibernatesLeastRecentlyUsedIdleSessions() throws InterruptedException {
+        ReflectionTestUtils.setField(cache, "maxResidentPieces", 10L);
+        cache.put(session("old", 4));
+        Thread.sleep(5);
+        cache.put(session("connected", 4));
+        cache.connectionOpened("connected");
+        Thread.sleep(5);
+        cache.put(session("new", 4));
+
+        assertFalse(cache.isResident("old"));
+        assertTrue(cache.isResident("connected"));
+        assertTrue(cache.isResident("new"));
+        assertEquals(2, cache.residentCount());
+    }
+
+    @Test
+    void testChangeToAHibernatedCopyNeverOverwritesAReloadedOne() {
+        PuzzleSession stale = session("s1", 4);
+        cache.put(stale);
+        assertTrue(cache.hibernateIfIdle("s1"));
+        assertFalse(cache.isCurrent(stale));
+
+        PuzzleSession reloaded = stale.copy();
+        when(sessionRepository.findById("s1")).thenReturn(reloaded);
+        assertSame(reloaded, cache.get("s1"));
+
+        cache.markDirty(stale);
+        cache.save(stale);
+        cache.flush();
+
+        assertTrue(cache.isCurrent(reloaded));
+        verify(sessionRepository, times(1)).save(stale);
+        verify(sessionRepository, never()).saveSnapshots(any());
+    }
+
+    @Test
+    void testChangeToAHibernatedCopyNotReloadedMakesItResidentAgain() {
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+        assertTrue(cache.hibernateIfIdle("s1"));
+
+        cache.markDirty(session);
+        cache.flush();
+
+        assertTrue(cache.isCurrent(session));
+        verify(sessionRepository).saveSnapshots(argThat(snapshots -> snapshots.containsKey("s1")));
+    }
+
+    @Test
+    void testConnectionToAHibernatedSessionRehydratesIt() {
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+        assertTrue(cache.hibernateIfIdle("s1"));
+        when(sessionRepository.findById("s1")).thenReturn(session);
+
+        cache.connectionOpened("s1");
+
+        assertTrue(cache.isConnected("s1"));
+        assertFalse(cache.hibernateIfIdle("s1"));
+    }
+
+    @Test
+    void testDeletedSessionIsDroppedWithoutWriteBack() {
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+        List<String> evicted = new ArrayList<>();
+        cache.addEvictionListener(evicted::add);
+
+        cache.markDirty(session);
+        cache.delete("s1");
+        cache.flush();
+
+        assertFalse(cache.isResident("s1"));
+        assertEquals(List.of("s1"), evicted);
+        verify(sessionRepository).delete("s1");
+        verify(sessionRepository, never()).saveSnapshots(any());
+    }
+
+    @Test
+    void testChangeFinishedAfterADeleteDoesNotBringTheSessionBack() {
+        PuzzleSession session = session("s1", 4);
+        cache.put(session);
+
+        // Made by a join or move that got the session just before the delete
+        cache.delete("s1");
+        cache.markDirty(session);
+        cache.save(session);
+        cache.flush();
+
+        assertFalse(cache.isResident("s1"));
+        verify(sessionRepository, times(1)).save(session);
+        verify(sessionRepository, never()).saveSnapshots(any());
+    }
+}
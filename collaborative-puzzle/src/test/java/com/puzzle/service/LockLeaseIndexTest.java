@@ -0,0 +1,38 @@
+package com.puzzle.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LockLeaseIndexTest {
+
+    @Test
+    void testLeaseRenewedAfterBeingCollectedIsNotRevoked() {
+        LockLeaseIndex leases = new LockLeaseIndex();
+        leases.grant("s1", 4, 1, 100);
+
+        List<LockLeaseIndex.Lease> expired = leases.expired(200);
+        // The holder moves the piece before the sweeper gets to it
+        leases.renew("s1", 4, 1, 500);
+
+        assertEquals(1, expired.size());
+        assertFalse(leases.revokeIfExpired(expired.get(0), 200));
+        assertEquals(1, leases.size());
+        assertTrue(leases.expired(200).isEmpty());
+    }
+
+    @Test
+    void testRegrantedLeaseIsNotRevoked() {
+        LockLeaseIndex leases = new LockLeaseIndex();
+        leases.grant("s1", 4, 1, 100);
+
+        LockLeaseIndex.Lease lapsed = leases.expired(200).get(0);
+        leases.grant("s1", 4, 2, 100);
+
+        assertFalse(leases.revokeIfExpired(lapsed, 200));
+        assertTrue(leases.revokeIfExpired(leases.expired(200).get(0), 200));
+        assertEquals(0, leases.size());
+    }
+}
@@ -0,0 +1,93 @@
+package com.puzzle.service;
+
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.repository.ImageRepository;
+import com.puzzle.repository.PuzzleSessionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.puzzle.TestSessions.liveSessions;
+import static com.puzzle.TestSessions.session;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class SessionLifecycleTest {
+
+    private PuzzleSessionRepository sessionRepository;
+    private ImageRepository imageRepository;
+    private ZSetOperations<String, String> due;
+    private LiveSessionCache liveSessions;
+    private PuzzleService puzzleService;
+    private SessionLifecycle lifecycle;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        sessionRepository = mock(PuzzleSessionRepository.class);
+        imageRepository = mock(ImageRepository.class);
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        due = mock(ZSetOperations.class);
+        when(redisTemplate.opsForZSet()).thenReturn(due);
+        liveSessions = liveSessions(sessionRepository);
+        puzzleService = mock(PuzzleService.class);
+
+        lifecycle = new SessionLifecycle();
+        ReflectionTestUtils.setField(lifecycle, "liveSessions", liveSessions);
+        ReflectionTestUtils.setField(lifecycle, "puzzleService", puzzleService);
+        ReflectionTestUtils.setField(lifecycle, "sessionRepository", sessionRepository);
+        ReflectionTestUtils.setField(lifecycle, "imageRepository", imageRepository);
+        ReflectionTestUtils.setField(lifecycle, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(lifecycle, "cluster", new ClusterMembership());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testActiveSessionsAreRefreshedWithAllTheirImages() {
+        liveSessions.put(session("active", 2));
+        liveSessions.put(session("idle", 2));
+        ReflectionTestUtils.setField(lifecycle, "lastRefresh", System.currentTimeMillis() + 1000);
+        liveSessions.connectionOpened("active");
+
+        lifecycle.refresh();
+
+        ArgumentCaptor<Collection<String>> sessions = ArgumentCaptor.forClass(Collection.class);
+        ArgumentCaptor<Collection<String>> images = ArgumentCaptor.forClass(Collection.class);
+        verify(sessionRepository).updateExpiration(sessions.capture());
+        verify(imageRepository).updateExpiration(images.capture());
+        assertEquals(Set.of("active"), Set.copyOf(sessions.getValue()));
+        assertEquals(Set.of("picture-active", "active-0", "active-1"), Set.copyOf(images.getValue()));
+    }
+
+    @Test
+    void testSweepDeletesDueSessionsNobodyIsConnectedTo() {
+        PuzzleSession playing = session("playing", 2);
+        PuzzleSession finished = session("finished", 2);
+        finished.setCompleted(true);
+        liveSessions.put(playing);
+        liveSessions.put(finished);
+        liveSessions.connectionOpened("playing");
+        when(due.rangeByScore(eq("puzzle:lifecycle:due"), eq(0.0), anyDouble(), eq(0L), anyLong()))
+                .thenReturn(new LinkedHashSet<>(List.of("playing", "finished", "expired")));
+
+        lifecycle.sweep();
+
+        verify(puzzleService).deleteSession("finished");
+        verify(puzzleService, never()).deleteSession("playing");
+        verify(due).remove("puzzle:lifecycle:due", "finished");
+        // Gone from the store already, so only its entry is dropped
+        verify(due).remove("puzzle:lifecycle:due", "expired");
+        verify(due, never()).remove("puzzle:lifecycle:due", "playing");
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.puzzle.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpatialIndexTest {
+
+    @Test
+    void testQueryReturnsIntersectingPieces() {
+        SpatialIndex index = new SpatialIndex(2000, 1000, 40, 32, 3);
+        index.update(0, 10, 10);
+        index.update(1, 500, 500);
+        index.update(2, 1900, 900);
+
+        List<Integer> result = index.query(0, 0, 100, 100);
+        assertEquals(List.of(0), result);
+
+        // Area that only clips the bottom-right corner of piece 1
+        result = index.query(530, 520, 100, 100);
+        assertEquals(List.of(1), result);
+    }
+
+    @Test
+    void testUpdateMovesPieceBetweenCells() {
+        SpatialIndex index = new SpatialIndex(2000, 1000, 40, 32, 2);
+        index.update(0, 10, 10);
+        index.update(1, 20, 20);
+        index.update(0, 1500, 800);
+
+        assertEquals(List.of(1), index.query(0, 0, 100, 100));
+        assertEquals(List.of(0), index.query(1400, 700, 200, 200));
+    }
+
+    @Test
+    void testPiecesLeaveTheMiddleOfACell() {
+        SpatialIndex index = new SpatialIndex(2000, 1000, 40, 32, 3);
+        index.update(0, 10, 10);
+        index.update(1, 12, 12);
+        index.update(2, 14, 14);
+        // Piece 1 is linked between the other two
+        index.update(1, 1500, 800);
+        index.update(0, 1510, 810);
+
+        assertEquals(List.of(2), index.query(0, 0, 100, 100));
+        assertEquals(List.of(0, 1), sorted(index.query(1400, 700, 200, 200)));
+    }
+
+    @Test
+    void testBoundsIncludeTabOverhang() {
+        SpatialIndex index = new SpatialIndex(1200, 800, 60, 50, 12, 2);
+        index.update(0, 100, 100);
+        index.update(1, 160, 100);
+
+        assertArrayEquals(new double[] {88, 88, 84, 74}, index.bounds(0));
+        // Only piece 0's tabs reach this area
+        assertEquals(List.of(0), index.query(80, 80, 10, 10));
+        // Piece 1's left tabs overlap piece 0's body
+        assertEquals(List.of(0, 1), sorted(index.query(155, 120, 1, 1)));
+    }
+
+    private static List<Integer> sorted(List<Integer> ids) {
+        List<Integer> result = new ArrayList<>(ids);
+        result.sort(null);
+        return result;
+    }
+}
@@ -0,0 +1,59 @@
+package com.puzzle.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection that records what is sent to it.
+ */
+final class FakeConnection implements PuzzleConnection {
+    private final String id;
+    final List<String> text = new ArrayList<>();
+    volatile boolean open = true;
+    boolean closed;
+    boolean rejoinRequested;
+    int pings;
+    long buffered;
+
+    FakeConnection(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void send(String payload) {
+        text.add(payload);
+    }
+
+    @Override
+    public void ping(ByteBuffer payload) {
+        pings++;
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return buffered;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        open = false;
+    }
+
+    @Override
+    public void closeForRejoin() {
+        rejoinRequested = true;
+        close();
+    }
+}
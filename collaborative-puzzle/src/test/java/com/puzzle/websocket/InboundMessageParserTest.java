@@ -0,0 +1,85 @@
+package com.puzzle.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.puzzle.model.WebSocketMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InboundMessageParserTest {
+
+    @Test
+    void testParsesTypedMessagesInAnyFieldOrder() throws IOException {
+        InboundMessage move = InboundMessageParser.parse(
+                "{\"data\":{\"y\":300.5,\"extra\":{\"a\":[1,2]},\"pieceId\":7,\"x\":200},\"type\":\"PIECE_MOVE\"}");
+        assertTrue(move instanceof InboundMessage.PieceMove);
+        InboundMessage.PieceMove pieceMove = (InboundMessage.PieceMove) move;
+        assertEquals(7, pieceMove.getPieceId());
+        assertEquals(200.0, pieceMove.getX());
+        assertEquals(300.5, pieceMove.getY());
+
+        InboundMessage unlock = InboundMessageParser.parse("{\"type\":\"PIECE_UNLOCK\",\"data\":{\"pieceId\":3}}");
+        assertEquals(WebSocketMessage.MessageType.PIECE_UNLOCK, unlock.getType());
+        assertEquals(3, ((InboundMessage.PieceLock) unlock).getPieceId());
+
+        InboundMessage viewport = InboundMessageParser.parse(
+                "{\"type\":\"VIEWPORT_UPDATE\",\"data\":{\"x\":0,\"y\":10,\"width\":800,\"height\":600}}");
+        assertEquals(600.0, ((InboundMessage.ViewportUpdate) viewport).getHeight());
+    }
+
+    @Test
+    void testDecodesDecimalsExactlyLikeDoubleParsing() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String number = random.nextInt(2) == 0
+                    ? Double.toString((random.nextDouble() - 0.5) * 5000)
+                    : String.format(Locale.ROOT, "%.3f", random.nextDouble() * 2000);
+            InboundMessage cursor = InboundMessageParser.parse(
+                    "{\"type\":\"CURSOR_MOVE\",\"data\":{\"x\":" + number + ",\"y\":1.5e2}}");
+            assertEquals(Double.parseDouble(number), ((InboundMessage.CursorMove) cursor).getX(), number);
+            assertEquals(150.0, ((InboundMessage.CursorMove) cursor).getY());
+        }
+    }
+
+    @Test
+    void testRejectsIncompleteMessagesAndIgnoresServerTypes() throws IOException {
+        assertThrows(IOException.class, () -> InboundMessageParser.parse("{\"type\":\"PIECE_MOVE\",\"data\":{\"pieceId\":1,\"x\":2}}"));
+        assertThrows(IOException.class, () -> InboundMessageParser.parse("{\"data\":{}}"));
+        assertThrows(IOException.class, () -> InboundMessageParser.parse("[1]"));
+        assertNull(InboundMessageParser.parse("{\"type\":\"SESSION_STATE\",\"data\":{}}"));
+    }
+
+    @Test
+    void testOutboundMessagesMatchTheSerializedShape() throws IOException {
+        JsonNode move = new ObjectMapper().readTree(OutboundMessages.pieceMove(4, 12.5, 30, 7));
+        assertEquals("PIECE_MOVE", move.get("type").asText());
+        assertEquals(4, move.get("data").get("pieceId").asInt());
+        assertEquals(12.5, move.get("data").get("x").asDouble());
+        assertEquals(30.0, move.get("data").get("y").asDouble());
+        assertEquals(7, move.get("data").get("userId").asInt());
+    }
+
+    @Test
+    void testStampedMessagesAreStampedBackInBroadcasts() throws IOException {
+        InboundMessage lock = InboundMessageParser.parse(
+                "{\"type\":\"PIECE_LOCK\",\"data\":{\"pieceId\":3,\"sentAt\":1760000000000}}");
+        assertEquals(1760000000000L, lock.getSentAt());
+        lock.receivedAt = 1760000000042L;
+
+        JsonNode stamped = new ObjectMapper().readTree(
+                OutboundMessages.pieceLock(WebSocketMessage.MessageType.PIECE_LOCK, 3, 7, lock)).get("data");
+        assertEquals(1760000000000L, stamped.get("clientSentAt").asLong());
+        assertEquals(1760000000042L, stamped.get("receivedAt").asLong());
+        assertTrue(stamped.get("sentAt").asLong() >= 1760000000042L);
+
+        InboundMessage unstamped = InboundMessageParser.parse("{\"type\":\"PIECE_LOCK\",\"data\":{\"pieceId\":3}}");
+        assertEquals(0, unstamped.getSentAt());
+        assertFalse(new ObjectMapper().readTree(
+                OutboundMessages.pieceLock(WebSocketMessage.MessageType.PIECE_LOCK, 3, 7, unstamped)).get("data").has("sentAt"));
+    }
+}
@@ -0,0 +1,66 @@
+package com.puzzle.websocket;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyMonitorTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void testUplinkAddsDelayOverTheFastestStampedMessage() {
+        LatencyMonitor.Link link = new LatencyMonitor.Link();
+        assertEquals(-1, link.uplink(0, 0));
+
+        link.update(40 * MS);
+        assertEquals(20 * MS, link.uplink(0, 0));
+        // The client's clock is 5 s behind; the first message sets the floor
+        assertEquals(20 * MS, link.uplink(1000, 6010));
+        assertEquals(20 * MS + 30 * MS, link.uplink(2000, 7040));
+
+        // The floor is kept for one more ping interval, then forgotten
+        link.update(40 * MS);
+        assertEquals(20 * MS + 30 * MS, link.uplink(3000, 8040));
+        link.update(40 * MS);
+        assertEquals(20 * MS, link.uplink(4000, 9040));
+    }
+
+    @Test
+    void testRoomMetersRecordDeliveriesUntilTheRoomCloses() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LatencyMonitor monitor = new LatencyMonitor();
+        ReflectionTestUtils.setField(monitor, "meterRegistry", registry);
+        monitor.registerMetrics();
+
+        LatencyMonitor.Link sender = new LatencyMonitor.Link();
+        LatencyMonitor.Link receiver = new LatencyMonitor.Link();
+        monitor.pong(sender, 20 * MS);
+        monitor.pong(receiver, 60 * MS);
+        InboundMessage move = InboundMessageParser.parse("{\"type\":\"PIECE_MOVE\",\"data\":{\"pieceId\":1,\"x\":2,\"y\":3}}");
+        move.receivedNanos = System.nanoTime() - 5 * MS;
+        move.sender = sender;
+        move.uplinkNanos = sender.uplink(0, 0);
+
+        LatencyMonitor.Room room = monitor.room("s1");
+        room.delivered(move, sender);
+        room.delivered(move, receiver);
+
+        Timer residence = registry.get("puzzle.websocket.residence").tag("room", "s1").timer();
+        Timer latency = registry.get("puzzle.websocket.latency").tag("room", "s1").timer();
+        assertEquals(2, residence.count());
+        // The echo to the sender isn't end-to-end latency
+        assertEquals(1, latency.count());
+        assertTrue(latency.totalTime(TimeUnit.MILLISECONDS) >= 10 + 5 + 30);
+        assertEquals(2, registry.get("puzzle.websocket.rtt").timer().count());
+
+        monitor.roomClosed("s1");
+        assertNull(registry.find("puzzle.websocket.residence").tag("room", "s1").timer());
+    }
+}
@@ -0,0 +1,108 @@
+package com.puzzle.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PreparedMessageTest {
+
+    @Test
+    void testCompressedOnceForClientsThatAcceptIt() throws Exception {
+        String text = "{\"type\":\"SESSION_STATE\",\"data\":{\"pieces\":[" + "{\"id\":1,\"x\":0.0},".repeat(500) + "]}}";
+        PreparedMessage message = new PreparedMessage(text, 6);
+        RecordingConnection plain = new RecordingConnection(false);
+        RecordingConnection first = new RecordingConnection(true);
+        RecordingConnection second = new RecordingConnection(true);
+
+        message.sendTo(plain);
+        message.sendTo(first);
+        message.sendTo(second);
+
+        assertEquals(List.of(text), plain.text);
+        assertTrue(first.binary.get(0).length < text.length() / 10);
+        assertSame(first.binary.get(0), second.binary.get(0));
+        assertEquals(text, inflate(first.binary.get(0)));
+    }
+
+    @Test
+    void testSmallMessagesAreAlwaysText() throws Exception {
+        RecordingConnection connection = new RecordingConnection(true);
+        new PreparedMessage("{\"type\":\"PIECE_MOVE\"}", -1).sendTo(connection);
+
+        assertEquals(1, connection.text.size());
+        assertTrue(connection.binary.isEmpty());
+    }
+
+    @Test
+    void testConnectionsWithoutCompressionAreSentText() throws Exception {
+        String text = "{\"type\":\"SESSION_STATE\",\"data\":{\"pieces\":[" + "{\"id\":1,\"x\":0.0},".repeat(500) + "]}}";
+        FakeConnection connection = new FakeConnection("c");
+
+        new PreparedMessage(text, 6).sendTo(connection);
+
+        assertEquals(List.of(text), connection.text);
+    }
+
+    private static String inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        byte[] output = new byte[1 << 16];
+        int length = inflater.inflate(output);
+        inflater.end();
+        return new String(output, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static final class RecordingConnection implements CompressedConnection {
+        private final boolean acceptsCompressed;
+        final List<String> text = new ArrayList<>();
+        final List<byte[]> binary = new ArrayList<>();
+
+        RecordingConnection(boolean acceptsCompressed) {
+            this.acceptsCompressed = acceptsCompressed;
+        }
+
+        @Override
+        public String getId() {
+            return "c";
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void send(String payload) {
+            text.add(payload);
+        }
+
+        @Override
+        public void ping(ByteBuffer payload) {
+        }
+
+        @Override
+        public boolean acceptsCompressed() {
+            return acceptsCompressed;
+        }
+
+        @Override
+        public void sendCompressed(byte[] payload) {
+            binary.add(payload);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void closeForRejoin() {
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package com.puzzle.websocket;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.puzzle.admission.InboundRateLimiter;
+import com.puzzle.capture.TrafficRecorder;
+import com.puzzle.cluster.ClusterMembership;
 import com.puzzle.model.PuzzleSession;
 import com.puzzle.model.PuzzlePiece;
 import com.puzzle.model.User;
+import com.puzzle.presence.PresenceService;
+import com.puzzle.profiling.FlightEvents;
+import com.puzzle.service.LiveSessionCache;
 import com.puzzle.service.PuzzleService;
 import com.puzzle.model.WebSocketMessage;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,6 +17,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
@@ -30,7 +37,30 @@ public class PuzzleWebSocketHandlerTest {
     private PuzzleService puzzleService;
     
     @Mock
-    private ObjectMapper mockObjectMapper;
+    private PresenceService presenceService;
+    
+    @Mock
+    private LiveSessionCache liveSessions;
+    
+    // Real, so messages are actually serialized and parsed
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+    
+    @Mock
+    private TrafficRecorder recorder;
+    
+    @Mock
+    private FlightEvents events;
+    
+    @Mock
+    private LatencyMonitor latency;
+    
+    // Real, disabled ones: this node owns every session and admits every message
+    @Spy
+    private ClusterMembership cluster = new ClusterMembership();
+    
+    @Spy
+    private InboundRateLimiter rateLimiter = new InboundRateLimiter();
 
     @Mock
     private WebSocketSession session;
@@ -38,7 +68,6 @@ public class PuzzleWebSocketHandlerTest {
     @InjectMocks
     private PuzzleWebSocketHandler handler;
 
-    private ObjectMapper objectMapper = new ObjectMapper();
     private PuzzleSession puzzleSession;
     private User testUser;
 
@@ -66,6 +95,7 @@ public class PuzzleWebSocketHandlerTest {
 
         testUser = new User();
         testUser.setId("test-user-id");
+        testUser.setHandle(1);
         testUser.setName("TestUser");
         testUser.setColor("#FF0000");
     }
@@ -110,7 +140,7 @@ public class PuzzleWebSocketHandlerTest {
 
         handler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(moveMessage)));
 
-        verify(puzzleService).movePiece(eq("test-session-id"), eq(0), eq(200.0), eq(300.0), eq(testUser.getId()));
+        verify(puzzleService).movePiece(eq("test-session-id"), eq(0), eq(200.0), eq(300.0), eq(testUser.getHandle()));
     }
 
     @Test
@@ -135,11 +165,11 @@ public class PuzzleWebSocketHandlerTest {
             lockData
         );
 
-        when(puzzleService.lockPiece(eq("test-session-id"), eq(0), eq(testUser.getId()))).thenReturn(true);
+        when(puzzleService.lockPiece(eq("test-session-id"), eq(0), eq(testUser.getHandle()))).thenReturn(true);
 
         handler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(lockMessage)));
 
-        verify(puzzleService).lockPiece(eq("test-session-id"), eq(0), eq(testUser.getId()));
+        verify(puzzleService).lockPiece(eq("test-session-id"), eq(0), eq(testUser.getHandle()));
     }
 
     @Test
@@ -166,7 +196,7 @@ public class PuzzleWebSocketHandlerTest {
 
         handler.handleTextMessage(session, new TextMessage(objectMapper.writeValueAsString(unlockMessage)));
 
-        verify(puzzleService).unlockPiece(eq("test-session-id"), eq(0), eq(testUser.getId()));
+        verify(puzzleService).unlockPiece(eq("test-session-id"), eq(0), eq(testUser.getHandle()));
     }
 
     @Test
@@ -0,0 +1,147 @@
+package com.puzzle.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.puzzle.admission.InboundRateLimiter;
+import com.puzzle.capture.TrafficRecorder;
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.presence.PresenceService;
+import com.puzzle.profiling.FlightEvents;
+import com.puzzle.service.LiveSessionCache;
+import com.puzzle.service.PuzzleService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class PuzzleWebSocketHeartbeatTest {
+
+    private PuzzleService puzzleService;
+    private LiveSessionCache liveSessions;
+    private SimpleMeterRegistry registry;
+    private PuzzleWebSocketHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        puzzleService = mock(PuzzleService.class);
+        liveSessions = mock(LiveSessionCache.class);
+        registry = new SimpleMeterRegistry();
+        handler = new PuzzleWebSocketHandler();
+        ReflectionTestUtils.setField(handler, "puzzleService", puzzleService);
+        ReflectionTestUtils.setField(handler, "presenceService", mock(PresenceService.class));
+        ReflectionTestUtils.setField(handler, "liveSessions", liveSessions);
+        ReflectionTestUtils.setField(handler, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(handler, "recorder", mock(TrafficRecorder.class));
+        ReflectionTestUtils.setField(handler, "cluster", new ClusterMembership());
+        ReflectionTestUtils.setField(handler, "rateLimiter", new InboundRateLimiter());
+        ReflectionTestUtils.setField(handler, "events", mock(FlightEvents.class));
+        ReflectionTestUtils.setField(handler, "latency", mock(LatencyMonitor.class));
+        ReflectionTestUtils.setField(handler, "meterRegistry", registry);
+        ReflectionTestUtils.setField(handler, "heartbeatTimeout", 50L);
+        handler.registerMetrics();
+
+        PuzzleSession session = new PuzzleSession();
+        session.setId("s1");
+        session.getUsers().put("alive", user("alive", 1));
+        session.getUsers().put("dead", user("dead", 2));
+        when(puzzleService.getSession("s1")).thenReturn(session);
+    }
+
+    @Test
+    void testSilentConnectionsAreReclaimedAndAnsweringOnesPinged() throws Exception {
+        FakeConnection alive = new FakeConnection("a");
+        FakeConnection dead = new FakeConnection("d");
+        handler.connect(alive, "s1", "alive");
+        handler.connect(dead, "s1", "dead");
+
+        handler.ping();
+        Thread.sleep(100);
+        handler.pong("a", ByteBuffer.allocate(0));
+        handler.reclaimDead();
+
+        assertTrue(dead.closed);
+        // Removed from the session, so the client must join it again if it is still there
+        assertTrue(dead.rejoinRequested);
+        assertFalse(alive.closed);
+        assertEquals(1, handler.getConnectionCount());
+        assertEquals(1, alive.pings);
+        verify(puzzleService).leaveSession("s1", "dead");
+        assertTrue(alive.text.get(alive.text.size() - 1).contains("USER_LEAVE"));
+        assertEquals(1.0, registry.get("puzzle.websocket.reclaimed").tag("reason", "timeout").functionCounter().count());
+
+        // The room is released once its last connection is reclaimed
+        verify(liveSessions, never()).hibernateIfIdle("s1");
+        handler.ping();
+        Thread.sleep(100);
+        handler.reclaimDead();
+        assertEquals(0, handler.getActiveRoomCount());
+        verify(liveSessions).hibernateIfIdle("s1");
+    }
+
+    @Test
+    void testConnectionsClosedBehindTheHandlersBackAreReclaimed() throws Exception {
+        FakeConnection connection = new FakeConnection("c");
+        handler.connect(connection, "s1", "alive");
+        connection.open = false;
+
+        handler.reclaimDead();
+
+        assertEquals(0, handler.getConnectionCount());
+        assertEquals(1.0, registry.get("puzzle.websocket.reclaimed").tag("reason", "closed").functionCounter().count());
+    }
+
+    @Test
+    void testConnectionsWithQueuedMessagesAreNotPinged() throws Exception {
+        FakeConnection idle = new FakeConnection("i");
+        FakeConnection backlogged = new FakeConnection("b");
+        handler.connect(idle, "s1", "alive");
+        handler.connect(backlogged, "s1", "dead");
+        backlogged.buffered = 1024;
+
+        handler.ping();
+
+        assertEquals(1, idle.pings);
+        assertEquals(0, backlogged.pings);
+    }
+
+    @Test
+    void testLiveClientWithABusyQueueIsNotTimedOut() throws Exception {
+        FakeConnection spectator = new FakeConnection("s");
+        handler.connect(spectator, "s1", "alive");
+        // Never idle at a ping tick, so never pinged and never given a ping to answer
+        spectator.buffered = 1024;
+
+        for (int tick = 0; tick < 3; tick++) {
+            handler.ping();
+            Thread.sleep(30);
+        }
+        handler.reclaimDead();
+
+        assertFalse(spectator.closed);
+        assertEquals(1, handler.getConnectionCount());
+        verify(puzzleService, never()).leaveSession("s1", "alive");
+
+        // Once its queue drains it is pinged, and it is only timed out if that goes unanswered
+        spectator.buffered = 0;
+        handler.ping();
+        handler.reclaimDead();
+        assertFalse(spectator.closed);
+        Thread.sleep(100);
+        handler.reclaimDead();
+        assertTrue(spectator.closed);
+    }
+
+    private static User user(String id, int handle) {
+        User user = new User();
+        user.setId(id);
+        user.setHandle(handle);
+        user.setName(id);
+        return user;
+    }
+}
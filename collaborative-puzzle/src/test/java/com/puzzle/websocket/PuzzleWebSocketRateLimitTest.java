@@ -0,0 +1,97 @@
+package com.puzzle.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.puzzle.capture.TrafficRecorder;
+import com.puzzle.cluster.ClusterMembership;
+import com.puzzle.admission.InboundRateLimiter;
+import com.puzzle.model.PuzzleSession;
+import com.puzzle.model.User;
+import com.puzzle.presence.PresenceService;
+import com.puzzle.profiling.FlightEvents;
+import com.puzzle.service.LiveSessionCache;
+import com.puzzle.service.PuzzleService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PuzzleWebSocketRateLimitTest {
+
+    private PuzzleService puzzleService;
+    private PuzzleWebSocketHandler handler;
+    private final List<Runnable> coalesceTasks = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        puzzleService = mock(PuzzleService.class);
+        // One message of each limited kind at once, and practically no refill
+        InboundRateLimiter rateLimiter = new InboundRateLimiter();
+        ReflectionTestUtils.setField(rateLimiter, "enabled", true);
+        for (String bucket : List.of("pieceMove", "cursorMove", "viewport")) {
+            ReflectionTestUtils.setField(rateLimiter, bucket + "Rate", 0.001);
+            ReflectionTestUtils.setField(rateLimiter, bucket + "Burst", 1.0);
+        }
+        handler = new PuzzleWebSocketHandler();
+        ReflectionTestUtils.setField(handler, "puzzleService", puzzleService);
+        ReflectionTestUtils.setField(handler, "presenceService", mock(PresenceService.class));
+        ReflectionTestUtils.setField(handler, "liveSessions", mock(LiveSessionCache.class));
+        ReflectionTestUtils.setField(handler, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(handler, "rateLimiter", rateLimiter);
+        ReflectionTestUtils.setField(handler, "recorder", mock(TrafficRecorder.class));
+        ReflectionTestUtils.setField(handler, "cluster", new ClusterMembership());
+        ReflectionTestUtils.setField(handler, "events", mock(FlightEvents.class));
+        ReflectionTestUtils.setField(handler, "latency", mock(LatencyMonitor.class));
+        ReflectionTestUtils.setField(handler, "websocketExecutor", (Executor) coalesceTasks::add);
+
+        PuzzleSession session = new PuzzleSession();
+        session.setId("s1");
+        User user = new User();
+        user.setId("u1");
+        user.setHandle(1);
+        user.setName("u1");
+        session.getUsers().put("u1", user);
+        when(puzzleService.getSession("s1")).thenReturn(session);
+
+        handler.connect(new FakeConnection("c"), "s1", "u1");
+    }
+
+    @Test
+    void testReleaseOverTheLimitStillPlacesThePiece() throws Exception {
+        handler.receive("c", "{\"type\":\"VIEWPORT_UPDATE\",\"data\":{\"x\":0,\"y\":0,\"width\":800,\"height\":600}}");
+        handler.receive("c", "{\"type\":\"VIEWPORT_UPDATE\",\"data\":{\"x\":10,\"y\":0,\"width\":800,\"height\":600}}");
+        handler.receive("c", "{\"type\":\"PIECE_LOCK\",\"data\":{\"pieceId\":4}}");
+        handler.receive("c", "{\"type\":\"PIECE_MOVE\",\"data\":{\"pieceId\":4,\"x\":100,\"y\":100}}");
+        handler.receive("c", "{\"type\":\"PIECE_MOVE\",\"data\":{\"pieceId\":4,\"x\":150,\"y\":150}}");
+        handler.receive("c", "{\"type\":\"PIECE_RELEASE\",\"data\":{\"pieceId\":4,\"x\":200,\"y\":200}}");
+        handler.receive("c", "{\"type\":\"PIECE_UNLOCK\",\"data\":{\"pieceId\":5}}");
+
+        verify(puzzleService).lockPiece("s1", 4, 1);
+        verify(puzzleService).releasePiece("s1", 4, 200.0, 200.0, 1);
+        verify(puzzleService).unlockPiece("s1", 5, 1);
+        // Only position updates are held back by the limit
+        verify(puzzleService, times(1)).movePiece(eq("s1"), eq(4), anyDouble(), anyDouble(), eq(1));
+    }
+
+    @Test
+    void testHeldBackUpdatesAreAppliedOffTheSchedulerOneAtATime() throws Exception {
+        handler.receive("c", "{\"type\":\"PIECE_MOVE\",\"data\":{\"pieceId\":4,\"x\":100,\"y\":100}}");
+        handler.receive("c", "{\"type\":\"PIECE_MOVE\",\"data\":{\"pieceId\":4,\"x\":150,\"y\":150}}");
+
+        handler.applyCoalesced();
+        handler.applyCoalesced();
+        assertEquals(1, coalesceTasks.size());
+
+        // Still over the limit, so the move stays held back for a later run
+        coalesceTasks.remove(0).run();
+        verify(puzzleService, times(1)).movePiece(eq("s1"), eq(4), anyDouble(), anyDouble(), eq(1));
+        handler.applyCoalesced();
+        assertEquals(1, coalesceTasks.size());
+    }
+}
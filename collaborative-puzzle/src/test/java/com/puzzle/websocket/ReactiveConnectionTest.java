@@ -0,0 +1,52 @@
+package com.puzzle.websocket;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ReactiveConnectionTest {
+
+    @Test
+    void testBufferedMessagesAreDeliveredInOrder() {
+        WebSocketSession session = mock(WebSocketSession.class);
+        ReactiveConnection connection = new ReactiveConnection(session, 8);
+
+        connection.send("a");
+        connection.send("b");
+        connection.complete();
+        connection.send("dropped after close");
+
+        assertEquals(List.of("a", "b"), connection.outbound().collectList().block(Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void testSlowClientIsDisconnectedWhenBufferOverflows() {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        when(session.close(any(CloseStatus.class))).thenReturn(Mono.empty());
+        ReactiveConnection connection = new ReactiveConnection(session, 8);
+
+        // Subscribed but never requesting, like a client that stopped reading
+        connection.outbound().subscribe(new BaseSubscriber<String>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+            }
+        });
+        for (int i = 0; i < 9; i++) {
+            connection.send("message " + i);
+        }
+
+        assertFalse(connection.isOpen());
+        verify(session).close(CloseStatus.POLICY_VIOLATION);
+    }
+}
@@ -4,7 +4,7 @@ echo "Testing Collaborative Puzzle API..."
 
 # Health check
 echo -e "\n1. Testing health endpoint:"
-curl -s http://localhost:8080/actuator/health | jq . || echo "Health endpoint not available"
+curl -s http://localhost:8080/healthz | jq . || echo "Health endpoint not available"
 
 # Use existing test image
 echo -e "\n2. Using test image (cat.jpeg)..."